@@ -17,11 +17,24 @@
 
 package io.bitsquare.app.cli;
 
+import io.bitsquare.app.BitsquareEnvironment;
+import io.bitsquare.msg.tomp2p.InboundMessageGate;
+import io.bitsquare.msg.tomp2p.PayloadCompression;
 import io.bitsquare.network.Node;
+import io.bitsquare.network.tomp2p.MessageMetrics;
+import io.bitsquare.network.tomp2p.NetworkEventExecutorGroup;
+import io.bitsquare.network.tomp2p.PeerRequestLimiter;
+import io.bitsquare.network.tomp2p.PersistentStorage;
+import io.bitsquare.offer.tomp2p.OfferBookSnapshotService;
+import io.bitsquare.util.DSAKeyUtil;
+
+import java.io.File;
+import java.io.IOException;
 
 import net.tomp2p.connection.ChannelClientConfiguration;
 import net.tomp2p.connection.ChannelServerConfiguration;
 import net.tomp2p.dht.PeerBuilderDHT;
+import net.tomp2p.dht.PeerDHT;
 import net.tomp2p.nat.PeerBuilderNAT;
 import net.tomp2p.p2p.Peer;
 import net.tomp2p.p2p.PeerBuilder;
@@ -32,17 +45,22 @@ import net.tomp2p.peers.PeerStatistic;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-
-import io.netty.util.concurrent.DefaultEventExecutorGroup;
 import org.springframework.core.env.Environment;
 
 public class BootstrapNode {
     private static final Logger log = LoggerFactory.getLogger(BootstrapNode.class);
 
+    static final String MAX_CONNECTIONS_KEY = "node.maxConnections";
+    static final int DEFAULT_MAX_CONNECTIONS = 1000;
+
     private static Peer peer = null;
-    private static boolean running = true;
 
     private final Environment env;
+    private PeerDHT peerDHT;
+    private PersistentStorage storage;
+    private PeerRequestLimiter requestLimiter;
+    private OfferBookSnapshotService snapshotService;
+    private BootstrapNodeMetrics metrics;
 
     public BootstrapNode(Environment env) {
         this.env = env;
@@ -55,28 +73,63 @@ public class BootstrapNode {
         try {
             Number160 peerId = Number160.createHash(name);
 
-            DefaultEventExecutorGroup eventExecutorGroup = new DefaultEventExecutorGroup(250);
+            NetworkEventExecutorGroup.Role role = NetworkEventExecutorGroup.Role.BOOTSTRAP_NODE;
+            NetworkEventExecutorGroup eventExecutorGroup = new NetworkEventExecutorGroup(role,
+                    env.getProperty(NetworkEventExecutorGroup.THREADS_KEY, Integer.class,
+                            role.threadCount(Runtime.getRuntime().availableProcessors())));
             ChannelClientConfiguration clientConf = PeerBuilder.createDefaultChannelClientConfiguration();
-            clientConf.pipelineFilter(new PeerBuilder.EventExecutorGroupFilter(eventExecutorGroup));
-
             ChannelServerConfiguration serverConf = PeerBuilder.createDefaultChannelServerConfiguration();
-            serverConf.pipelineFilter(new PeerBuilder.EventExecutorGroupFilter(eventExecutorGroup));
+            MessageMetrics messageMetrics = new MessageMetrics(eventExecutorGroup.pipelineFilter());
+            requestLimiter = new PeerRequestLimiter(messageMetrics,
+                    env.getProperty(PeerRequestLimiter.RATE_KEY, Integer.class, PeerRequestLimiter.DEFAULT_RATE));
+            clientConf.pipelineFilter(messageMetrics);
+            serverConf.pipelineFilter(requestLimiter);
             serverConf.connectionTimeoutTCPMillis(5000);
+            int maxConnections = env.getProperty(MAX_CONNECTIONS_KEY, Integer.class, DEFAULT_MAX_CONNECTIONS);
+            serverConf.maxTCPIncomingConnections(maxConnections);
+            serverConf.maxUDPIncomingConnections(maxConnections);
 
             peer = new PeerBuilder(peerId)
                     .ports(port)
                     .channelClientConfiguration(clientConf)
                     .channelServerConfiguration(serverConf)
                     .start();
-            
-            /*peer.objectDataReply((sender, request) -> {
-                log.trace("received request: " + request.toString());
-                return "pong";
-            });*/
 
-            new PeerBuilderDHT(peer).start();
+            File storageDir = new File(env.getProperty(PersistentStorage.DIR_KEY,
+                    env.getRequiredProperty(BitsquareEnvironment.APP_DATA_DIR_KEY) + File.separator + "dht"));
+            storage = new PersistentStorage(storageDir,
+                    env.getProperty(PersistentStorage.MAX_ENTRIES_PER_LOCATION_KEY_KEY, Integer.class,
+                            PersistentStorage.DEFAULT_MAX_ENTRIES_PER_LOCATION_KEY),
+                    env.getProperty(PersistentStorage.MAX_BYTES_PER_LOCATION_KEY_KEY, Long.class,
+                            PersistentStorage.DEFAULT_MAX_BYTES_PER_LOCATION_KEY),
+                    env.getProperty(PersistentStorage.MAX_BYTES_KEY, Long.class, PersistentStorage.DEFAULT_MAX_BYTES));
+            peerDHT = new PeerBuilderDHT(peer).storage(storage).start();
             new PeerBuilderNAT(peer).start();
 
+            PayloadCompression payloadCompression = new PayloadCompression(true, PayloadCompression.DEFAULT_THRESHOLD);
+            snapshotService = new OfferBookSnapshotService(peerDHT,
+                    DSAKeyUtil.loadOrCreateKeyPair(new File(storageDir, "snapshot.key")), payloadCompression);
+            snapshotService.start();
+            // Same limit as clients apply to direct messages
+            int maxMessageSize = env.getProperty(InboundMessageGate.MAX_MESSAGE_SIZE_KEY, Integer.class,
+                    InboundMessageGate.DEFAULT_MAX_MESSAGE_SIZE);
+            peer.objectDataReply((sender, request) -> {
+                log.trace("received request: " + request.toString());
+                if (request instanceof byte[] && ((byte[]) request).length > maxMessageSize) {
+                    log.warn("Dropped request of " + ((byte[]) request).length + " bytes from " + sender);
+                    return null;
+                }
+
+                Object decoded;
+                try {
+                    decoded = payloadCompression.decode(request, maxMessageSize);
+                } catch (IOException e) {
+                    log.warn("Dropped request from " + sender + ". " + e.getMessage());
+                    return null;
+                }
+                return snapshotService.handle(sender, decoded);
+            });
+
             peer.peerBean().peerMap().addPeerMapChangeListener(new PeerMapChangeListener() {
                 @Override
                 public void peerInserted(PeerAddress peerAddress, boolean verified) {
@@ -95,23 +148,36 @@ public class BootstrapNode {
             });
 
             log.info("Bootstrap node started with name " + name + " and port " + port);
-            new Thread(() -> {
-                while (running) {
-                    log.info("List of all peers online ----------------------------");
-                    for (PeerAddress peerAddress : peer.peerBean().peerMap().all()) {
-                        log.info(peerAddress.toString());
-                    }
-                    try {
-                        Thread.sleep(60000);
-                    } catch (InterruptedException e) {
-                        return;
-                    }
-                }
-            }).start();
+            metrics = new BootstrapNodeMetrics(peer, eventExecutorGroup, messageMetrics, requestLimiter, storage);
+            metrics.start(
+                    env.getProperty(BootstrapNodeMetrics.PORT_KEY, Integer.class, BootstrapNodeMetrics.DEFAULT_PORT));
 
         } catch (Exception e) {
+            log.error("Bootstrap node could not be started: " + e.getMessage());
             if (peer != null)
                 peer.shutdown().awaitUninterruptibly();
         }
     }
+
+    public void shutDown() {
+        if (metrics != null)
+            metrics.stop();
+        if (snapshotService != null)
+            snapshotService.shutDown();
+        if (peerDHT != null)
+            peerDHT.shutdown().awaitUninterruptibly();
+        else if (peer != null)
+            peer.shutdown().awaitUninterruptibly();
+        // Flushes the journal and writes the final snapshot
+        if (storage != null)
+            storage.close();
+    }
+
+    PersistentStorage getStorage() {
+        return storage;
+    }
+
+    PeerRequestLimiter getRequestLimiter() {
+        return requestLimiter;
+    }
 }
@@ -20,6 +20,8 @@ package io.bitsquare.app.cli;
 import io.bitsquare.app.BitsquareEnvironment;
 import io.bitsquare.app.BitsquareExecutable;
 import io.bitsquare.network.Node;
+import io.bitsquare.network.tomp2p.PeerRequestLimiter;
+import io.bitsquare.network.tomp2p.PersistentStorage;
 
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
@@ -37,9 +39,41 @@ public class BootstrapNodeMain extends BitsquareExecutable {
         parser.accepts(Node.PORT_KEY, description("Port to listen on", Node.DEFAULT_PORT))
                 .withRequiredArg()
                 .ofType(int.class);
+        parser.accepts(PersistentStorage.DIR_KEY, description("Directory of the DHT storage",
+                "<app.data.dir>/dht"))
+                .withRequiredArg();
+        parser.accepts(BootstrapNode.MAX_CONNECTIONS_KEY, description("Maximum number of incoming connections",
+                BootstrapNode.DEFAULT_MAX_CONNECTIONS))
+                .withRequiredArg()
+                .ofType(int.class);
+        parser.accepts(PeerRequestLimiter.RATE_KEY, description("Maximum requests per second from one host",
+                PeerRequestLimiter.DEFAULT_RATE))
+                .withRequiredArg()
+                .ofType(int.class);
+        parser.accepts(PersistentStorage.MAX_ENTRIES_PER_LOCATION_KEY_KEY,
+                description("Maximum number of DHT entries per location key",
+                        PersistentStorage.DEFAULT_MAX_ENTRIES_PER_LOCATION_KEY))
+                .withRequiredArg()
+                .ofType(int.class);
+        parser.accepts(PersistentStorage.MAX_BYTES_PER_LOCATION_KEY_KEY,
+                description("Maximum size of the DHT entries of one location key in bytes",
+                        PersistentStorage.DEFAULT_MAX_BYTES_PER_LOCATION_KEY))
+                .withRequiredArg()
+                .ofType(long.class);
+        parser.accepts(PersistentStorage.MAX_BYTES_KEY, description("Maximum size of the DHT storage in bytes",
+                PersistentStorage.DEFAULT_MAX_BYTES))
+                .withRequiredArg()
+                .ofType(long.class);
+        parser.accepts(BootstrapNodeMetrics.PORT_KEY, description("Local port of the metrics endpoint, 0 to disable",
+                BootstrapNodeMetrics.DEFAULT_PORT))
+                .withRequiredArg()
+                .ofType(int.class);
     }
 
     protected void doExecute(OptionSet options) {
-        new BootstrapNode(new BitsquareEnvironment(options)).start();
+        BootstrapNode bootstrapNode = new BootstrapNode(new BitsquareEnvironment(options));
+        // The DHT storage is only complete on disk after it has been closed
+        Runtime.getRuntime().addShutdownHook(new Thread(bootstrapNode::shutDown, "BootstrapNodeShutdown"));
+        bootstrapNode.start();
     }
 }
@@ -0,0 +1,244 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.app.cli;
+
+import io.bitsquare.network.tomp2p.MessageMetrics;
+import io.bitsquare.network.tomp2p.NetworkEventExecutorGroup;
+import io.bitsquare.network.tomp2p.PeerRequestLimiter;
+import io.bitsquare.network.tomp2p.PersistentStorage;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import net.tomp2p.p2p.Peer;
+import net.tomp2p.peers.Number160;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves the metrics of a bootstrap node as JSON at http://localhost:port/metrics: the number of peers over the last
+ * hour, message counts and response latencies by command, dropped requests, the size of the DHT storage by location
+ * key with its evictions and the utilisation of the network threads. The endpoint is bound to the loopback interface only.
+ */
+class BootstrapNodeMetrics {
+    private static final Logger log = LoggerFactory.getLogger(BootstrapNodeMetrics.class);
+
+    static final String PORT_KEY = "metrics.port";
+    static final int DEFAULT_PORT = 7380;
+
+    static final int SAMPLE_PERIOD_SECONDS = 60;
+    // One hour of samples
+    static final int MAX_SAMPLES = 60;
+
+    private static class Sample {
+        private final long time;
+        private final int peers;
+        private final long inboundMessages;
+        private final long outboundMessages;
+
+        private Sample(long time, int peers, long inboundMessages, long outboundMessages) {
+            this.time = time;
+            this.peers = peers;
+            this.inboundMessages = inboundMessages;
+            this.outboundMessages = outboundMessages;
+        }
+    }
+
+    private final Peer peer;
+    private final NetworkEventExecutorGroup eventExecutorGroup;
+    private final MessageMetrics messageMetrics;
+    private final PeerRequestLimiter requestLimiter;
+    private final PersistentStorage storage;
+
+    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    private final Deque<Sample> samples = new ArrayDeque<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("Metrics").setDaemon(true).build());
+    private HttpServer server;
+
+    BootstrapNodeMetrics(Peer peer, NetworkEventExecutorGroup eventExecutorGroup, MessageMetrics messageMetrics,
+                         PeerRequestLimiter requestLimiter, PersistentStorage storage) {
+        this.peer = peer;
+        this.eventExecutorGroup = eventExecutorGroup;
+        this.messageMetrics = messageMetrics;
+        this.requestLimiter = requestLimiter;
+        this.storage = storage;
+    }
+
+    /**
+     * Starts sampling, and serving the metrics on the given port unless it is 0.
+     */
+    void start(int port) throws IOException {
+        scheduler.scheduleAtFixedRate(this::sample, 0, SAMPLE_PERIOD_SECONDS, TimeUnit.SECONDS);
+
+        if (port != 0) {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+            server.createContext("/metrics", this::handle);
+            server.setExecutor(scheduler);
+            server.start();
+            log.info("Metrics available at http://localhost:" + port + "/metrics");
+        }
+    }
+
+    void stop() {
+        if (server != null)
+            server.stop(0);
+        scheduler.shutdownNow();
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private void sample() {
+        try {
+            Sample sample = new Sample(System.currentTimeMillis(), peer.peerBean().peerMap().all().size(),
+                    messageMetrics.getMessages(MessageMetrics.Direction.INBOUND),
+                    messageMetrics.getMessages(MessageMetrics.Direction.OUTBOUND));
+            Sample previous;
+            synchronized (samples) {
+                previous = samples.peekLast();
+                samples.addLast(sample);
+                if (samples.size() > MAX_SAMPLES)
+                    samples.removeFirst();
+            }
+
+            log.info("Peers: " + sample.peers +
+                    (previous != null ? ", messages in/out since last sample: " +
+                            (sample.inboundMessages - previous.inboundMessages) + "/" +
+                            (sample.outboundMessages - previous.outboundMessages) : "") +
+                    ", network event executor: " + eventExecutorGroup.getStatistics());
+        } catch (Throwable t) {
+            log.error("Sampling metrics failed: " + t.getMessage());
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        byte[] response;
+        int status;
+        try {
+            response = gson.toJson(collect()).getBytes(StandardCharsets.UTF_8);
+            status = 200;
+        } catch (Throwable t) {
+            log.error("Collecting metrics failed: " + t.getMessage());
+            response = String.valueOf(t.getMessage()).getBytes(StandardCharsets.UTF_8);
+            status = 500;
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, response.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(response);
+        }
+    }
+
+    private Map<String, Object> collect() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+
+        List<Map<String, Object>> peerHistory = new ArrayList<>();
+        Sample previous = null;
+        synchronized (samples) {
+            for (Sample sample : samples) {
+                Map<String, Object> entry = new LinkedHashMap<>();
+                entry.put("time", sample.time);
+                entry.put("peers", sample.peers);
+                if (previous != null) {
+                    entry.put("inboundMessages", sample.inboundMessages - previous.inboundMessages);
+                    entry.put("outboundMessages", sample.outboundMessages - previous.outboundMessages);
+                }
+                peerHistory.add(entry);
+                previous = sample;
+            }
+        }
+        metrics.put("peers", peer.peerBean().peerMap().all().size());
+        metrics.put("history", peerHistory);
+
+        Map<String, Object> messages = new LinkedHashMap<>();
+        messageMetrics.getCounters().forEach((name, counter) -> {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("messages", counter.getMessages());
+            if (counter.getResponses() > 0) {
+                entry.put("responses", counter.getResponses());
+                entry.put("avgLatencyMillis", counter.getAverageLatencyMillis());
+                entry.put("maxLatencyMillis", counter.getMaxLatencyMillis());
+            }
+            messages.put(name, entry);
+        });
+        metrics.put("messages", messages);
+
+        Map<String, Object> limiter = new LinkedHashMap<>();
+        limiter.put("droppedRequests", requestLimiter.getDroppedRequests());
+        limiter.put("trackedHosts", requestLimiter.getTrackedHosts());
+        metrics.put("requestLimiter", limiter);
+
+        Map<String, Object> storageMetrics = new LinkedHashMap<>();
+        int entries = 0;
+        Map<String, Object> locationKeys = new LinkedHashMap<>();
+        for (Map.Entry<Number160, PersistentStorage.LocationKeyStatistics> entry :
+                storage.getLocationKeyStatistics().entrySet()) {
+            Map<String, Object> locationKey = new LinkedHashMap<>();
+            locationKey.put("entries", entry.getValue().getEntries());
+            locationKey.put("bytes", entry.getValue().getBytes());
+            locationKeys.put(entry.getKey().toString(), locationKey);
+            entries += entry.getValue().getEntries();
+        }
+        storageMetrics.put("entries", entries);
+        storageMetrics.put("bytes", storage.getTotalBytes());
+        storageMetrics.put("evictions", storage.getEvictions());
+        storageMetrics.put("rejectedPuts", storage.getRejectedPuts());
+        storageMetrics.put("journalRecords", storage.getJournalRecords());
+        storageMetrics.put("locationKeys", locationKeys);
+        metrics.put("storage", storageMetrics);
+
+        Map<String, Object> executor = new LinkedHashMap<>();
+        executor.put("threads", eventExecutorGroup.executorCount());
+        executor.put("utilisation", eventExecutorGroup.getUtilisation());
+        executor.put("completedTasks", eventExecutorGroup.getCompletedTasks());
+        executor.put("pendingTasks", eventExecutorGroup.getPendingTasks());
+        executor.put("avgQueueLatencyMicros", eventExecutorGroup.getAverageQueueLatencyMicros());
+        executor.put("maxQueueLatencyMicros", eventExecutorGroup.getMaxQueueLatencyMicros());
+        metrics.put("executor", executor);
+
+        return metrics;
+    }
+}
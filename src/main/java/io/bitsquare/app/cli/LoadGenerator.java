@@ -0,0 +1,501 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.app.cli;
+
+import io.bitsquare.bank.BankAccountType;
+import io.bitsquare.locale.Country;
+import io.bitsquare.locale.Region;
+import io.bitsquare.msg.tomp2p.PayloadCompression;
+import io.bitsquare.msg.tomp2p.TomP2PNode;
+import io.bitsquare.network.Node;
+import io.bitsquare.network.tomp2p.PeerRequestLimiter;
+import io.bitsquare.network.tomp2p.PersistentStorage;
+import io.bitsquare.offer.Direction;
+import io.bitsquare.offer.Offer;
+import io.bitsquare.offer.tomp2p.OfferBookSnapshotRequest;
+import io.bitsquare.util.DSAKeyUtil;
+
+import org.bitcoinj.core.Coin;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.IOException;
+
+import java.net.InetAddress;
+
+import java.nio.file.Files;
+
+import java.security.KeyPair;
+import java.security.PublicKey;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.tomp2p.dht.FutureGet;
+import net.tomp2p.dht.FuturePut;
+import net.tomp2p.dht.FutureRemove;
+import net.tomp2p.dht.PeerBuilderDHT;
+import net.tomp2p.dht.PeerDHT;
+import net.tomp2p.futures.BaseFuture;
+import net.tomp2p.futures.BaseFutureAdapter;
+import net.tomp2p.futures.FutureBootstrap;
+import net.tomp2p.futures.FutureDirect;
+import net.tomp2p.p2p.Peer;
+import net.tomp2p.p2p.PeerBuilder;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.storage.Data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.PropertiesPropertySource;
+import org.springframework.core.env.PropertySource;
+
+/**
+ * Generates offer book load against a bootstrap node running in the same process. A number of peers on the loopback
+ * interface publish and remove offers at a fixed rate with the same DHT operations the TomP2POfferRepository uses,
+ * while readers fetch the offer book from the DHT and snapshot readers request offer book snapshots from the
+ * bootstrap node. The result is a report with the throughput, the latencies and the payload sizes of each operation.
+ */
+class LoadGenerator {
+    private static final Logger log = LoggerFactory.getLogger(LoadGenerator.class);
+
+    static final String PEERS_KEY = "load.peers";
+    static final int DEFAULT_PEERS = 10;
+    static final String INITIAL_OFFERS_KEY = "load.initialOffers";
+    static final int DEFAULT_INITIAL_OFFERS = 1000;
+    static final String PUBLISH_RATE_KEY = "load.publishRate";
+    static final int DEFAULT_PUBLISH_RATE = 20;
+    static final String REMOVE_RATE_KEY = "load.removeRate";
+    static final int DEFAULT_REMOVE_RATE = 10;
+    static final String READERS_KEY = "load.readers";
+    static final int DEFAULT_READERS = 4;
+    static final String SNAPSHOT_READERS_KEY = "load.snapshotReaders";
+    static final int DEFAULT_SNAPSHOT_READERS = 1;
+    static final String DURATION_KEY = "load.duration";
+    static final int DEFAULT_DURATION_SECONDS = 60;
+    static final String CURRENCY_KEY = "load.currency";
+    static final String DEFAULT_CURRENCY = "EUR";
+    static final String REPORT_KEY = "load.report";
+
+    private static final String DEFAULT_PROPERTY_SOURCE_NAME = "loadGeneratorDefaults";
+    private static final String NODE_NAME = "load-bootstrap";
+    // Same as in TomP2POfferRepository
+    private static final int OFFER_TTL_SECONDS = 30 * 24 * 60 * 60;
+    // Limits the operations in flight while the initial offers are published
+    private static final int MAX_PENDING_PUBLISHES = 64;
+    private static final long OPERATION_TIMEOUT_MILLIS = 30_000;
+
+    private static class PublishedOffer {
+        private final TomP2PNode node;
+        private final Offer offer;
+
+        private PublishedOffer(TomP2PNode node, Offer offer) {
+            this.node = node;
+            this.offer = offer;
+        }
+    }
+
+    /**
+     * Counts, latencies and payload sizes of one kind of operation.
+     */
+    static class OperationStatistics {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong entries = new AtomicLong();
+        private final List<Long> latencyMicros = new ArrayList<>();
+
+        void record(long startNanos, long bytes, long entries) {
+            long micros = (System.nanoTime() - startNanos) / 1000;
+            count.incrementAndGet();
+            this.bytes.addAndGet(bytes);
+            this.entries.addAndGet(entries);
+            synchronized (latencyMicros) {
+                latencyMicros.add(micros);
+            }
+        }
+
+        void recordError() {
+            errors.incrementAndGet();
+        }
+
+        Map<String, Object> toMap(double seconds) {
+            List<Long> sorted;
+            synchronized (latencyMicros) {
+                sorted = new ArrayList<>(latencyMicros);
+            }
+            Collections.sort(sorted);
+
+            long operations = count.get();
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("count", operations);
+            map.put("errors", errors.get());
+            map.put("perSecond", seconds > 0 ? operations / seconds : 0);
+            map.put("p50Millis", percentile(sorted, 0.5) / 1000.0);
+            map.put("p99Millis", percentile(sorted, 0.99) / 1000.0);
+            map.put("maxMillis", sorted.isEmpty() ? 0 : sorted.get(sorted.size() - 1) / 1000.0);
+            map.put("averageBytes", operations > 0 ? bytes.get() / operations : 0);
+            if (entries.get() > 0)
+                map.put("averageEntries", entries.get() / operations);
+            return map;
+        }
+
+        private static long percentile(List<Long> sortedValues, double percentile) {
+            if (sortedValues.isEmpty())
+                return 0;
+            int index = (int) Math.ceil(percentile * sortedValues.size()) - 1;
+            return sortedValues.get(Math.max(0, index));
+        }
+    }
+
+    private final Environment env;
+    private final String currencyCode;
+    private final Number160 locationKey;
+    private final Country country = new Country("DE", "Germany", new Region("EU", "Europe"));
+
+    private final List<Peer> peers = new ArrayList<>();
+    private final List<TomP2PNode> nodes = new ArrayList<>();
+    private final List<KeyPair> keyPairs = new ArrayList<>();
+    private final ConcurrentLinkedQueue<PublishedOffer> publishedOffers = new ConcurrentLinkedQueue<>();
+    private final AtomicLong serializedOfferBytes = new AtomicLong();
+    private final AtomicLong storedOfferBytes = new AtomicLong();
+
+    private final OperationStatistics initialPublishStatistics = new OperationStatistics();
+    private final OperationStatistics publishStatistics = new OperationStatistics();
+    private final OperationStatistics removeStatistics = new OperationStatistics();
+    private final OperationStatistics readStatistics = new OperationStatistics();
+    private final OperationStatistics snapshotReadStatistics = new OperationStatistics();
+
+    private volatile boolean running;
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    LoadGenerator(Environment env) {
+        this.env = env;
+        currencyCode = env.getProperty(CURRENCY_KEY, DEFAULT_CURRENCY);
+        locationKey = Number160.createHash(currencyCode);
+    }
+
+    /**
+     * Properties which let the bootstrap node run next to the load generator: a storage in a temporary directory, no
+     * metrics endpoint and no request limit, as all peers share the loopback address.
+     */
+    static PropertySource<?> defaultProperties() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(Node.NAME_KEY, NODE_NAME);
+        properties.setProperty(PersistentStorage.DIR_KEY,
+                Files.createTempDirectory("bitsquare-load").toAbsolutePath().toString());
+        properties.setProperty(BootstrapNodeMetrics.PORT_KEY, "0");
+        properties.setProperty(PeerRequestLimiter.RATE_KEY, String.valueOf(Integer.MAX_VALUE));
+        return new PropertiesPropertySource(DEFAULT_PROPERTY_SOURCE_NAME, properties);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Public methods
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Runs the load and returns the report. Blocks for the configured duration.
+     */
+    public Map<String, Object> run() throws Exception {
+        String name = env.getRequiredProperty(Node.NAME_KEY);
+        int port = env.getProperty(Node.PORT_KEY, Integer.class, Node.DEFAULT_PORT);
+        int peerCount = env.getProperty(PEERS_KEY, Integer.class, DEFAULT_PEERS);
+        int initialOffers = env.getProperty(INITIAL_OFFERS_KEY, Integer.class, DEFAULT_INITIAL_OFFERS);
+        int publishRate = env.getProperty(PUBLISH_RATE_KEY, Integer.class, DEFAULT_PUBLISH_RATE);
+        int removeRate = env.getProperty(REMOVE_RATE_KEY, Integer.class, DEFAULT_REMOVE_RATE);
+        int readers = env.getProperty(READERS_KEY, Integer.class, DEFAULT_READERS);
+        int snapshotReaders = env.getProperty(SNAPSHOT_READERS_KEY, Integer.class, DEFAULT_SNAPSHOT_READERS);
+        int durationSeconds = env.getProperty(DURATION_KEY, Integer.class, DEFAULT_DURATION_SECONDS);
+
+        BootstrapNode bootstrapNode = new BootstrapNode(env);
+        bootstrapNode.start();
+        if (bootstrapNode.getStorage() == null)
+            throw new IllegalStateException("Bootstrap node could not be started");
+
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2,
+                new ThreadFactoryBuilder().setNameFormat("LoadGenerator-scheduler-%d").setDaemon(true).build());
+        ExecutorService readerExecutor = Executors.newCachedThreadPool(
+                new ThreadFactoryBuilder().setNameFormat("LoadGenerator-reader-%d").setDaemon(true).build());
+        try {
+            PeerAddress bootstrapAddress = new PeerAddress(Number160.createHash(name),
+                    InetAddress.getLoopbackAddress(), port, port);
+            startPeers(peerCount, port, bootstrapAddress);
+
+            log.info("Publishing " + initialOffers + " initial offers");
+            publishInitialOffers(initialOffers);
+
+            log.info("Running load for " + durationSeconds + " seconds");
+            running = true;
+            long start = System.nanoTime();
+            if (publishRate > 0)
+                scheduler.scheduleAtFixedRate(() -> publish(publishStatistics),
+                        0, 1_000_000 / publishRate, TimeUnit.MICROSECONDS);
+            if (removeRate > 0)
+                scheduler.scheduleAtFixedRate(this::remove, 0, 1_000_000 / removeRate, TimeUnit.MICROSECONDS);
+            for (int i = 0; i < readers; i++)
+                readerExecutor.execute(this::readLoop);
+            for (int i = 0; i < snapshotReaders; i++)
+                readerExecutor.execute(() -> snapshotReadLoop(bootstrapAddress));
+
+            Thread.sleep(TimeUnit.SECONDS.toMillis(durationSeconds));
+            running = false;
+            scheduler.shutdown();
+            readerExecutor.shutdown();
+            readerExecutor.awaitTermination(OPERATION_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            Map<String, Object> report = new LinkedHashMap<>();
+            Map<String, Object> configuration = new LinkedHashMap<>();
+            configuration.put("peers", peerCount);
+            configuration.put("initialOffers", initialOffers);
+            configuration.put("publishRate", publishRate);
+            configuration.put("removeRate", removeRate);
+            configuration.put("readers", readers);
+            configuration.put("snapshotReaders", snapshotReaders);
+            configuration.put("durationSeconds", durationSeconds);
+            configuration.put("currency", currencyCode);
+            report.put("configuration", configuration);
+
+            Map<String, Object> operations = new LinkedHashMap<>();
+            operations.put("initialPublish", initialPublishStatistics.toMap(0));
+            operations.put("publish", publishStatistics.toMap(seconds));
+            operations.put("remove", removeStatistics.toMap(seconds));
+            operations.put("read", readStatistics.toMap(seconds));
+            operations.put("snapshotRead", snapshotReadStatistics.toMap(seconds));
+            report.put("operations", operations);
+
+            long publishedCount = initialPublishStatistics.count.get() + publishStatistics.count.get();
+            Map<String, Object> payloads = new LinkedHashMap<>();
+            payloads.put("averageSerializedOfferBytes",
+                    publishedCount > 0 ? serializedOfferBytes.get() / publishedCount : 0);
+            payloads.put("averageStoredOfferBytes", publishedCount > 0 ? storedOfferBytes.get() / publishedCount : 0);
+            report.put("payloads", payloads);
+
+            PersistentStorage storage = bootstrapNode.getStorage();
+            Map<String, Object> bootstrapNodeReport = new LinkedHashMap<>();
+            bootstrapNodeReport.put("storedBytes", storage.getTotalBytes());
+            PersistentStorage.LocationKeyStatistics offerBook = storage.getLocationKeyStatistics().get(locationKey);
+            bootstrapNodeReport.put("offerBookEntries", offerBook != null ? offerBook.getEntries() : 0);
+            bootstrapNodeReport.put("offerBookBytes", offerBook != null ? offerBook.getBytes() : 0);
+            bootstrapNodeReport.put("evictions", storage.getEvictions());
+            bootstrapNodeReport.put("rejectedPuts", storage.getRejectedPuts());
+            bootstrapNodeReport.put("droppedRequests", bootstrapNode.getRequestLimiter().getDroppedRequests());
+            report.put("bootstrapNode", bootstrapNodeReport);
+            return report;
+        } finally {
+            running = false;
+            scheduler.shutdownNow();
+            readerExecutor.shutdownNow();
+            peers.stream().forEach(peer -> peer.shutdown().awaitUninterruptibly());
+            bootstrapNode.shutDown();
+        }
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private void startPeers(int peerCount, int port, PeerAddress bootstrapAddress) throws IOException {
+        for (int i = 0; i < peerCount; i++) {
+            Peer peer = new PeerBuilder(Number160.createHash("load-peer-" + i)).ports(port + 1 + i).start();
+            peers.add(peer);
+            PeerDHT peerDHT = new PeerBuilderDHT(peer).start();
+            FutureBootstrap futureBootstrap = peer.bootstrap().peerAddress(bootstrapAddress).start();
+            futureBootstrap.awaitUninterruptibly();
+            if (!futureBootstrap.isSuccess())
+                throw new IOException("Peer " + i + " could not bootstrap: " + futureBootstrap.failedReason());
+            KeyPair keyPair = DSAKeyUtil.generateKeyPair();
+            keyPairs.add(keyPair);
+            nodes.add(new TomP2PNode(keyPair, peerDHT));
+        }
+        log.info(peerCount + " peers bootstrapped");
+    }
+
+    private void publishInitialOffers(int count) throws InterruptedException {
+        Semaphore pending = new Semaphore(MAX_PENDING_PUBLISHES);
+        for (int i = 0; i < count; i++) {
+            pending.acquire();
+            if (!publish(initialPublishStatistics, pending::release))
+                pending.release();
+        }
+        pending.acquire(MAX_PENDING_PUBLISHES);
+    }
+
+    private void publish(OperationStatistics statistics) {
+        publish(statistics, () -> {
+        });
+    }
+
+    // Returns false if the operation could not be started, in which case the callback is not called
+    private boolean publish(OperationStatistics statistics, Runnable callback) {
+        int index = ThreadLocalRandom.current().nextInt(nodes.size());
+        TomP2PNode node = nodes.get(index);
+        Offer offer = createOffer(keyPairs.get(index).getPublic());
+        try {
+            Data offerData = new Data(offer);
+            offerData.ttlSeconds(OFFER_TTL_SECONDS);
+            byte[] serialized = PayloadCompression.serialize(offer);
+            // Offers are stored uncompressed as long as DHT compression is off
+            int storedBytes = serialized.length;
+
+            long start = System.nanoTime();
+            FuturePut futurePut = node.addProtectedData(locationKey, offerData);
+            futurePut.addListener(new BaseFutureAdapter<BaseFuture>() {
+                @Override
+                public void operationComplete(BaseFuture future) throws Exception {
+                    if (future.isSuccess()) {
+                        statistics.record(start, storedBytes, 0);
+                        serializedOfferBytes.addAndGet(serialized.length);
+                        storedOfferBytes.addAndGet(storedBytes);
+                        publishedOffers.add(new PublishedOffer(node, offer));
+                    }
+                    else {
+                        statistics.recordError();
+                        log.debug("Publishing an offer failed: " + future.failedReason());
+                    }
+                    callback.run();
+                }
+            });
+            return true;
+        } catch (IOException e) {
+            statistics.recordError();
+            log.error("Publishing an offer failed: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void remove() {
+        PublishedOffer publishedOffer = publishedOffers.poll();
+        if (publishedOffer == null)
+            return;
+
+        try {
+            long start = System.nanoTime();
+            FutureRemove futureRemove = publishedOffer.node.removeFromDataMap(locationKey,
+                    new Data(publishedOffer.offer));
+            futureRemove.addListener(new BaseFutureAdapter<BaseFuture>() {
+                @Override
+                public void operationComplete(BaseFuture future) throws Exception {
+                    if (future.isSuccess()) {
+                        removeStatistics.record(start, 0, 0);
+                    }
+                    else {
+                        removeStatistics.recordError();
+                        log.debug("Removing an offer failed: " + future.failedReason());
+                    }
+                }
+            });
+        } catch (IOException e) {
+            removeStatistics.recordError();
+            log.error("Removing an offer failed: " + e.getMessage());
+        }
+    }
+
+    // Reads the whole offer book from the DHT and decodes it, like TomP2POfferRepository does without a snapshot
+    private void readLoop() {
+        Random random = new Random();
+        while (running) {
+            TomP2PNode node = nodes.get(random.nextInt(nodes.size()));
+            long start = System.nanoTime();
+            FutureGet futureGet = node.getDataMap(locationKey);
+            if (!futureGet.awaitUninterruptibly(OPERATION_TIMEOUT_MILLIS) || !futureGet.isSuccess() ||
+                    futureGet.dataMap() == null) {
+                readStatistics.recordError();
+                continue;
+            }
+
+            long bytes = 0;
+            long offers = 0;
+            for (Data data : futureGet.dataMap().values()) {
+                bytes += data.toBytes().length;
+                try {
+                    if (node.getObject(data) instanceof Offer)
+                        offers++;
+                } catch (ClassNotFoundException | IOException e) {
+                    log.warn("Invalid offer in the DHT: " + e.getMessage());
+                }
+            }
+            readStatistics.record(start, bytes, offers);
+        }
+    }
+
+    // Requests full snapshots, the worst case for the bootstrap node
+    private void snapshotReadLoop(PeerAddress bootstrapAddress) {
+        Random random = new Random();
+        while (running) {
+            TomP2PNode node = nodes.get(random.nextInt(nodes.size()));
+            long start = System.nanoTime();
+            FutureDirect futureDirect = node.sendData(bootstrapAddress, new OfferBookSnapshotRequest(currencyCode, 0));
+            if (!futureDirect.awaitUninterruptibly(OPERATION_TIMEOUT_MILLIS) || !futureDirect.isSuccess()) {
+                snapshotReadStatistics.recordError();
+                continue;
+            }
+
+            Object reply = futureDirect.object();
+            try {
+                long bytes = reply instanceof byte[] ? ((byte[]) reply).length :
+                        reply != null ? PayloadCompression.serialize(reply).length : 0;
+                snapshotReadStatistics.record(start, bytes, 0);
+            } catch (IOException e) {
+                snapshotReadStatistics.recordError();
+            }
+        }
+    }
+
+    private Offer createOffer(PublicKey messagePublicKey) {
+        return new Offer(UUID.randomUUID().toString(),
+                messagePublicKey,
+                ThreadLocalRandom.current().nextBoolean() ? Direction.BUY : Direction.SELL,
+                50_000_000,
+                Coin.COIN,
+                Coin.COIN.divide(10),
+                BankAccountType.SEPA,
+                Currency.getInstance(currencyCode),
+                country,
+                "bankAccountUID",
+                new ArrayList<>(),
+                Coin.COIN.divide(10),
+                Collections.singletonList(country),
+                Collections.singletonList(Locale.ENGLISH));
+    }
+}
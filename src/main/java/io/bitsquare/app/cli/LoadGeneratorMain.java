@@ -0,0 +1,101 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.app.cli;
+
+import io.bitsquare.app.BitsquareEnvironment;
+import io.bitsquare.app.BitsquareExecutable;
+import io.bitsquare.network.Node;
+
+import com.google.gson.GsonBuilder;
+
+import java.io.File;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import java.util.Map;
+
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+
+public class LoadGeneratorMain extends BitsquareExecutable {
+
+    public static void main(String[] args) throws Exception {
+        new LoadGeneratorMain().execute(args);
+    }
+
+    protected void customizeOptionParsing(OptionParser parser) {
+        parser.accepts(Node.PORT_KEY, description("Port of the bootstrap node, the peers use the following ports",
+                Node.DEFAULT_PORT))
+                .withRequiredArg()
+                .ofType(int.class);
+        parser.accepts(LoadGenerator.PEERS_KEY, description("Number of peers", LoadGenerator.DEFAULT_PEERS))
+                .withRequiredArg()
+                .ofType(int.class);
+        parser.accepts(LoadGenerator.INITIAL_OFFERS_KEY, description("Number of offers published before the load starts",
+                LoadGenerator.DEFAULT_INITIAL_OFFERS))
+                .withRequiredArg()
+                .ofType(int.class);
+        parser.accepts(LoadGenerator.PUBLISH_RATE_KEY, description("Offers published per second",
+                LoadGenerator.DEFAULT_PUBLISH_RATE))
+                .withRequiredArg()
+                .ofType(int.class);
+        parser.accepts(LoadGenerator.REMOVE_RATE_KEY, description("Offers removed per second",
+                LoadGenerator.DEFAULT_REMOVE_RATE))
+                .withRequiredArg()
+                .ofType(int.class);
+        parser.accepts(LoadGenerator.READERS_KEY, description("Number of concurrent offer book readers using the DHT",
+                LoadGenerator.DEFAULT_READERS))
+                .withRequiredArg()
+                .ofType(int.class);
+        parser.accepts(LoadGenerator.SNAPSHOT_READERS_KEY,
+                description("Number of concurrent offer book readers using snapshots of the bootstrap node",
+                        LoadGenerator.DEFAULT_SNAPSHOT_READERS))
+                .withRequiredArg()
+                .ofType(int.class);
+        parser.accepts(LoadGenerator.DURATION_KEY, description("Duration of the load in seconds",
+                LoadGenerator.DEFAULT_DURATION_SECONDS))
+                .withRequiredArg()
+                .ofType(int.class);
+        parser.accepts(LoadGenerator.CURRENCY_KEY, description("Currency of the offers", LoadGenerator.DEFAULT_CURRENCY))
+                .withRequiredArg();
+        parser.accepts(LoadGenerator.REPORT_KEY, description("File the JSON report is written to", "standard output"))
+                .withRequiredArg();
+    }
+
+    protected void doExecute(OptionSet options) {
+        int status = 0;
+        try {
+            BitsquareEnvironment env = new BitsquareEnvironment(options);
+            env.getPropertySources().addLast(LoadGenerator.defaultProperties());
+
+            Map<String, Object> report = new LoadGenerator(env).run();
+            String json = new GsonBuilder().setPrettyPrinting().create().toJson(report);
+            String reportFile = env.getProperty(LoadGenerator.REPORT_KEY);
+            if (reportFile != null)
+                Files.write(new File(reportFile).toPath(), json.getBytes(StandardCharsets.UTF_8));
+            else
+                System.out.println(json);
+        } catch (Exception e) {
+            System.err.println("Load generation failed: " + e.getMessage());
+            status = 1;
+        }
+        // TomP2P and Netty leave non-daemon threads behind
+        System.exit(status);
+    }
+}
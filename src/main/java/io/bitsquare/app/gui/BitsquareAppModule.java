@@ -31,10 +31,15 @@ import io.bitsquare.settings.Preferences;
 import io.bitsquare.trade.TradeModule;
 import io.bitsquare.user.User;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 import com.google.inject.Injector;
 
 import java.io.File;
 
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
 import javafx.stage.Stage;
 
 import org.springframework.core.env.Environment;
@@ -61,6 +66,10 @@ class BitsquareAppModule extends BitsquareModule {
         bindConstant().annotatedWith(named(Persistence.PREFIX_KEY)).to(env.getRequiredProperty(Persistence.PREFIX_KEY));
         bind(Persistence.class).asEagerSingleton();
 
+        // Shared by all services for delayed and periodic background work, shut down in doClose
+        bind(ScheduledExecutorService.class).toInstance(Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("BitsquareScheduler").setDaemon(true).build()));
+
         install(messageModule());
         install(bitcoinModule());
         install(cryptoModule());
@@ -95,5 +104,6 @@ class BitsquareAppModule extends BitsquareModule {
 
     @Override
     protected void doClose(Injector injector) {
+        injector.getInstance(ScheduledExecutorService.class).shutdownNow();
     }
 }
@@ -0,0 +1,199 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.arbitrator;
+
+import io.bitsquare.persistence.Persistence;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import javax.inject.Inject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Local copy of the arbitrators published in the network, indexed by id, language and arbitration method so that
+ * they can be queried without a network round trip. The arbitrators are stored by the hash of their published
+ * content, which lets a refresh fetch only the entries we don't know yet. The directory is persisted, so the
+ * arbitrators are known right after the start.
+ */
+public class ArbitratorDirectory {
+    private static final Logger log = LoggerFactory.getLogger(ArbitratorDirectory.class);
+
+    private static final String PERSISTENCE_KEY = "arbitrators";
+
+    private final Persistence persistence;
+
+    private Map<String, Arbitrator> arbitratorsByContentHash;
+    private final Map<String, Arbitrator> arbitratorsById = new LinkedHashMap<>();
+    private final Map<String, List<Arbitrator>> arbitratorsByLanguage = new HashMap<>();
+    private final Map<Arbitrator.METHOD, List<Arbitrator>> arbitratorsByMethod = new EnumMap<>(Arbitrator.METHOD.class);
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    @Inject
+    public ArbitratorDirectory(Persistence persistence) {
+        this.persistence = persistence;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Queries
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public synchronized List<Arbitrator> getArbitrators() {
+        getArbitratorsByContentHash();
+        return new ArrayList<>(arbitratorsById.values());
+    }
+
+    /**
+     * @return the arbitrators speaking the language of the given locale, all arbitrators if the locale is null
+     */
+    public synchronized List<Arbitrator> getArbitrators(@Nullable Locale languageLocale) {
+        if (languageLocale == null)
+            return getArbitrators();
+
+        getArbitratorsByContentHash();
+        return new ArrayList<>(arbitratorsByLanguage.getOrDefault(languageLocale.getLanguage(),
+                Collections.emptyList()));
+    }
+
+    public synchronized List<Arbitrator> getArbitrators(Arbitrator.METHOD arbitrationMethod) {
+        getArbitratorsByContentHash();
+        return new ArrayList<>(arbitratorsByMethod.getOrDefault(arbitrationMethod, Collections.emptyList()));
+    }
+
+    @Nullable
+    public synchronized Arbitrator getArbitrator(String id) {
+        getArbitratorsByContentHash();
+        return arbitratorsById.get(id);
+    }
+
+    public synchronized Set<String> getContentHashes() {
+        return new HashSet<>(getArbitratorsByContentHash().keySet());
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Updates
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public synchronized void add(String contentHash, Arbitrator arbitrator) {
+        if (getArbitratorsByContentHash().put(contentHash, arbitrator) != null)
+            return;
+
+        updateIndexes();
+        save();
+    }
+
+    public synchronized void remove(String contentHash) {
+        if (getArbitratorsByContentHash().remove(contentHash) == null)
+            return;
+
+        updateIndexes();
+        save();
+    }
+
+    /**
+     * Applies the result of a refresh.
+     *
+     * @param contentHashes the hashes of all arbitrators currently published
+     * @param added         the arbitrators which were not in the directory, by content hash
+     * @return whether the directory has changed
+     */
+    public synchronized boolean update(Collection<String> contentHashes, Map<String, Arbitrator> added) {
+        Map<String, Arbitrator> arbitrators = getArbitratorsByContentHash();
+        boolean changed = arbitrators.keySet().retainAll(contentHashes);
+        for (Map.Entry<String, Arbitrator> entry : added.entrySet()) {
+            if (contentHashes.contains(entry.getKey()) && arbitrators.put(entry.getKey(), entry.getValue()) == null)
+                changed = true;
+        }
+
+        if (changed) {
+            log.debug("Arbitrator directory updated, " + arbitrators.size() + " arbitrators");
+            updateIndexes();
+            save();
+        }
+        return changed;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    // Read lazily as persistence is initialized after the injector has created us
+    @SuppressWarnings("unchecked")
+    private Map<String, Arbitrator> getArbitratorsByContentHash() {
+        if (arbitratorsByContentHash == null) {
+            Object persisted = persistence.read(this, PERSISTENCE_KEY);
+            arbitratorsByContentHash = persisted instanceof Map ?
+                    (Map<String, Arbitrator>) persisted : new LinkedHashMap<>();
+            updateIndexes();
+        }
+        return arbitratorsByContentHash;
+    }
+
+    private void updateIndexes() {
+        arbitratorsById.clear();
+        arbitratorsByLanguage.clear();
+        arbitratorsByMethod.clear();
+        for (Arbitrator arbitrator : arbitratorsByContentHash.values()) {
+            // An arbitrator republishing an updated profile is listed with the latest one
+            if (arbitrator.getId() != null) {
+                Arbitrator previous = arbitratorsById.put(arbitrator.getId(), arbitrator);
+                if (previous != null)
+                    removeFromIndexes(previous);
+            }
+
+            if (arbitrator.getLanguages() != null) {
+                arbitrator.getLanguages().stream().map(Locale::getLanguage).distinct().forEach(language ->
+                        arbitratorsByLanguage.computeIfAbsent(language, key -> new ArrayList<>()).add(arbitrator));
+            }
+            if (arbitrator.getArbitrationMethods() != null) {
+                arbitrator.getArbitrationMethods().stream().distinct().forEach(method ->
+                        arbitratorsByMethod.computeIfAbsent(method, key -> new ArrayList<>()).add(arbitrator));
+            }
+        }
+    }
+
+    private void removeFromIndexes(Arbitrator arbitrator) {
+        // Arbitrator.equals compares the ids only
+        arbitratorsByLanguage.values().forEach(list -> list.removeIf(entry -> entry == arbitrator));
+        arbitratorsByMethod.values().forEach(list -> list.removeIf(entry -> entry == arbitrator));
+    }
+
+    private void save() {
+        persistence.write(this, PERSISTENCE_KEY, arbitratorsByContentHash);
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.btc;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionConfidence;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.core.Wallet;
+import org.bitcoinj.script.Script;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The spendable outputs of the wallet and their sum by address. It holds the same outputs as
+ * {@link Wallet#calculateAllSpendCandidates(boolean)} with immature coinbases excluded, but is updated per transaction
+ * from the wallet events instead of walking all outputs for every query.
+ * <p>
+ * A transaction event updates the outputs of the transaction and the outputs it spends. Changes which are not
+ * visible from a single transaction, a reorganisation or a transaction killed by a double spend, need a rebuild.
+ */
+class AddressBalanceIndex {
+    private static final Logger log = LoggerFactory.getLogger(AddressBalanceIndex.class);
+
+    private final NetworkParameters params;
+
+    private final Map<Address, Map<TransactionOutPoint, TransactionOutput>> outputsByAddress = new HashMap<>();
+    private final Map<Address, Coin> balances = new ConcurrentHashMap<>();
+
+    AddressBalanceIndex(NetworkParameters params) {
+        this.params = params;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Updates
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    synchronized void rebuild(Wallet wallet) {
+        long start = System.nanoTime();
+        outputsByAddress.clear();
+        balances.clear();
+        List<TransactionOutput> candidates = wallet.calculateAllSpendCandidates(true);
+        for (TransactionOutput output : candidates) {
+            Address address = getAddress(output);
+            if (address != null)
+                outputsByAddress.computeIfAbsent(address, key -> new HashMap<>()).put(output.getOutPointFor(), output);
+        }
+        outputsByAddress.keySet().stream().forEach(this::updateBalance);
+        log.debug("Balance index rebuilt with " + candidates.size() + " outputs in " +
+                (System.nanoTime() - start) / 1000 + " us");
+    }
+
+    /**
+     * Updates the outputs of the given transaction and the outputs spent by it.
+     *
+     * @return the addresses whose balance has changed
+     */
+    synchronized Set<Address> update(Wallet wallet, Transaction tx) {
+        Set<Address> changedAddresses = new HashSet<>();
+        boolean spendable = isSpendable(wallet, tx);
+        for (TransactionOutput output : tx.getOutputs())
+            update(wallet, output, spendable, changedAddresses);
+
+        for (TransactionInput input : tx.getInputs()) {
+            TransactionOutput connectedOutput = input.getConnectedOutput();
+            if (connectedOutput != null && connectedOutput.getParentTransaction() != null)
+                update(wallet, connectedOutput, isSpendable(wallet, connectedOutput.getParentTransaction()),
+                        changedAddresses);
+        }
+
+        changedAddresses.stream().forEach(this::updateBalance);
+        return changedAddresses;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Queries
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    Coin getBalance(Address address) {
+        return balances.getOrDefault(address, Coin.ZERO);
+    }
+
+    synchronized List<TransactionOutput> getOutputs(Address address) {
+        Map<TransactionOutPoint, TransactionOutput> outputs = outputsByAddress.get(address);
+        return outputs != null ? new ArrayList<>(outputs.values()) : Collections.emptyList();
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private void update(Wallet wallet, TransactionOutput output, boolean spendable, Set<Address> changedAddresses) {
+        Address address = getAddress(output);
+        if (address == null)
+            return;
+
+        TransactionOutPoint outPoint = output.getOutPointFor();
+        Map<TransactionOutPoint, TransactionOutput> outputs = outputsByAddress.get(address);
+        if (spendable && output.isAvailableForSpending() && output.isMine(wallet)) {
+            if (outputs == null) {
+                outputs = new HashMap<>();
+                outputsByAddress.put(address, outputs);
+            }
+            if (outputs.put(outPoint, output) == null)
+                changedAddresses.add(address);
+        }
+        else if (outputs != null && outputs.remove(outPoint) != null) {
+            changedAddresses.add(address);
+            if (outputs.isEmpty())
+                outputsByAddress.remove(address);
+        }
+    }
+
+    private void updateBalance(Address address) {
+        Map<TransactionOutPoint, TransactionOutput> outputs = outputsByAddress.get(address);
+        if (outputs == null) {
+            balances.remove(address);
+            return;
+        }
+
+        Coin balance = Coin.ZERO;
+        for (TransactionOutput output : outputs.values())
+            balance = balance.add(output.getValue());
+        balances.put(address, balance);
+    }
+
+    // Wallet.calculateAllSpendCandidates takes the outputs of the unspent and the pending pool. Transactions of the
+    // other pools are either dead or have no outputs available for spending.
+    private static boolean isSpendable(Wallet wallet, Transaction tx) {
+        if (!tx.isMature() || wallet.getTransaction(tx.getHash()) == null)
+            return false;
+
+        TransactionConfidence.ConfidenceType confidenceType = tx.getConfidence().getConfidenceType();
+        return confidenceType == TransactionConfidence.ConfidenceType.BUILDING ||
+                confidenceType == TransactionConfidence.ConfidenceType.PENDING;
+    }
+
+    @Nullable
+    private Address getAddress(TransactionOutput output) {
+        Script script = output.getScriptPubKey();
+        if (script.isSentToAddress() || script.isSentToP2SH())
+            return script.getToAddress(params);
+        else
+            return null;
+    }
+}
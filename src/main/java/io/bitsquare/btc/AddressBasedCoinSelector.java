@@ -17,73 +17,77 @@
 
 package io.bitsquare.btc;
 
-import org.bitcoinj.core.Address;
 import org.bitcoinj.core.Coin;
 import org.bitcoinj.core.NetworkParameters;
 import org.bitcoinj.core.Transaction;
 import org.bitcoinj.core.TransactionConfidence;
 import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.script.ScriptBuilder;
 import org.bitcoinj.wallet.CoinSelection;
 import org.bitcoinj.wallet.DefaultCoinSelector;
 
-import com.google.common.annotations.VisibleForTesting;
-
-import java.math.BigInteger;
+import java.nio.ByteBuffer;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * This class implements a {@link org.bitcoinj.wallet.CoinSelector} which attempts to get the highest priority
- * possible. This means that the transaction is the most likely to get confirmed. Note that this means we may end up
- * "spending" more priority than would be required to get the transaction we are creating confirmed.
+ * This class implements a {@link org.bitcoinj.wallet.CoinSelector} which only spends the outputs of the given
+ * addresses, usually one. By
+ * default it attempts to get the highest priority possible. This means that the transaction is the most likely to get
+ * confirmed. Note that this means we may end up "spending" more priority than would be required to get the
+ * transaction we are creating confirmed. Other orders are available as {@link CoinSelectionStrategy}.
+ * <p>
+ * The candidates are filtered by comparing their script with the precomputed scripts of the addresses before anything
+ * is sorted, so the outputs of other addresses cost one array comparison or one set lookup each.
  */
 class AddressBasedCoinSelector extends DefaultCoinSelector {
     private static final Logger log = LoggerFactory.getLogger(AddressBasedCoinSelector.class);
-    private final NetworkParameters params;
-    private final AddressEntry addressEntry;
     private final boolean includePending;
+    private final CoinSelectionStrategy strategy;
+    // requiredScript is set for a single address, requiredScripts for several
+    private final byte[] requiredScript;
+    private final Set<ByteBuffer> requiredScripts;
 
     ///////////////////////////////////////////////////////////////////////////////////////////
     // Constructor
     ///////////////////////////////////////////////////////////////////////////////////////////
 
     public AddressBasedCoinSelector(NetworkParameters params, AddressEntry addressEntry, boolean includePending) {
-        this.params = params;
-        this.addressEntry = addressEntry;
+        this(params, addressEntry, includePending, CoinSelectionStrategy.OLDEST_FIRST);
+    }
+
+    public AddressBasedCoinSelector(NetworkParameters params, AddressEntry addressEntry, boolean includePending,
+                                    CoinSelectionStrategy strategy) {
+        this(params, Collections.singleton(addressEntry), includePending, strategy);
+    }
+
+    public AddressBasedCoinSelector(NetworkParameters params, Collection<AddressEntry> addressEntries,
+                                    boolean includePending, CoinSelectionStrategy strategy) {
         this.includePending = includePending;
+        this.strategy = strategy;
+        if (addressEntries.size() == 1) {
+            this.requiredScript = getScript(addressEntries.iterator().next());
+            this.requiredScripts = null;
+        }
+        else {
+            this.requiredScript = null;
+            this.requiredScripts = new HashSet<>();
+            for (AddressEntry addressEntry : addressEntries)
+                requiredScripts.add(ByteBuffer.wrap(getScript(addressEntry)));
+        }
     }
 
-    @VisibleForTesting
-    static void sortOutputs(ArrayList<TransactionOutput> outputs) {
-        Collections.sort(outputs, (a, b) -> {
-            int depth1 = 0;
-            int depth2 = 0;
-            TransactionConfidence conf1 = a.getParentTransaction().getConfidence();
-            TransactionConfidence conf2 = b.getParentTransaction().getConfidence();
-            if (conf1.getConfidenceType() == TransactionConfidence.ConfidenceType.BUILDING)
-                depth1 = conf1.getDepthInBlocks();
-            if (conf2.getConfidenceType() == TransactionConfidence.ConfidenceType.BUILDING)
-                depth2 = conf2.getDepthInBlocks();
-            Coin aValue = a.getValue();
-            Coin bValue = b.getValue();
-            BigInteger aCoinDepth = BigInteger.valueOf(aValue.value).multiply(BigInteger.valueOf(depth1));
-            BigInteger bCoinDepth = BigInteger.valueOf(bValue.value).multiply(BigInteger.valueOf(depth2));
-            int c1 = bCoinDepth.compareTo(aCoinDepth);
-            if (c1 != 0) return c1;
-            // The "coin*days" destroyed are equal, sort by value alone to get the lowest transaction size.
-            int c2 = bValue.compareTo(aValue);
-            if (c2 != 0) return c2;
-            // They are entirely equivalent (possibly pending) so sort by hash to ensure a total ordering.
-            BigInteger aHash = a.getParentTransaction().getHash().toBigInteger();
-            BigInteger bHash = b.getParentTransaction().getHash().toBigInteger();
-            return aHash.compareTo(bHash);
-        });
+    private static byte[] getScript(AddressEntry addressEntry) {
+        return ScriptBuilder.createOutputScript(addressEntry.getAddress()).getProgram();
     }
 
     private static boolean isInBlockChainOrPending(Transaction tx) {
@@ -130,53 +134,38 @@ class AddressBasedCoinSelector extends DefaultCoinSelector {
     }
 
     private boolean matchesRequiredAddress(TransactionOutput transactionOutput) {
-        if (transactionOutput.getScriptPubKey().isSentToAddress() || transactionOutput.getScriptPubKey().isSentToP2SH
-                ()) {
-            Address addressOutput = transactionOutput.getScriptPubKey().getToAddress(params);
-            log.trace("matchesRequiredAddress?");
-            log.trace(addressOutput.toString());
-            log.trace(addressEntry.getAddress().toString());
-
-            if (addressEntry != null && addressOutput.equals(addressEntry.getAddress())) {
-                return true;
-            }
-            log.warn("No match found at matchesRequiredAddress addressOutput/addressEntry " + addressOutput.toString
-                    () + "/" + addressEntry.getAddress().toString());
-        }
-        return false;
+        if (requiredScript != null)
+            return Arrays.equals(transactionOutput.getScriptBytes(), requiredScript);
+        else
+            return requiredScripts.contains(ByteBuffer.wrap(transactionOutput.getScriptBytes()));
     }
 
     @Override
     public CoinSelection select(Coin target, List<TransactionOutput> candidates) {
-        log.debug("candidates.size: " + candidates.size());
         long targetAsLong = target.longValue();
-        log.debug("value needed: " + targetAsLong);
-        HashSet<TransactionOutput> selected = new HashSet<>();
-        // Sort the inputs by age*value so we get the highest "coindays" spent.
-        // TODO: Consider changing the wallets internal format to track just outputs and keep them ordered.
-        ArrayList<TransactionOutput> sortedOutputs = new ArrayList<>(candidates);
-        // When calculating the wallet balance, we may be asked to select all possible coins, if so, avoid sorting
-        // them in order to improve performance.
-        if (!target.equals(NetworkParameters.MAX_MONEY)) {
-            sortOutputs(sortedOutputs);
-        }
-        // Now iterate over the sorted outputs until we have got as close to the target as possible or a little
-        // bit over (excessive value will be change).
-        long total = 0;
-        for (TransactionOutput output : sortedOutputs) {
-            if (total >= targetAsLong) {
-                break;
-            }
-            // Only pick chain-included transactions, or transactions that are ours and pending.
-            // Only select outputs from our defined address(es)
-            if (!shouldSelect(output.getParentTransaction()) || !matchesRequiredAddress(output)) {
-                continue;
+        List<CoinSelectionStrategy.Candidate> matching = new ArrayList<>();
+        long available = 0;
+        // Only pick outputs from our defined address, of chain-included transactions or transactions that are pending
+        for (TransactionOutput output : candidates) {
+            if (matchesRequiredAddress(output) && shouldSelect(output.getParentTransaction())) {
+                CoinSelectionStrategy.Candidate candidate = new CoinSelectionStrategy.Candidate(output);
+                matching.add(candidate);
+                available += candidate.value;
             }
+        }
+        log.debug("candidates.size: " + candidates.size() + " / matching: " + matching.size() + " / value needed: " +
+                targetAsLong);
 
-            selected.add(output);
-            total += output.getValue().longValue();
+        // When calculating the wallet balance, we may be asked to select all possible coins, if so, avoid sorting
+        // them in order to improve performance. The same holds if we need all of them anyway.
+        List<CoinSelectionStrategy.Candidate> selectedCandidates = target.equals(NetworkParameters.MAX_MONEY) ||
+                available <= targetAsLong ? matching : strategy.select(targetAsLong, matching);
 
-            log.debug("adding up outputs: output/total: " + output.getValue().longValue() + "/" + total);
+        Set<TransactionOutput> selected = new HashSet<>();
+        long total = 0;
+        for (CoinSelectionStrategy.Candidate candidate : selectedCandidates) {
+            selected.add(candidate.output);
+            total += candidate.value;
         }
         // Total may be lower than target here, if the given candidates were insufficient to create to requested
         // transaction.
@@ -0,0 +1,155 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.btc;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionConfidence;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.core.Wallet;
+import org.bitcoinj.script.Script;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The transactions of the wallet by the addresses of their outputs and of the outputs they spend, with the most recent
+ * confidence per address memoized. It is updated per transaction from the wallet events instead of walking all
+ * transactions of the wallet for every query.
+ * <p>
+ * The memoized confidence is the live {@link TransactionConfidence} object of a transaction, so a new block changes
+ * its depth without invalidating the memo. It is only dropped when a transaction of the address changes.
+ */
+class AddressConfidenceIndex {
+    private static final Logger log = LoggerFactory.getLogger(AddressConfidenceIndex.class);
+
+    private final NetworkParameters params;
+
+    private final Map<Address, Set<Transaction>> transactionsByAddress = new HashMap<>();
+    private final Map<Address, TransactionConfidence> mostRecentConfidences = new HashMap<>();
+
+    AddressConfidenceIndex(NetworkParameters params) {
+        this.params = params;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Updates
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    synchronized void rebuild(Wallet wallet) {
+        long start = System.nanoTime();
+        transactionsByAddress.clear();
+        mostRecentConfidences.clear();
+        Set<Transaction> transactions = wallet.getTransactions(true);
+        for (Transaction tx : transactions)
+            update(tx);
+        log.debug("Confidence index rebuilt with " + transactions.size() + " transactions in " +
+                (System.nanoTime() - start) / 1000 + " us");
+    }
+
+    /**
+     * Adds the given transaction to the addresses of its outputs and of the outputs spent by it.
+     *
+     * @return the addresses touched by the transaction
+     */
+    synchronized Set<Address> update(Transaction tx) {
+        Set<Address> addresses = new HashSet<>();
+        for (TransactionOutput output : tx.getOutputs())
+            addAddress(output, addresses);
+
+        for (TransactionInput input : tx.getInputs()) {
+            TransactionOutput connectedOutput = input.getConnectedOutput();
+            if (connectedOutput != null)
+                addAddress(connectedOutput, addresses);
+        }
+
+        for (Address address : addresses) {
+            transactionsByAddress.computeIfAbsent(address, key -> new HashSet<>()).add(tx);
+            mostRecentConfidences.remove(address);
+        }
+        return addresses;
+    }
+
+    /**
+     * Drops all memoized confidences, for changes which move transactions between blocks.
+     */
+    synchronized void invalidate() {
+        mostRecentConfidences.clear();
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Queries
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    @Nullable
+    synchronized TransactionConfidence getConfidence(Address address) {
+        TransactionConfidence confidence = mostRecentConfidences.get(address);
+        if (confidence == null) {
+            Set<Transaction> transactions = transactionsByAddress.get(address);
+            if (transactions == null)
+                return null;
+
+            for (Transaction tx : transactions)
+                confidence = getMostRecentConfidence(confidence, tx.getConfidence());
+            if (confidence != null)
+                mostRecentConfidences.put(address, confidence);
+        }
+        return confidence;
+    }
+
+    /**
+     * A pending confidence is more recent than any other, a building one more recent than a deeper one.
+     */
+    @Nullable
+    static TransactionConfidence getMostRecentConfidence(@Nullable TransactionConfidence mostRecent,
+                                                         @Nullable TransactionConfidence confidence) {
+        if (confidence == null)
+            return mostRecent;
+
+        if (mostRecent == null ||
+                confidence.getConfidenceType().equals(TransactionConfidence.ConfidenceType.PENDING) ||
+                (confidence.getConfidenceType().equals(TransactionConfidence.ConfidenceType.BUILDING) &&
+                        mostRecent.getConfidenceType().equals(TransactionConfidence.ConfidenceType.BUILDING) &&
+                        confidence.getDepthInBlocks() < mostRecent.getDepthInBlocks()))
+            return confidence;
+        else
+            return mostRecent;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private void addAddress(TransactionOutput output, Set<Address> addresses) {
+        Script script = output.getScriptPubKey();
+        if (script.isSentToAddress() || script.isSentToP2SH())
+            addresses.add(script.getToAddress(params));
+    }
+}
@@ -21,6 +21,7 @@ import org.bitcoinj.core.Address;
 import org.bitcoinj.core.NetworkParameters;
 import org.bitcoinj.core.Utils;
 import org.bitcoinj.crypto.DeterministicKey;
+import org.bitcoinj.wallet.KeyBag;
 
 import java.io.Serializable;
 
@@ -31,10 +32,14 @@ import java.io.Serializable;
 public class AddressEntry implements Serializable {
     private static final long serialVersionUID = 5501603992599920416L;
     private transient DeterministicKey key;
+    // Looked up in there on first use after deserialization
+    private transient KeyBag keyBag;
     private final NetworkParameters params;
     private final AddressContext addressContext;
     private final String offerId;
     private final byte[] pubKeyHash;
+    // Base58 encoding is not cheap and the address string is used as a lookup key
+    private transient String addressString;
 
 
     public AddressEntry(DeterministicKey key, NetworkParameters params, AddressContext addressContext) {
@@ -59,25 +64,34 @@ public class AddressEntry implements Serializable {
     }
 
     public String getAddressString() {
-        return getAddress().toString();
+        if (addressString == null)
+            addressString = getAddress().toString();
+        return addressString;
     }
 
     public String getPubKeyAsHexString() {
-        return Utils.HEX.encode(key.getPubKey());
+        return Utils.HEX.encode(getKey().getPubKey());
     }
 
     public DeterministicKey getKey() {
+        if (key == null && keyBag != null)
+            key = (DeterministicKey) keyBag.findKeyFromPubHash(pubKeyHash);
         return key;
     }
 
+    // Our addresses are pay to pubkey hash addresses, so no key is needed for them
     public Address getAddress() {
-        return key.toAddress(params);
+        return new Address(params, pubKeyHash);
     }
 
     public void setDeterministicKey(DeterministicKey key) {
         this.key = key;
     }
 
+    public void setKeyBag(KeyBag keyBag) {
+        this.keyBag = keyBag;
+    }
+
     public byte[] getPubKeyHash() {
         return pubKeyHash;
     }
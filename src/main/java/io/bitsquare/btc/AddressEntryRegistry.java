@@ -0,0 +1,129 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.btc;
+
+import org.bitcoinj.core.Address;
+
+import com.google.common.collect.ImmutableList;
+
+import java.nio.ByteBuffer;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * The address entries of the wallet with hash indexes by offer id, address, public key hash and context. Reads don't
+ * lock: the list of all entries is an immutable snapshot which is replaced when an entry is added, and the indexes
+ * are concurrent maps. Entries are only ever added, so a reader sees either the old or the new state.
+ */
+class AddressEntryRegistry {
+
+    private volatile List<AddressEntry> entries = Collections.emptyList();
+    private volatile Map<AddressEntry.AddressContext, List<AddressEntry>> entriesByContext =
+            new EnumMap<>(AddressEntry.AddressContext.class);
+    private final Map<String, AddressEntry> entriesByOfferId = new ConcurrentHashMap<>();
+    private final Map<String, AddressEntry> entriesByAddressString = new ConcurrentHashMap<>();
+    private final Map<ByteBuffer, AddressEntry> entriesByPubKeyHash = new ConcurrentHashMap<>();
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Updates
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    synchronized void add(AddressEntry addressEntry) {
+        index(addressEntry);
+        entries = ImmutableList.<AddressEntry>builder().addAll(entries).add(addressEntry).build();
+    }
+
+    synchronized void setAll(Collection<AddressEntry> addressEntries) {
+        entries = ImmutableList.copyOf(addressEntries);
+        entriesByContext = new EnumMap<>(AddressEntry.AddressContext.class);
+        entriesByOfferId.clear();
+        entriesByAddressString.clear();
+        entriesByPubKeyHash.clear();
+        entries.stream().forEach(this::index);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Queries
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * @return an immutable snapshot of all entries in the order they were added
+     */
+    List<AddressEntry> getAll() {
+        return entries;
+    }
+
+    @Nullable
+    AddressEntry getByOfferId(String offerId) {
+        return entriesByOfferId.get(offerId);
+    }
+
+    @Nullable
+    AddressEntry getByAddressString(String address) {
+        return entriesByAddressString.get(address);
+    }
+
+    // Addresses of our entries are pay to pubkey hash addresses, their hash is the pubkey hash
+    @Nullable
+    AddressEntry getByAddress(Address address) {
+        return getByPubKeyHash(address.getHash160());
+    }
+
+    @Nullable
+    AddressEntry getByPubKeyHash(byte[] pubKeyHash) {
+        return entriesByPubKeyHash.get(ByteBuffer.wrap(pubKeyHash));
+    }
+
+    List<AddressEntry> getByContext(AddressEntry.AddressContext addressContext) {
+        return entriesByContext.getOrDefault(addressContext, Collections.emptyList());
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    // Called with the monitor held
+    private void index(AddressEntry addressEntry) {
+        // The first entry of an offer id wins, like the linear search we had before
+        if (addressEntry.getOfferId() != null)
+            entriesByOfferId.putIfAbsent(addressEntry.getOfferId(), addressEntry);
+        entriesByAddressString.putIfAbsent(addressEntry.getAddressString(), addressEntry);
+        entriesByPubKeyHash.putIfAbsent(ByteBuffer.wrap(addressEntry.getPubKeyHash()), addressEntry);
+
+        Map<AddressEntry.AddressContext, List<AddressEntry>> newEntriesByContext = new EnumMap<>(entriesByContext);
+        List<AddressEntry> contextEntries = newEntriesByContext.getOrDefault(addressEntry.getAddressContext(),
+                Collections.emptyList());
+        newEntriesByContext.put(addressEntry.getAddressContext(),
+                ImmutableList.<AddressEntry>builder().addAll(contextEntries).add(addressEntry).build());
+        entriesByContext = newEntriesByContext;
+    }
+}
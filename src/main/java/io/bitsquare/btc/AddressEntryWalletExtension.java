@@ -0,0 +1,110 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.btc;
+
+import io.bitsquare.BitsquareException;
+
+import org.bitcoinj.core.Wallet;
+import org.bitcoinj.core.WalletExtension;
+import org.bitcoinj.crypto.DeterministicKey;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores the address entries and the unassigned trade keys inside the wallet file, so they are written atomically
+ * with the wallet and need no file of their own.
+ * <p>
+ * The keys of the address entries are not looked up when the wallet is loaded but on their first use, the address
+ * of an entry is derived from its public key hash.
+ */
+class AddressEntryWalletExtension implements WalletExtension {
+    private static final Logger log = LoggerFactory.getLogger(AddressEntryWalletExtension.class);
+
+    static final String ID = "io.bitsquare.btc.AddressEntries";
+
+    private final AddressEntryRegistry addressEntryRegistry;
+    private final TradeKeyPool tradeKeyPool;
+    private volatile boolean loaded;
+
+    AddressEntryWalletExtension(AddressEntryRegistry addressEntryRegistry, TradeKeyPool tradeKeyPool) {
+        this.addressEntryRegistry = addressEntryRegistry;
+        this.tradeKeyPool = tradeKeyPool;
+    }
+
+    /**
+     * @return whether the wallet file had our data, false for new wallets and wallets written by older versions
+     */
+    boolean isLoaded() {
+        return loaded;
+    }
+
+    @Override
+    public String getWalletExtensionID() {
+        return ID;
+    }
+
+    @Override
+    public boolean isWalletExtensionMandatory() {
+        return false;
+    }
+
+    @Override
+    public byte[] serializeWalletExtension() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(new ArrayList<>(addressEntryRegistry.getAll()));
+            out.writeObject(new ArrayList<>(tradeKeyPool.getPubKeyHashes()));
+        } catch (IOException e) {
+            // Can't happen with a byte array
+            throw new BitsquareException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void deserializeWalletExtension(Wallet containingWallet, byte[] data) throws Exception {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            List<AddressEntry> addressEntries = (List<AddressEntry>) in.readObject();
+            for (AddressEntry addressEntry : addressEntries)
+                addressEntry.setKeyBag(containingWallet);
+            addressEntryRegistry.setAll(addressEntries);
+
+            List<DeterministicKey> keys = new ArrayList<>();
+            for (byte[] pubKeyHash : (List<byte[]>) in.readObject()) {
+                DeterministicKey key = (DeterministicKey) containingWallet.findKeyFromPubHash(pubKeyHash);
+                if (key != null)
+                    keys.add(key);
+            }
+            tradeKeyPool.addKeys(keys);
+        }
+        loaded = true;
+        log.debug("Loaded " + addressEntryRegistry.size() + " address entries and " + tradeKeyPool.size() +
+                " trade keys from the wallet");
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.btc;
+
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionConfidence;
+import org.bitcoinj.core.TransactionOutput;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Strategies for picking outputs out of the candidates of {@link AddressBasedCoinSelector}. The candidates carry
+ * their value and coin depth as primitives, so sorting and summing them allocates nothing per comparison.
+ * <p>
+ * If the candidates are not sufficient for the target, a strategy returns all of them.
+ */
+enum CoinSelectionStrategy {
+
+    /**
+     * Spends the outputs with the most coin depth (value times confirmations) first, which gives the transaction the
+     * highest priority. This is the order of the bitcoinj default coin selector.
+     */
+    OLDEST_FIRST {
+        @Override
+        List<Candidate> select(long target, List<Candidate> candidates) {
+            List<Candidate> sorted = new ArrayList<>(candidates);
+            sorted.sort(BY_COIN_DEPTH);
+            return takeUntil(target, sorted);
+        }
+    },
+
+    /**
+     * Searches for a combination of outputs which matches the target without leaving change worth an output, using
+     * a depth first branch and bound search over the outputs ordered by value. Falls back to {@link #OLDEST_FIRST}
+     * if no such combination is found within {@link #MAX_TRIES} steps.
+     */
+    EXACT_MATCH {
+        @Override
+        List<Candidate> select(long target, List<Candidate> candidates) {
+            List<Candidate> match = branchAndBound(target, Transaction.MIN_NONDUST_OUTPUT.value, candidates);
+            return match != null ? match : OLDEST_FIRST.select(target, candidates);
+        }
+    },
+
+    /**
+     * Spends the largest outputs first, which needs the fewest inputs and so gives the smallest transaction.
+     */
+    MINIMAL_INPUTS {
+        @Override
+        List<Candidate> select(long target, List<Candidate> candidates) {
+            List<Candidate> sorted = new ArrayList<>(candidates);
+            sorted.sort(BY_VALUE);
+            return takeUntil(target, sorted);
+        }
+    };
+
+    static final int MAX_TRIES = 100_000;
+
+    abstract List<Candidate> select(long target, List<Candidate> candidates);
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Candidate
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    static final class Candidate {
+        final TransactionOutput output;
+        final long value;
+        final long coinDepth;
+
+        Candidate(TransactionOutput output) {
+            this.output = output;
+            this.value = output.getValue().value;
+            TransactionConfidence confidence = output.getParentTransaction().getConfidence();
+            int depth = confidence.getConfidenceType() == TransactionConfidence.ConfidenceType.BUILDING ?
+                    confidence.getDepthInBlocks() : 0;
+            // Saturates instead of overflowing, which only happens far beyond the total money supply
+            long coinDepth;
+            try {
+                coinDepth = Math.multiplyExact(value, depth);
+            } catch (ArithmeticException e) {
+                coinDepth = Long.MAX_VALUE;
+            }
+            this.coinDepth = coinDepth;
+        }
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    // Coin depth descending, then value descending, then parent transaction hash to get a total order
+    private static final Comparator<Candidate> BY_COIN_DEPTH = (a, b) -> {
+        int c = Long.compare(b.coinDepth, a.coinDepth);
+        if (c != 0) return c;
+        c = Long.compare(b.value, a.value);
+        if (c != 0) return c;
+        return compareHashes(a, b);
+    };
+
+    private static final Comparator<Candidate> BY_VALUE = (a, b) -> {
+        int c = Long.compare(b.value, a.value);
+        if (c != 0) return c;
+        return compareHashes(a, b);
+    };
+
+    // Same order as comparing the hashes as unsigned big integers
+    private static int compareHashes(Candidate a, Candidate b) {
+        byte[] aHash = a.output.getParentTransaction().getHash().getBytes();
+        byte[] bHash = b.output.getParentTransaction().getHash().getBytes();
+        for (int i = 0; i < aHash.length; i++) {
+            int c = Integer.compare(aHash[i] & 0xff, bHash[i] & 0xff);
+            if (c != 0) return c;
+        }
+        return 0;
+    }
+
+    private static List<Candidate> takeUntil(long target, List<Candidate> sorted) {
+        List<Candidate> selected = new ArrayList<>();
+        long total = 0;
+        for (Candidate candidate : sorted) {
+            if (total >= target)
+                break;
+            selected.add(candidate);
+            total += candidate.value;
+        }
+        return selected;
+    }
+
+    /**
+     * Walks the tree of include/exclude decisions over the candidates by descending value and prunes a branch as
+     * soon as it overshoots target + tolerance or cannot reach the target with the remaining candidates anymore.
+     *
+     * @return the match with the least excess, null if there is none within {@link #MAX_TRIES} steps
+     */
+    static List<Candidate> branchAndBound(long target, long tolerance, List<Candidate> candidates) {
+        List<Candidate> sorted = new ArrayList<>(candidates);
+        sorted.sort(BY_VALUE);
+        int size = sorted.size();
+        long[] values = new long[size];
+        // remaining[i] is the sum of the values from i to the end
+        long[] remaining = new long[size + 1];
+        for (int i = size - 1; i >= 0; i--) {
+            values[i] = sorted.get(i).value;
+            remaining[i] = remaining[i + 1] + values[i];
+        }
+        if (remaining[0] < target)
+            return null;
+
+        boolean[] included = new boolean[size];
+        boolean[] best = null;
+        long bestExcess = Long.MAX_VALUE;
+        long total = 0;
+        int depth = 0;
+        for (int tries = 0; tries < MAX_TRIES; tries++) {
+            boolean backtrack;
+            if (total > target + tolerance || total + remaining[depth] < target) {
+                backtrack = true;
+            }
+            else if (total >= target) {
+                if (total - target < bestExcess) {
+                    bestExcess = total - target;
+                    best = included.clone();
+                    // Candidates after depth are excluded in this branch
+                    for (int i = depth; i < size; i++)
+                        best[i] = false;
+                    if (bestExcess == 0)
+                        break;
+                }
+                backtrack = true;
+            }
+            else {
+                backtrack = false;
+            }
+
+            if (backtrack) {
+                // Go back to the last included candidate and continue with it excluded
+                depth--;
+                while (depth >= 0 && !included[depth])
+                    depth--;
+                if (depth < 0)
+                    break;
+                included[depth] = false;
+                total -= values[depth];
+            }
+            else {
+                included[depth] = true;
+                total += values[depth];
+            }
+            depth++;
+        }
+
+        if (best == null)
+            return null;
+
+        List<Candidate> selected = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            if (best[i])
+                selected.add(sorted.get(i));
+        }
+        return selected;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.btc;
+
+/**
+ * Progress of the blockchain download. Blocks older than the fast catchup time of the peer group (the creation time
+ * of the oldest wallet key minus a safety margin) cannot contain our transactions, so only their headers are
+ * downloaded. The blocks after that are downloaded as filtered blocks.
+ */
+public class DownloadProgress {
+
+    public enum Phase {
+        HEADERS,
+        FILTERED_BLOCKS
+    }
+
+    private final Phase phase;
+    private final double percentage;
+    private final int blocksLeft;
+
+    public DownloadProgress(Phase phase, double percentage, int blocksLeft) {
+        this.phase = phase;
+        this.percentage = percentage;
+        this.blocksLeft = blocksLeft;
+    }
+
+    public Phase getPhase() {
+        return phase;
+    }
+
+    /**
+     * @return the progress of the whole download from 0 to 100
+     */
+    public double getPercentage() {
+        return percentage;
+    }
+
+    public int getBlocksLeft() {
+        return blocksLeft;
+    }
+
+    @Override
+    public String toString() {
+        return "DownloadProgress{" +
+                "phase=" + phase +
+                ", percentage=" + percentage +
+                ", blocksLeft=" + blocksLeft +
+                '}';
+    }
+}
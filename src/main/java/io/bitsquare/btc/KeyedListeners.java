@@ -0,0 +1,65 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.btc;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+/**
+ * Listeners indexed by the key they listen to, e.g. an address or a transaction hash, so that an event is dispatched
+ * with a single lookup instead of a pass over all listeners. Keys without listeners are dropped.
+ */
+class KeyedListeners<K, L> {
+    private final Function<L, K> keyFunction;
+    private final Map<K, List<L>> listeners = new ConcurrentHashMap<>();
+
+    KeyedListeners(Function<L, K> keyFunction) {
+        this.keyFunction = keyFunction;
+    }
+
+    // Listeners without a key (e.g. a malformed tx id) never receive an event
+    void add(L listener) {
+        K listenerKey = keyFunction.apply(listener);
+        if (listenerKey == null)
+            return;
+        listeners.computeIfAbsent(listenerKey, key -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+
+    void remove(L listener) {
+        K listenerKey = keyFunction.apply(listener);
+        if (listenerKey == null)
+            return;
+        listeners.computeIfPresent(listenerKey, (key, keyListeners) -> {
+            keyListeners.remove(listener);
+            return keyListeners.isEmpty() ? null : keyListeners;
+        });
+    }
+
+    List<L> get(K key) {
+        return listeners.getOrDefault(key, Collections.emptyList());
+    }
+
+    Set<K> keys() {
+        return listeners.keySet();
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.btc;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects listener updates computed on the wallet thread and delivers them on the user thread in batches, at most
+ * one batch per frame. A newer update for the same key replaces the pending one, so a listener only sees the latest
+ * state of a batch, however many wallet events led to it.
+ */
+class ListenerUpdateBatcher {
+    private static final Logger log = LoggerFactory.getLogger(ListenerUpdateBatcher.class);
+
+    static final long FRAME_MILLIS = 1000 / 60;
+
+    private final Executor userThread;
+    private final ScheduledExecutorService scheduler;
+
+    private final Map<Object, Runnable> pendingUpdates = new LinkedHashMap<>();
+    private boolean flushScheduled;
+    private long lastFlushNanos;
+
+    ListenerUpdateBatcher(Executor userThread, ScheduledExecutorService scheduler) {
+        this.userThread = userThread;
+        this.scheduler = scheduler;
+    }
+
+    synchronized void update(Object key, Runnable update) {
+        pendingUpdates.put(key, update);
+        if (flushScheduled)
+            return;
+
+        flushScheduled = true;
+        long delayNanos = lastFlushNanos + TimeUnit.MILLISECONDS.toNanos(FRAME_MILLIS) - System.nanoTime();
+        if (lastFlushNanos == 0 || delayNanos <= 0)
+            userThread.execute(this::flush);
+        else
+            scheduler.schedule(() -> userThread.execute(this::flush), delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void flush() {
+        List<Runnable> updates;
+        synchronized (this) {
+            updates = new ArrayList<>(pendingUpdates.values());
+            pendingUpdates.clear();
+            flushScheduled = false;
+            lastFlushNanos = System.nanoTime();
+        }
+        for (Runnable update : updates) {
+            try {
+                update.run();
+            } catch (Throwable t) {
+                log.error("Listener update failed: " + t.getMessage(), t);
+            }
+        }
+    }
+}
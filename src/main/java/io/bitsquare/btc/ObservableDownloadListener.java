@@ -0,0 +1,62 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.btc;
+
+import org.bitcoinj.core.DownloadListener;
+
+import java.util.Date;
+
+import rx.Observable;
+import rx.subjects.BehaviorSubject;
+import rx.subjects.Subject;
+
+/**
+ * Publishes the progress of the blockchain download together with its phase. Runs on a bitcoinj thread.
+ */
+class ObservableDownloadListener extends DownloadListener {
+
+    private final Subject<DownloadProgress, DownloadProgress> subject =
+            BehaviorSubject.create(new DownloadProgress(DownloadProgress.Phase.HEADERS, 0, -1));
+    private volatile long fastCatchupTimeSecs;
+
+    void setFastCatchupTimeSecs(long fastCatchupTimeSecs) {
+        this.fastCatchupTimeSecs = fastCatchupTimeSecs;
+    }
+
+    @Override
+    protected void progress(double percentage, int blocksLeft, Date date) {
+        super.progress(percentage, blocksLeft, date);
+        subject.onNext(new DownloadProgress(getPhase(date), percentage, blocksLeft));
+    }
+
+    @Override
+    protected void doneDownload() {
+        super.doneDownload();
+        subject.onCompleted();
+    }
+
+    public Observable<DownloadProgress> getObservable() {
+        return subject.asObservable();
+    }
+
+    // The peers send headers only for the blocks before the fast catchup time
+    DownloadProgress.Phase getPhase(Date lastBlockDate) {
+        return lastBlockDate.getTime() / 1000 < fastCatchupTimeSecs ?
+                DownloadProgress.Phase.HEADERS : DownloadProgress.Phase.FILTERED_BLOCKS;
+    }
+}
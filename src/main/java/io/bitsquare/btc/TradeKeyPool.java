@@ -0,0 +1,160 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.btc;
+
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.crypto.DeterministicKey;
+
+import java.nio.ByteBuffer;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.annotation.Nullable;
+
+/**
+ * Trade keys derived ahead of time, so that a new offer gets its address without deriving a key on the calling
+ * thread, which can make the wallet recalculate its Bloom filter.
+ * <p>
+ * While an offer is being created its key is only reserved for the offer id. It becomes an address entry when the
+ * offer is placed or its address receives funds, so opening the create offer screen does not use up keys. Reserved
+ * keys which never got that far go back to the pool when the screen is closed, or after a restart. As their address
+ * has been shown, a pooled key which receives funds is turned into an address entry as well.
+ */
+class TradeKeyPool {
+    static final int TARGET_SIZE = 5;
+
+    private final Deque<DeterministicKey> keys = new ArrayDeque<>();
+    private final Map<String, AddressEntry> reservations = new HashMap<>();
+    private final Map<ByteBuffer, AddressEntry> reservationsByPubKeyHash = new HashMap<>();
+    // Released reservations by the public key hash of their key, while the key is in the pool
+    private final Map<ByteBuffer, AddressEntry> releasedReservations = new HashMap<>();
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Keys
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    synchronized void addKeys(Collection<DeterministicKey> newKeys) {
+        keys.addAll(newKeys);
+    }
+
+    @Nullable
+    synchronized DeterministicKey poll() {
+        DeterministicKey key = keys.poll();
+        if (key != null)
+            releasedReservations.remove(ByteBuffer.wrap(key.getPubKeyHash()));
+        return key;
+    }
+
+    /**
+     * Takes the key with the given public key hash out of the pool, e.g. because its address received funds.
+     *
+     * @return the reservation the key was released from, or a trade entry with a new offer id if the key was not
+     * reserved since the start. Null if the key is not in the pool.
+     */
+    @Nullable
+    synchronized AddressEntry remove(byte[] pubKeyHash, NetworkParameters params) {
+        ByteBuffer hash = ByteBuffer.wrap(pubKeyHash);
+        for (Iterator<DeterministicKey> iterator = keys.iterator(); iterator.hasNext(); ) {
+            DeterministicKey key = iterator.next();
+            if (hash.equals(ByteBuffer.wrap(key.getPubKeyHash()))) {
+                iterator.remove();
+                AddressEntry releasedReservation = releasedReservations.remove(hash);
+                return releasedReservation != null ? releasedReservation :
+                        new AddressEntry(key, params, AddressEntry.AddressContext.TRADE, UUID.randomUUID().toString());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the number of keys which are neither reserved nor assigned
+     */
+    synchronized int size() {
+        return keys.size();
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Reservations
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    synchronized void reserve(AddressEntry addressEntry) {
+        reservations.put(addressEntry.getOfferId(), addressEntry);
+        reservationsByPubKeyHash.put(ByteBuffer.wrap(addressEntry.getPubKeyHash()), addressEntry);
+    }
+
+    @Nullable
+    synchronized AddressEntry getReservation(String offerId) {
+        return reservations.get(offerId);
+    }
+
+    @Nullable
+    synchronized AddressEntry getReservationByPubKeyHash(byte[] pubKeyHash) {
+        return reservationsByPubKeyHash.get(ByteBuffer.wrap(pubKeyHash));
+    }
+
+    @Nullable
+    synchronized AddressEntry removeReservation(String offerId) {
+        AddressEntry addressEntry = reservations.remove(offerId);
+        if (addressEntry != null)
+            reservationsByPubKeyHash.remove(ByteBuffer.wrap(addressEntry.getPubKeyHash()));
+        return addressEntry;
+    }
+
+    /**
+     * Puts the key of the given reservation back in the pool, to be used next.
+     *
+     * @return false if there is no such reservation
+     */
+    synchronized boolean release(String offerId) {
+        AddressEntry addressEntry = removeReservation(offerId);
+        if (addressEntry == null)
+            return false;
+
+        keys.addFirst(addressEntry.getKey());
+        releasedReservations.put(ByteBuffer.wrap(addressEntry.getPubKeyHash()), addressEntry);
+        return true;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Persistence
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * @return the public key hashes of all keys which are not assigned to an address entry yet, reserved ones
+     * included
+     */
+    synchronized List<byte[]> getPubKeyHashes() {
+        List<byte[]> pubKeyHashes = new ArrayList<>();
+        for (DeterministicKey key : keys)
+            pubKeyHashes.add(key.getPubKeyHash());
+        for (AddressEntry addressEntry : reservations.values())
+            pubKeyHashes.add(addressEntry.getPubKeyHash());
+        return pubKeyHashes;
+    }
+}
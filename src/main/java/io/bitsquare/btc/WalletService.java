@@ -27,7 +27,6 @@ import org.bitcoinj.core.AbstractWalletEventListener;
 import org.bitcoinj.core.Address;
 import org.bitcoinj.core.AddressFormatException;
 import org.bitcoinj.core.Coin;
-import org.bitcoinj.core.DownloadListener;
 import org.bitcoinj.core.ECKey;
 import org.bitcoinj.core.InsufficientMoneyException;
 import org.bitcoinj.core.NetworkParameters;
@@ -42,6 +41,7 @@ import org.bitcoinj.core.Utils;
 import org.bitcoinj.core.VerificationException;
 import org.bitcoinj.core.Wallet;
 import org.bitcoinj.core.WalletEventListener;
+import org.bitcoinj.core.WalletExtension;
 import org.bitcoinj.crypto.DeterministicKey;
 import org.bitcoinj.crypto.TransactionSignature;
 import org.bitcoinj.kits.WalletAppKit;
@@ -51,12 +51,14 @@ import org.bitcoinj.params.TestNet3Params;
 import org.bitcoinj.script.Script;
 import org.bitcoinj.script.ScriptBuilder;
 import org.bitcoinj.utils.Threading;
+import org.bitcoinj.wallet.KeyChain;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.Service;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import java.io.File;
 import java.io.Serializable;
@@ -64,21 +66,29 @@ import java.io.Serializable;
 import java.math.BigInteger;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
-import java.util.stream.Collectors;
 
-import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.Nullable;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 
+import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.ReadOnlyBooleanProperty;
+import javafx.beans.property.SimpleBooleanProperty;
 import javafx.util.Pair;
 
 import org.jetbrains.annotations.NotNull;
@@ -90,27 +100,38 @@ import rx.Observable;
 import rx.subjects.BehaviorSubject;
 import rx.subjects.Subject;
 
+import static com.google.common.base.Preconditions.checkState;
 import static org.bitcoinj.script.ScriptOpCodes.OP_RETURN;
 
 /**
- * TODO: use walletextension (with protobuffer) instead of saving addressEntryList via storage
  * TODO: break that class up. maybe a bitsquarewallet
  */
 public class WalletService {
     private static final Logger log = LoggerFactory.getLogger(WalletService.class);
     private static final String LOCK_NAME = "lock";
+    // Changes of the address entries within that time are written together
+    private static final long SAVE_DELAY_MILLIS = 500;
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 5;
 
     public static final String DIR_KEY = "wallet.dir";
     public static final String PREFIX_KEY = "wallet.prefix";
 
-    private final List<AddressConfidenceListener> addressConfidenceListeners = new CopyOnWriteArrayList<>();
-    private final List<TxConfidenceListener> txConfidenceListeners = new CopyOnWriteArrayList<>();
+    private final KeyedListeners<Address, AddressConfidenceListener> addressConfidenceListeners =
+            new KeyedListeners<>(AddressConfidenceListener::getAddress);
+    private final KeyedListeners<Sha256Hash, TxConfidenceListener> txConfidenceListeners =
+            new KeyedListeners<>(TxConfidenceListener::getTxHash);
     private final List<BalanceListener> balanceListeners = new CopyOnWriteArrayList<>();
     private final ReentrantLock lock = Threading.lock(LOCK_NAME);
 
     private final ObservableDownloadListener downloadListener = new ObservableDownloadListener();
-    private final Observable<Double> downloadProgress = downloadListener.getObservable();
+    private final Observable<DownloadProgress> downloadProgress = downloadListener.getObservable();
+    // Set on the download thread for the spending checks, the property follows on the user thread for the UI
+    private volatile boolean synced;
+    private final BooleanProperty syncedProperty = new SimpleBooleanProperty();
     private final WalletEventListener walletEventListener = new BitsquareWalletEventListener();
+    // Wallet events and the index updates they cause are handled here instead of on the user thread
+    private final ScheduledExecutorService walletExecutor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("WalletService").setDaemon(true).build());
 
     private final NetworkParameters params;
     private final FeePolicy feePolicy;
@@ -124,7 +145,14 @@ public class WalletService {
     private Wallet wallet;
     private AddressEntry registrationAddressEntry;
     private AddressEntry arbitratorDepositAddressEntry;
-    private @GuardedBy(LOCK_NAME) List<AddressEntry> addressEntryList = new ArrayList<>();
+    private final AddressEntryRegistry addressEntryRegistry = new AddressEntryRegistry();
+    private final AddressBalanceIndex addressBalanceIndex;
+    private final AddressConfidenceIndex addressConfidenceIndex;
+    private ListenerUpdateBatcher listenerUpdateBatcher;
+    private final TradeKeyPool tradeKeyPool = new TradeKeyPool();
+    private final AtomicBoolean saveScheduled = new AtomicBoolean();
+    private final AddressEntryWalletExtension addressEntryWalletExtension =
+            new AddressEntryWalletExtension(addressEntryRegistry, tradeKeyPool);
 
     ///////////////////////////////////////////////////////////////////////////////////////////
     // Constructor
@@ -135,6 +163,8 @@ public class WalletService {
                          Persistence persistence, UserAgent userAgent,
                          @Named(DIR_KEY) File walletDir, @Named(PREFIX_KEY) String walletPrefix) {
         this.params = bitcoinNetwork.getParameters();
+        this.addressBalanceIndex = new AddressBalanceIndex(params);
+        this.addressConfidenceIndex = new AddressConfidenceIndex(params);
         this.feePolicy = feePolicy;
         this.signatureService = signatureService;
         this.persistence = persistence;
@@ -148,6 +178,13 @@ public class WalletService {
     // Public Methods
     ///////////////////////////////////////////////////////////////////////////////////////////
 
+    /**
+     * Loads the wallet and starts the blockchain download in the background. The returned observable completes as
+     * soon as the wallet is loaded. From then on the wallet can be used read-only: its balances and transactions are
+     * those of the last session until the download reported by {@link #getDownloadProgress()} is complete.
+     * Until then {@link #isSynced()} is false and all methods which spend from the wallet or sign trade transactions
+     * fail with an IllegalStateException.
+     */
     public Observable<Object> initialize(Executor executor) {
         Subject<Object, Object> status = BehaviorSubject.create();
 
@@ -155,10 +192,24 @@ public class WalletService {
         // we cannot forget to switch threads when adding event handlers. Unfortunately, the DownloadListener
         // we give to the app kit is currently an exception and runs on a library thread. It'll get fixed in
         // a future version.
+        // Our own wallet listener is an exception as well, it runs on the wallet executor and hands the results
+        // over to the UI thread in batches.
         Threading.USER_THREAD = executor;
+        listenerUpdateBatcher = new ListenerUpdateBatcher(executor, walletExecutor);
+        downloadProgress.subscribe(progress -> {
+        }, error -> {
+        }, () -> {
+            synced = true;
+            executor.execute(() -> syncedProperty.set(true));
+        });
 
         // If seed is non-null it means we are restoring from backup.
         walletAppKit = new WalletAppKit(params, walletDir, walletPrefix) {
+            @Override
+            protected List<WalletExtension> provideWalletExtensions() throws Exception {
+                return ImmutableList.of(addressEntryWalletExtension);
+            }
+
             @Override
             protected void onSetupCompleted() {
                 // Don't make the user wait for confirmations for now, as the intention is they're sending it
@@ -167,6 +218,11 @@ public class WalletService {
                 if (params != RegTestParams.get())
                     walletAppKit.peerGroup().setMaxConnections(11);
                 walletAppKit.peerGroup().setBloomFilterFalsePositiveRate(0.00001);
+                // Adding the wallet to the peer group has set the fast catchup time from the creation time of its
+                // oldest key (minus a week), the blocks before that are downloaded as headers only
+                long fastCatchupTimeSecs = walletAppKit.peerGroup().getFastCatchupTimeSecs();
+                WalletService.this.downloadListener.setFastCatchupTimeSecs(fastCatchupTimeSecs);
+                log.info("Downloading block headers only up to " + new Date(fastCatchupTimeSecs * 1000));
                 initWallet();
                 status.onCompleted();
             }
@@ -214,46 +270,94 @@ public class WalletService {
         }, Threading.USER_THREAD);
         walletAppKit.startAsync();
 
-        return status.mergeWith(downloadProgress);
+        return status;
     }
 
     private void initWallet() {
         wallet = walletAppKit.wallet();
-        wallet.addEventListener(walletEventListener);
+        wallet.addEventListener(walletEventListener, walletExecutor);
+        addressBalanceIndex.rebuild(wallet);
+        addressConfidenceIndex.rebuild(wallet);
+
+        // The address entries are loaded with the wallet
+        if (addressEntryWalletExtension.isLoaded() && addressEntryRegistry.size() > 0)
+            registrationAddressEntry = addressEntryRegistry.getAll().get(0);
+        else
+            initAddressEntries();
+        walletExecutor.execute(this::refillTradeKeyPool);
+    }
 
+    // Reads the address entries of wallets written before they became a wallet extension, or creates the first one
+    @SuppressWarnings("unchecked")
+    private void initAddressEntries() {
         Serializable serializable = persistence.read(this, "addressEntryList");
         if (serializable instanceof List) {
             List<AddressEntry> persistedAddressEntryList = (List<AddressEntry>) serializable;
-            for (AddressEntry persistedAddressEntry : persistedAddressEntryList) {
-                persistedAddressEntry.setDeterministicKey(
-                        (DeterministicKey) wallet.findKeyFromPubHash(persistedAddressEntry.getPubKeyHash()));
-            }
-            addressEntryList = persistedAddressEntryList;
-            registrationAddressEntry = addressEntryList.get(0);
+            for (AddressEntry persistedAddressEntry : persistedAddressEntryList)
+                persistedAddressEntry.setKeyBag(wallet);
+            addressEntryRegistry.setAll(persistedAddressEntryList);
+            registrationAddressEntry = addressEntryRegistry.getAll().get(0);
         }
         else {
             // First time
             lock.lock();
-            DeterministicKey registrationKey = wallet.currentReceiveKey();
-            registrationAddressEntry = new AddressEntry(registrationKey, params,
-                    AddressEntry.AddressContext.REGISTRATION_FEE);
-            addressEntryList.add(registrationAddressEntry);
-            lock.unlock();
-            saveAddressInfoList();
+            try {
+                DeterministicKey registrationKey = wallet.currentReceiveKey();
+                registrationAddressEntry = new AddressEntry(registrationKey, params,
+                        AddressEntry.AddressContext.REGISTRATION_FEE);
+                addressEntryRegistry.add(registrationAddressEntry);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        serializable = persistence.read(this, "tradeKeyPool");
+        if (serializable instanceof List) {
+            List<DeterministicKey> keys = new ArrayList<>();
+            for (byte[] pubKeyHash : (List<byte[]>) serializable) {
+                // Skips keys which became address entries after the pool was written last
+                DeterministicKey key = (DeterministicKey) wallet.findKeyFromPubHash(pubKeyHash);
+                if (key != null && addressEntryRegistry.getByPubKeyHash(pubKeyHash) == null)
+                    keys.add(key);
+            }
+            tradeKeyPool.addKeys(keys);
         }
+        // Moves them into the wallet
+        saveAddressInfoList();
     }
 
     public void shutDown() {
         if (wallet != null)
             wallet.removeEventListener(walletEventListener);
+        // Scheduled work must not run against the stopped kit, a pending save is written here instead
+        walletExecutor.shutdownNow();
+        try {
+            if (!walletExecutor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+                log.warn("Wallet tasks did not finish within " + SHUTDOWN_TIMEOUT_SECONDS + " seconds");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (saveScheduled.get())
+            writeAddressInfoList();
         if (walletAppKit != null)
             walletAppKit.stopAsync();
     }
 
-    public Observable<Double> getDownloadProgress() {
+    public Observable<DownloadProgress> getDownloadProgress() {
         return downloadProgress;
     }
 
+    /**
+     * Whether the blockchain download is complete. Only then the balances are known and we can spend from the wallet.
+     */
+    public boolean isSynced() {
+        return synced;
+    }
+
+    public ReadOnlyBooleanProperty syncedProperty() {
+        return syncedProperty;
+    }
+
     public Wallet getWallet() {
         return wallet;
     }
@@ -295,8 +399,15 @@ public class WalletService {
     // Get AddressInfo objects
     ///////////////////////////////////////////////////////////////////////////////////////////
 
+    /**
+     * @return an immutable snapshot of all address entries
+     */
     public List<AddressEntry> getAddressEntryList() {
-        return ImmutableList.copyOf(addressEntryList);
+        return addressEntryRegistry.getAll();
+    }
+
+    public List<AddressEntry> getAddressEntryList(AddressEntry.AddressContext addressContext) {
+        return addressEntryRegistry.getByContext(addressContext);
     }
 
     public AddressEntry getRegistrationAddressEntry() {
@@ -310,16 +421,63 @@ public class WalletService {
         return arbitratorDepositAddressEntry;
     }
 
-    public AddressEntry getAddressInfoByTradeID(String offerId) {
-        Optional<AddressEntry> addressEntry = getAddressEntryList().stream().filter(e ->
-                offerId.equals(e.getOfferId())).findFirst();
+    /**
+     * Returns the address entry of the given offer if there is one already. Otherwise it reserves a pre-derived key
+     * for the offer, which becomes its address entry as soon as the offer is placed or the address receives funds.
+     */
+    public AddressEntry reserveTradeAddressEntry(String offerId) {
+        AddressEntry addressEntry = addressEntryRegistry.getByOfferId(offerId);
+        if (addressEntry != null)
+            return addressEntry;
 
-        if (addressEntry.isPresent())
-            return addressEntry.get();
+        lock.lock();
+        try {
+            addressEntry = tradeKeyPool.getReservation(offerId);
+            if (addressEntry == null) {
+                addressEntry = new AddressEntry(takeTradeKey(), params, AddressEntry.AddressContext.TRADE, offerId);
+                tradeKeyPool.reserve(addressEntry);
+            }
+            return addressEntry;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Puts the key reserved for the given offer back in the pool, if the offer was not placed and its address did
+     * not receive funds. An address which received funds becomes an address entry, so the funds can be withdrawn.
+     */
+    public void releaseTradeAddressEntry(String offerId) {
+        lock.lock();
+        try {
+            AddressEntry reservation = tradeKeyPool.getReservation(offerId);
+            if (reservation == null)
+                return;
+
+            Address address = reservation.getAddress();
+            if (addressBalanceIndex.getBalance(address).isPositive() ||
+                    !addressBalanceIndex.getOutputs(address).isEmpty())
+                getNewAddressEntry(AddressEntry.AddressContext.TRADE, offerId);
+            else
+                tradeKeyPool.release(offerId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public AddressEntry getAddressInfoByTradeID(String offerId) {
+        AddressEntry addressEntry = addressEntryRegistry.getByOfferId(offerId);
+        if (addressEntry != null)
+            return addressEntry;
         else
             return getNewAddressEntry(AddressEntry.AddressContext.TRADE, offerId);
     }
 
+    @Nullable
+    public AddressEntry getAddressEntry(Address address) {
+        return addressEntryRegistry.getByAddress(address);
+    }
+
 
     ///////////////////////////////////////////////////////////////////////////////////////////
     // Create new AddressInfo objects
@@ -327,102 +485,100 @@ public class WalletService {
 
     private AddressEntry getNewAddressEntry(AddressEntry.AddressContext addressContext, String offerId) {
         lock.lock();
-        DeterministicKey key = wallet.freshReceiveKey();
-        AddressEntry addressEntry = new AddressEntry(key, params, addressContext, offerId);
-        addressEntryList.add(addressEntry);
-        saveAddressInfoList();
-        lock.unlock();
-        return addressEntry;
+        try {
+            // Another thread might have created the entry of that offer in the meantime
+            if (offerId != null && addressEntryRegistry.getByOfferId(offerId) != null)
+                return addressEntryRegistry.getByOfferId(offerId);
+
+            AddressEntry addressEntry = offerId != null ? tradeKeyPool.removeReservation(offerId) : null;
+            if (addressEntry == null) {
+                DeterministicKey key = addressContext == AddressEntry.AddressContext.TRADE ? takeTradeKey() :
+                        wallet.freshReceiveKey();
+                addressEntry = new AddressEntry(key, params, addressContext, offerId);
+            }
+            addressEntryRegistry.add(addressEntry);
+            saveAddressInfoList();
+            return addressEntry;
+        } finally {
+            lock.unlock();
+        }
     }
 
-    private Optional<AddressEntry> getAddressEntryByAddressString(String address) {
-        return getAddressEntryList().stream().filter(e -> address.equals(e.getAddressString())).findFirst();
+    // Falls back to deriving a key if the pool has not been filled yet
+    private DeterministicKey takeTradeKey() {
+        DeterministicKey key = tradeKeyPool.poll();
+        if (key == null)
+            key = wallet.freshReceiveKey();
+        walletExecutor.execute(this::refillTradeKeyPool);
+        return key;
     }
 
-
-    ///////////////////////////////////////////////////////////////////////////////////////////
-    // TransactionConfidence
-    ///////////////////////////////////////////////////////////////////////////////////////////
-
-    public TransactionConfidence getConfidenceForAddress(Address address) {
-        List<TransactionConfidence> transactionConfidenceList = new ArrayList<>();
-        if (wallet != null) {
-            Set<Transaction> transactions = wallet.getTransactions(true);
-            if (transactions != null) {
-                transactionConfidenceList.addAll(transactions.stream().map(tx ->
-                        getTransactionConfidence(tx, address)).collect(Collectors.toList()));
-            }
+    private void refillTradeKeyPool() {
+        int missing = TradeKeyPool.TARGET_SIZE - tradeKeyPool.size();
+        if (missing > 0) {
+            // Deriving them together updates the Bloom filter once
+            tradeKeyPool.addKeys(wallet.freshKeys(KeyChain.KeyPurpose.RECEIVE_FUNDS, missing));
+            saveAddressInfoList();
         }
-        return getMostRecentConfidence(transactionConfidenceList);
     }
 
-    public TransactionConfidence getConfidenceForTxId(String txId) {
-        if (wallet != null) {
-            Set<Transaction> transactions = wallet.getTransactions(true);
-            for (Transaction tx : transactions) {
-                if (tx.getHashAsString().equals(txId))
-                    return tx.getConfidence();
+    // Turns a trade key into an address entry when it receives funds before its offer is placed. Keys in the pool
+    // can receive funds as well, if their address was shown for an offer which was then not placed.
+    private void assignFundedTradeKeys(Transaction tx) {
+        for (TransactionOutput output : tx.getOutputs()) {
+            Script script = output.getScriptPubKey();
+            if (script.isSentToAddress()) {
+                AddressEntry reservation = tradeKeyPool.getReservationByPubKeyHash(script.getPubKeyHash());
+                if (reservation != null)
+                    getNewAddressEntry(AddressEntry.AddressContext.TRADE, reservation.getOfferId());
+                else
+                    assignFundedPooledKey(script.getPubKeyHash());
             }
         }
-        return null;
     }
 
-    private void notifyConfidenceListeners(Transaction tx) {
-    }
-
-    private TransactionConfidence getTransactionConfidence(Transaction tx, Address address) {
-        List<TransactionOutput> mergedOutputs = getOutputsWithConnectedOutputs(tx);
-        List<TransactionConfidence> transactionConfidenceList = new ArrayList<>();
-
-        mergedOutputs.stream().filter(e -> e.getScriptPubKey().isSentToAddress() ||
-                e.getScriptPubKey().isSentToP2SH()).forEach(transactionOutput -> {
-            Address outputAddress = transactionOutput.getScriptPubKey().getToAddress(params);
-            if (address.equals(outputAddress)) {
-                transactionConfidenceList.add(tx.getConfidence());
+    private void assignFundedPooledKey(byte[] pubKeyHash) {
+        lock.lock();
+        try {
+            AddressEntry addressEntry = tradeKeyPool.remove(pubKeyHash, params);
+            if (addressEntry != null) {
+                addressEntryRegistry.add(addressEntry);
+                saveAddressInfoList();
+                walletExecutor.execute(this::refillTradeKeyPool);
             }
-        });
-        return getMostRecentConfidence(transactionConfidenceList);
+        } finally {
+            lock.unlock();
+        }
     }
 
+    private Optional<AddressEntry> getAddressEntryByAddressString(String address) {
+        return Optional.ofNullable(addressEntryRegistry.getByAddressString(address));
+    }
 
-    private List<TransactionOutput> getOutputsWithConnectedOutputs(Transaction tx) {
-        List<TransactionOutput> transactionOutputs = tx.getOutputs();
-        List<TransactionOutput> connectedOutputs = new ArrayList<>();
 
-        // add all connected outputs from any inputs as well
-        List<TransactionInput> transactionInputs = tx.getInputs();
-        for (TransactionInput transactionInput : transactionInputs) {
-            TransactionOutput transactionOutput = transactionInput.getConnectedOutput();
-            if (transactionOutput != null) {
-                connectedOutputs.add(transactionOutput);
-            }
-        }
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // TransactionConfidence
+    ///////////////////////////////////////////////////////////////////////////////////////////
 
-        List<TransactionOutput> mergedOutputs = new ArrayList<>();
-        mergedOutputs.addAll(transactionOutputs);
-        mergedOutputs.addAll(connectedOutputs);
-        return mergedOutputs;
+    public TransactionConfidence getConfidenceForAddress(Address address) {
+        return addressConfidenceIndex.getConfidence(address);
     }
 
-
-    private TransactionConfidence getMostRecentConfidence(List<TransactionConfidence> transactionConfidenceList) {
-        TransactionConfidence transactionConfidence = null;
-        for (TransactionConfidence confidence : transactionConfidenceList) {
-            if (confidence != null) {
-                if (transactionConfidence == null ||
-                        confidence.getConfidenceType().equals(TransactionConfidence.ConfidenceType.PENDING) ||
-                        (confidence.getConfidenceType().equals(TransactionConfidence.ConfidenceType.BUILDING) &&
-                                transactionConfidence.getConfidenceType().equals(
-                                        TransactionConfidence.ConfidenceType.BUILDING) &&
-                                confidence.getDepthInBlocks() < transactionConfidence.getDepthInBlocks())) {
-                    transactionConfidence = confidence;
-                }
+    public TransactionConfidence getConfidenceForTxId(String txId) {
+        if (wallet != null) {
+            try {
+                Transaction tx = wallet.getTransaction(new Sha256Hash(txId));
+                if (tx != null)
+                    return tx.getConfidence();
+            } catch (IllegalArgumentException e) {
+                log.warn("Malformed tx id " + txId);
             }
-
         }
-        return transactionConfidence;
+        return null;
     }
 
+    private void notifyConfidenceListeners(Transaction tx) {
+    }
 
     public boolean isRegistrationFeeConfirmed() {
         TransactionConfidence transactionConfidence = null;
@@ -439,21 +595,7 @@ public class WalletService {
     ///////////////////////////////////////////////////////////////////////////////////////////
 
     public Coin getBalanceForAddress(Address address) {
-        return wallet != null ? getBalance(wallet.calculateAllSpendCandidates(true), address) : Coin.ZERO;
-    }
-
-    private Coin getBalance(LinkedList<TransactionOutput> transactionOutputs, Address address) {
-        Coin balance = Coin.ZERO;
-        for (TransactionOutput transactionOutput : transactionOutputs) {
-            if (transactionOutput.getScriptPubKey().isSentToAddress() || transactionOutput.getScriptPubKey()
-                    .isSentToP2SH()) {
-                Address addressOutput = transactionOutput.getScriptPubKey().getToAddress(params);
-                if (addressOutput.equals(address)) {
-                    balance = balance.add(transactionOutput.getValue());
-                }
-            }
-        }
-        return balance;
+        return addressBalanceIndex.getBalance(address);
     }
 
     public Coin getWalletBalance() {
@@ -491,6 +633,7 @@ public class WalletService {
     public void payRegistrationFee(String stringifiedBankAccounts, FutureCallback<Transaction> callback) throws
             InsufficientMoneyException {
         log.debug("payRegistrationFee");
+        checkSynced();
         log.trace("stringifiedBankAccounts " + stringifiedBankAccounts);
 
         Transaction tx = new Transaction(params);
@@ -525,6 +668,7 @@ public class WalletService {
 
     public Transaction createOfferFeeTx(String offerId) throws InsufficientMoneyException {
         log.trace("createOfferFeeTx");
+        checkSynced();
         Transaction tx = new Transaction(params);
         Coin fee = FeePolicy.CREATE_OFFER_FEE.subtract(FeePolicy.TX_FEE);
         log.trace("fee: " + fee.toFriendlyString());
@@ -548,6 +692,7 @@ public class WalletService {
 
     public String payTakeOfferFee(String offerId, FutureCallback<Transaction> callback) throws
             InsufficientMoneyException {
+        checkSynced();
         Transaction tx = new Transaction(params);
         Coin fee = FeePolicy.TAKE_OFFER_FEE.subtract(FeePolicy.TX_FEE);
         log.trace("fee: " + fee.toFriendlyString());
@@ -580,18 +725,63 @@ public class WalletService {
             InsufficientMoneyException, IllegalArgumentException {
         Transaction tx = new Transaction(params);
         tx.addOutput(amount.subtract(FeePolicy.TX_FEE), new Address(params, withdrawToAddress));
+        return sendFromAddresses(tx, Collections.singletonList(withdrawFromAddress), false, callback);
+    }
+
+    /**
+     * Spends from all given addresses in one transaction and pays each receiver its amount. The miner fee is paid
+     * from the inputs on top of the amounts, the change goes back to the first of the given addresses.
+     */
+    public String sendFunds(List<String> withdrawFromAddresses,
+                            Map<String, Coin> amountsByReceiver,
+                            FutureCallback<Transaction> callback) throws AddressFormatException,
+            InsufficientMoneyException, IllegalArgumentException {
+        if (amountsByReceiver.isEmpty())
+            throw new IllegalArgumentException("No receiver given.");
+
+        Transaction tx = new Transaction(params);
+        for (Map.Entry<String, Coin> entry : amountsByReceiver.entrySet())
+            tx.addOutput(entry.getValue(), new Address(params, entry.getKey()));
+        return sendFromAddresses(tx, withdrawFromAddresses, false, callback);
+    }
+
+    /**
+     * Sends the whole balance of all given addresses minus the miner fee to one receiver in one transaction.
+     */
+    public String sweepFunds(List<String> withdrawFromAddresses,
+                             String withdrawToAddress,
+                             FutureCallback<Transaction> callback) throws AddressFormatException,
+            InsufficientMoneyException, IllegalArgumentException {
+        Transaction tx = new Transaction(params);
+        // The value is set by completeTx for a send request which empties the wallet
+        tx.addOutput(Coin.ZERO, new Address(params, withdrawToAddress));
+        return sendFromAddresses(tx, withdrawFromAddresses, true, callback);
+    }
+
+    private String sendFromAddresses(Transaction tx,
+                                     List<String> withdrawFromAddresses,
+                                     boolean emptyWallet,
+                                     FutureCallback<Transaction> callback) throws InsufficientMoneyException,
+            IllegalArgumentException {
+        checkSynced();
+        List<AddressEntry> addressEntries = new ArrayList<>();
+        for (String withdrawFromAddress : withdrawFromAddresses) {
+            Optional<AddressEntry> addressEntry = getAddressEntryByAddressString(withdrawFromAddress);
+            if (!addressEntry.isPresent())
+                throw new IllegalArgumentException("WithdrawFromAddress is not found in our wallets.");
+            addressEntries.add(addressEntry.get());
+        }
+        if (addressEntries.isEmpty())
+            throw new IllegalArgumentException("No withdrawFromAddress given.");
 
         Wallet.SendRequest sendRequest = Wallet.SendRequest.forTx(tx);
         sendRequest.shuffleOutputs = false;
+        sendRequest.emptyWallet = emptyWallet;
         // we allow spending of unconfirmed tx (double spend risk is low and usability would suffer if we need to
         // wait for 1 confirmation)
-
-        Optional<AddressEntry> addressEntry = getAddressEntryByAddressString(withdrawFromAddress);
-        if (!addressEntry.isPresent())
-            throw new IllegalArgumentException("WithdrawFromAddress is not found in our wallets.");
-
-        sendRequest.coinSelector = new AddressBasedCoinSelector(params, addressEntry.get(), true);
-        sendRequest.changeAddress = addressEntry.get().getAddress();
+        sendRequest.coinSelector = new AddressBasedCoinSelector(params, addressEntries, true,
+                CoinSelectionStrategy.OLDEST_FIRST);
+        sendRequest.changeAddress = addressEntries.get(0).getAddress();
         Wallet.SendResult sendResult = wallet.sendCoins(sendRequest);
         Futures.addCallback(sendResult.broadcastComplete, callback);
 
@@ -601,6 +791,11 @@ public class WalletService {
         return tx.getHashAsString();
     }
 
+    // Before the download is complete the wallet might miss transactions and spend coins which are already spent
+    private void checkSynced() {
+        checkState(synced, "The blockchain is not synchronized yet.");
+    }
+
 
     // TODO: Trade process - use P2SH instead and optimize tx creation and data exchange
 
@@ -617,6 +812,7 @@ public class WalletService {
                                                        String arbitratorPubKey,
                                                        String tradeId) throws InsufficientMoneyException {
         log.debug("offererCreatesMSTxAndAddPayment");
+        checkSynced();
         log.trace("inputs: ");
         log.trace("offererInputAmount=" + offererInputAmount.toFriendlyString());
         log.trace("offererPubKey=" + offererPubKey);
@@ -679,6 +875,7 @@ public class WalletService {
                                                 String offerersPartialDepositTxAsHex,
                                                 String tradeId) throws InsufficientMoneyException {
         log.debug("takerAddPaymentAndSignTx");
+        checkSynced();
         log.trace("inputs: ");
         log.trace("takerInputAmount=" + takerInputAmount.toFriendlyString());
         log.trace("msOutputAmount=" + msOutputAmount.toFriendlyString());
@@ -801,6 +998,7 @@ public class WalletService {
                                         long takerTxOutIndex,
                                         FutureCallback<Transaction> callback) {
         log.debug("offererSignAndPublishTx");
+        checkSynced();
         log.trace("inputs: ");
         log.trace("offerersFirstTxAsHex=" + offerersFirstTxAsHex);
         log.trace("takersSignedTxAsHex=" + takersSignedTxAsHex);
@@ -945,6 +1143,7 @@ public class WalletService {
                                                                              String tradeID)
             throws AddressFormatException {
         log.debug("offererCreatesAndSignsPayoutTx");
+        checkSynced();
         log.trace("inputs: ");
         log.trace("depositTxID=" + depositTxID);
         log.trace("offererPaybackAmount=" + offererPaybackAmount.toFriendlyString());
@@ -983,6 +1182,7 @@ public class WalletService {
                                      String tradeID,
                                      FutureCallback<Transaction> callback) throws AddressFormatException {
         log.debug("takerSignsAndSendsTx");
+        checkSynced();
         log.trace("inputs: ");
         log.trace("depositTxAsHex=" + depositTxAsHex);
         log.trace("offererSignatureR=" + offererSignatureR);
@@ -1036,15 +1236,21 @@ public class WalletService {
     ///////////////////////////////////////////////////////////////////////////////////////////
 
     private void saveAddressInfoList() {
-        // use wallet extension?
-        lock.lock();
-        try {
-            persistence.write(this, "addressEntryList", addressEntryList);
-        } finally {
-            lock.unlock();
+        if (saveScheduled.compareAndSet(false, true)) {
+            try {
+                walletExecutor.schedule(this::writeAddressInfoList, SAVE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // We are shutting down, shutDown writes the pending save
+            }
         }
     }
 
+    // Saves the wallet together with the address entries
+    private void writeAddressInfoList() {
+        saveScheduled.set(false);
+        wallet.addOrUpdateExtension(addressEntryWalletExtension);
+    }
+
     //TODO
     private Script getMultiSigScript(String offererPubKey, String takerPubKey, String arbitratorPubKey) {
         ECKey offererKey = ECKey.fromPublicOnly(Utils.parseAsHexOrBase58(offererPubKey));
@@ -1094,64 +1300,80 @@ public class WalletService {
     ///////////////////////////////////////////////////////////////////////////////////////////
 
 
-    private static class ObservableDownloadListener extends DownloadListener {
-
-        private final Subject<Double, Double> subject = BehaviorSubject.create(0d);
-
-        @Override
-        protected void progress(double percentage, int blocksLeft, Date date) {
-            super.progress(percentage, blocksLeft, date);
-            subject.onNext(percentage);
-        }
-
-        @Override
-        protected void doneDownload() {
-            super.doneDownload();
-            subject.onCompleted();
-        }
-
-        public Observable<Double> getObservable() {
-            return subject.asObservable();
-        }
-    }
-
-
     private class BitsquareWalletEventListener extends AbstractWalletEventListener {
         @Override
         public void onCoinsReceived(Wallet wallet, Transaction tx, Coin prevBalance, Coin newBalance) {
-            notifyBalanceListeners();
+            assignFundedTradeKeys(tx);
+            notifyBalanceListeners(addressBalanceIndex.update(wallet, tx), true);
+            notifyAddressConfidenceListeners(addressConfidenceIndex.update(tx));
         }
 
         @Override
         public void onCoinsSent(Wallet wallet, Transaction tx, Coin prevBalance, Coin newBalance) {
-            notifyBalanceListeners();
+            notifyBalanceListeners(addressBalanceIndex.update(wallet, tx), true);
+            notifyAddressConfidenceListeners(addressConfidenceIndex.update(tx));
         }
 
         @Override
-        public void onTransactionConfidenceChanged(Wallet wallet, Transaction tx) {
-            for (AddressConfidenceListener addressConfidenceListener : addressConfidenceListeners) {
-                List<TransactionConfidence> transactionConfidenceList = new ArrayList<>();
-                transactionConfidenceList.add(getTransactionConfidence(tx, addressConfidenceListener.getAddress()));
+        public void onReorganize(Wallet wallet) {
+            addressBalanceIndex.rebuild(wallet);
+            notifyBalanceListeners(null, true);
+            addressConfidenceIndex.invalidate();
+            notifyAddressConfidenceListeners(addressConfidenceListeners.keys());
+        }
 
-                TransactionConfidence transactionConfidence = getMostRecentConfidence(transactionConfidenceList);
-                addressConfidenceListener.onTransactionConfidenceChanged(transactionConfidence);
+        @Override
+        public void onTransactionConfidenceChanged(Wallet wallet, Transaction tx) {
+            // A dead transaction gives the outputs it spent back, but it is disconnected from them already
+            if (tx.getConfidence().getConfidenceType() == TransactionConfidence.ConfidenceType.DEAD) {
+                addressBalanceIndex.rebuild(wallet);
+                notifyBalanceListeners(null, true);
             }
+            else {
+                notifyBalanceListeners(addressBalanceIndex.update(wallet, tx), false);
+            }
+
+            notifyAddressConfidenceListeners(addressConfidenceIndex.update(tx));
 
-            txConfidenceListeners.stream()
-                    .filter(txConfidenceListener -> tx.getHashAsString().equals(txConfidenceListener.getTxID()))
-                    .forEach(txConfidenceListener ->
-                            txConfidenceListener.onTransactionConfidenceChanged(tx.getConfidence()));
+            for (TxConfidenceListener txConfidenceListener : txConfidenceListeners.get(tx.getHash()))
+                listenerUpdateBatcher.update(txConfidenceListener,
+                        () -> txConfidenceListener.onTransactionConfidenceChanged(tx.getConfidence()));
         }
 
-        private void notifyBalanceListeners() {
-            for (BalanceListener balanceListener : balanceListeners) {
-                Coin balance;
-                if (balanceListener.getAddress() != null)
-                    balance = getBalanceForAddress(balanceListener.getAddress());
-                else
-                    balance = getWalletBalance();
+        // Only listeners of the given addresses are notified, with the most recent confidence of their address
+        private void notifyAddressConfidenceListeners(Set<Address> addresses) {
+            for (Address address : addresses) {
+                List<AddressConfidenceListener> listeners = addressConfidenceListeners.get(address);
+                if (!listeners.isEmpty()) {
+                    TransactionConfidence confidence = getConfidenceForAddress(address);
+                    for (AddressConfidenceListener addressConfidenceListener : listeners)
+                        listenerUpdateBatcher.update(addressConfidenceListener,
+                                () -> addressConfidenceListener.onTransactionConfidenceChanged(confidence));
+                }
+            }
+        }
 
-                balanceListener.onBalanceChanged(balance);
+        // Address listeners are notified if the balance of their address has changed, all if changedAddresses is
+        // null. Wallet listeners are notified on every change of the wallet balance.
+        private void notifyBalanceListeners(@Nullable Set<Address> changedAddresses, boolean walletBalanceChanged) {
+            if (changedAddresses != null && changedAddresses.isEmpty() && !walletBalanceChanged)
+                return;
+
+            Coin walletBalance = null;
+            for (BalanceListener balanceListener : balanceListeners) {
+                Address address = balanceListener.getAddress();
+                if (address != null) {
+                    if (changedAddresses == null || changedAddresses.contains(address)) {
+                        Coin balance = getBalanceForAddress(address);
+                        listenerUpdateBatcher.update(balanceListener, () -> balanceListener.onBalanceChanged(balance));
+                    }
+                }
+                else if (walletBalanceChanged) {
+                    if (walletBalance == null)
+                        walletBalance = getWalletBalance();
+                    Coin balance = walletBalance;
+                    listenerUpdateBatcher.update(balanceListener, () -> balanceListener.onBalanceChanged(balance));
+                }
             }
         }
     }
@@ -17,19 +17,35 @@
 
 package io.bitsquare.btc.listeners;
 
+import org.bitcoinj.core.Sha256Hash;
 import org.bitcoinj.core.TransactionConfidence;
 
 public class TxConfidenceListener {
     private final String txID;
+    private final Sha256Hash txHash;
 
     public TxConfidenceListener(String txID) {
         this.txID = txID;
+        this.txHash = toHash(txID);
     }
 
     public String getTxID() {
         return txID;
     }
 
+    public Sha256Hash getTxHash() {
+        return txHash;
+    }
+
+    // A malformed id never matches a transaction
+    private static Sha256Hash toHash(String txID) {
+        try {
+            return new Sha256Hash(txID);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
     public void onTransactionConfidenceChanged(TransactionConfidence confidence) {
     }
 }
\ No newline at end of file
@@ -23,6 +23,7 @@ import io.bitsquare.arbitrator.Reputation;
 import io.bitsquare.bank.BankAccount;
 import io.bitsquare.bank.BankAccountType;
 import io.bitsquare.btc.BitcoinNetwork;
+import io.bitsquare.btc.DownloadProgress;
 import io.bitsquare.btc.WalletService;
 import io.bitsquare.gui.components.Popups;
 import io.bitsquare.gui.util.BSFormatter;
@@ -109,6 +110,7 @@ class MainViewModel implements ViewModel {
     private Persistence persistence;
     private AccountSettings accountSettings;
     private AnimationTimer bitcoinNetworkTimeout;
+    private DownloadProgress.Phase downloadPhase = DownloadProgress.Phase.HEADERS;
 
     @Inject
     public MainViewModel(User user, WalletService walletService, MessageService messageService,
@@ -205,13 +207,20 @@ class MainViewModel implements ViewModel {
             return null;
         });
 
+        // The main screen doesn't wait for the download, so the timeout ends with the first progress of it
         walletService.getDownloadProgress().subscribe(
-                percentage -> Platform.runLater(() -> {
-                    if (percentage > 0)
-                        networkSyncProgress.set(percentage / 100.0);
+                progress -> Platform.runLater(() -> {
+                    if (progress.getPercentage() > 0) {
+                        stopBitcoinNetworkTimeout();
+                        downloadPhase = progress.getPhase();
+                        networkSyncProgress.set(progress.getPercentage() / 100.0);
+                    }
                 }),
                 error -> log.error(error.toString()),
-                () -> Platform.runLater(() -> networkSyncProgress.set(1.0)));
+                () -> Platform.runLater(() -> {
+                    stopBitcoinNetworkTimeout();
+                    networkSyncProgress.set(1.0);
+                }));
 
         Observable<BootstrapState> message = messageService.init();
         message.publish();
@@ -225,11 +234,7 @@ class MainViewModel implements ViewModel {
                 next -> {
                 },
                 error -> Platform.runLater(() -> walletServiceException.set(error)),
-                () -> {
-                    log.trace("wallet completed");
-                    bitcoinNetworkTimeout.stop();
-                    bitcoinNetworkTimeout = null;
-                });
+                () -> log.trace("wallet completed"));
 
         Observable<?> backend = Observable.merge(message, wallet);
         backend.subscribe(
@@ -292,6 +297,13 @@ class MainViewModel implements ViewModel {
         user.setCurrentBankAccount(currentBankAccount);
     }
 
+    private void stopBitcoinNetworkTimeout() {
+        if (bitcoinNetworkTimeout != null) {
+            bitcoinNetworkTimeout.stop();
+            bitcoinNetworkTimeout = null;
+        }
+    }
+
     private void updateNumPendingTrades() {
         numPendingTrades.set(tradeManager.getPendingTrades().size());
         if (numPendingTrades.get() > 0)
@@ -302,6 +314,8 @@ class MainViewModel implements ViewModel {
         blockchainSyncProgress.set(value);
         if (value >= 1)
             blockchainSyncState.set("Blockchain synchronization complete.");
+        else if (value > 0.0 && downloadPhase == DownloadProgress.Phase.HEADERS)
+            blockchainSyncState.set("Synchronizing block headers: " + formatter.formatToPercent(value));
         else if (value > 0.0)
             blockchainSyncState.set("Synchronizing blockchain: " + formatter.formatToPercent(value));
         else
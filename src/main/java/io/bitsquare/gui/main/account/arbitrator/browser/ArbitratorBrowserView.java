@@ -19,6 +19,7 @@ package io.bitsquare.gui.main.account.arbitrator.browser;
 
 import io.bitsquare.account.AccountSettings;
 import io.bitsquare.arbitrator.Arbitrator;
+import io.bitsquare.arbitrator.ArbitratorDirectory;
 import io.bitsquare.gui.main.account.arbitrator.profile.ArbitratorProfileView;
 import io.bitsquare.locale.LanguageUtil;
 import io.bitsquare.msg.MessageService;
@@ -27,6 +28,7 @@ import io.bitsquare.persistence.Persistence;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 
 import javax.inject.Inject;
 
@@ -57,25 +59,30 @@ public class ArbitratorBrowserView extends ActivatableView<Pane, Void> implement
     private final AccountSettings accountSettings;
     private final Persistence persistence;
     private final MessageService messageService;
+    private final ArbitratorDirectory arbitratorDirectory;
 
     @Inject
     public ArbitratorBrowserView(CachingViewLoader viewLoader, AccountSettings accountSettings, Persistence persistence,
-                                 MessageService messageService) {
+                                 MessageService messageService, ArbitratorDirectory arbitratorDirectory) {
         this.viewLoader = viewLoader;
         this.accountSettings = accountSettings;
         this.persistence = persistence;
         this.messageService = messageService;
+        this.arbitratorDirectory = arbitratorDirectory;
     }
 
     @Override
     public void initialize() {
-        messageService.addArbitratorListener(this);
-        messageService.getArbitrators(LanguageUtil.getDefaultLanguageLocale());
-
         View view = viewLoader.load(ArbitratorProfileView.class);
         root.getChildren().set(0, view.getRoot());
         arbitratorProfileView = (ArbitratorProfileView) view;
 
+        // We show the known arbitrators at once and get the changes, if any, from the network
+        Locale languageLocale = LanguageUtil.getDefaultLanguageLocale();
+        onArbitratorsReceived(arbitratorDirectory.getArbitrators(languageLocale));
+        messageService.addArbitratorListener(this);
+        messageService.getArbitrators(languageLocale);
+
         checkButtonState();
     }
 
@@ -89,7 +96,8 @@ public class ArbitratorBrowserView extends ActivatableView<Pane, Void> implement
         allArbitrators.addAll(arbitrators);
 
         if (!allArbitrators.isEmpty()) {
-            index = 0;
+            // Stay at the arbitrator shown before the update if it is still listed
+            index = Math.max(0, allArbitrators.indexOf(currentArbitrator));
             currentArbitrator = allArbitrators.get(index);
             arbitratorProfileView.applyArbitrator(currentArbitrator);
             checkButtonState();
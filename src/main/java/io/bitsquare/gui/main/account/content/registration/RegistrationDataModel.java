@@ -57,6 +57,7 @@ class RegistrationDataModel implements DataModel {
     private AddressEntry addressEntry;
 
     final BooleanProperty isWalletFunded = new SimpleBooleanProperty();
+    final BooleanProperty isWalletSynced = new SimpleBooleanProperty();
     final BooleanProperty payFeeSuccess = new SimpleBooleanProperty();
     final StringProperty payFeeErrorMessage = new SimpleStringProperty();
 
@@ -68,6 +69,9 @@ class RegistrationDataModel implements DataModel {
         this.user = user;
         this.persistence = persistence;
 
+        if (walletService != null)
+            isWalletSynced.bind(walletService.syncedProperty());
+
         if (walletService != null && walletService.getWallet() != null) {
             addressEntry = walletService.getRegistrationAddressEntry();
             walletService.addBalanceListener(new BalanceListener(getAddressEntry().getAddress()) {
@@ -62,6 +62,7 @@ class RegistrationViewModel extends WithDelegate<RegistrationDataModel> implemen
             if (newValue)
                 validateInput();
         });
+        delegate.isWalletSynced.addListener((ov, oldValue, newValue) -> validateInput());
         validateInput();
 
         delegate.payFeeSuccess.addListener((ov, oldValue, newValue) -> {
@@ -119,7 +120,7 @@ class RegistrationViewModel extends WithDelegate<RegistrationDataModel> implemen
 
 
     private void validateInput() {
-        isPayButtonDisabled.set(!(delegate.isWalletFunded.get()));
+        isPayButtonDisabled.set(!(delegate.isWalletFunded.get() && delegate.isWalletSynced.get()));
     }
 
 
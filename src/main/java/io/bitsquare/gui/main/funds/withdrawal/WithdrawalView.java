@@ -33,6 +33,9 @@ import org.bitcoinj.core.Transaction;
 
 import com.google.common.util.concurrent.FutureCallback;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -43,6 +46,7 @@ import viewfx.view.support.ActivatableViewAndModel;
 
 import javafx.beans.property.ReadOnlyObjectWrapper;
 import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
@@ -59,7 +63,7 @@ import org.jetbrains.annotations.NotNull;
 public class WithdrawalView extends ActivatableViewAndModel {
 
     @FXML TableView<WithdrawalListItem> table;
-    @FXML Button addNewAddressButton;
+    @FXML Button addNewAddressButton, withdrawButton;
     @FXML TextField withdrawFromTextField, withdrawToTextField, amountTextField;
     @FXML TableColumn<WithdrawalListItem, WithdrawalListItem> labelColumn, addressColumn, balanceColumn, copyColumn,
             confidenceColumn;
@@ -78,7 +82,10 @@ public class WithdrawalView extends ActivatableViewAndModel {
     @Override
     public void initialize() {
         table.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY);
+        // Several addresses can be withdrawn from in one transaction
+        table.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
         table.setPlaceholder(new Label("No funded wallets for withdrawal available"));
+        withdrawButton.disableProperty().bind(walletService.syncedProperty().not());
 
         setLabelColumnCellFactory();
         setBalanceColumnCellFactory();
@@ -88,12 +95,17 @@ public class WithdrawalView extends ActivatableViewAndModel {
 
     @Override
     public void doActivate() {
-        table.getSelectionModel().selectedItemProperty().addListener((observableValue, oldValue, newValue) -> {
-            if (newValue != null) {
-
-                if (Coin.ZERO.compareTo(newValue.getBalance()) <= 0) {
-                    amountTextField.setText(newValue.getBalance().toPlainString());
-                    withdrawFromTextField.setText(newValue.getAddressEntry().getAddressString());
+        table.getSelectionModel().getSelectedItems().addListener((ListChangeListener<WithdrawalListItem>) change -> {
+            List<WithdrawalListItem> selectedItems = table.getSelectionModel().getSelectedItems().stream()
+                    .filter(item -> item != null)
+                    .collect(Collectors.toList());
+            if (!selectedItems.isEmpty()) {
+                Coin balance = getBalance(selectedItems);
+                if (Coin.ZERO.compareTo(balance) <= 0) {
+                    amountTextField.setText(balance.toPlainString());
+                    withdrawFromTextField.setText(selectedItems.stream()
+                            .map(item -> item.getAddressEntry().getAddressString())
+                            .collect(Collectors.joining(", ")));
                 }
                 else {
                     withdrawFromTextField.setText("");
@@ -142,10 +154,13 @@ public class WithdrawalView extends ActivatableViewAndModel {
                 }
             };
 
+            List<String> withdrawFromAddresses = Arrays.stream(withdrawFromTextField.getText().split("[,\\s]+"))
+                    .filter(address -> !address.isEmpty())
+                    .collect(Collectors.toList());
             Action response = Popups.openConfirmPopup(
                     "Withdrawal request", "Confirm your request",
                     "Your withdrawal request:\n\n" + "Amount: " + amountTextField.getText() + " BTC\n" + "Sending" +
-                            " address: " + withdrawFromTextField.getText() + "\n" + "Receiving address: " +
+                            " address(es): " + withdrawFromTextField.getText() + "\n" + "Receiving address: " +
                             withdrawToTextField.getText() + "\n" + "Transaction fee: " +
                             formatter.formatCoinWithCode(FeePolicy.TX_FEE) + "\n" +
                             "You receive in total: " +
@@ -155,8 +170,20 @@ public class WithdrawalView extends ActivatableViewAndModel {
             Popups.removeBlurContent();
             if (Popups.isOK(response)) {
                 try {
-                    walletService.sendFunds(withdrawFromTextField.getText(), withdrawToTextField.getText(),
-                            amount, callback);
+                    if (withdrawFromAddresses.size() == 1) {
+                        walletService.sendFunds(withdrawFromAddresses.get(0), withdrawToTextField.getText(),
+                                amount, callback);
+                    }
+                    else if (amount.equals(getBalanceOfAddresses(withdrawFromAddresses))) {
+                        // Withdrawing everything leaves no change, the fee is taken from the total
+                        walletService.sweepFunds(withdrawFromAddresses, withdrawToTextField.getText(), callback);
+                    }
+                    else {
+                        walletService.sendFunds(withdrawFromAddresses,
+                                Collections.singletonMap(withdrawToTextField.getText(),
+                                        amount.subtract(FeePolicy.TX_FEE)),
+                                callback);
+                    }
                     fillList();
                 } catch (AddressFormatException e) {
                     Popups.openErrorPopup("Address invalid",
@@ -175,6 +202,19 @@ public class WithdrawalView extends ActivatableViewAndModel {
         }
     }
 
+    private Coin getBalance(List<WithdrawalListItem> items) {
+        Coin balance = Coin.ZERO;
+        for (WithdrawalListItem item : items)
+            balance = balance.add(item.getBalance());
+        return balance;
+    }
+
+    private Coin getBalanceOfAddresses(Collection<String> addresses) {
+        return getBalance(addressList.stream()
+                .filter(item -> addresses.contains(item.getAddressEntry().getAddressString()))
+                .collect(Collectors.toList()));
+    }
+
     private void fillList() {
         addressList.clear();
         List<AddressEntry> addressEntryList = walletService.getAddressEntryList();
@@ -42,7 +42,9 @@ import java.util.Optional;
 import viewfx.model.Activatable;
 import viewfx.model.DataModel;
 
+import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
@@ -77,6 +79,7 @@ class PendingTradesDataModel implements Activatable, DataModel {
     final StringProperty txId = new SimpleStringProperty();
     final ObjectProperty<Trade.State> tradeState = new SimpleObjectProperty<>();
     final ObjectProperty<Throwable> fault = new SimpleObjectProperty<>();
+    final BooleanProperty isWalletSynced = new SimpleBooleanProperty();
 
 
     @Inject
@@ -85,6 +88,8 @@ class PendingTradesDataModel implements Activatable, DataModel {
         this.walletService = walletService;
         this.user = user;
 
+        isWalletSynced.bind(walletService.syncedProperty());
+
         this.stateChangeListener = (ov, oldValue, newValue) -> tradeState.set(newValue);
         this.faultChangeListener = (ov, oldValue, newValue) -> fault.set(newValue);
 
@@ -63,6 +63,7 @@ class PendingTradesViewModel extends ActivatableWithDelegate<PendingTradesDataMo
     private final BSFormatter formatter;
     private final InvalidationListener stateChangeListener;
     private final BtcAddressValidator btcAddressValidator;
+    private boolean isWithdrawAddressValid;
 
     final StringProperty txId = new SimpleStringProperty();
     final ObjectProperty<State> state = new SimpleObjectProperty<>();
@@ -78,6 +79,8 @@ class PendingTradesViewModel extends ActivatableWithDelegate<PendingTradesDataMo
         this.formatter = formatter;
         this.btcAddressValidator = btcAddressValidator;
         this.stateChangeListener = (ov) -> updateState();
+
+        delegate.isWalletSynced.addListener((ov, oldValue, newValue) -> updateWithdrawalButtonDisableState());
     }
 
     @Override
@@ -116,7 +119,8 @@ class PendingTradesViewModel extends ActivatableWithDelegate<PendingTradesDataMo
     }
 
     void withdrawAddressFocusOut(String text) {
-        withdrawalButtonDisable.set(!btcAddressValidator.validate(text).isValid);
+        isWithdrawAddressValid = btcAddressValidator.validate(text).isValid;
+        updateWithdrawalButtonDisableState();
     }
 
     String getAmountToWithdraw() {
@@ -216,6 +220,10 @@ class PendingTradesViewModel extends ActivatableWithDelegate<PendingTradesDataMo
     }
 
 
+    private void updateWithdrawalButtonDisableState() {
+        withdrawalButtonDisable.set(!(isWithdrawAddressValid && delegate.isWalletSynced.get()));
+    }
+
     private void updateState() {
         Trade.State tradeState = delegate.tradeState.get();
         log.trace("tradeState " + tradeState);
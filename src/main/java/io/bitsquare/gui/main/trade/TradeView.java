@@ -186,6 +186,7 @@ public abstract class TradeView extends ActivatableView<TabPane, Void> {
     }
 
     private void onCreateOfferViewRemoved() {
+        createOfferView.onClose();
         createOfferView = null;
         offerBookView.enableCreateOfferButton();
 
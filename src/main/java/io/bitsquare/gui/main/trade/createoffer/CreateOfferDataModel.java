@@ -19,6 +19,7 @@ package io.bitsquare.gui.main.trade.createoffer;
 
 import io.bitsquare.account.AccountSettings;
 import io.bitsquare.arbitrator.Arbitrator;
+import io.bitsquare.arbitrator.ArbitratorDirectory;
 import io.bitsquare.bank.BankAccount;
 import io.bitsquare.btc.AddressEntry;
 import io.bitsquare.btc.FeePolicy;
@@ -38,8 +39,10 @@ import org.bitcoinj.utils.Fiat;
 
 import com.google.inject.Inject;
 
+import java.util.List;
 import java.util.Locale;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
 import viewfx.model.Activatable;
 import viewfx.model.DataModel;
@@ -75,12 +78,14 @@ class CreateOfferDataModel implements Activatable, DataModel {
     private Preferences preferences;
     private final User user;
     private final Persistence persistence;
+    private final ArbitratorDirectory arbitratorDirectory;
     private final BSFormatter formatter;
 
     private final String offerId;
 
     @Nullable private Direction direction = null;
     private AddressEntry addressEntry;
+    private BalanceListener balanceListener;
 
     final StringProperty requestPlaceOfferErrorMessage = new SimpleStringProperty();
     final StringProperty transactionId = new SimpleStringProperty();
@@ -92,6 +97,7 @@ class CreateOfferDataModel implements Activatable, DataModel {
 
     final BooleanProperty requestPlaceOfferSuccess = new SimpleBooleanProperty();
     final BooleanProperty isWalletFunded = new SimpleBooleanProperty();
+    final BooleanProperty isWalletSynced = new SimpleBooleanProperty();
     final BooleanProperty useMBTC = new SimpleBooleanProperty();
 
     final ObjectProperty<Coin> amountAsCoin = new SimpleObjectProperty<>();
@@ -112,23 +118,27 @@ class CreateOfferDataModel implements Activatable, DataModel {
     @Inject
     public CreateOfferDataModel(TradeManager tradeManager, WalletService walletService, AccountSettings accountSettings,
                                 Preferences preferences, User user, Persistence persistence,
-                                BSFormatter formatter) {
+                                ArbitratorDirectory arbitratorDirectory, BSFormatter formatter) {
         this.tradeManager = tradeManager;
         this.walletService = walletService;
         this.accountSettings = accountSettings;
         this.preferences = preferences;
         this.user = user;
         this.persistence = persistence;
+        this.arbitratorDirectory = arbitratorDirectory;
         this.formatter = formatter;
         this.offerId = UUID.randomUUID().toString();
 
         offerFeeAsCoin.set(FeePolicy.CREATE_OFFER_FEE);
         networkFeeAsCoin.set(FeePolicy.TX_FEE);
 
+        if (walletService != null)
+            isWalletSynced.bind(walletService.syncedProperty());
+
         if (walletService != null && walletService.getWallet() != null) {
-            addressEntry = walletService.getAddressInfoByTradeID(offerId);
+            addressEntry = walletService.reserveTradeAddressEntry(offerId);
 
-            walletService.addBalanceListener(new BalanceListener(getAddressEntry().getAddress()) {
+            balanceListener = walletService.addBalanceListener(new BalanceListener(getAddressEntry().getAddress()) {
                 @Override
                 public void onBalanceChanged(@NotNull Coin balance) {
                     updateBalance(balance);
@@ -161,7 +171,7 @@ class CreateOfferDataModel implements Activatable, DataModel {
 
             acceptedCountries.setAll(accountSettings.getAcceptedCountries());
             acceptedLanguages.setAll(accountSettings.getAcceptedLanguageLocales());
-            acceptedArbitrators.setAll(accountSettings.getAcceptedArbitrators());
+            acceptedArbitrators.setAll(getAcceptedArbitrators());
         }
     }
 
@@ -170,6 +180,15 @@ class CreateOfferDataModel implements Activatable, DataModel {
         // no-op
     }
 
+    void onClose() {
+        if (balanceListener != null)
+            walletService.removeBalanceListener(balanceListener);
+
+        // The key of an offer which was not placed goes back to the pool for the next one
+        if (walletService != null && !requestPlaceOfferSuccess.get())
+            walletService.releaseTradeAddressEntry(offerId);
+    }
+
     void placeOffer() {
         // data validation is done in the trade domain
         tradeManager.requestPlaceOffer(offerId,
@@ -283,4 +302,14 @@ class CreateOfferDataModel implements Activatable, DataModel {
             fiatCode.set(bankAccount.getCurrency().getCurrencyCode());
         }
     }
+
+    // The accepted arbitrators as currently published, if the directory knows them
+    private List<Arbitrator> getAcceptedArbitrators() {
+        return accountSettings.getAcceptedArbitrators().stream()
+                .map(arbitrator -> {
+                    Arbitrator published = arbitratorDirectory.getArbitrator(arbitrator.getId());
+                    return published != null ? published : arbitrator;
+                })
+                .collect(Collectors.toList());
+    }
 }
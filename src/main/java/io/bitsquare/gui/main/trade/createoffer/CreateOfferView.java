@@ -141,6 +141,11 @@ public class CreateOfferView extends ActivatableViewAndModel<AnchorPane, CreateO
         tabIsClosable.bind(model.tabIsClosable);
     }
 
+    // Called when the tab got removed, after placing the offer or without
+    public void onClose() {
+        model.onClose();
+    }
+
     @FXML
     void onPlaceOffer() {
         model.placeOffer();
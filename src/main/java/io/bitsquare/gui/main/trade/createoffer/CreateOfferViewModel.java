@@ -140,6 +140,10 @@ class CreateOfferViewModel extends ActivatableWithDelegate<CreateOfferDataModel>
     }
 
 
+    void onClose() {
+        delegate.onClose();
+    }
+
     void placeOffer() {
         delegate.requestPlaceOfferErrorMessage.set(null);
         delegate.requestPlaceOfferSuccess.set(false);
@@ -298,6 +302,7 @@ class CreateOfferViewModel extends ActivatableWithDelegate<CreateOfferDataModel>
                 tabIsClosable.set(false);
             }
         });
+        delegate.isWalletSynced.addListener((ov, oldValue, newValue) -> updateButtonDisableState());
 
         // Binding with Bindings.createObjectBinding does not work because of bi-directional binding
         delegate.amountAsCoin.addListener((ov, oldValue, newValue) -> amount.set(formatter.formatCoin(newValue)));
@@ -397,7 +402,8 @@ class CreateOfferViewModel extends ActivatableWithDelegate<CreateOfferDataModel>
                         isBtcInputValid(price.get()).isValid &&
                         isBtcInputValid(volume.get()).isValid &&
                         delegate.isMinAmountLessOrEqualAmount() &&
-                        delegate.isWalletFunded.get())
+                        delegate.isWalletFunded.get() &&
+                        delegate.isWalletSynced.get())
         );
     }
 
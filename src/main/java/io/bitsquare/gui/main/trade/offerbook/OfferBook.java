@@ -25,7 +25,10 @@ import io.bitsquare.offer.OfferRepository;
 import io.bitsquare.user.User;
 import io.bitsquare.util.Utilities;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.inject.Inject;
 
@@ -54,6 +57,8 @@ public class OfferBook {
     private final User user;
 
     private final ObservableList<OfferBookListItem> offerBookListItems = FXCollections.observableArrayList();
+    // Ids of the offers in offerBookListItems
+    private final Set<String> offerIds = new HashSet<>();
     private final OfferRepository.Listener offerRepositoryListener;
     private final ChangeListener<BankAccount> bankAccountChangeListener;
     private final ChangeListener<Number> invalidationListener;
@@ -84,13 +89,18 @@ public class OfferBook {
             @Override
             public void onOffersReceived(List<Offer> offers) {
                 //TODO use deltas instead replacing the whole list
-                offerBookListItems.clear();
-                offers.stream().forEach(e -> addOfferToOfferBookListItems(e));
+                offerIds.clear();
+                List<OfferBookListItem> items = new ArrayList<>();
+                offers.stream()
+                        .filter(offer -> offer != null && offerIds.add(offer.getId()))
+                        .forEach(offer -> items.add(new OfferBookListItem(offer, country)));
+                offerBookListItems.setAll(items);
             }
 
             @Override
             public void onOfferRemoved(Offer offer) {
-                offerBookListItems.removeIf(item -> item.getOffer().getId().equals(offer.getId()));
+                if (offerIds.remove(offer.getId()))
+                    offerBookListItems.removeIf(item -> item.getOffer().getId().equals(offer.getId()));
             }
         };
     }
@@ -154,9 +164,8 @@ public class OfferBook {
     }
 
     private void addOfferToOfferBookListItems(Offer offer) {
-        if (offer != null) {
+        if (offer != null && offerIds.add(offer.getId()))
             offerBookListItems.add(new OfferBookListItem(offer, country));
-        }
     }
 
     private void requestOffers() {
@@ -82,6 +82,7 @@ class TakeOfferDataModel implements Activatable, DataModel {
 
     final BooleanProperty requestTakeOfferSuccess = new SimpleBooleanProperty();
     final BooleanProperty isWalletFunded = new SimpleBooleanProperty();
+    final BooleanProperty isWalletSynced = new SimpleBooleanProperty();
     final BooleanProperty useMBTC = new SimpleBooleanProperty();
 
     final ObjectProperty<Coin> amountAsCoin = new SimpleObjectProperty<>();
@@ -109,6 +110,8 @@ class TakeOfferDataModel implements Activatable, DataModel {
 
         offerFeeAsCoin.set(FeePolicy.CREATE_OFFER_FEE);
         networkFeeAsCoin.set(FeePolicy.TX_FEE);
+
+        isWalletSynced.bind(walletService.syncedProperty());
     }
 
     @Override
@@ -276,6 +276,7 @@ class TakeOfferViewModel extends ActivatableWithDelegate<TakeOfferDataModel> imp
                 tabIsClosable.set(false);
             }
         });
+        delegate.isWalletSynced.addListener((ov, oldValue, newValue) -> updateButtonDisableState());
 
         // Binding with Bindings.createObjectBinding does not work because of bi-directional binding
         delegate.amountAsCoin.addListener((ov, oldValue, newValue) -> amount.set(formatter.formatCoin(newValue)));
@@ -324,7 +325,8 @@ class TakeOfferViewModel extends ActivatableWithDelegate<TakeOfferDataModel> imp
         isTakeOfferButtonDisabled.set(!(isBtcInputValid(amount.get()).isValid &&
                         delegate.isMinAmountLessOrEqualAmount() &&
                         !delegate.isAmountLargerThanOfferAmount() &&
-                        delegate.isWalletFunded.get())
+                        delegate.isWalletFunded.get() &&
+                        delegate.isWalletSynced.get())
         );
     }
 
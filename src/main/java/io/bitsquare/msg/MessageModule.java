@@ -18,8 +18,10 @@
 package io.bitsquare.msg;
 
 import io.bitsquare.BitsquareModule;
+import io.bitsquare.arbitrator.ArbitratorDirectory;
 
 import com.google.inject.Injector;
+import com.google.inject.Singleton;
 
 import org.springframework.core.env.Environment;
 
@@ -32,6 +34,7 @@ public abstract class MessageModule extends BitsquareModule {
     @Override
     protected final void configure() {
         bind(MessageService.class).to(messageService()).asEagerSingleton();
+        bind(ArbitratorDirectory.class).in(Singleton.class);
 
         doConfigure();
     }
@@ -45,6 +45,10 @@ public interface MessageService extends MessageBroker {
 
     void addArbitratorListener(ArbitratorListener listener);
 
+    /**
+     * Requests the arbitrators speaking the language of the given locale. The arbitrator listeners receive them if
+     * they have changed since the last request. Use the ArbitratorDirectory to query the known arbitrators.
+     */
     void getArbitrators(Locale defaultLanguageLocale);
 
     Observable<BootstrapState> init();
@@ -0,0 +1,50 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.msg.simulation;
+
+import io.bitsquare.msg.MessageModule;
+import io.bitsquare.msg.MessageService;
+import io.bitsquare.network.ClientNode;
+import io.bitsquare.network.simulation.SimulatedNode;
+
+import org.springframework.core.env.Environment;
+
+/**
+ * Runs the message service on a node of a {@link io.bitsquare.network.simulation.SimulatedNetwork}, for tests and
+ * benchmarks which inject a whole application per simulated node.
+ */
+public class SimulatedMessageModule extends MessageModule {
+
+    private final SimulatedNode node;
+
+    public SimulatedMessageModule(Environment env, SimulatedNode node) {
+        super(env);
+        this.node = node;
+    }
+
+    @Override
+    protected void doConfigure() {
+        bind(SimulatedNode.class).toInstance(node);
+        bind(ClientNode.class).toInstance(node);
+    }
+
+    @Override
+    protected Class<? extends MessageService> messageService() {
+        return SimulatedMessageService.class;
+    }
+}
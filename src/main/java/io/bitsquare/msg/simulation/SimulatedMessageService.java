@@ -0,0 +1,211 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.msg.simulation;
+
+import io.bitsquare.arbitrator.Arbitrator;
+import io.bitsquare.msg.Message;
+import io.bitsquare.msg.MessageService;
+import io.bitsquare.msg.listeners.ArbitratorListener;
+import io.bitsquare.msg.listeners.GetPeerAddressListener;
+import io.bitsquare.msg.listeners.IncomingMessageListener;
+import io.bitsquare.msg.listeners.OutgoingMessageListener;
+import io.bitsquare.network.BootstrapState;
+import io.bitsquare.network.Peer;
+import io.bitsquare.network.simulation.SimulatedNode;
+import io.bitsquare.network.simulation.SimulatedPeer;
+import io.bitsquare.user.User;
+
+import com.google.common.hash.Hashing;
+
+import java.security.PublicKey;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import javax.inject.Inject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import rx.Observable;
+import rx.subjects.BehaviorSubject;
+import rx.subjects.Subject;
+
+/**
+ * A {@link MessageService} on a node of a {@link io.bitsquare.network.simulation.SimulatedNetwork}, storing the
+ * same data under the same keys as the TomP2P message service. Listeners are called on the thread running the
+ * simulation, not on the FX application thread.
+ */
+public class SimulatedMessageService implements MessageService {
+    private static final Logger log = LoggerFactory.getLogger(SimulatedMessageService.class);
+    private static final String ARBITRATORS_ROOT = "ArbitratorsRoot";
+
+    private final User user;
+    private final SimulatedNode node;
+
+    private final List<ArbitratorListener> arbitratorListeners = new ArrayList<>();
+    private final List<IncomingMessageListener> incomingMessageListeners = new ArrayList<>();
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    @Inject
+    public SimulatedMessageService(User user, SimulatedNode node) {
+        this.user = user;
+        this.node = node;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Public Methods
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Goes online and stores our peer address under our message public key. Completes once it is stored.
+     */
+    public Observable<BootstrapState> init() {
+        Subject<BootstrapState, BootstrapState> bootstrapStateSubject = BehaviorSubject.create();
+        node.setMessageBroker(this);
+        node.setOnline(true);
+        bootstrapStateSubject.onNext(BootstrapState.DISCOVERY_DIRECT_SUCCEEDED);
+        node.putData(getPeerAddressKey(user.getMessagePublicKey()), node.getPeer(), success -> {
+            if (success)
+                bootstrapStateSubject.onCompleted();
+            else
+                bootstrapStateSubject.onError(new IllegalStateException("Storing the peer address failed"));
+        });
+        return bootstrapStateSubject.asObservable();
+    }
+
+    public void shutDown() {
+        node.setOnline(false);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Find peer address by publicKey
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public void getPeerAddress(PublicKey publicKey, GetPeerAddressListener listener) {
+        node.getDataMap(getPeerAddressKey(publicKey), values -> {
+            if (values != null && !values.isEmpty() && values.get(0) instanceof Peer) {
+                listener.onResult((Peer) values.get(0));
+            }
+            else {
+                log.debug("getPeerAddress failed for " + node);
+                listener.onFailed();
+            }
+        });
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Trade process
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public void sendMessage(Peer peer, Message message, OutgoingMessageListener listener) {
+        if (!(peer instanceof SimulatedPeer)) {
+            throw new IllegalArgumentException("peer must be of type SimulatedPeer");
+        }
+        node.sendData((SimulatedPeer) peer, message, success -> {
+            if (success)
+                listener.onResult();
+            else
+                listener.onFailed();
+        });
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Arbitrators
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public void addArbitrator(Arbitrator arbitrator) {
+        node.addData(ARBITRATORS_ROOT, arbitrator, success ->
+                arbitratorListeners.stream().forEach(listener -> listener.onArbitratorAdded(arbitrator)));
+    }
+
+    public void removeArbitrator(Arbitrator arbitrator) {
+        node.removeData(ARBITRATORS_ROOT, arbitrator, success ->
+                arbitratorListeners.stream().forEach(listener -> listener.onArbitratorRemoved(arbitrator)));
+    }
+
+    public void getArbitrators(Locale languageLocale) {
+        node.getDataMap(ARBITRATORS_ROOT, values -> {
+            List<Arbitrator> arbitrators = new ArrayList<>();
+            if (values != null) {
+                values.stream()
+                        .filter(value -> value instanceof Arbitrator)
+                        .map(value -> (Arbitrator) value)
+                        .filter(arbitrator -> speaks(arbitrator, languageLocale))
+                        .forEach(arbitrators::add);
+            }
+            arbitratorListeners.stream().forEach(listener -> listener.onArbitratorsReceived(arbitrators));
+        });
+    }
+
+
+    private static boolean speaks(Arbitrator arbitrator, Locale languageLocale) {
+        return languageLocale == null || (arbitrator.getLanguages() != null && arbitrator.getLanguages().stream()
+                .anyMatch(locale -> locale.getLanguage().equals(languageLocale.getLanguage())));
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Event Listeners
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public void addArbitratorListener(ArbitratorListener listener) {
+        arbitratorListeners.add(listener);
+    }
+
+    public void removeArbitratorListener(ArbitratorListener listener) {
+        arbitratorListeners.remove(listener);
+    }
+
+    public void addIncomingMessageListener(IncomingMessageListener listener) {
+        incomingMessageListeners.add(listener);
+    }
+
+    public void removeIncomingMessageListener(IncomingMessageListener listener) {
+        incomingMessageListeners.remove(listener);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Incoming message handler
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    @Override
+    public void handleMessage(Object message, Peer sender) {
+        if (message instanceof Message)
+            incomingMessageListeners.stream().forEach(e -> e.onMessage((Message) message, sender));
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private static String getPeerAddressKey(PublicKey publicKey) {
+        return Hashing.sha1().hashBytes(publicKey.getEncoded()).toString();
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.msg.tomp2p;
+
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+
+import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.peers.PeerMap;
+import net.tomp2p.peers.PeerMapChangeListener;
+import net.tomp2p.peers.PeerStatistic;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Triggers a check of our own peer address whenever something happened which might have changed it: peers joining or
+ * leaving our peer map, a change of the bootstrap/NAT state or a change of the addresses of our local network
+ * interfaces. All events until a scheduled check runs are covered by that check, so bursts of them lead to a single
+ * check and a steady stream of them to one check per debounce interval. All work runs on the shared application
+ * scheduler.
+ */
+class AddressChangeMonitor {
+    private static final Logger log = LoggerFactory.getLogger(AddressChangeMonitor.class);
+
+    static final long DEBOUNCE_MILLIS = 2000;
+    static final long INTERFACE_CHECK_PERIOD_SECONDS = 30;
+
+    private final ScheduledExecutorService scheduler;
+    private final long debounceMillis;
+
+    private Runnable addressCheck;
+    private ScheduledFuture<?> pendingCheck;
+    private ScheduledFuture<?> interfaceCheck;
+    private Set<InetAddress> interfaceAddresses = Collections.emptySet();
+    private PeerMap peerMap;
+    private PeerMapChangeListener peerMapChangeListener;
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    @Inject
+    public AddressChangeMonitor(ScheduledExecutorService scheduler) {
+        this(scheduler, DEBOUNCE_MILLIS);
+    }
+
+    // for unit testing
+    AddressChangeMonitor(ScheduledExecutorService scheduler, long debounceMillis) {
+        this.scheduler = scheduler;
+        this.debounceMillis = debounceMillis;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Public methods
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * @param peerMap      the peer map of our peer, its changes trigger a check
+     * @param addressCheck compares our current address with the published one and republishes it if needed
+     */
+    public synchronized void start(PeerMap peerMap, Runnable addressCheck) {
+        start(addressCheck);
+
+        this.peerMap = peerMap;
+        peerMapChangeListener = new PeerMapChangeListener() {
+            @Override
+            public void peerInserted(PeerAddress peerAddress, boolean verified) {
+                onPossibleChange("peer inserted");
+            }
+
+            @Override
+            public void peerRemoved(PeerAddress peerAddress, PeerStatistic peerStatistics) {
+                onPossibleChange("peer removed");
+            }
+
+            @Override
+            public void peerUpdated(PeerAddress peerAddress, PeerStatistic peerStatistics) {
+                // Fired for every message from a known peer, it does not tell us anything about our address
+            }
+        };
+        peerMap.addPeerMapChangeListener(peerMapChangeListener);
+    }
+
+    // Everything but listening to the peer map
+    synchronized void start(Runnable addressCheck) {
+        this.addressCheck = addressCheck;
+        interfaceAddresses = readInterfaceAddresses();
+
+        // The JDK offers no notification for changes of the network interfaces, so we compare their addresses
+        // periodically. That is cheap as it does not touch the network.
+        interfaceCheck = scheduler.scheduleWithFixedDelay(this::checkInterfaces,
+                INTERFACE_CHECK_PERIOD_SECONDS, INTERFACE_CHECK_PERIOD_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Schedules an address check unless one is already scheduled. We do not postpone a scheduled check, as peers
+     * change all the time and the check would never run.
+     */
+    public synchronized void onPossibleChange(String reason) {
+        if (addressCheck == null || scheduler.isShutdown())
+            return;
+
+        log.trace("Possible address change: " + reason);
+        if (pendingCheck != null)
+            return;
+
+        pendingCheck = scheduler.schedule(this::runCheck, debounceMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        addressCheck = null;
+        if (pendingCheck != null) {
+            pendingCheck.cancel(false);
+            pendingCheck = null;
+        }
+        if (interfaceCheck != null)
+            interfaceCheck.cancel(false);
+        if (peerMap != null) {
+            peerMap.removePeerMapChangeListener(peerMapChangeListener);
+            peerMap = null;
+            peerMapChangeListener = null;
+        }
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private void runCheck() {
+        Runnable check;
+        synchronized (this) {
+            // Changes from now on are not covered by this check anymore
+            pendingCheck = null;
+            check = addressCheck;
+        }
+        if (check == null)
+            return;
+
+        try {
+            check.run();
+        } catch (Throwable t) {
+            log.error("Address check failed: " + t.getMessage());
+        }
+    }
+
+    private synchronized void checkInterfaces() {
+        Set<InetAddress> addresses = readInterfaceAddresses();
+        if (!addresses.equals(interfaceAddresses)) {
+            log.info("Local network interfaces changed from " + interfaceAddresses + " to " + addresses);
+            interfaceAddresses = addresses;
+            onPossibleChange("network interfaces changed");
+        }
+    }
+
+    private static Set<InetAddress> readInterfaceAddresses() {
+        Set<InetAddress> addresses = new HashSet<>();
+        try {
+            for (NetworkInterface networkInterface : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+                if (networkInterface.isUp() && !networkInterface.isLoopback())
+                    addresses.addAll(Collections.list(networkInterface.getInetAddresses()));
+            }
+        } catch (SocketException e) {
+            log.warn("Could not read network interfaces: " + e.getMessage());
+        }
+        return addresses;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.msg.tomp2p;
+
+import io.bitsquare.network.Node;
+import io.bitsquare.persistence.Persistence;
+
+import java.io.Serializable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers how fast and how reliably bootstrap nodes answered in the past, so that the next start tries the best
+ * nodes first. The statistics are persisted.
+ */
+class BootstrapNodeRanking {
+    private static final Logger log = LoggerFactory.getLogger(BootstrapNodeRanking.class);
+
+    private static final String PERSISTENCE_KEY = "statistics";
+
+    // Assumed latency of nodes we have never talked to
+    static final double UNKNOWN_LATENCY_MILLIS = 1000;
+    // Added to the latency for each failure since the last success
+    static final double FAILURE_PENALTY_MILLIS = 5000;
+    // Weight of a new sample in the moving average
+    private static final double SMOOTHING = 0.3;
+
+    static class Statistics implements Serializable {
+        private static final long serialVersionUID = 4017367045829331536L;
+
+        private double averageLatencyMillis;
+        private long successes;
+        private int consecutiveFailures;
+
+        double score() {
+            double latency = successes > 0 ? averageLatencyMillis : UNKNOWN_LATENCY_MILLIS;
+            return latency + consecutiveFailures * FAILURE_PENALTY_MILLIS;
+        }
+
+        double getAverageLatencyMillis() {
+            return averageLatencyMillis;
+        }
+
+        int getConsecutiveFailures() {
+            return consecutiveFailures;
+        }
+    }
+
+    private final Persistence persistence;
+    private Map<String, Statistics> statistics;
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    @Inject
+    public BootstrapNodeRanking(Persistence persistence) {
+        this.persistence = persistence;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Public methods
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * @return the given nodes, best first. Nodes with equal scores keep their order.
+     */
+    public synchronized List<Node> rank(Collection<Node> nodes) {
+        List<Node> ranked = new ArrayList<>(nodes);
+        ranked.sort(Comparator.comparingDouble(node -> getStatistics(node).score()));
+        return ranked;
+    }
+
+    public synchronized void recordSuccess(Node node, long latencyMillis) {
+        Statistics nodeStatistics = getStatistics(node);
+        nodeStatistics.averageLatencyMillis = nodeStatistics.successes == 0 ? latencyMillis :
+                (1 - SMOOTHING) * nodeStatistics.averageLatencyMillis + SMOOTHING * latencyMillis;
+        nodeStatistics.successes++;
+        nodeStatistics.consecutiveFailures = 0;
+        log.debug("Bootstrap node " + node.getName() + " answered in " + latencyMillis + " ms");
+    }
+
+    public synchronized void recordFailure(Node node) {
+        getStatistics(node).consecutiveFailures++;
+        log.debug("Bootstrap node " + node.getName() + " failed");
+    }
+
+    public synchronized void save() {
+        if (statistics != null)
+            persistence.write(this, PERSISTENCE_KEY, statistics);
+    }
+
+    synchronized Statistics getStatistics(Node node) {
+        return getStatisticsMap().computeIfAbsent(key(node), key -> new Statistics());
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    // Read lazily as persistence is initialized after the injector has created us
+    @SuppressWarnings("unchecked")
+    private Map<String, Statistics> getStatisticsMap() {
+        if (statistics == null) {
+            Object persisted = persistence.read(this, PERSISTENCE_KEY);
+            statistics = persisted instanceof Map ? (Map<String, Statistics>) persisted : new HashMap<>();
+        }
+        return statistics;
+    }
+
+    private static String key(Node node) {
+        return node.getIp() + ":" + node.getPort();
+    }
+}
@@ -17,10 +17,14 @@
 
 package io.bitsquare.msg.tomp2p;
 
+import io.bitsquare.network.BootstrapNodes;
 import io.bitsquare.network.BootstrapState;
+import io.bitsquare.network.ConnectionType;
 import io.bitsquare.network.Node;
+import io.bitsquare.network.tomp2p.NetworkEventExecutorGroup;
 
 import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import com.google.inject.name.Named;
 
@@ -31,6 +35,23 @@ import java.net.UnknownHostException;
 
 import java.security.KeyPair;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import javax.annotation.Nullable;
+
 import javax.inject.Inject;
 
 import javafx.beans.property.ObjectProperty;
@@ -46,6 +67,7 @@ import net.tomp2p.futures.BaseFutureListener;
 import net.tomp2p.futures.FutureBootstrap;
 import net.tomp2p.futures.FutureDiscover;
 import net.tomp2p.nat.FutureNAT;
+import net.tomp2p.nat.NATUtils;
 import net.tomp2p.nat.PeerBuilderNAT;
 import net.tomp2p.nat.PeerNAT;
 import net.tomp2p.p2p.Peer;
@@ -60,11 +82,12 @@ import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import io.netty.util.concurrent.DefaultEventExecutorGroup;
-
 
 /**
- * Creates a DHT peer and bootstraps to the network via a bootstrap node
+ * Creates a DHT peer and bootstraps to the network via a bootstrap node.
+ * Discovery and bootstrap are sent to several bootstrap nodes at once and the first one to succeed is used.
+ * Peers we knew at the last shutdown are used for bootstrapping as well, so we often do not depend on a bootstrap
+ * node for joining the DHT.
  */
 class BootstrappedPeerBuilder {
     private static final Logger log = LoggerFactory.getLogger(BootstrappedPeerBuilder.class);
@@ -74,11 +97,21 @@ class BootstrappedPeerBuilder {
     static final String NETWORK_INTERFACE_UNSPECIFIED = "<unspecified>";
     static final String USE_MANUAL_PORT_FORWARDING_KEY = "node.useManualPortForwarding";
 
+    // Maximum number of bootstrap nodes we contact at the same time
+    static final int MAX_PARALLEL_BOOTSTRAP_NODES = 3;
+
     private KeyPair keyPair;
     private final int port;
     private boolean useManualPortForwarding;
     private final Node bootstrapNode;
     private final String networkInterface;
+    private final NetworkEventExecutorGroup eventExecutorGroup;
+    private final BootstrapNodeRanking bootstrapNodeRanking;
+    private final PeerAddressCache peerAddressCache;
+    private final NatTraversalCache natTraversalCache;
+    // Talking to the router blocks for a while, so it must not hold up the application scheduler or the network
+    private final ExecutorService portMappingExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("PortMapping").setDaemon(true).build());
 
     private final SettableFuture<PeerDHT> settableFuture = SettableFuture.create();
 
@@ -86,6 +119,9 @@ class BootstrappedPeerBuilder {
 
     private Peer peer;
     private PeerDHT peerDHT;
+    private volatile Node activeBootstrapNode;
+    private volatile boolean bootstrapped;
+    private String internalHost;
 
 
     ///////////////////////////////////////////////////////////////////////////////////////////
@@ -96,11 +132,19 @@ class BootstrappedPeerBuilder {
     public BootstrappedPeerBuilder(@Named(Node.PORT_KEY) int port,
                                    @Named(USE_MANUAL_PORT_FORWARDING_KEY) boolean useManualPortForwarding,
                                    @Named(BOOTSTRAP_NODE_KEY) Node bootstrapNode,
-                                   @Named(NETWORK_INTERFACE_KEY) String networkInterface) {
+                                   @Named(NETWORK_INTERFACE_KEY) String networkInterface,
+                                   NetworkEventExecutorGroup eventExecutorGroup,
+                                   BootstrapNodeRanking bootstrapNodeRanking,
+                                   PeerAddressCache peerAddressCache,
+                                   NatTraversalCache natTraversalCache) {
         this.port = port;
         this.useManualPortForwarding = useManualPortForwarding;
         this.bootstrapNode = bootstrapNode;
         this.networkInterface = networkInterface;
+        this.eventExecutorGroup = eventExecutorGroup;
+        this.bootstrapNodeRanking = bootstrapNodeRanking;
+        this.peerAddressCache = peerAddressCache;
+        this.natTraversalCache = natTraversalCache;
     }
 
 
@@ -119,12 +163,9 @@ class BootstrappedPeerBuilder {
 
     public SettableFuture<PeerDHT> start() {
         try {
-            DefaultEventExecutorGroup eventExecutorGroup = new DefaultEventExecutorGroup(250);
             ChannelClientConfiguration clientConf = PeerBuilder.createDefaultChannelClientConfiguration();
-            clientConf.pipelineFilter(new PeerBuilder.EventExecutorGroupFilter(eventExecutorGroup));
-
             ChannelServerConfiguration serverConf = PeerBuilder.createDefaultChannelServerConfiguration();
-            serverConf.pipelineFilter(new PeerBuilder.EventExecutorGroupFilter(eventExecutorGroup));
+            eventExecutorGroup.applyTo(clientConf, serverConf);
             serverConf.connectionTimeoutTCPMillis(5000);
 
             Bindings bindings = new Bindings();
@@ -179,13 +220,21 @@ class BootstrappedPeerBuilder {
     }
 
     void shutDown() {
-        if (peerDHT != null)
+        portMappingExecutor.shutdownNow();
+        if (peerDHT != null) {
+            // Only a bootstrapped peer map is worth remembering
+            if (bootstrapped)
+                peerAddressCache.save(peer.peerBean().peerMap().all());
             peerDHT.shutdown();
+        }
+
+        log.info("Network event executor: " + eventExecutorGroup.getStatistics());
+        eventExecutorGroup.shutdownGracefully();
     }
 
     // We need to discover our external address and test if we are reachable for other nodes
     // We know our internal address from a discovery of our local network interfaces
-    // We start a discover process with our bootstrap node.
+    // We start a discover process with our bootstrap nodes (in parallel, the first one to succeed is used).
     // There are 4 cases:
     // 1. If we are not behind a NAT we get reported back the same address as our internal.
     // 2. If we are behind a NAT and manual port forwarding is setup we get reported our external address from the
@@ -195,11 +244,88 @@ class BootstrappedPeerBuilder {
     // tested successfully our reachability (the additional discover is done internally from startSetupPortforwarding)
     // 4. If the port forwarding failed we can try as last resort to open a permanent TCP connection to the
     // bootstrap node and use that peer as relay (currently not supported as its too unstable)
+    // If we needed case 3 at the last start on the same network we set up the port forwarding right away.
 
     private void discoverExternalAddress() {
-        FutureDiscover futureDiscover = peer.discover().peerAddress(getBootstrapAddress()).start();
         setState(BootstrapState.DISCOVERY_STARTED, "Starting discovery...");
         PeerNAT peerNAT = new PeerBuilderNAT(peer).start();
+
+        NatTraversalCache.Result lastResult = natTraversalCache.load(getInternalHost(), port);
+        if (lastResult != null)
+            log.debug("Last NAT traversal on this network: " + lastResult);
+
+        if (!useManualPortForwarding && lastResult != null &&
+                lastResult.getConnectionType() == ConnectionType.AUTO_PORT_FORWARDING)
+            restorePortForwarding(peerNAT);
+        else
+            discover(peerNAT);
+    }
+
+    private void discover(PeerNAT peerNAT) {
+        race(getBootstrapNodeCandidates(),
+                bootstrapAddress -> peer.discover().peerAddress(bootstrapAddress).start(),
+                (node, futureDiscover) -> {
+                    activeBootstrapNode = node;
+                    setupPortForwarding(peerNAT, futureDiscover);
+                },
+                futureDiscovers -> {
+                    // Nobody could reach us. We try port forwarding with the best ranked node.
+                    if (futureDiscovers.isEmpty())
+                        handleError(BootstrapState.DISCOVERY_FAILED, "No bootstrap node address could be resolved.");
+                    else
+                        setupPortForwarding(peerNAT, futureDiscovers.get(0));
+                });
+    }
+
+    // The known-good path: Instead of waiting for the discovery probe to fail before port forwarding is configured,
+    // we configure it first and verify it with a single discovery. If that does not work out we fall back to the
+    // full discovery.
+    // There is no full discovery in the background after the known-good path succeeded: with the port mapped,
+    // a discovery succeeds whether we still need the mapping or not, so it could not tell a changed network apart.
+    // The verifying discovery already proves that we are reachable, and a failing one clears the cache.
+    private void restorePortForwarding(PeerNAT peerNAT) {
+        setState(BootstrapState.DISCOVERY_AUTO_PORT_FORWARDING_STARTED, "Configuring automatic port forwarding");
+        portMappingExecutor.execute(() -> {
+            if (!mapPort(peerNAT.natUtils())) {
+                log.info("Restoring the port forwarding failed. We start a full discovery.");
+                natTraversalCache.clear();
+                discover(peerNAT);
+                return;
+            }
+
+            race(getBootstrapNodeCandidates(),
+                    bootstrapAddress -> peer.discover().peerAddress(bootstrapAddress).start(),
+                    (node, futureDiscover) -> {
+                        activeBootstrapNode = node;
+                        setState(BootstrapState.DISCOVERY_AUTO_PORT_FORWARDING_SUCCEEDED,
+                                "Now visible to the Bitsquare network (with automatic port forwarding).");
+                        rememberNatTraversal(ConnectionType.AUTO_PORT_FORWARDING);
+                        bootstrap();
+                    },
+                    futureDiscovers -> {
+                        log.info("Not reachable with the restored port forwarding. We start a full discovery.");
+                        natTraversalCache.clear();
+                        discover(peerNAT);
+                    });
+        });
+    }
+
+    private boolean mapPort(NATUtils natUtils) {
+        try {
+            if (natUtils.mapUPNP(getInternalHost(), port, port, port, port))
+                return true;
+        } catch (Exception e) {
+            log.debug("UPnP port mapping failed: " + e.getMessage());
+        }
+        try {
+            return natUtils.mapPMP(port, port, port, port);
+        } catch (Exception e) {
+            log.debug("NAT-PMP port mapping failed: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void setupPortForwarding(PeerNAT peerNAT, FutureDiscover futureDiscover) {
         FutureNAT futureNAT = peerNAT.startSetupPortforwarding(futureDiscover);
         futureNAT.addListener(new BaseFutureListener<BaseFuture>() {
             @Override
@@ -209,10 +335,12 @@ class BootstrappedPeerBuilder {
                     if (useManualPortForwarding) {
                         setState(BootstrapState.DISCOVERY_MANUAL_PORT_FORWARDING_SUCCEEDED,
                                 "Now visible to the Bitsquare network (with manual port forwarding).");
+                        rememberNatTraversal(ConnectionType.MANUAL_PORT_FORWARDING);
                         bootstrap();
                     }
                     else {
                         setState(BootstrapState.DISCOVERY_DIRECT_SUCCEEDED, "Now visible to the Bitsquare network.");
+                        rememberNatTraversal(ConnectionType.DIRECT);
                         bootstrap();
                     }
                 }
@@ -222,9 +350,11 @@ class BootstrappedPeerBuilder {
                     if (futureNAT.isSuccess()) {
                         setState(BootstrapState.DISCOVERY_AUTO_PORT_FORWARDING_SUCCEEDED,
                                 "Now visible to the Bitsquare network (with automatic port forwarding).");
+                        rememberNatTraversal(ConnectionType.AUTO_PORT_FORWARDING);
                         bootstrap();
                     }
                     else {
+                        natTraversalCache.clear();
                         handleError(BootstrapState.DISCOVERY_AUTO_PORT_FORWARDING_FAILED,
                                 "Automatic port forwarding failed.\n\n" +
                                         "Check whether UPnP (Universal Plug and Play) is enabled on your router.\n\n" +
@@ -277,40 +407,169 @@ class BootstrappedPeerBuilder {
     }*/
 
     private void bootstrap() {
-        FutureBootstrap futureBootstrap = peer.bootstrap().peerAddress(getBootstrapAddress()).start();
-        futureBootstrap.addListener(new BaseFutureListener<BaseFuture>() {
-            @Override
-            public void operationComplete(BaseFuture future) throws Exception {
-                if (futureBootstrap.isSuccess()) {
+        // The node which answered our discovery first is tried first again
+        Set<Node> candidates = new LinkedHashSet<>();
+        if (activeBootstrapNode != null)
+            candidates.add(activeBootstrapNode);
+        candidates.addAll(getBootstrapNodeCandidates());
+
+        // The peers we knew at the last shutdown compete with the bootstrap nodes. If they answer first the
+        // bootstrap nodes are spared the rest of the bootstrap.
+        FutureBootstrap warmStart = null;
+        List<PeerAddress> cachedPeers = peerAddressCache.load();
+        if (!cachedPeers.isEmpty()) {
+            log.debug("Bootstrapping with " + cachedPeers.size() + " peers known from the last start as well");
+            warmStart = peer.bootstrap().bootstrapTo(cachedPeers).start();
+        }
+
+        // A bootstrap is a plain request to the node, so unlike a discovery its result does not depend on whether
+        // the node can reach us. It is what we rank the nodes by.
+        race(new ArrayList<>(candidates),
+                bootstrapAddress -> peer.bootstrap().peerAddress(bootstrapAddress).start(),
+                warmStart,
+                true,
+                (node, futureBootstrap) -> {
+                    if (node != null) {
+                        activeBootstrapNode = node;
+                        log.info("Bootstrapped with " + node);
+                    }
+                    else {
+                        log.info("Bootstrapped with peers known from the last start");
+                    }
+                    bootstrapped = true;
                     settableFuture.set(peerDHT);
+                },
+                futureBootstraps -> {
+                    StringBuilder reasons = new StringBuilder();
+                    futureBootstraps.stream().forEach(f -> reasons.append(f.failedReason()).append(" "));
+                    handleError(BootstrapState.BOOT_STRAP_FAILED, "Bootstrapping failed. " + reasons);
+                });
+    }
+
+    // A discovery fails if the node cannot reach us, e.g. if we are behind a NAT. That is not the fault of the node,
+    // so discoveries are not ranked.
+    private <T extends BaseFuture> void race(List<Node> nodes,
+                                             Function<PeerAddress, T> operation,
+                                             BiConsumer<Node, T> onFirstSuccess,
+                                             Consumer<List<T>> onAllFailed) {
+        race(nodes, operation, null, false, onFirstSuccess, onAllFailed);
+    }
+
+    /**
+     * Starts an operation against each of the given bootstrap nodes at the same time. The first successful one is
+     * passed to onFirstSuccess and all others are cancelled. If none succeeds, all futures are passed to onAllFailed
+     * in the order of the given nodes. If rankNodes is set, latencies and failures are recorded for ranking the nodes
+     * at the next start, so it must only be set for operations which fail only if the node does not answer.
+     * An already started operation which does not target a bootstrap node can compete as well, it is passed to
+     * onFirstSuccess with a null node and is not ranked.
+     */
+    private <T extends BaseFuture> void race(List<Node> nodes,
+                                             Function<PeerAddress, T> operation,
+                                             @Nullable T otherFuture,
+                                             boolean rankNodes,
+                                             BiConsumer<Node, T> onFirstSuccess,
+                                             Consumer<List<T>> onAllFailed) {
+        long startTime = System.currentTimeMillis();
+        Map<Node, T> futures = new LinkedHashMap<>();
+        for (Node node : nodes) {
+            PeerAddress bootstrapAddress = getBootstrapAddress(node);
+            if (bootstrapAddress != null)
+                futures.put(node, operation.apply(bootstrapAddress));
+        }
+        if (otherFuture != null)
+            futures.put(null, otherFuture);
+        if (futures.isEmpty()) {
+            onAllFailed.accept(Collections.emptyList());
+            return;
+        }
+
+        AtomicBoolean decided = new AtomicBoolean();
+        AtomicInteger pending = new AtomicInteger(futures.size());
+        futures.forEach((node, future) -> future.addListener(new BaseFutureListener<BaseFuture>() {
+            @Override
+            public void operationComplete(BaseFuture baseFuture) throws Exception {
+                if (baseFuture.isSuccess()) {
+                    if (rankNodes && node != null)
+                        bootstrapNodeRanking.recordSuccess(node, System.currentTimeMillis() - startTime);
+                    if (decided.compareAndSet(false, true)) {
+                        futures.forEach((otherNode, otherFuture) -> {
+                            if (otherFuture != future)
+                                otherFuture.cancel();
+                        });
+                        if (rankNodes)
+                            bootstrapNodeRanking.save();
+                        onFirstSuccess.accept(node, future);
+                    }
                 }
                 else {
-                    handleError(BootstrapState.BOOT_STRAP_FAILED, "Bootstrapping failed. " +
-                            futureBootstrap.failedReason());
+                    onFailure();
                 }
             }
 
             @Override
             public void exceptionCaught(Throwable t) throws Exception {
-                handleError(BootstrapState.BOOT_STRAP_FAILED, "Exception at bootstrap: " + t.getMessage());
+                log.error("Exception at " + (node != null ? "bootstrap node " + node.getName() : "known peers") +
+                        ": " + t.getMessage());
+                onFailure();
             }
-        });
+
+            private void onFailure() {
+                // Futures we cancelled ourselves do not count as failure of their node
+                if (rankNodes && !decided.get() && node != null)
+                    bootstrapNodeRanking.recordFailure(node);
+
+                if (pending.decrementAndGet() == 0 && decided.compareAndSet(false, true)) {
+                    if (rankNodes)
+                        bootstrapNodeRanking.save();
+                    onAllFailed.accept(new ArrayList<>(futures.values()));
+                }
+            }
+        }));
+    }
+
+    /**
+     * The configured bootstrap node and, if that is one of the public nodes, the other public nodes, best ranked
+     * first. A custom node (e.g. localhost for a test network) is used on its own.
+     */
+    private List<Node> getBootstrapNodeCandidates() {
+        Set<Node> candidates = new LinkedHashSet<>();
+        candidates.add(bootstrapNode);
+        if (BootstrapNodes.all().contains(bootstrapNode))
+            candidates.addAll(BootstrapNodes.all());
+
+        List<Node> ranked = bootstrapNodeRanking.rank(candidates);
+        return ranked.subList(0, Math.min(ranked.size(), MAX_PARALLEL_BOOTSTRAP_NODES));
+    }
+
+    // The address of the interface we are bound to. Captured before discovery replaces it with our external address.
+    private String getInternalHost() {
+        if (internalHost == null)
+            internalHost = peer.peerAddress().inetAddress().getHostAddress();
+        return internalHost;
+    }
+
+    private void rememberNatTraversal(ConnectionType connectionType) {
+        natTraversalCache.save(connectionType, getInternalHost(), peer.peerAddress().inetAddress().getHostAddress(),
+                port);
     }
 
-    private PeerAddress getBootstrapAddress() {
+    static PeerAddress getBootstrapAddress(Node node) {
         try {
-            return new PeerAddress(Number160.createHash(bootstrapNode.getName()),
-                    InetAddress.getByName(bootstrapNode.getIp()),
-                    bootstrapNode.getPort(),
-                    bootstrapNode.getPort());
+            return new PeerAddress(Number160.createHash(node.getName()),
+                    InetAddress.getByName(node.getIp()),
+                    node.getPort(),
+                    node.getPort());
         } catch (UnknownHostException e) {
-            log.error("getBootstrapAddress failed: " + e.getMessage());
+            log.error("getBootstrapAddress failed for " + node + ": " + e.getMessage());
             return null;
         }
     }
 
+    /**
+     * @return the bootstrap node we are connected with, or the configured one as long as we are not connected yet
+     */
     public Node getBootstrapNode() {
-        return bootstrapNode;
+        return activeBootstrapNode != null ? activeBootstrapNode : bootstrapNode;
     }
 
     public ObjectProperty<BootstrapState> getBootstrapState() {
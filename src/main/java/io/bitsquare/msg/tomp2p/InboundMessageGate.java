@@ -0,0 +1,210 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.msg.tomp2p;
+
+import io.bitsquare.util.TokenBucket;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import com.google.inject.name.Named;
+
+import java.net.InetAddress;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+
+import net.tomp2p.peers.PeerAddress;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Protects the message broker against peers flooding us with direct messages. Incoming messages pass a size check,
+ * a token bucket per sender host and a global token bucket, and are then handed over to a bounded queue which is
+ * drained by a single dispatcher thread. Whatever does not pass is dropped and counted.
+ * <p>
+ * The buckets are kept per IP address and not per peer id, as a sender can pick a new peer id for every message.
+ */
+public class InboundMessageGate {
+    private static final Logger log = LoggerFactory.getLogger(InboundMessageGate.class);
+
+    public static final String MAX_MESSAGE_SIZE_KEY = "p2p.inbound.maxMessageSize";
+    static final String PEER_RATE_KEY = "p2p.inbound.peerRate";
+    static final String GLOBAL_RATE_KEY = "p2p.inbound.globalRate";
+    static final String QUEUE_CAPACITY_KEY = "p2p.inbound.queueCapacity";
+    static final String OVERFLOW_POLICY_KEY = "p2p.inbound.overflowPolicy";
+
+    public static final int DEFAULT_MAX_MESSAGE_SIZE = 512 * 1024;
+    static final int DEFAULT_PEER_RATE = 10;
+    static final int DEFAULT_GLOBAL_RATE = 100;
+    static final int DEFAULT_QUEUE_CAPACITY = 1000;
+
+    // Number of seconds worth of messages a bucket can take as burst
+    static final int BURST_SECONDS = 2;
+    // Bounds the memory used for the buckets when we are contacted by very many hosts
+    static final int MAX_TRACKED_HOSTS = 100_000;
+
+    enum OverflowPolicy {
+        // Refuse the incoming message
+        REJECT_NEW,
+        // Discard the oldest queued message to make room for the incoming one
+        DROP_OLDEST
+    }
+
+    private final int maxMessageSize;
+    private final TokenBucket globalBucket;
+    private final LoadingCache<InetAddress, TokenBucket> peerBuckets;
+    private final ThreadPoolExecutor dispatcher;
+
+    private final AtomicLong droppedOversized = new AtomicLong();
+    private final AtomicLong droppedPeerRate = new AtomicLong();
+    private final AtomicLong droppedGlobalRate = new AtomicLong();
+    private final AtomicLong droppedQueueFull = new AtomicLong();
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    @Inject
+    public InboundMessageGate(@Named(MAX_MESSAGE_SIZE_KEY) int maxMessageSize,
+                              @Named(PEER_RATE_KEY) int peerRate,
+                              @Named(GLOBAL_RATE_KEY) int globalRate,
+                              @Named(QUEUE_CAPACITY_KEY) int queueCapacity,
+                              @Named(OVERFLOW_POLICY_KEY) OverflowPolicy overflowPolicy) {
+        this(maxMessageSize, peerRate, globalRate, queueCapacity, overflowPolicy, Ticker.systemTicker());
+    }
+
+    // for unit testing
+    InboundMessageGate(int maxMessageSize, int peerRate, int globalRate, int queueCapacity,
+                       OverflowPolicy overflowPolicy, Ticker ticker) {
+        this.maxMessageSize = maxMessageSize;
+        this.globalBucket = new TokenBucket(globalRate, globalRate * BURST_SECONDS, ticker);
+        this.peerBuckets = CacheBuilder.newBuilder()
+                .expireAfterAccess(10, TimeUnit.MINUTES)
+                .maximumSize(MAX_TRACKED_HOSTS)
+                .build(new CacheLoader<InetAddress, TokenBucket>() {
+                    @Override
+                    public TokenBucket load(InetAddress host) {
+                        return new TokenBucket(peerRate, peerRate * BURST_SECONDS, ticker);
+                    }
+                });
+
+        RejectedExecutionHandler overflowHandler = overflowPolicy == OverflowPolicy.DROP_OLDEST ?
+                new ThreadPoolExecutor.DiscardOldestPolicy() :
+                new ThreadPoolExecutor.DiscardPolicy();
+        this.dispatcher = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new ThreadFactoryBuilder().setNameFormat("InboundMessageDispatcher").setDaemon(true).build(),
+                (runnable, executor) -> {
+                    droppedQueueFull.incrementAndGet();
+                    overflowHandler.rejectedExecution(runnable, executor);
+                });
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Public methods
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Checks the size of a message before it gets deserialized.
+     */
+    public boolean acceptSize(int size) {
+        if (size <= maxMessageSize)
+            return true;
+
+        droppedOversized.incrementAndGet();
+        log.warn("Dropped message of " + size + " bytes as it exceeds the limit of " + maxMessageSize + " bytes.");
+        return false;
+    }
+
+    public int getMaxMessageSize() {
+        return maxMessageSize;
+    }
+
+    /**
+     * Queues the handling of a message from the given sender if neither the sender's host nor all peers together
+     * have exceeded their rate.
+     *
+     * @return false if the message was dropped because of a rate limit
+     */
+    public boolean submit(PeerAddress sender, Runnable handler) {
+        // When all peers together are over the rate we drop the message before a bucket is created for the sender.
+        // The global token is only taken after the sender's, so a flooding peer does not use up the global rate.
+        if (globalBucket.getAvailableTokens() < 1) {
+            droppedGlobalRate.incrementAndGet();
+            log.debug("Dropped message from " + sender + " as it exceeds the global rate.");
+            return false;
+        }
+        if (!peerBuckets.getUnchecked(sender.inetAddress()).tryAcquire()) {
+            droppedPeerRate.incrementAndGet();
+            log.debug("Dropped message from " + sender + " as it exceeds the per peer rate.");
+            return false;
+        }
+        if (!globalBucket.tryAcquire()) {
+            droppedGlobalRate.incrementAndGet();
+            log.debug("Dropped message from " + sender + " as it exceeds the global rate.");
+            return false;
+        }
+
+        dispatcher.execute(handler);
+        return true;
+    }
+
+    public void shutDown() {
+        dispatcher.shutdownNow();
+        log.info("Inbound messages dropped: " + droppedOversized.get() + " oversized, " +
+                droppedPeerRate.get() + " by peer rate, " + droppedGlobalRate.get() + " by global rate, " +
+                droppedQueueFull.get() + " by full queue");
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Metrics
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public long getDroppedOversized() {
+        return droppedOversized.get();
+    }
+
+    public long getDroppedPeerRate() {
+        return droppedPeerRate.get();
+    }
+
+    public long getDroppedGlobalRate() {
+        return droppedGlobalRate.get();
+    }
+
+    public long getDroppedQueueFull() {
+        return droppedQueueFull.get();
+    }
+
+    public int getQueueSize() {
+        return dispatcher.getQueue().size();
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.msg.tomp2p;
+
+import io.bitsquare.network.ConnectionType;
+import io.bitsquare.persistence.Persistence;
+
+import java.io.Serializable;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import javax.inject.Inject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers how we became reachable at the last start, so that the next start on the same network can take that
+ * path right away instead of finding it out again. A result is only valid for the local address and port it was
+ * found with.
+ */
+class NatTraversalCache {
+    private static final Logger log = LoggerFactory.getLogger(NatTraversalCache.class);
+
+    private static final String PERSISTENCE_KEY = "result";
+
+    static final long MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(30);
+
+    static class Result implements Serializable {
+        private static final long serialVersionUID = 2284650196386409721L;
+
+        private final ConnectionType connectionType;
+        private final String internalHost;
+        private final String externalHost;
+        private final int port;
+        private final long savedAt;
+
+        Result(ConnectionType connectionType, String internalHost, String externalHost, int port, long savedAt) {
+            this.connectionType = connectionType;
+            this.internalHost = internalHost;
+            this.externalHost = externalHost;
+            this.port = port;
+            this.savedAt = savedAt;
+        }
+
+        ConnectionType getConnectionType() {
+            return connectionType;
+        }
+
+        String getExternalHost() {
+            return externalHost;
+        }
+
+        @Override
+        public String toString() {
+            return connectionType + " " + internalHost + ":" + port + " -> " + externalHost + ":" + port;
+        }
+    }
+
+    private final Persistence persistence;
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    @Inject
+    public NatTraversalCache(Persistence persistence) {
+        this.persistence = persistence;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Public methods
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * @return the last result if it was found with the given local address and port and is not outdated, otherwise
+     * null
+     */
+    @Nullable
+    public Result load(String internalHost, int port) {
+        Object persisted = persistence.read(this, PERSISTENCE_KEY);
+        if (!(persisted instanceof Result))
+            return null;
+
+        Result result = (Result) persisted;
+        if (!result.internalHost.equals(internalHost) || result.port != port) {
+            log.debug("Ignoring NAT traversal result of another network: " + result);
+            return null;
+        }
+        if (System.currentTimeMillis() - result.savedAt > MAX_AGE_MILLIS)
+            return null;
+
+        return result;
+    }
+
+    public void save(ConnectionType connectionType, String internalHost, String externalHost, int port) {
+        Result result = new Result(connectionType, internalHost, externalHost, port, System.currentTimeMillis());
+        persistence.write(this, PERSISTENCE_KEY, result);
+        log.debug("Stored NAT traversal result: " + result);
+    }
+
+    public void clear() {
+        persistence.write(this, PERSISTENCE_KEY, (Serializable) null);
+    }
+}
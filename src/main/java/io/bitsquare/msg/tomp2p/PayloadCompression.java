@@ -0,0 +1,246 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.msg.tomp2p;
+
+import com.google.inject.name.Named;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.inject.Inject;
+
+import net.tomp2p.storage.Data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compresses serialized payloads above a size threshold before they are handed to TomP2P.
+ * <p>
+ * A compressed payload starts with {@link #FLAG_DEFLATE}. Java serialization streams always start with the magic
+ * byte 0xAC, so uncompressed payloads written by older clients are still recognized and read as before.
+ * <p>
+ * Older clients cannot read compressed payloads, so they are only sent to peers which announced that they can read
+ * them (see {@link io.bitsquare.network.tomp2p.TomP2PPeer#isCompressionSupported()}). Data in the DHT is read by
+ * everybody, so it is only stored compressed if {@link #DHT_ENABLED_KEY} is set.
+ */
+public class PayloadCompression {
+    private static final Logger log = LoggerFactory.getLogger(PayloadCompression.class);
+
+    static final String ENABLED_KEY = "p2p.compression.enabled";
+    static final String THRESHOLD_KEY = "p2p.compression.threshold";
+    // Not before all clients can read compressed DHT data
+    static final String DHT_ENABLED_KEY = "p2p.compression.dht";
+    public static final int DEFAULT_THRESHOLD = 1024;
+    // Anybody can store data in the DHT, so larger data is not inflated. Offers, arbitrators and peer addresses
+    // are a few KB.
+    public static final int MAX_DHT_DATA_SIZE = 256 * 1024;
+
+    static final byte FLAG_DEFLATE = 0x01;
+
+    private final boolean enabled;
+    private final int threshold;
+
+    private final AtomicLong compressedPayloads = new AtomicLong();
+    private final AtomicLong skippedPayloads = new AtomicLong();
+    private final AtomicLong bytesBeforeCompression = new AtomicLong();
+    private final AtomicLong bytesAfterCompression = new AtomicLong();
+    private final AtomicLong compressionNanos = new AtomicLong();
+    private final AtomicLong decompressionNanos = new AtomicLong();
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    @Inject
+    public PayloadCompression(@Named(ENABLED_KEY) boolean enabled, @Named(THRESHOLD_KEY) int threshold) {
+        this.enabled = enabled;
+        this.threshold = threshold;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Public methods
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Returns the flagged, compressed form of the given serialized payload, or the payload itself if compression is
+     * disabled, the payload is below the threshold or compression would not make it smaller.
+     */
+    public byte[] compress(byte[] serialized) {
+        if (!enabled || serialized.length < threshold) {
+            skippedPayloads.incrementAndGet();
+            return serialized;
+        }
+
+        long start = System.nanoTime();
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(serialized.length / 2 + 1);
+        outputStream.write(FLAG_DEFLATE);
+        try {
+            deflater.setInput(serialized);
+            deflater.finish();
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                outputStream.write(buffer, 0, count);
+            }
+        } finally {
+            deflater.end();
+        }
+        compressionNanos.addAndGet(System.nanoTime() - start);
+
+        byte[] compressed = outputStream.toByteArray();
+        if (compressed.length >= serialized.length) {
+            skippedPayloads.incrementAndGet();
+            return serialized;
+        }
+
+        compressedPayloads.incrementAndGet();
+        bytesBeforeCompression.addAndGet(serialized.length);
+        bytesAfterCompression.addAndGet(compressed.length);
+        return compressed;
+    }
+
+    /**
+     * Reverses {@link #compress(byte[])}. Payloads without the compression flag are returned unchanged. Fails as
+     * soon as the decompressed payload would exceed maxLength bytes.
+     */
+    public byte[] decompress(byte[] payload, int maxLength) throws IOException {
+        if (!isCompressed(payload))
+            return payload;
+
+        long start = System.nanoTime();
+        Inflater inflater = new Inflater();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(Math.min(payload.length * 3, maxLength));
+        try {
+            inflater.setInput(payload, 1, payload.length - 1);
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    throw new IOException("Compressed payload is truncated.");
+                if (outputStream.size() + count > maxLength)
+                    throw new IOException("Decompressed payload exceeds " + maxLength + " bytes.");
+                outputStream.write(buffer, 0, count);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Compressed payload is corrupt.", e);
+        } finally {
+            inflater.end();
+        }
+        decompressionNanos.addAndGet(System.nanoTime() - start);
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Prepares an object for a direct message. Large objects are replaced by their compressed serialized form as a
+     * byte array; everything else is sent as it is.
+     */
+    public Object encode(Object payload) throws IOException {
+        if (!enabled)
+            return payload;
+
+        byte[] serialized = serialize(payload);
+        byte[] compressed = compress(serialized);
+        return compressed == serialized ? payload : compressed;
+    }
+
+    /**
+     * Reverses {@link #encode(Object)} on the receiving side. Fails if the decompressed payload would exceed
+     * maxLength bytes.
+     */
+    public Object decode(Object received, int maxLength) throws IOException, ClassNotFoundException {
+        if (received instanceof byte[] && isCompressed((byte[]) received))
+            return deserialize(decompress((byte[]) received, maxLength));
+
+        return received;
+    }
+
+    /**
+     * Returns the object stored in the given DHT data, decompressing it if it was stored compressed. Data which
+     * would decompress to more than {@link #MAX_DHT_DATA_SIZE} bytes is rejected with an IOException like any other
+     * undecodable data.
+     */
+    public Object getObject(Data data) throws IOException, ClassNotFoundException {
+        byte[] bytes = data.toBytes();
+        if (isCompressed(bytes))
+            return deserialize(decompress(bytes, MAX_DHT_DATA_SIZE));
+        else
+            return data.object();
+    }
+
+    public static boolean isCompressed(byte[] payload) {
+        return payload != null && payload.length > 1 && payload[0] == FLAG_DEFLATE;
+    }
+
+    public static byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(byteArrayOutputStream)) {
+            objectOutputStream.writeObject(object);
+        }
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    public static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream objectInputStream = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return objectInputStream.readObject();
+        }
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Metrics
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public long getCompressedPayloads() {
+        return compressedPayloads.get();
+    }
+
+    public long getSkippedPayloads() {
+        return skippedPayloads.get();
+    }
+
+    public long getBytesSaved() {
+        return bytesBeforeCompression.get() - bytesAfterCompression.get();
+    }
+
+    public long getCompressionMillis() {
+        return compressionNanos.get() / 1_000_000;
+    }
+
+    public long getDecompressionMillis() {
+        return decompressionNanos.get() / 1_000_000;
+    }
+
+    public void logStatistics() {
+        log.info("Payload compression: " + compressedPayloads.get() + " payloads compressed, " +
+                skippedPayloads.get() + " skipped, " + getBytesSaved() + " bytes saved of " +
+                bytesBeforeCompression.get() + ", " + getCompressionMillis() + " ms compressing, " +
+                getDecompressionMillis() + " ms decompressing");
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.msg.tomp2p;
+
+import io.bitsquare.persistence.Persistence;
+
+import java.io.Serializable;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.PeerAddress;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps a sample of the peers we were connected with at our last shutdown, so that the next start can bootstrap from
+ * them in parallel with the bootstrap nodes. Only peers which are directly reachable are kept, and the sample is
+ * ignored once it is too old to be of use.
+ */
+class PeerAddressCache {
+    private static final Logger log = LoggerFactory.getLogger(PeerAddressCache.class);
+
+    private static final String PERSISTENCE_KEY = "peers";
+
+    static final int MAX_PEERS = 30;
+    static final long MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+    static class CachedPeer implements Serializable {
+        private static final long serialVersionUID = -1841829416275436752L;
+
+        private final byte[] peerId;
+        private final byte[] address;
+        private final int tcpPort;
+        private final int udpPort;
+        private final long savedAt;
+
+        CachedPeer(PeerAddress peerAddress, long savedAt) {
+            this.peerId = peerAddress.peerId().toByteArray();
+            this.address = peerAddress.inetAddress().getAddress();
+            this.tcpPort = peerAddress.tcpPort();
+            this.udpPort = peerAddress.udpPort();
+            this.savedAt = savedAt;
+        }
+
+        PeerAddress toPeerAddress() throws UnknownHostException {
+            return new PeerAddress(new Number160(peerId), InetAddress.getByAddress(address), tcpPort, udpPort);
+        }
+    }
+
+    private final Persistence persistence;
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    @Inject
+    public PeerAddressCache(Persistence persistence) {
+        this.persistence = persistence;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Public methods
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Stores a random sample of the given peers. Firewalled peers are skipped as we could not connect to them.
+     */
+    public void save(Collection<PeerAddress> peerAddresses) {
+        List<PeerAddress> reachable = new ArrayList<>();
+        for (PeerAddress peerAddress : peerAddresses) {
+            if (!peerAddress.isFirewalledTCP() && !peerAddress.isFirewalledUDP())
+                reachable.add(peerAddress);
+        }
+        Collections.shuffle(reachable);
+
+        long now = System.currentTimeMillis();
+        List<CachedPeer> cachedPeers = new ArrayList<>();
+        for (PeerAddress peerAddress : reachable.subList(0, Math.min(reachable.size(), MAX_PEERS)))
+            cachedPeers.add(new CachedPeer(peerAddress, now));
+
+        persistence.write(this, PERSISTENCE_KEY, cachedPeers);
+        log.debug("Stored " + cachedPeers.size() + " of " + peerAddresses.size() + " peers for the next start");
+    }
+
+    /**
+     * @return the peers stored at the last shutdown, or an empty list if there are none or they are outdated
+     */
+    @SuppressWarnings("unchecked")
+    public List<PeerAddress> load() {
+        Object persisted = persistence.read(this, PERSISTENCE_KEY);
+        if (!(persisted instanceof List))
+            return Collections.emptyList();
+
+        long now = System.currentTimeMillis();
+        List<PeerAddress> peerAddresses = new ArrayList<>();
+        for (CachedPeer cachedPeer : (List<CachedPeer>) persisted) {
+            if (now - cachedPeer.savedAt > MAX_AGE_MILLIS)
+                continue;
+
+            try {
+                peerAddresses.add(cachedPeer.toPeerAddress());
+            } catch (UnknownHostException e) {
+                log.warn("Ignoring cached peer with invalid address: " + e.getMessage());
+            }
+        }
+        return peerAddresses;
+    }
+}
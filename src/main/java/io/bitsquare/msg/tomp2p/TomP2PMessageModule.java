@@ -22,6 +22,7 @@ import io.bitsquare.msg.MessageService;
 import io.bitsquare.network.BootstrapNodes;
 import io.bitsquare.network.ClientNode;
 import io.bitsquare.network.Node;
+import io.bitsquare.network.tomp2p.NetworkEventExecutorGroup;
 
 import com.google.inject.Injector;
 import com.google.inject.name.Names;
@@ -50,7 +51,30 @@ public class TomP2PMessageModule extends MessageModule {
                 env.getProperty(Node.PORT_KEY, int.class, Node.DEFAULT_PORT));
         bind(boolean.class).annotatedWith(Names.named(USE_MANUAL_PORT_FORWARDING_KEY)).toInstance(
                 env.getProperty(USE_MANUAL_PORT_FORWARDING_KEY, boolean.class, false));
-                
+        bind(boolean.class).annotatedWith(Names.named(PayloadCompression.ENABLED_KEY)).toInstance(
+                env.getProperty(PayloadCompression.ENABLED_KEY, boolean.class, true));
+        bind(int.class).annotatedWith(Names.named(PayloadCompression.THRESHOLD_KEY)).toInstance(
+                env.getProperty(PayloadCompression.THRESHOLD_KEY, int.class, PayloadCompression.DEFAULT_THRESHOLD));
+        bind(boolean.class).annotatedWith(Names.named(PayloadCompression.DHT_ENABLED_KEY)).toInstance(
+                env.getProperty(PayloadCompression.DHT_ENABLED_KEY, boolean.class, false));
+        bind(PayloadCompression.class).in(Singleton.class);
+        bind(int.class).annotatedWith(Names.named(InboundMessageGate.MAX_MESSAGE_SIZE_KEY)).toInstance(
+                env.getProperty(InboundMessageGate.MAX_MESSAGE_SIZE_KEY, int.class,
+                        InboundMessageGate.DEFAULT_MAX_MESSAGE_SIZE));
+        bind(int.class).annotatedWith(Names.named(InboundMessageGate.PEER_RATE_KEY)).toInstance(
+                env.getProperty(InboundMessageGate.PEER_RATE_KEY, int.class, InboundMessageGate.DEFAULT_PEER_RATE));
+        bind(int.class).annotatedWith(Names.named(InboundMessageGate.GLOBAL_RATE_KEY)).toInstance(
+                env.getProperty(InboundMessageGate.GLOBAL_RATE_KEY, int.class,
+                        InboundMessageGate.DEFAULT_GLOBAL_RATE));
+        bind(int.class).annotatedWith(Names.named(InboundMessageGate.QUEUE_CAPACITY_KEY)).toInstance(
+                env.getProperty(InboundMessageGate.QUEUE_CAPACITY_KEY, int.class,
+                        InboundMessageGate.DEFAULT_QUEUE_CAPACITY));
+        bind(InboundMessageGate.OverflowPolicy.class)
+                .annotatedWith(Names.named(InboundMessageGate.OVERFLOW_POLICY_KEY)).toInstance(
+                env.getProperty(InboundMessageGate.OVERFLOW_POLICY_KEY, InboundMessageGate.OverflowPolicy.class,
+                        InboundMessageGate.OverflowPolicy.REJECT_NEW));
+        bind(InboundMessageGate.class).in(Singleton.class);
+
         bind(TomP2PNode.class).in(Singleton.class);
         bind(ClientNode.class).to(TomP2PNode.class);
 
@@ -63,6 +87,11 @@ public class TomP2PMessageModule extends MessageModule {
         );
         bindConstant().annotatedWith(Names.named(NETWORK_INTERFACE_KEY)).to(
                 env.getProperty(NETWORK_INTERFACE_KEY, NETWORK_INTERFACE_UNSPECIFIED));
+
+        NetworkEventExecutorGroup.Role role = NetworkEventExecutorGroup.Role.CLIENT;
+        bind(NetworkEventExecutorGroup.class).toInstance(new NetworkEventExecutorGroup(role,
+                env.getProperty(NetworkEventExecutorGroup.THREADS_KEY, int.class,
+                        role.threadCount(Runtime.getRuntime().availableProcessors()))));
         bind(BootstrappedPeerBuilder.class).asEagerSingleton();
     }
 
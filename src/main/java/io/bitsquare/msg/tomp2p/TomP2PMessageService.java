@@ -18,6 +18,7 @@
 package io.bitsquare.msg.tomp2p;
 
 import io.bitsquare.arbitrator.Arbitrator;
+import io.bitsquare.arbitrator.ArbitratorDirectory;
 import io.bitsquare.msg.Message;
 import io.bitsquare.msg.MessageService;
 import io.bitsquare.msg.listeners.ArbitratorListener;
@@ -34,13 +35,19 @@ import java.io.IOException;
 import java.security.PublicKey;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.inject.Inject;
 
 import javafx.application.Platform;
 
+import net.tomp2p.dht.FutureDigest;
 import net.tomp2p.dht.FutureGet;
 import net.tomp2p.dht.FuturePut;
 import net.tomp2p.dht.FutureRemove;
@@ -49,6 +56,7 @@ import net.tomp2p.futures.BaseFutureAdapter;
 import net.tomp2p.futures.BaseFutureListener;
 import net.tomp2p.futures.FutureDirect;
 import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
 import net.tomp2p.storage.Data;
 import net.tomp2p.utils.Utils;
 
@@ -70,21 +78,29 @@ class TomP2PMessageService implements MessageService {
     private static final Logger log = LoggerFactory.getLogger(TomP2PMessageService.class);
     private static final String ARBITRATORS_ROOT = "ArbitratorsRoot";
 
+    // The arbitrators are read from the DHT at most once per interval, in between the directory answers all queries
+    private static final long ARBITRATOR_REFRESH_INTERVAL_MILLIS = 60_000;
+
     private final TomP2PNode p2pNode;
     private final User user;
+    private final ArbitratorDirectory arbitratorDirectory;
 
     private final List<ArbitratorListener> arbitratorListeners = new ArrayList<>();
     private final List<IncomingMessageListener> incomingMessageListeners = new ArrayList<>();
 
+    private long lastArbitratorRefresh;
+    private boolean arbitratorRefreshPending;
+
 
     ///////////////////////////////////////////////////////////////////////////////////////////
     // Constructor
     ///////////////////////////////////////////////////////////////////////////////////////////
 
     @Inject
-    public TomP2PMessageService(User user, TomP2PNode p2pNode) {
+    public TomP2PMessageService(User user, TomP2PNode p2pNode, ArbitratorDirectory arbitratorDirectory) {
         this.user = user;
         this.p2pNode = p2pNode;
+        this.arbitratorDirectory = arbitratorDirectory;
     }
 
 
@@ -115,7 +131,7 @@ class TomP2PMessageService implements MessageService {
             @Override
             public void operationComplete(BaseFuture baseFuture) throws Exception {
                 if (baseFuture.isSuccess() && futureGet.data() != null) {
-                    final Peer peer = (Peer) futureGet.data().object();
+                    final Peer peer = (Peer) p2pNode.getObject(futureGet.data());
                     Platform.runLater(() -> listener.onResult(peer));
                 }
                 else {
@@ -135,7 +151,9 @@ class TomP2PMessageService implements MessageService {
         if (!(peer instanceof TomP2PPeer)) {
             throw new IllegalArgumentException("peer must be of type TomP2PPeer");
         }
-        FutureDirect futureDirect = p2pNode.sendData(((TomP2PPeer) peer).getPeerAddress(), message);
+        TomP2PPeer tomP2PPeer = (TomP2PPeer) peer;
+        FutureDirect futureDirect = p2pNode.sendData(tomP2PPeer.getPeerAddress(), message,
+                tomP2PPeer.isCompressionSupported());
         futureDirect.addListener(new BaseFutureListener<BaseFuture>() {
             @Override
             public void operationComplete(BaseFuture future) throws Exception {
@@ -169,6 +187,9 @@ class TomP2PMessageService implements MessageService {
             addFuture.addListener(new BaseFutureAdapter<BaseFuture>() {
                 @Override
                 public void operationComplete(BaseFuture future) throws Exception {
+                    if (future.isSuccess())
+                        arbitratorDirectory.add(p2pNode.getContentKey(arbitratorData).toString(), arbitrator);
+
                     Platform.runLater(() -> arbitratorListeners.stream().forEach(listener ->
                     {
                         try {
@@ -203,11 +224,13 @@ class TomP2PMessageService implements MessageService {
         removeFuture.addListener(new BaseFutureAdapter<BaseFuture>() {
             @Override
             public void operationComplete(BaseFuture future) throws Exception {
+                arbitratorDirectory.remove(p2pNode.getContentKey(arbitratorData).toString());
+
                 Platform.runLater(() -> arbitratorListeners.stream().forEach(listener ->
                 {
                     for (Data arbitratorData : removeFuture.dataMap().values()) {
                         try {
-                            Object arbitratorDataObject = arbitratorData.object();
+                            Object arbitratorDataObject = p2pNode.getObject(arbitratorData);
                             if (arbitratorDataObject instanceof Arbitrator) {
                                 Arbitrator arbitrator = (Arbitrator) arbitratorDataObject;
                                 listener.onArbitratorRemoved(arbitrator);
@@ -228,35 +251,79 @@ class TomP2PMessageService implements MessageService {
         });
     }
 
+    /**
+     * Refreshes the arbitrator directory. Only the content keys are read from the DHT, the arbitrators are fetched
+     * and decoded only if the directory does not know them yet. If the directory has changed, the listeners get
+     * the arbitrators speaking the language of the given locale.
+     */
     public void getArbitrators(Locale languageLocale) {
+        long now = System.currentTimeMillis();
+        if (arbitratorRefreshPending || now - lastArbitratorRefresh < ARBITRATOR_REFRESH_INTERVAL_MILLIS) {
+            log.trace("Arbitrator directory is up to date or being refreshed");
+            return;
+        }
+        arbitratorRefreshPending = true;
+
         Number160 locationKey = Number160.createHash(ARBITRATORS_ROOT);
-        FutureGet futureGet = p2pNode.getDataMap(locationKey);
-        futureGet.addListener(new BaseFutureAdapter<BaseFuture>() {
+        FutureDigest futureDigest = p2pNode.getDigest(locationKey);
+        futureDigest.addListener(new BaseFutureAdapter<BaseFuture>() {
             @Override
             public void operationComplete(BaseFuture future) throws Exception {
-                Platform.runLater(() -> arbitratorListeners.stream().forEach(listener ->
-                {
-                    List<Arbitrator> arbitrators = new ArrayList<>();
-                    for (Data arbitratorData : futureGet.dataMap().values()) {
-                        try {
-                            Object arbitratorDataObject = arbitratorData.object();
-                            if (arbitratorDataObject instanceof Arbitrator) {
-                                arbitrators.add((Arbitrator) arbitratorDataObject);
-                            }
-                        } catch (ClassNotFoundException | IOException e) {
-                            e.printStackTrace();
-                            log.error("Get arbitrators from DHT failed with exception:" + e.getMessage());
-                        }
-                    }
+                if (!future.isSuccess() || futureDigest.digest() == null) {
+                    // We keep the directory, an empty result cannot be told apart from a failure
+                    log.error("Get arbitrator digest from DHT failed with reason:" + future.failedReason());
+                    Platform.runLater(() -> arbitratorRefreshPending = false);
+                    return;
+                }
 
-                    listener.onArbitratorsReceived(arbitrators);
-                }));
-                if (future.isSuccess()) {
-                    log.trace("Get arbitrators from DHT was successful. Stored data: [key: " + locationKey + ", " +
-                            "values: " + futureGet.dataMap() + "]");
+                Set<String> contentHashes = new HashSet<>();
+                List<Number160> missingContentKeys = new ArrayList<>();
+                Set<String> knownContentHashes = arbitratorDirectory.getContentHashes();
+                for (Number640 key : futureDigest.digest().keyDigest().keySet()) {
+                    String contentHash = key.contentKey().toString();
+                    if (contentHashes.add(contentHash) && !knownContentHashes.contains(contentHash))
+                        missingContentKeys.add(key.contentKey());
                 }
-                else {
-                    log.error("Get arbitrators from DHT failed with reason:" + future.failedReason());
+                log.trace("Arbitrator digest from DHT has " + contentHashes.size() + " entries, " +
+                        missingContentKeys.size() + " unknown");
+
+                Map<String, Arbitrator> added = new ConcurrentHashMap<>();
+                AtomicInteger remaining = new AtomicInteger(missingContentKeys.size());
+                Runnable applyRefresh = () -> Platform.runLater(() -> {
+                    arbitratorRefreshPending = false;
+                    lastArbitratorRefresh = now;
+                    if (arbitratorDirectory.update(contentHashes, added)) {
+                        List<Arbitrator> arbitrators = arbitratorDirectory.getArbitrators(languageLocale);
+                        arbitratorListeners.stream().forEach(listener -> listener.onArbitratorsReceived(arbitrators));
+                    }
+                });
+                if (missingContentKeys.isEmpty()) {
+                    applyRefresh.run();
+                    return;
+                }
+
+                for (Number160 contentKey : missingContentKeys) {
+                    FutureGet futureGet = p2pNode.getData(locationKey, contentKey);
+                    futureGet.addListener(new BaseFutureAdapter<BaseFuture>() {
+                        @Override
+                        public void operationComplete(BaseFuture future) throws Exception {
+                            if (future.isSuccess() && futureGet.data() != null) {
+                                try {
+                                    Object arbitratorDataObject = p2pNode.getObject(futureGet.data());
+                                    if (arbitratorDataObject instanceof Arbitrator)
+                                        added.put(contentKey.toString(), (Arbitrator) arbitratorDataObject);
+                                } catch (ClassNotFoundException | IOException e) {
+                                    log.error("Get arbitrator from DHT failed with exception:" + e.getMessage());
+                                }
+                            }
+                            else {
+                                log.error("Get arbitrator from DHT failed with reason:" + future.failedReason());
+                            }
+
+                            if (remaining.decrementAndGet() == 0)
+                                applyRefresh.run();
+                        }
+                    });
                 }
             }
         });
@@ -30,18 +30,18 @@ import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.SettableFuture;
 
+import com.google.inject.name.Named;
+
 import java.io.IOException;
 
 import java.security.KeyPair;
 import java.security.PublicKey;
 
-import java.util.Timer;
-import java.util.TimerTask;
-
 import javax.annotation.Nullable;
 
 import javax.inject.Inject;
 
+import net.tomp2p.dht.FutureDigest;
 import net.tomp2p.dht.FutureGet;
 import net.tomp2p.dht.FuturePut;
 import net.tomp2p.dht.FutureRemove;
@@ -67,7 +67,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
  * The fully bootstrapped P2PNode which is responsible himself for his availability in the messaging system. It saves
- * for instance the IP address periodically.
+ * for instance the IP address again whenever it has changed.
  * This class is offering generic functionality of TomP2P needed for Bitsquare, like data and domain protection.
  * It does not handle any domain aspects of Bitsquare.
  */
@@ -81,6 +81,10 @@ public class TomP2PNode implements ClientNode {
 
     private PeerDHT peerDHT;
     private BootstrappedPeerBuilder bootstrappedPeerBuilder;
+    private final PayloadCompression payloadCompression;
+    private final boolean compressDhtData;
+    private final InboundMessageGate inboundMessageGate;
+    private AddressChangeMonitor addressChangeMonitor;
 
 
     ///////////////////////////////////////////////////////////////////////////////////////////
@@ -88,14 +92,27 @@ public class TomP2PNode implements ClientNode {
     ///////////////////////////////////////////////////////////////////////////////////////////
 
     @Inject
-    public TomP2PNode(BootstrappedPeerBuilder bootstrappedPeerBuilder) {
+    public TomP2PNode(BootstrappedPeerBuilder bootstrappedPeerBuilder,
+                      PayloadCompression payloadCompression,
+                      @Named(PayloadCompression.DHT_ENABLED_KEY) boolean compressDhtData,
+                      InboundMessageGate inboundMessageGate,
+                      AddressChangeMonitor addressChangeMonitor) {
         this.bootstrappedPeerBuilder = bootstrappedPeerBuilder;
+        this.payloadCompression = payloadCompression;
+        this.compressDhtData = compressDhtData;
+        this.inboundMessageGate = inboundMessageGate;
+        this.addressChangeMonitor = addressChangeMonitor;
     }
 
-    // for unit testing
-    TomP2PNode(KeyPair keyPair, PeerDHT peerDHT) {
+    // for unit testing and the load generator, which run without bootstrapping
+    public TomP2PNode(KeyPair keyPair, PeerDHT peerDHT) {
         this.keyPair = keyPair;
         this.peerDHT = peerDHT;
+        this.payloadCompression = new PayloadCompression(true, PayloadCompression.DEFAULT_THRESHOLD);
+        this.compressDhtData = false;
+        this.inboundMessageGate = new InboundMessageGate(InboundMessageGate.DEFAULT_MAX_MESSAGE_SIZE,
+                InboundMessageGate.DEFAULT_PEER_RATE, InboundMessageGate.DEFAULT_GLOBAL_RATE,
+                InboundMessageGate.DEFAULT_QUEUE_CAPACITY, InboundMessageGate.OverflowPolicy.REJECT_NEW);
         peerDHT.peerBean().keyPair(keyPair);
         messageBroker = (message, peerAddress) -> {
         };
@@ -119,6 +136,7 @@ public class TomP2PNode implements ClientNode {
         bootstrappedPeerBuilder.getBootstrapState().addListener((ov, oldValue, newValue) -> {
             log.debug("BootstrapState changed " + newValue);
             bootstrapStateSubject.onNext(newValue);
+            addressChangeMonitor.onPossibleChange("bootstrap state changed to " + newValue);
         });
 
         SettableFuture<PeerDHT> bootstrapFuture = bootstrappedPeerBuilder.start();
@@ -127,7 +145,7 @@ public class TomP2PNode implements ClientNode {
             public void onSuccess(@Nullable PeerDHT peerDHT) {
                 if (peerDHT != null) {
                     TomP2PNode.this.peerDHT = peerDHT;
-                    setupTimerForIPCheck();
+                    setupAddressChangeMonitor();
                     setupReplyHandler();
                     try {
                         storeAddress();
@@ -153,6 +171,10 @@ public class TomP2PNode implements ClientNode {
     }
 
     public void shutDown() {
+        payloadCompression.logStatistics();
+        inboundMessageGate.shutDown();
+        if (addressChangeMonitor != null)
+            addressChangeMonitor.stop();
         if (peerDHT != null)
             peerDHT.shutdown();
     }
@@ -165,12 +187,12 @@ public class TomP2PNode implements ClientNode {
     // the logs
     public FuturePut putDomainProtectedData(Number160 locationKey, Data data) {
         log.trace("putDomainProtectedData");
-        return peerDHT.put(locationKey).data(data).start();
+        return peerDHT.put(locationKey).data(compress(data)).start();
     }
 
     public FuturePut putData(Number160 locationKey, Data data) {
         log.trace("putData");
-        return peerDHT.put(locationKey).data(data).start();
+        return peerDHT.put(locationKey).data(compress(data)).start();
     }
 
     public FutureGet getDomainProtectedData(Number160 locationKey, PublicKey publicKey) {
@@ -183,13 +205,19 @@ public class TomP2PNode implements ClientNode {
         return peerDHT.get(locationKey).start();
     }
 
+    // Compressed data is put with the content key of the uncompressed data, so removeFromDataMap finds it with
+    // the original data
     public FuturePut addProtectedData(Number160 locationKey, Data data) {
         log.trace("addProtectedData");
-        return peerDHT.add(locationKey).data(data).start();
+        Data storedData = compress(data);
+        if (storedData == data)
+            return peerDHT.add(locationKey).data(data).start();
+        else
+            return peerDHT.put(locationKey).data(getContentKey(data), storedData).start();
     }
 
     public FutureRemove removeFromDataMap(Number160 locationKey, Data data) {
-        Number160 contentKey = data.hash();
+        Number160 contentKey = getContentKey(data);
         log.trace("removeFromDataMap with contentKey " + contentKey.toString());
         return peerDHT.remove(locationKey).contentKey(contentKey).start();
     }
@@ -199,9 +227,41 @@ public class TomP2PNode implements ClientNode {
         return peerDHT.get(locationKey).all().start();
     }
 
+    // Returns the content keys stored at the location key without the data
+    public FutureDigest getDigest(Number160 locationKey) {
+        log.trace("getDigest");
+        return peerDHT.digest(locationKey).all().start();
+    }
+
+    public FutureGet getData(Number160 locationKey, Number160 contentKey) {
+        log.trace("getData with contentKey " + contentKey.toString());
+        return peerDHT.get(locationKey).contentKey(contentKey).start();
+    }
+
+    // The content key under which addProtectedData stores the data. It is the hash of the uncompressed data, as the
+    // output of deflate may differ between JDKs.
+    public Number160 getContentKey(Data data) {
+        return data.hash();
+    }
+
     public FutureDirect sendData(PeerAddress peerAddress, Object payLoad) {
+        return sendData(peerAddress, payLoad, false);
+    }
+
+    /**
+     * @param compress whether the receiver has announced that it can read compressed messages
+     */
+    public FutureDirect sendData(PeerAddress peerAddress, Object payLoad, boolean compress) {
         log.trace("sendData");
-        FutureDirect futureDirect = peerDHT.peer().sendDirect(peerAddress).object(payLoad).start();
+        Object encodedPayLoad = payLoad;
+        if (compress) {
+            try {
+                encodedPayLoad = payloadCompression.encode(payLoad);
+            } catch (IOException e) {
+                log.warn("Compression of payload failed, sending it uncompressed. " + e.getMessage());
+            }
+        }
+        FutureDirect futureDirect = peerDHT.peer().sendDirect(peerAddress).object(encodedPayLoad).start();
         futureDirect.addListener(new BaseFutureListener<BaseFuture>() {
             @Override
             public void operationComplete(BaseFuture future) throws Exception {
@@ -222,6 +282,25 @@ public class TomP2PNode implements ClientNode {
         return futureDirect;
     }
 
+    /**
+     * Sends the payload to the bootstrap node we are connected with.
+     *
+     * @return null if the address of the bootstrap node cannot be resolved
+     */
+    public FutureDirect sendDataToBootstrapNode(Object payLoad) {
+        PeerAddress peerAddress = BootstrappedPeerBuilder.getBootstrapAddress(getBootstrapNodeAddress());
+        // Bootstrap nodes serving snapshots read compressed requests
+        return peerAddress != null ? sendData(peerAddress, payLoad, true) : null;
+    }
+
+    /**
+     * Returns the object stored in the given data, decompressing it if it was stored compressed.
+     * Use this instead of {@link Data#object()} for all data read from the DHT.
+     */
+    public Object getObject(Data data) throws ClassNotFoundException, IOException {
+        return payloadCompression.getObject(data);
+    }
+
 //
 //    public FuturePut putDomainProtectedData(Number160 locationKey, Data data) {
 //        log.trace("putDomainProtectedData");
@@ -304,35 +383,45 @@ public class TomP2PNode implements ClientNode {
 
     private void setupReplyHandler() {
         peerDHT.peer().objectDataReply((sender, request) -> {
-            log.debug("handleMessage peerAddress " + sender);
-            log.debug("handleMessage message " + request);
+            if (sender.equals(peerDHT.peer().peerAddress()))
+                throw new RuntimeException("Received msg from myself. That must never happen.");
 
-            if (!sender.equals(peerDHT.peer().peerAddress())) {
-                if (messageBroker != null)
-                    messageBroker.handleMessage(request, new TomP2PPeer(sender));
+            // Compressed payloads are checked before we inflate and deserialize them
+            if (request instanceof byte[] && !inboundMessageGate.acceptSize(((byte[]) request).length))
+                return null;
+
+            Object message;
+            try {
+                message = payloadCompression.decode(request, inboundMessageGate.getMaxMessageSize());
+            } catch (IOException e) {
+                log.warn("Dropped message from " + sender + ". " + e.getMessage());
+                return null;
             }
-            else {
-                throw new RuntimeException("Received msg from myself. That must never happen.");
+            log.debug("handleMessage " + message.getClass().getSimpleName() + " from " + sender);
+            log.trace("handleMessage message " + message);
+
+            if (messageBroker != null) {
+                MessageBroker broker = messageBroker;
+                // A peer which sends compressed messages can read them as well
+                TomP2PPeer peer = new TomP2PPeer(sender,
+                        request instanceof byte[] && PayloadCompression.isCompressed((byte[]) request));
+                inboundMessageGate.submit(sender, () -> broker.handleMessage(message, peer));
             }
             return null;
         });
     }
 
-    private void setupTimerForIPCheck() {
-        Timer timer = new Timer();
-        long checkIfIPChangedPeriod = 600 * 1000;
-        timer.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-                if (storedPeerAddress != null && peerDHT != null
-                        && !storedPeerAddress.equals(peerDHT.peerAddress()))
-                    try {
-                        storeAddress();
-                    } catch (NetworkException e) {
-                        e.printStackTrace();
-                    }
+    private void setupAddressChangeMonitor() {
+        addressChangeMonitor.start(peerDHT.peerBean().peerMap(), () -> {
+            if (storedPeerAddress != null && peerDHT != null && !storedPeerAddress.equals(peerDHT.peerAddress())) {
+                log.info("Our address has changed from " + storedPeerAddress + " to " + peerDHT.peerAddress());
+                try {
+                    storeAddress();
+                } catch (NetworkException e) {
+                    log.error("Storing changed address failed: " + e.getMessage());
+                }
             }
-        }, checkIfIPChangedPeriod, checkIfIPChangedPeriod);
+        });
     }
 
     private void storeAddress() throws NetworkException {
@@ -365,9 +454,24 @@ public class TomP2PNode implements ClientNode {
         }
     }
 
+    private Data compress(Data data) {
+        if (!compressDhtData)
+            return data;
+
+        byte[] bytes = data.toBytes();
+        byte[] compressed = payloadCompression.compress(bytes);
+        if (compressed == bytes)
+            return data;
+
+        Data compressedData = new Data(compressed);
+        compressedData.ttlSeconds(data.ttlSeconds());
+        return compressedData;
+    }
+
     private FuturePut saveAddress() throws IOException {
         Number160 locationKey = Utils.makeSHAHash(keyPair.getPublic().getEncoded());
-        Data data = new Data(new TomP2PPeer(peerDHT.peerAddress()));
+        // Announces that we can read compressed messages
+        Data data = new Data(new TomP2PPeer(peerDHT.peerAddress(), true));
         log.debug("storePeerAddress " + peerDHT.peerAddress().toString());
         return putDomainProtectedData(locationKey, data);
     }
@@ -0,0 +1,442 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.network.simulation;
+
+import io.bitsquare.msg.tomp2p.PayloadCompression;
+
+import com.google.common.hash.Hashing;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An in-process stand-in for the P2P network: a DHT and direct messaging between {@link SimulatedNode}s in a single
+ * JVM, without any sockets.
+ * <p>
+ * Time is simulated. Every transmission is an event scheduled on a virtual clock, which only advances when
+ * {@link #runUntilIdle()} or {@link #runFor(long)} process the next event. Latency therefore costs no wall clock time
+ * and hundreds of nodes can run in one thread. All randomness (latency, loss) comes from one seeded {@link Random},
+ * so a run with the same seed and the same calls produces the same events in the same order.
+ * <p>
+ * Each transmission takes a latency drawn between {@link #setLatency(long, long) min and max} and is lost with the
+ * {@link #setLossRate(double) loss rate}. A request whose request or response is lost fails after the
+ * {@link #setTimeout(long) timeout}, as it would with TomP2P. {@link #partition(Collection) Partitioned} nodes can
+ * only reach nodes of the same partition. The DHT is a single storage reachable from the main partition only, so a
+ * partitioned node cannot read or write it until {@link #heal()}.
+ * <p>
+ * Payloads are serialized on sending and deserialized on delivery, so nodes never share objects and the bytes sent
+ * are counted. The network is not thread safe: all calls must come from the thread running the events, or happen
+ * before it runs them. Callbacks are called on that thread.
+ */
+public class SimulatedNetwork {
+    private static final Logger log = LoggerFactory.getLogger(SimulatedNetwork.class);
+
+    public static final long DEFAULT_MIN_LATENCY_MILLIS = 20;
+    public static final long DEFAULT_MAX_LATENCY_MILLIS = 200;
+    public static final long DEFAULT_TIMEOUT_MILLIS = 5000;
+
+    // The partition holding the DHT storage, all nodes start in it
+    private static final int MAIN_PARTITION = 0;
+
+    private static class Event implements Comparable<Event> {
+        private final long time;
+        private final long sequence;
+        private final Runnable action;
+
+        Event(long time, long sequence, Runnable action) {
+            this.time = time;
+            this.sequence = sequence;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            int result = Long.compare(time, other.time);
+            return result != 0 ? result : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private final Random random;
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private long now;
+    private long sequence;
+
+    private long minLatencyMillis = DEFAULT_MIN_LATENCY_MILLIS;
+    private long maxLatencyMillis = DEFAULT_MAX_LATENCY_MILLIS;
+    private long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+    private double lossRate;
+
+    private final Map<String, SimulatedNode> nodes = new LinkedHashMap<>();
+    private final Map<SimulatedNode, Integer> partitions = new HashMap<>();
+    private int nextPartition = MAIN_PARTITION + 1;
+
+    // location key -> content key -> serialized value
+    private final Map<String, Map<String, byte[]>> storage = new HashMap<>();
+
+    private long transmissions;
+    private long lostTransmissions;
+    private long bytesSent;
+    private long failedRequests;
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public SimulatedNetwork(long seed) {
+        random = new Random(seed);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Setup
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public SimulatedNode createNode(String name) {
+        if (nodes.containsKey(name))
+            throw new IllegalArgumentException("Node " + name + " exists already");
+
+        SimulatedNode node = new SimulatedNode(this, name, nodes.size());
+        nodes.put(name, node);
+        partitions.put(node, MAIN_PARTITION);
+        return node;
+    }
+
+    public Collection<SimulatedNode> getNodes() {
+        return nodes.values();
+    }
+
+    public void setLatency(long minLatencyMillis, long maxLatencyMillis) {
+        if (minLatencyMillis < 0 || maxLatencyMillis < minLatencyMillis)
+            throw new IllegalArgumentException("Invalid latency " + minLatencyMillis + "-" + maxLatencyMillis);
+        this.minLatencyMillis = minLatencyMillis;
+        this.maxLatencyMillis = maxLatencyMillis;
+    }
+
+    public void setLossRate(double lossRate) {
+        if (lossRate < 0 || lossRate > 1)
+            throw new IllegalArgumentException("Invalid loss rate " + lossRate);
+        this.lossRate = lossRate;
+    }
+
+    public void setTimeout(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Moves the given nodes into a new partition. They can reach each other, but neither other nodes nor the DHT.
+     */
+    public void partition(Collection<SimulatedNode> partitionedNodes) {
+        int partition = nextPartition++;
+        partitionedNodes.forEach(node -> partitions.put(node, partition));
+        log.debug("Partitioned " + partitionedNodes.size() + " nodes at " + now + " ms");
+    }
+
+    public void heal() {
+        partitions.replaceAll((node, partition) -> MAIN_PARTITION);
+        log.debug("Healed all partitions at " + now + " ms");
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Clock
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * @return the simulated time in milliseconds since the network was created
+     */
+    public long now() {
+        return now;
+    }
+
+    public void schedule(long delayMillis, Runnable action) {
+        events.add(new Event(now + Math.max(0, delayMillis), sequence++, action));
+    }
+
+    /**
+     * Processes events until there are none left.
+     *
+     * @return the number of processed events
+     */
+    public long runUntilIdle() {
+        return runUntil(Long.MAX_VALUE);
+    }
+
+    /**
+     * Processes the events of the next given milliseconds and advances the clock by that time.
+     *
+     * @return the number of processed events
+     */
+    public long runFor(long millis) {
+        long until = now + millis;
+        long processed = runUntil(until);
+        now = until;
+        return processed;
+    }
+
+    private long runUntil(long until) {
+        long processed = 0;
+        while (!events.isEmpty() && events.peek().time <= until) {
+            Event event = events.poll();
+            now = event.time;
+            event.action.run();
+            processed++;
+        }
+        return processed;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Direct messages
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Delivers the payload to the message broker of the receiver and reports the success once the answer arrived.
+     */
+    void send(SimulatedNode sender, SimulatedPeer receiver, Object payload, Consumer<Boolean> resultHandler) {
+        SimulatedNode receiverNode = nodes.get(receiver.getName());
+        byte[] serialized = serialize(payload);
+        if (receiverNode == null || serialized == null) {
+            fail(resultHandler);
+            return;
+        }
+
+        transmit(sender, receiverNode, serialized.length, () -> {
+            Object copy = deserialize(serialized);
+            if (receiverNode.getMessageBroker() != null && copy != null)
+                receiverNode.getMessageBroker().handleMessage(copy, sender.getPeer());
+            // The empty answer of the receiver
+            transmit(receiverNode, sender, 0, () -> resultHandler.accept(true), () -> resultHandler.accept(false));
+        }, () -> resultHandler.accept(false));
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // DHT
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Replaces all values at the location key by the given one.
+     */
+    void put(SimulatedNode node, String locationKey, Object value, Consumer<Boolean> resultHandler) {
+        byte[] serialized = serialize(value);
+        if (serialized == null) {
+            fail(resultHandler);
+            return;
+        }
+
+        storageRequest(node, serialized.length, () -> {
+            Map<String, byte[]> values = new LinkedHashMap<>();
+            values.put(contentKey(serialized), serialized);
+            storage.put(locationKey, values);
+            return 0;
+        }, size -> resultHandler.accept(true), () -> resultHandler.accept(false));
+    }
+
+    /**
+     * Adds a value to the location key. The content key is the hash of the serialized value, like with TomP2P.
+     */
+    void add(SimulatedNode node, String locationKey, Object value, Consumer<Boolean> resultHandler) {
+        byte[] serialized = serialize(value);
+        if (serialized == null) {
+            fail(resultHandler);
+            return;
+        }
+
+        storageRequest(node, serialized.length, () -> {
+            storage.computeIfAbsent(locationKey, key -> new LinkedHashMap<>()).put(contentKey(serialized), serialized);
+            return 0;
+        }, size -> resultHandler.accept(true), () -> resultHandler.accept(false));
+    }
+
+    void remove(SimulatedNode node, String locationKey, Object value, Consumer<Boolean> resultHandler) {
+        byte[] serialized = serialize(value);
+        if (serialized == null) {
+            fail(resultHandler);
+            return;
+        }
+
+        storageRequest(node, serialized.length, () -> {
+            Map<String, byte[]> values = storage.get(locationKey);
+            if (values != null && values.remove(contentKey(serialized)) != null && values.isEmpty())
+                storage.remove(locationKey);
+            return 0;
+        }, size -> resultHandler.accept(true), () -> resultHandler.accept(false));
+    }
+
+    /**
+     * Reads copies of all values at the location key. The result handler gets null if the request failed.
+     */
+    void get(SimulatedNode node, String locationKey, Consumer<List<Object>> resultHandler) {
+        // The values are read when the request arrives, the copies are made when the response arrives
+        List<byte[]> read = new ArrayList<>();
+        storageRequest(node, locationKey.length(), () -> {
+            Map<String, byte[]> values = storage.get(locationKey);
+            if (values != null)
+                read.addAll(values.values());
+            return read.stream().mapToInt(bytes -> bytes.length).sum();
+        }, size -> {
+            List<Object> copies = new ArrayList<>();
+            read.forEach(bytes -> {
+                Object copy = deserialize(bytes);
+                if (copy != null)
+                    copies.add(copy);
+            });
+            resultHandler.accept(copies);
+        }, () -> resultHandler.accept(null));
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Statistics
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public long getTransmissions() {
+        return transmissions;
+    }
+
+    public long getLostTransmissions() {
+        return lostTransmissions;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public long getFailedRequests() {
+        return failedRequests;
+    }
+
+    public int getStoredValues() {
+        return storage.values().stream().mapToInt(Map::size).sum();
+    }
+
+    @Override
+    public String toString() {
+        return "SimulatedNetwork{" +
+                "now=" + now +
+                ", nodes=" + nodes.size() +
+                ", transmissions=" + transmissions +
+                ", lostTransmissions=" + lostTransmissions +
+                ", bytesSent=" + bytesSent +
+                ", failedRequests=" + failedRequests +
+                ", storedValues=" + getStoredValues() +
+                '}';
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private interface StorageOperation {
+        // Returns the size of the response
+        int apply();
+    }
+
+    // A round trip to the storage, which lives in the main partition
+    private void storageRequest(SimulatedNode node, int requestSize, StorageOperation operation,
+                                Consumer<Integer> onResponse, Runnable onFailure) {
+        if (partitions.get(node) != MAIN_PARTITION || !node.isOnline()) {
+            timeout(onFailure);
+            return;
+        }
+
+        transmit(requestSize, () -> {
+            int responseSize = operation.apply();
+            transmit(responseSize, () -> onResponse.accept(responseSize), onFailure);
+        }, onFailure);
+    }
+
+    private void transmit(SimulatedNode sender, SimulatedNode receiver, int size, Runnable onArrival,
+                          Runnable onFailure) {
+        if (!sender.isOnline() || !receiver.isOnline() ||
+                !partitions.get(sender).equals(partitions.get(receiver))) {
+            timeout(onFailure);
+            return;
+        }
+        transmit(size, () -> {
+            // The receiver might have gone offline or been partitioned meanwhile
+            if (receiver.isOnline() && partitions.get(sender).equals(partitions.get(receiver)))
+                onArrival.run();
+            else
+                timeout(onFailure);
+        }, onFailure);
+    }
+
+    private void transmit(int size, Runnable onArrival, Runnable onFailure) {
+        transmissions++;
+        bytesSent += size;
+        long latency = minLatencyMillis + (long) (random.nextDouble() * (maxLatencyMillis - minLatencyMillis));
+        if (lossRate > 0 && random.nextDouble() < lossRate) {
+            lostTransmissions++;
+            timeout(onFailure);
+        }
+        else {
+            schedule(latency, onArrival);
+        }
+    }
+
+    private void timeout(Runnable onFailure) {
+        failedRequests++;
+        schedule(timeoutMillis, onFailure);
+    }
+
+    private void fail(Consumer<Boolean> resultHandler) {
+        failedRequests++;
+        schedule(0, () -> resultHandler.accept(false));
+    }
+
+    private static String contentKey(byte[] serialized) {
+        return Hashing.sha1().hashBytes(serialized).toString();
+    }
+
+    @Nullable
+    private static byte[] serialize(Object object) {
+        try {
+            return PayloadCompression.serialize(object);
+        } catch (IOException e) {
+            log.error("Could not serialize " + object + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    @Nullable
+    private static Object deserialize(byte[] bytes) {
+        try {
+            return PayloadCompression.deserialize(bytes);
+        } catch (IOException | ClassNotFoundException e) {
+            log.error("Could not deserialize payload: " + e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.network.simulation;
+
+import io.bitsquare.msg.MessageBroker;
+import io.bitsquare.network.ClientNode;
+import io.bitsquare.network.ConnectionType;
+import io.bitsquare.network.Node;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A node of a {@link SimulatedNetwork}. It offers the DHT and direct messaging the TomP2P node offers, with string
+ * keys and plain callbacks instead of TomP2P futures.
+ */
+public class SimulatedNode implements ClientNode {
+
+    private static final Node BOOTSTRAP_NODE = Node.at("simulation", "127.0.0.1");
+
+    private final SimulatedNetwork network;
+    private final SimulatedPeer peer;
+    private final Node address;
+    private MessageBroker messageBroker;
+    private boolean online = true;
+
+    SimulatedNode(SimulatedNetwork network, String name, int index) {
+        this.network = network;
+        this.peer = new SimulatedPeer(name);
+        this.address = Node.at(name, "127.0.0.1", Node.DEFAULT_PORT + 1 + index);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Public methods
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public void setMessageBroker(MessageBroker messageBroker) {
+        this.messageBroker = messageBroker;
+    }
+
+    /**
+     * An offline node neither sends nor receives anything, requests to it time out.
+     */
+    public void setOnline(boolean online) {
+        this.online = online;
+    }
+
+    public void sendData(SimulatedPeer receiver, Object payload, Consumer<Boolean> resultHandler) {
+        network.send(this, receiver, payload, resultHandler);
+    }
+
+    public void putData(String locationKey, Object value, Consumer<Boolean> resultHandler) {
+        network.put(this, locationKey, value, resultHandler);
+    }
+
+    public void addData(String locationKey, Object value, Consumer<Boolean> resultHandler) {
+        network.add(this, locationKey, value, resultHandler);
+    }
+
+    public void removeData(String locationKey, Object value, Consumer<Boolean> resultHandler) {
+        network.remove(this, locationKey, value, resultHandler);
+    }
+
+    /**
+     * @param resultHandler gets copies of all values at the location key, or null if the request failed
+     */
+    public void getDataMap(String locationKey, Consumer<List<Object>> resultHandler) {
+        network.get(this, locationKey, resultHandler);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Getters
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public SimulatedNetwork getNetwork() {
+        return network;
+    }
+
+    public SimulatedPeer getPeer() {
+        return peer;
+    }
+
+    public MessageBroker getMessageBroker() {
+        return messageBroker;
+    }
+
+    public boolean isOnline() {
+        return online;
+    }
+
+    @Override
+    public ConnectionType getConnectionType() {
+        return ConnectionType.DIRECT;
+    }
+
+    @Override
+    public Node getAddress() {
+        return address;
+    }
+
+    @Override
+    public Node getBootstrapNodeAddress() {
+        return BOOTSTRAP_NODE;
+    }
+
+    @Override
+    public String toString() {
+        return "SimulatedNode{" + peer.getName() + '}';
+    }
+}
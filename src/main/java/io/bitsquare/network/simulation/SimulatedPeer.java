@@ -0,0 +1,58 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.network.simulation;
+
+import io.bitsquare.network.Peer;
+
+import com.google.common.base.Objects;
+
+import java.io.Serializable;
+
+/**
+ * A {@link Peer} of a {@link SimulatedNetwork}, addressed by the name of its node.
+ */
+public class SimulatedPeer implements Peer, Serializable {
+
+    private static final long serialVersionUID = 2687417295236624021L;
+
+    private final String name;
+
+    public SimulatedPeer(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof SimulatedPeer && name.equals(((SimulatedPeer) other).name);
+    }
+
+    @Override
+    public int hashCode() {
+        return name.hashCode();
+    }
+
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("name", name)
+                .toString();
+    }
+}
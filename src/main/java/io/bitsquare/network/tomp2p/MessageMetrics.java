@@ -0,0 +1,214 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.network.tomp2p;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.tomp2p.connection.PipelineFilter;
+import net.tomp2p.message.Message;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.rpc.RPC;
+import net.tomp2p.utils.Pair;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.concurrent.EventExecutorGroup;
+
+/**
+ * Counts the TomP2P messages of a peer by command and direction, and measures the time between a request and its
+ * response. Installed as pipeline filter in front of the filter which would be used otherwise.
+ */
+public class MessageMetrics implements PipelineFilter {
+    static final String HANDLER_NAME = "metrics";
+
+    public enum Direction {
+        INBOUND,
+        OUTBOUND
+    }
+
+    public static class Counter {
+        private final AtomicLong messages = new AtomicLong();
+        private final AtomicLong responses = new AtomicLong();
+        private final AtomicLong totalLatencyMicros = new AtomicLong();
+        private final AtomicLong maxLatencyMicros = new AtomicLong();
+
+        public long getMessages() {
+            return messages.get();
+        }
+
+        /**
+         * @return the number of requests in this direction for which we have seen the response
+         */
+        public long getResponses() {
+            return responses.get();
+        }
+
+        public double getAverageLatencyMillis() {
+            long count = responses.get();
+            return count > 0 ? totalLatencyMicros.get() / 1000d / count : 0;
+        }
+
+        public double getMaxLatencyMillis() {
+            return maxLatencyMicros.get() / 1000d;
+        }
+
+        private void recordLatency(long latencyMicros) {
+            responses.incrementAndGet();
+            totalLatencyMicros.addAndGet(latencyMicros);
+            if (latencyMicros > maxLatencyMicros.get())
+                maxLatencyMicros.set(latencyMicros);
+        }
+    }
+
+    private static class PendingRequest {
+        private final Counter counter;
+        private final long startNanos = System.nanoTime();
+
+        private PendingRequest(Counter counter) {
+            this.counter = counter;
+        }
+    }
+
+    // Message ids are only unique per requester, the response carries the id of the request
+    private static class RequestKey {
+        private final Number160 requesterId;
+        private final int messageId;
+
+        private RequestKey(Number160 requesterId, int messageId) {
+            this.requesterId = requesterId;
+            this.messageId = messageId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof RequestKey)) return false;
+            RequestKey other = (RequestKey) o;
+            return messageId == other.messageId && requesterId.equals(other.requesterId);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * requesterId.hashCode() + messageId;
+        }
+    }
+
+    private final PipelineFilter delegate;
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+    // Requests which are not answered (e.g. fire and forget) must not pile up
+    private final Cache<RequestKey, PendingRequest> pendingRequests = CacheBuilder.newBuilder()
+            .expireAfterWrite(1, TimeUnit.MINUTES)
+            .build();
+    private final ChannelHandler handler = new MetricsHandler();
+
+    public MessageMetrics(PipelineFilter delegate) {
+        this.delegate = delegate;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // PipelineFilter
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    @Override
+    public Map<String, Pair<EventExecutorGroup, ChannelHandler>> filter(
+            Map<String, Pair<EventExecutorGroup, ChannelHandler>> channelHandlers, boolean tcp, boolean client) {
+        return PipelineFilters.insertAfter(delegate.filter(channelHandlers, tcp, client),
+                PipelineFilters.ENCODER_NAME, HANDLER_NAME, handler);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Public methods
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * @return the counters keyed by direction and command, e.g. "INBOUND PUT"
+     */
+    public Map<String, Counter> getCounters() {
+        return new TreeMap<>(counters);
+    }
+
+    public long getMessages(Direction direction) {
+        long messages = 0;
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            if (entry.getKey().startsWith(direction.name()))
+                messages += entry.getValue().getMessages();
+        }
+        return messages;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private void record(Object object, Direction direction) {
+        if (!(object instanceof Message))
+            return;
+
+        Message message = (Message) object;
+        Counter counter = counters.computeIfAbsent(direction + " " + commandName(message.command()),
+                key -> new Counter());
+        counter.messages.incrementAndGet();
+
+        if (message.type().name().startsWith("REQUEST")) {
+            pendingRequests.put(new RequestKey(message.sender().peerId(), message.messageId()),
+                    new PendingRequest(counter));
+        }
+        else {
+            // The latency is accounted to the direction of the request
+            RequestKey key = new RequestKey(message.recipient().peerId(), message.messageId());
+            PendingRequest request = pendingRequests.getIfPresent(key);
+            if (request != null) {
+                pendingRequests.invalidate(key);
+                request.counter.recordLatency((System.nanoTime() - request.startNanos) / 1000);
+            }
+        }
+    }
+
+    private static String commandName(byte command) {
+        RPC.Commands[] commands = RPC.Commands.values();
+        return command >= 0 && command < commands.length ? commands[command].name() : "COMMAND_" + command;
+    }
+
+    @ChannelHandler.Sharable
+    private class MetricsHandler extends ChannelDuplexHandler {
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            record(msg, Direction.INBOUND);
+            super.channelRead(ctx, msg);
+        }
+
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+            record(msg, Direction.OUTBOUND);
+            super.write(ctx, msg, promise);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.network.tomp2p;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.tomp2p.connection.ChannelClientConfiguration;
+import net.tomp2p.connection.ChannelServerConfiguration;
+import net.tomp2p.connection.PipelineFilter;
+import net.tomp2p.p2p.PeerBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.EventExecutorGroup;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+
+/**
+ * The event executor group running the TomP2P channel handlers of one process. One instance is shared by the client
+ * and the server pipelines. Its size is derived from the number of available cores and the role of the process
+ * instead of a fixed number of threads, and it keeps track of thread utilisation and queue latency.
+ */
+public class NetworkEventExecutorGroup extends DefaultEventExecutorGroup {
+    private static final Logger log = LoggerFactory.getLogger(NetworkEventExecutorGroup.class);
+
+    public static final String THREADS_KEY = "p2p.executor.threads";
+
+    public enum Role {
+        // A client only talks to a few peers at a time
+        CLIENT(1, 2, 8),
+        // A bootstrap node serves many peers, and its handlers also block on DHT storage
+        BOOTSTRAP_NODE(2, 4, 32);
+
+        private final int threadsPerCore;
+        private final int minThreads;
+        private final int maxThreads;
+
+        Role(int threadsPerCore, int minThreads, int maxThreads) {
+            this.threadsPerCore = threadsPerCore;
+            this.minThreads = minThreads;
+            this.maxThreads = maxThreads;
+        }
+
+        public int threadCount(int cores) {
+            return Math.max(minThreads, Math.min(maxThreads, cores * threadsPerCore));
+        }
+    }
+
+    private final Role role;
+    private final long createdNanos = System.nanoTime();
+
+    public NetworkEventExecutorGroup(Role role) {
+        this(role, role.threadCount(Runtime.getRuntime().availableProcessors()));
+    }
+
+    public NetworkEventExecutorGroup(Role role, int threads) {
+        super(threads, new ThreadFactoryBuilder()
+                .setNameFormat("TomP2P-" + role.name().toLowerCase() + "-%d")
+                .setDaemon(true)
+                .build());
+        this.role = role;
+        log.info("Created network event executor group for " + role + " with " + threads + " threads");
+    }
+
+    @Override
+    protected EventExecutor newChild(ThreadFactory threadFactory, Object... args) throws Exception {
+        return new MeasuredEventExecutor(this, threadFactory);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Public methods
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Lets the client and the server pipelines of a peer run their handlers on this group.
+     */
+    public void applyTo(ChannelClientConfiguration clientConf, ChannelServerConfiguration serverConf) {
+        PipelineFilter filter = pipelineFilter();
+        clientConf.pipelineFilter(filter);
+        serverConf.pipelineFilter(filter);
+    }
+
+    /**
+     * @return a filter letting the handlers of a pipeline run on this group, for combining it with other filters
+     */
+    public PipelineFilter pipelineFilter() {
+        return new PeerBuilder.EventExecutorGroupFilter(this);
+    }
+
+    public Role getRole() {
+        return role;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Metrics
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * @return the share of time the threads of this group spent running tasks since it was created, from 0 to 1
+     */
+    public double getUtilisation() {
+        long busyNanos = 0;
+        for (EventExecutor executor : children())
+            busyNanos += ((MeasuredEventExecutor) executor).busyNanos.get();
+
+        long availableNanos = (System.nanoTime() - createdNanos) * executorCount();
+        return availableNanos > 0 ? (double) busyNanos / availableNanos : 0;
+    }
+
+    /**
+     * @return the average time tasks waited in the queue before they were run, in microseconds
+     */
+    public double getAverageQueueLatencyMicros() {
+        long tasks = getCompletedTasks();
+        if (tasks == 0)
+            return 0;
+
+        long waitNanos = 0;
+        for (EventExecutor executor : children())
+            waitNanos += ((MeasuredEventExecutor) executor).waitNanos.get();
+        return waitNanos / 1000d / tasks;
+    }
+
+    public long getMaxQueueLatencyMicros() {
+        long max = 0;
+        for (EventExecutor executor : children())
+            max = Math.max(max, ((MeasuredEventExecutor) executor).maxWaitNanos.get());
+        return max / 1000;
+    }
+
+    public long getCompletedTasks() {
+        long tasks = 0;
+        for (EventExecutor executor : children())
+            tasks += ((MeasuredEventExecutor) executor).completedTasks.get();
+        return tasks;
+    }
+
+    public int getPendingTasks() {
+        int pending = 0;
+        for (EventExecutor executor : children())
+            pending += ((MeasuredEventExecutor) executor).pendingTasks();
+        return pending;
+    }
+
+    public String getStatistics() {
+        return String.format("threads=%d, utilisation=%.1f%%, completedTasks=%d, pendingTasks=%d, " +
+                        "avgQueueLatency=%.1fus, maxQueueLatency=%dus",
+                executorCount(), getUtilisation() * 100, getCompletedTasks(), getPendingTasks(),
+                getAverageQueueLatencyMicros(), getMaxQueueLatencyMicros());
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Executor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Same as Netty's package private DefaultEventExecutor, but measures how long tasks wait and run.
+     */
+    private static class MeasuredEventExecutor extends SingleThreadEventExecutor {
+        private final AtomicLong busyNanos = new AtomicLong();
+        private final AtomicLong waitNanos = new AtomicLong();
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+        private final AtomicLong completedTasks = new AtomicLong();
+
+        MeasuredEventExecutor(EventExecutorGroup parent, ThreadFactory threadFactory) {
+            super(parent, threadFactory, true);
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            if (task == null)
+                throw new NullPointerException("task");
+
+            long submitted = System.nanoTime();
+            super.execute(() -> {
+                long started = System.nanoTime();
+                try {
+                    task.run();
+                } finally {
+                    long waited = started - submitted;
+                    waitNanos.addAndGet(waited);
+                    if (waited > maxWaitNanos.get())
+                        maxWaitNanos.set(waited);
+                    busyNanos.addAndGet(System.nanoTime() - started);
+                    completedTasks.incrementAndGet();
+                }
+            });
+        }
+
+        @Override
+        protected void run() {
+            for (; ; ) {
+                Runnable task = takeTask();
+                if (task != null) {
+                    task.run();
+                    updateLastExecutionTime();
+                }
+
+                if (confirmShutdown())
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.network.tomp2p;
+
+import io.bitsquare.util.TokenBucket;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+import java.net.InetAddress;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.tomp2p.connection.PipelineFilter;
+import net.tomp2p.message.Message;
+import net.tomp2p.utils.Pair;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.EventExecutorGroup;
+
+/**
+ * Limits the rate of requests a peer accepts from each remote host. Requests above the rate are dropped before they
+ * reach the dispatcher, so they cost neither storage nor handler time, and the sender runs into its timeout.
+ * Hosts are identified by the address the message was received from, not by the peer id they claim, as a client can
+ * choose any number of peer ids.
+ */
+public class PeerRequestLimiter implements PipelineFilter {
+    private static final Logger log = LoggerFactory.getLogger(PeerRequestLimiter.class);
+
+    public static final String RATE_KEY = "p2p.peerRequestRate";
+    public static final int DEFAULT_RATE = 20;
+
+    static final String HANDLER_NAME = "limiter";
+    // A host may send this many seconds worth of requests at once
+    static final int BURST_SECONDS = 2;
+    // Bounds the memory used for the buckets when we are contacted by very many hosts
+    static final int MAX_TRACKED_HOSTS = 100_000;
+
+    private final PipelineFilter delegate;
+    private final LoadingCache<InetAddress, TokenBucket> buckets;
+    private final ChannelHandler handler = new LimiterHandler();
+    private final AtomicLong droppedRequests = new AtomicLong();
+
+    public PeerRequestLimiter(PipelineFilter delegate, int requestsPerSecond) {
+        this.delegate = delegate;
+        this.buckets = CacheBuilder.newBuilder()
+                .expireAfterAccess(10, TimeUnit.MINUTES)
+                .maximumSize(MAX_TRACKED_HOSTS)
+                .build(new CacheLoader<InetAddress, TokenBucket>() {
+                    @Override
+                    public TokenBucket load(InetAddress host) {
+                        return new TokenBucket(requestsPerSecond, requestsPerSecond * BURST_SECONDS);
+                    }
+                });
+    }
+
+    @Override
+    public Map<String, Pair<EventExecutorGroup, ChannelHandler>> filter(
+            Map<String, Pair<EventExecutorGroup, ChannelHandler>> channelHandlers, boolean tcp, boolean client) {
+        Map<String, Pair<EventExecutorGroup, ChannelHandler>> filtered = delegate.filter(channelHandlers, tcp, client);
+        // Only requests to us are limited, not the responses to our own requests
+        if (client)
+            return filtered;
+
+        // Behind the metrics handler if there is one, so dropped requests are counted there as well
+        String after = filtered.containsKey(MessageMetrics.HANDLER_NAME) ?
+                MessageMetrics.HANDLER_NAME : PipelineFilters.ENCODER_NAME;
+        return PipelineFilters.insertAfter(filtered, after, HANDLER_NAME, handler);
+    }
+
+    public long getDroppedRequests() {
+        return droppedRequests.get();
+    }
+
+    public long getTrackedHosts() {
+        return buckets.size();
+    }
+
+    @ChannelHandler.Sharable
+    private class LimiterHandler extends ChannelInboundHandlerAdapter {
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            if (msg instanceof Message) {
+                Message message = (Message) msg;
+                InetAddress host = message.senderSocket() != null ?
+                        message.senderSocket().getAddress() : message.sender().inetAddress();
+                if (!buckets.getUnchecked(host).tryAcquire()) {
+                    if (droppedRequests.incrementAndGet() % 1000 == 1)
+                        log.warn("Dropping requests of " + host + " above the rate limit, " +
+                                droppedRequests.get() + " dropped in total");
+                    ReferenceCountUtil.release(msg);
+                    return;
+                }
+            }
+            super.channelRead(ctx, msg);
+        }
+    }
+}
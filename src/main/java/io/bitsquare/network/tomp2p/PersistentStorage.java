@@ -0,0 +1,640 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.network.tomp2p;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.tomp2p.dht.StorageMemory;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
+import net.tomp2p.storage.Data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * DHT storage which survives a restart. The data is kept in memory as by {@link StorageMemory}, and every change is
+ * appended to a journal on disk. The journal is flushed every {@link #FLUSH_INTERVAL_MILLIS}, so a crash loses the
+ * changes of that time at most; their publishers store them again. The journal is compacted into a snapshot of the
+ * live entries periodically and whenever it has grown large. Expired entries are not written to the snapshot and
+ * are skipped when the data is reloaded at start, so a node which was down for a while does not serve outdated data.
+ * <p>
+ * The number of entries and bytes per location key and the total number of bytes can be limited. If a put would
+ * exceed a limit, entries are evicted to make room for it: first the entries without a timeout, oldest first, as
+ * Bitsquare always publishes its data with one, then the entries closest to their expiration.
+ * <p>
+ * Only the payload and the expiration of an entry are stored. Entry and domain protection are not supported as
+ * Bitsquare does not use them yet.
+ */
+public class PersistentStorage extends StorageMemory {
+    private static final Logger log = LoggerFactory.getLogger(PersistentStorage.class);
+
+    public static final String DIR_KEY = "storage.dir";
+    public static final String MAX_ENTRIES_PER_LOCATION_KEY_KEY = "storage.maxEntriesPerLocationKey";
+    public static final String MAX_BYTES_PER_LOCATION_KEY_KEY = "storage.maxBytesPerLocationKey";
+    public static final String MAX_BYTES_KEY = "storage.maxBytes";
+
+    public static final int DEFAULT_MAX_ENTRIES_PER_LOCATION_KEY = 5000;
+    public static final long DEFAULT_MAX_BYTES_PER_LOCATION_KEY = 16 * 1024 * 1024;
+    public static final long DEFAULT_MAX_BYTES = 512 * 1024 * 1024;
+
+    static final long COMPACTION_INTERVAL_MINUTES = 10;
+    // Compact as well once the journal holds this many records, so that a burst of writes cannot fill the disk
+    static final int MAX_JOURNAL_RECORDS = 100_000;
+    static final long FLUSH_INTERVAL_MILLIS = 1000;
+
+    static final String SNAPSHOT_FILE = "dht.snapshot";
+    static final String JOURNAL_FILE = "dht.journal";
+    // The journal records which are not yet in the snapshot during a compaction
+    static final String OLD_JOURNAL_FILE = "dht.journal.old";
+
+    static final byte PUT = 1;
+    static final byte REMOVE = 2;
+    static final byte TIMEOUT = 3;
+    private static final long NO_TIMEOUT = Long.MAX_VALUE;
+
+    private final File snapshotFile;
+    private final File journalFile;
+    private final File oldJournalFile;
+    private final Map<Number640, Long> expirations = new HashMap<>();
+    private final ScheduledExecutorService executor;
+    // Compactions write the snapshot without holding the storage lock, this keeps them from overlapping
+    private final Object compactionLock = new Object();
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private final int maxEntriesPerLocationKey;
+    private final long maxBytesPerLocationKey;
+    private final long maxBytes;
+    private final Map<Number640, Integer> sizes = new HashMap<>();
+    private final Map<Number160, LocationKeyStatistics> locationKeyStatistics = new HashMap<>();
+    // The entries in the order they are evicted, overall and per location key
+    private final Map<Number640, EvictionCandidate> evictionCandidates = new HashMap<>();
+    private final NavigableSet<EvictionCandidate> evictionOrder = new TreeSet<>();
+    private final Map<Number160, NavigableSet<EvictionCandidate>> locationKeyEvictionOrder = new HashMap<>();
+    private long nextSequence;
+    private long totalBytes;
+    private long evictions;
+    private long rejectedPuts;
+
+    private DataOutputStream journal;
+    private int journalRecords;
+    private boolean compactionScheduled;
+
+    /**
+     * Loads the data stored in the given directory, or starts empty if there is none. The size of the storage is not
+     * limited.
+     */
+    public PersistentStorage(File dir) throws IOException {
+        this(dir, Integer.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Loads the data stored in the given directory, or starts empty if there is none. Data loaded from disk is not
+     * checked against the limits, the next puts evict entries if needed.
+     */
+    public PersistentStorage(File dir, int maxEntriesPerLocationKey, long maxBytesPerLocationKey, long maxBytes)
+            throws IOException {
+        this.maxEntriesPerLocationKey = maxEntriesPerLocationKey;
+        this.maxBytesPerLocationKey = maxBytesPerLocationKey;
+        this.maxBytes = maxBytes;
+
+        if (!dir.exists() && !dir.mkdirs())
+            throw new IOException("Could not create storage directory " + dir);
+
+        snapshotFile = new File(dir, SNAPSHOT_FILE);
+        journalFile = new File(dir, JOURNAL_FILE);
+        oldJournalFile = new File(dir, OLD_JOURNAL_FILE);
+
+        long startTime = System.currentTimeMillis();
+        Map<Number640, StoredEntry> entries = new LinkedHashMap<>();
+        journalRecords = replay(snapshotFile, entries) + replay(oldJournalFile, entries) + replay(journalFile, entries);
+
+        int expired = 0;
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Number640, StoredEntry> entry : entries.entrySet()) {
+            StoredEntry storedEntry = entry.getValue();
+            if (storedEntry.expiration <= now) {
+                expired++;
+                continue;
+            }
+
+            Data data = new Data(storedEntry.value);
+            if (storedEntry.expiration != NO_TIMEOUT) {
+                data.ttlSeconds((int) Math.max(1, (storedEntry.expiration - now) / 1000));
+                super.addTimeout(entry.getKey(), storedEntry.expiration);
+                expirations.put(entry.getKey(), storedEntry.expiration);
+            }
+            super.put(entry.getKey(), data);
+            track(entry.getKey(), storedEntry.value.length);
+        }
+        log.info("Loaded " + (entries.size() - expired) + " DHT entries from " + dir + " in " +
+                (System.currentTimeMillis() - startTime) + " ms, skipped " + expired + " expired entries");
+
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("PersistentStorage")
+                .setDaemon(true)
+                .build());
+        compact();
+
+        executor.scheduleWithFixedDelay(this::compactQuietly,
+                COMPACTION_INTERVAL_MINUTES, COMPACTION_INTERVAL_MINUTES, TimeUnit.MINUTES);
+        executor.scheduleWithFixedDelay(this::flushJournal,
+                FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Storage
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    @Override
+    public synchronized Data put(Number640 key, Data value) {
+        byte[] bytes = value.toBytes();
+        if (bytes.length > maxBytesPerLocationKey || bytes.length > maxBytes) {
+            rejectedPuts++;
+            log.warn("Rejected entry of " + bytes.length + " bytes for location key " + key.locationKey());
+            return null;
+        }
+        makeRoom(key, bytes.length);
+
+        Data previous = super.put(key, value);
+        track(key, bytes.length);
+        append(key, PUT, out -> {
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        });
+        return previous;
+    }
+
+    @Override
+    public synchronized Data remove(Number640 key, boolean returnData) {
+        Data removed = super.remove(key, returnData);
+        expirations.remove(key);
+        untrack(key);
+        append(key, REMOVE, out -> {
+        });
+        return removed;
+    }
+
+    @Override
+    public synchronized void addTimeout(Number640 key, long expiration) {
+        super.addTimeout(key, expiration);
+        expirations.put(key, expiration);
+        updateEvictionCandidate(key);
+        append(key, TIMEOUT, out -> out.writeLong(expiration));
+    }
+
+    @Override
+    public synchronized void removeTimeout(Number640 key) {
+        super.removeTimeout(key);
+        expirations.remove(key);
+        updateEvictionCandidate(key);
+        append(key, TIMEOUT, out -> out.writeLong(NO_TIMEOUT));
+    }
+
+    // Called by TomP2P when the peer shuts down and by the bootstrap node, only the first call writes the storage
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true))
+            return;
+
+        executor.shutdownNow();
+        try {
+            compact();
+            synchronized (this) {
+                journal.close();
+            }
+        } catch (IOException e) {
+            log.error("Could not write the DHT storage at shutdown: " + e.getMessage());
+        }
+        super.close();
+    }
+
+    /**
+     * Writes all live entries to a new snapshot. The storage lock is only held while the entries are copied and the
+     * journal is switched, the snapshot is written without it. The records from before the switch stay in the old
+     * journal until the new snapshot is in place, so the data on disk is complete at any time.
+     */
+    public void compact() throws IOException {
+        synchronized (compactionLock) {
+            long startTime = System.currentTimeMillis();
+            NavigableMap<Number640, Data> entries;
+            Map<Number640, Long> entryExpirations;
+            synchronized (this) {
+                compactionScheduled = false;
+                entries = new TreeMap<>(map());
+                entryExpirations = new HashMap<>(expirations);
+                switchJournal();
+
+                // Entries removed without notifying us (e.g. range removes) are gone from the map, drop their
+                // timeouts and sizes
+                expirations.keySet().retainAll(entries.keySet());
+                for (Number640 key : new ArrayList<>(sizes.keySet())) {
+                    if (!entries.containsKey(key))
+                        untrack(key);
+                }
+            }
+
+            int written = writeSnapshot(entries, entryExpirations, startTime);
+            Files.deleteIfExists(oldJournalFile.toPath());
+            log.debug("Compacted DHT storage to " + written + " entries in " +
+                    (System.currentTimeMillis() - startTime) + " ms");
+        }
+    }
+
+    public synchronized int getJournalRecords() {
+        return journalRecords;
+    }
+
+    /**
+     * Writes the buffered journal records to disk.
+     */
+    public synchronized void flushJournal() {
+        try {
+            if (journal != null)
+                journal.flush();
+        } catch (IOException e) {
+            log.error("Could not write to the DHT storage journal: " + e.getMessage());
+        }
+    }
+
+    // Moves the records written so far to the old journal and starts a new one. Called with the storage lock held.
+    private void switchJournal() throws IOException {
+        if (journal != null)
+            journal.close();
+
+        if (journalFile.exists()) {
+            // The old journal is only left over if the last compaction failed, its records are still needed
+            if (oldJournalFile.exists()) {
+                try (FileOutputStream out = new FileOutputStream(oldJournalFile, true)) {
+                    Files.copy(journalFile.toPath(), out);
+                }
+            }
+            else {
+                Files.move(journalFile.toPath(), oldJournalFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+        journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journalFile, false)));
+        journalRecords = 0;
+    }
+
+    private int writeSnapshot(Map<Number640, Data> entries, Map<Number640, Long> entryExpirations, long now)
+            throws IOException {
+        File tempFile = new File(snapshotFile.getParentFile(), SNAPSHOT_FILE + ".tmp");
+        int written = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            for (Map.Entry<Number640, Data> entry : entries.entrySet()) {
+                Long expiration = entryExpirations.get(entry.getKey());
+                if (expiration != null && expiration <= now)
+                    continue;
+
+                byte[] bytes = entry.getValue().toBytes();
+                writeRecord(out, entry.getKey(), PUT);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+                if (expiration != null) {
+                    writeRecord(out, entry.getKey(), TIMEOUT);
+                    out.writeLong(expiration);
+                }
+                written++;
+            }
+        }
+        // A crash before the old journal is deleted is harmless, replaying it on top of the new snapshot leads to
+        // the same state
+        Files.move(tempFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        return written;
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (IOException e) {
+            log.error("Compaction of the DHT storage failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the number of entries and their size, for each location key
+     */
+    public synchronized Map<Number160, LocationKeyStatistics> getLocationKeyStatistics() {
+        Map<Number160, LocationKeyStatistics> statistics = new HashMap<>();
+        locationKeyStatistics.forEach((locationKey, locationKeyStatistics) ->
+                statistics.put(locationKey, new LocationKeyStatistics(locationKeyStatistics)));
+        return statistics;
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * @return the number of entries removed to stay within the limits
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return the number of entries not stored as they alone exceed a limit
+     */
+    public synchronized long getRejectedPuts() {
+        return rejectedPuts;
+    }
+
+    public static class LocationKeyStatistics {
+        private int entries;
+        private long bytes;
+
+        private LocationKeyStatistics() {
+        }
+
+        private LocationKeyStatistics(LocationKeyStatistics other) {
+            this.entries = other.entries;
+            this.bytes = other.bytes;
+        }
+
+        public int getEntries() {
+            return entries;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static class StoredEntry {
+        private byte[] value;
+        private long expiration = NO_TIMEOUT;
+    }
+
+    private static class EvictionCandidate implements Comparable<EvictionCandidate> {
+        private final Number640 key;
+        private final long expiration;
+        // Tells the order in which the entries were put
+        private final long sequence;
+
+        EvictionCandidate(Number640 key, long expiration, long sequence) {
+            this.key = key;
+            this.expiration = expiration;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(EvictionCandidate other) {
+            int result = Long.compare(evictionRank(), other.evictionRank());
+            return result != 0 ? result : Long.compare(sequence, other.sequence);
+        }
+
+        private long evictionRank() {
+            return expiration == NO_TIMEOUT ? Long.MIN_VALUE : expiration;
+        }
+    }
+
+    private static class CorruptRecordException extends IOException {
+        private static final long serialVersionUID = -6187291052183262354L;
+
+        CorruptRecordException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Evicts entries in eviction order until an entry of the given size fits for the given key.
+     */
+    private void makeRoom(Number640 key, int size) {
+        Integer oldSize = sizes.get(key);
+        int addedEntries = oldSize == null ? 1 : 0;
+        long addedBytes = size - (oldSize == null ? 0 : oldSize);
+
+        Number160 locationKey = key.locationKey();
+        LocationKeyStatistics statistics = locationKeyStatistics.get(locationKey);
+        while (statistics != null && (statistics.entries + addedEntries > maxEntriesPerLocationKey ||
+                statistics.bytes + addedBytes > maxBytesPerLocationKey)) {
+            if (!evictFirst(locationKeyEvictionOrder.get(locationKey), key))
+                break;
+            statistics = locationKeyStatistics.get(locationKey);
+        }
+
+        while (totalBytes + addedBytes > maxBytes) {
+            if (!evictFirst(evictionOrder, key))
+                break;
+        }
+    }
+
+    private boolean evictFirst(NavigableSet<EvictionCandidate> candidates, Number640 keep) {
+        if (candidates == null)
+            return false;
+
+        Number640 victim = null;
+        for (EvictionCandidate candidate : candidates) {
+            if (!candidate.key.equals(keep)) {
+                victim = candidate.key;
+                break;
+            }
+        }
+        if (victim == null)
+            return false;
+
+        log.debug("Evicting " + victim + " to stay within the storage limits");
+        // The timeout goes with the entry, the journal record of the removal covers both
+        super.removeTimeout(victim);
+        remove(victim, false);
+        evictions++;
+        return true;
+    }
+
+    private void track(Number640 key, int size) {
+        Integer oldSize = sizes.put(key, size);
+        long addedBytes = size - (oldSize == null ? 0 : oldSize);
+        LocationKeyStatistics statistics = locationKeyStatistics.computeIfAbsent(key.locationKey(),
+                locationKey -> new LocationKeyStatistics());
+        if (oldSize == null)
+            statistics.entries++;
+        statistics.bytes += addedBytes;
+        totalBytes += addedBytes;
+
+        removeEvictionCandidate(key);
+        addEvictionCandidate(key, nextSequence++);
+    }
+
+    private void untrack(Number640 key) {
+        removeEvictionCandidate(key);
+        Integer size = sizes.remove(key);
+        if (size == null)
+            return;
+
+        LocationKeyStatistics statistics = locationKeyStatistics.get(key.locationKey());
+        statistics.entries--;
+        statistics.bytes -= size;
+        totalBytes -= size;
+        if (statistics.entries == 0)
+            locationKeyStatistics.remove(key.locationKey());
+    }
+
+    private void addEvictionCandidate(Number640 key, long sequence) {
+        EvictionCandidate candidate = new EvictionCandidate(key, expirations.getOrDefault(key, NO_TIMEOUT), sequence);
+        evictionCandidates.put(key, candidate);
+        evictionOrder.add(candidate);
+        locationKeyEvictionOrder.computeIfAbsent(key.locationKey(), locationKey -> new TreeSet<>()).add(candidate);
+    }
+
+    private EvictionCandidate removeEvictionCandidate(Number640 key) {
+        EvictionCandidate candidate = evictionCandidates.remove(key);
+        if (candidate == null)
+            return null;
+
+        evictionOrder.remove(candidate);
+        NavigableSet<EvictionCandidate> locationKeyCandidates = locationKeyEvictionOrder.get(key.locationKey());
+        locationKeyCandidates.remove(candidate);
+        if (locationKeyCandidates.isEmpty())
+            locationKeyEvictionOrder.remove(key.locationKey());
+        return candidate;
+    }
+
+    // Re-sorts the entry after its expiration changed
+    private void updateEvictionCandidate(Number640 key) {
+        EvictionCandidate candidate = removeEvictionCandidate(key);
+        if (candidate != null)
+            addEvictionCandidate(key, candidate.sequence);
+    }
+
+    // The journal is flushed periodically, not per record
+    private void append(Number640 key, byte type, RecordWriter recordWriter) {
+        try {
+            writeRecord(journal, key, type);
+            recordWriter.write(journal);
+            journalRecords++;
+
+            if (journalRecords >= MAX_JOURNAL_RECORDS && !compactionScheduled && !executor.isShutdown()) {
+                compactionScheduled = true;
+                executor.execute(this::compactQuietly);
+            }
+        } catch (IOException e) {
+            // We keep serving from memory, the change is lost at the next restart only
+            log.error("Could not write to the DHT storage journal: " + e.getMessage());
+        }
+    }
+
+    static void writeRecord(DataOutputStream out, Number640 key, byte type) throws IOException {
+        out.writeByte(type);
+        out.write(key.locationKey().toByteArray());
+        out.write(key.domainKey().toByteArray());
+        out.write(key.contentKey().toByteArray());
+        out.write(key.versionKey().toByteArray());
+    }
+
+    /**
+     * Applies the records of the given file to the entries. An incomplete or corrupt record ends the file, as that is
+     * what a crash while writing it leaves behind.
+     *
+     * @return the number of records read
+     */
+    private static int replay(File file, Map<Number640, StoredEntry> entries) throws IOException {
+        if (!file.exists())
+            return 0;
+
+        int records = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                byte type;
+                try {
+                    type = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+
+                try {
+                    Number640 key = new Number640(readNumber160(in), readNumber160(in), readNumber160(in),
+                            readNumber160(in));
+                    switch (type) {
+                        case PUT:
+                            int length = in.readInt();
+                            if (length < 0 || length > file.length())
+                                throw new CorruptRecordException("Invalid length " + length);
+                            byte[] value = new byte[length];
+                            in.readFully(value);
+                            entries.computeIfAbsent(key, k -> new StoredEntry()).value = value;
+                            break;
+                        case REMOVE:
+                            entries.remove(key);
+                            break;
+                        case TIMEOUT:
+                            long expiration = in.readLong();
+                            StoredEntry entry = entries.get(key);
+                            if (entry != null)
+                                entry.expiration = expiration;
+                            break;
+                        default:
+                            throw new CorruptRecordException("Unknown record type " + type);
+                    }
+                    records++;
+                } catch (EOFException e) {
+                    // The last record was not written completely as we went down
+                    log.warn("Ignoring incomplete last record of " + file);
+                    break;
+                } catch (CorruptRecordException e) {
+                    log.warn("Ignoring " + file + " from record " + records + " on. " + e.getMessage());
+                    break;
+                }
+            }
+        }
+        return records;
+    }
+
+    private static Number160 readNumber160(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[Number160.BYTE_ARRAY_SIZE];
+        in.readFully(bytes);
+        return new Number160(bytes);
+    }
+}
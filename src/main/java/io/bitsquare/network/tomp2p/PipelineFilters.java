@@ -0,0 +1,49 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.network.tomp2p;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.tomp2p.utils.Pair;
+
+import io.netty.channel.ChannelHandler;
+import io.netty.util.concurrent.EventExecutorGroup;
+
+class PipelineFilters {
+    // Handlers placed behind the encoder see decoded inbound and not yet encoded outbound messages
+    static final String ENCODER_NAME = "encoder";
+
+    /**
+     * @return the given handlers with the new handler inserted behind the handler with the given name, or at the
+     * end if there is none with that name. The new handler runs on the I/O thread.
+     */
+    static Map<String, Pair<EventExecutorGroup, ChannelHandler>> insertAfter(
+            Map<String, Pair<EventExecutorGroup, ChannelHandler>> channelHandlers, String after, String name,
+            ChannelHandler handler) {
+        Map<String, Pair<EventExecutorGroup, ChannelHandler>> result = new LinkedHashMap<>();
+        for (Map.Entry<String, Pair<EventExecutorGroup, ChannelHandler>> entry : channelHandlers.entrySet()) {
+            result.put(entry.getKey(), entry.getValue());
+            if (after.equals(entry.getKey()))
+                result.put(name, new Pair<>(null, handler));
+        }
+        if (!result.containsKey(name))
+            result.put(name, new Pair<>(null, handler));
+        return result;
+    }
+}
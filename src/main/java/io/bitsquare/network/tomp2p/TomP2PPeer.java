@@ -35,18 +35,30 @@ public class TomP2PPeer implements Peer, Serializable {
     private static final long serialVersionUID = -2022551056208230853L;
 
     private final PeerAddress peerAddress;
+    // False in the addresses stored by older clients, which cannot read compressed messages
+    private final boolean compressionSupported;
 
     public TomP2PPeer(PeerAddress peerAddress) {
+        this(peerAddress, false);
+    }
+
+    public TomP2PPeer(PeerAddress peerAddress, boolean compressionSupported) {
         this.peerAddress = peerAddress;
+        this.compressionSupported = compressionSupported;
     }
 
     public PeerAddress getPeerAddress() {
         return peerAddress;
     }
 
+    public boolean isCompressionSupported() {
+        return compressionSupported;
+    }
+
     public String toString() {
         return Objects.toStringHelper(this)
                 .add("peerAddress", peerAddress)
+                .add("compressionSupported", compressionSupported)
                 .toString();
     }
 }
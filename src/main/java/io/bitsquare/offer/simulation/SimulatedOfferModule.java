@@ -0,0 +1,38 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.offer.simulation;
+
+import io.bitsquare.offer.OfferModule;
+import io.bitsquare.offer.OfferRepository;
+
+import org.springframework.core.env.Environment;
+
+/**
+ * Stores offers on the simulated node bound by {@link io.bitsquare.msg.simulation.SimulatedMessageModule}.
+ */
+public class SimulatedOfferModule extends OfferModule {
+
+    public SimulatedOfferModule(Environment env) {
+        super(env);
+    }
+
+    @Override
+    protected Class<? extends OfferRepository> offerRepository() {
+        return SimulatedOfferRepository.class;
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.offer.simulation;
+
+import io.bitsquare.network.simulation.SimulatedNode;
+import io.bitsquare.offer.Offer;
+import io.bitsquare.offer.OfferRepository;
+import io.bitsquare.util.task.FaultHandler;
+import io.bitsquare.util.task.ResultHandler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.inject.Inject;
+
+import javafx.beans.property.LongProperty;
+import javafx.beans.property.SimpleLongProperty;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An {@link OfferRepository} on a node of a {@link io.bitsquare.network.simulation.SimulatedNetwork}. Offers are
+ * stored by currency code and changes are announced with an invalidation timestamp, like in the TomP2P offer
+ * repository. Listeners are called on the thread running the simulation.
+ */
+public class SimulatedOfferRepository implements OfferRepository {
+    private static final Logger log = LoggerFactory.getLogger(SimulatedOfferRepository.class);
+
+    private final List<Listener> offerRepositoryListeners = new ArrayList<>();
+    private final LongProperty invalidationTimestamp = new SimpleLongProperty(0);
+
+    private final SimulatedNode node;
+
+    @Inject
+    public SimulatedOfferRepository(SimulatedNode node) {
+        this.node = node;
+    }
+
+    @Override
+    public void addOffer(Offer offer, ResultHandler resultHandler, FaultHandler faultHandler) {
+        String currencyCode = offer.getCurrency().getCurrencyCode();
+        node.addData(currencyCode, offer, success -> {
+            if (success) {
+                resultHandler.handleResult();
+                offerRepositoryListeners.stream().forEach(listener -> listener.onOfferAdded(offer));
+                writeInvalidationTimestamp(currencyCode);
+            }
+            else {
+                faultHandler.handleFault("Failed to add offer", new IllegalStateException("Request failed"));
+            }
+        });
+    }
+
+    @Override
+    public void removeOffer(Offer offer) {
+        String currencyCode = offer.getCurrency().getCurrencyCode();
+        node.removeData(currencyCode, offer, success -> {
+            if (success) {
+                offerRepositoryListeners.stream().forEach(listener -> listener.onOfferRemoved(offer));
+                writeInvalidationTimestamp(currencyCode);
+            }
+            else {
+                log.error("Remove offer failed for " + offer.getId());
+            }
+        });
+    }
+
+    @Override
+    public void getOffers(String currencyCode) {
+        node.getDataMap(currencyCode, values -> {
+            if (values == null) {
+                log.error("Get offers failed for " + currencyCode);
+                return;
+            }
+
+            List<Offer> offers = new ArrayList<>();
+            values.stream().filter(value -> value instanceof Offer).forEach(value -> offers.add((Offer) value));
+            offerRepositoryListeners.stream().forEach(listener -> listener.onOffersReceived(offers));
+        });
+    }
+
+    @Override
+    public void addListener(Listener listener) {
+        offerRepositoryListeners.add(listener);
+    }
+
+    @Override
+    public void removeListener(Listener listener) {
+        offerRepositoryListeners.remove(listener);
+    }
+
+    @Override
+    public LongProperty invalidationTimestampProperty() {
+        return invalidationTimestamp;
+    }
+
+    @Override
+    public void requestInvalidationTimeStampFromDHT(String currencyCode) {
+        node.getDataMap(getInvalidatedLocationKey(currencyCode), values -> {
+            if (values != null && !values.isEmpty() && values.get(0) instanceof Long)
+                invalidationTimestamp.set((Long) values.get(0));
+        });
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    // Uses the simulated time, so runs with the same seed stay deterministic
+    private void writeInvalidationTimestamp(String currencyCode) {
+        invalidationTimestamp.set(node.getNetwork().now());
+        node.putData(getInvalidatedLocationKey(currencyCode), invalidationTimestamp.get(), success -> {
+            if (!success)
+                log.error("Update invalidationTimestamp failed for " + currencyCode);
+        });
+    }
+
+    private static String getInvalidatedLocationKey(String currencyCode) {
+        return currencyCode + "lastChangeTimestamp";
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.offer.tomp2p;
+
+import io.bitsquare.offer.Offer;
+
+import java.io.Serializable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The offers of one currency as known by a seed node at a given version. Either the full list of offers, or the
+ * changes since an older version (the base version) as list of added offers and ids of removed offers, or the
+ * changes to the offers a client described with an {@link OfferIdSketch} (reconciled). The removed offers of a
+ * reconciled snapshot are given as id hashes, as the seed node does not know their ids.
+ */
+public class OfferBookSnapshot implements Serializable {
+    private static final long serialVersionUID = -2734120587391736412L;
+
+    private final String currencyCode;
+    private final long version;
+    // 0 for a full snapshot
+    private final long baseVersion;
+    private final long createdAt;
+    private final List<Offer> offers;
+    private final List<String> removedOfferIds;
+    private final boolean reconciled;
+    private final List<Long> removedOfferIdHashes;
+
+    private OfferBookSnapshot(String currencyCode, long version, long baseVersion, long createdAt,
+                              Collection<Offer> offers, Collection<String> removedOfferIds, boolean reconciled,
+                              Collection<Long> removedOfferIdHashes) {
+        this.currencyCode = currencyCode;
+        this.version = version;
+        this.baseVersion = baseVersion;
+        this.createdAt = createdAt;
+        this.offers = new ArrayList<>(offers);
+        this.removedOfferIds = new ArrayList<>(removedOfferIds);
+        this.reconciled = reconciled;
+        this.removedOfferIdHashes = new ArrayList<>(removedOfferIdHashes);
+    }
+
+    static OfferBookSnapshot full(String currencyCode, long version, long createdAt, Collection<Offer> offers) {
+        return new OfferBookSnapshot(currencyCode, version, 0, createdAt, offers, Collections.emptyList(), false,
+                Collections.emptyList());
+    }
+
+    static OfferBookSnapshot delta(String currencyCode, long version, long baseVersion, long createdAt,
+                                   Collection<Offer> addedOffers, Collection<String> removedOfferIds) {
+        return new OfferBookSnapshot(currencyCode, version, baseVersion, createdAt, addedOffers, removedOfferIds,
+                false, Collections.emptyList());
+    }
+
+    static OfferBookSnapshot reconciled(String currencyCode, long version, long createdAt,
+                                        Collection<Offer> addedOffers, Collection<Long> removedOfferIdHashes) {
+        return new OfferBookSnapshot(currencyCode, version, 0, createdAt, addedOffers, Collections.emptyList(), true,
+                removedOfferIdHashes);
+    }
+
+    public boolean isDelta() {
+        return baseVersion != 0;
+    }
+
+    public boolean isReconciled() {
+        return reconciled;
+    }
+
+    public String getCurrencyCode() {
+        return currencyCode;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getBaseVersion() {
+        return baseVersion;
+    }
+
+    /**
+     * @return the time the seed node read the offers from the DHT, by its clock
+     */
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    /**
+     * @return all offers of a full snapshot, the added offers of a delta or a reconciled snapshot
+     */
+    public List<Offer> getOffers() {
+        return offers;
+    }
+
+    public List<String> getRemovedOfferIds() {
+        return removedOfferIds;
+    }
+
+    /**
+     * @return the hashes of the removed offer ids of a reconciled snapshot, see {@link OfferIdSketch#hash(String)}
+     */
+    public List<Long> getRemovedOfferIdHashes() {
+        return removedOfferIdHashes;
+    }
+
+    @Override
+    public String toString() {
+        return "OfferBookSnapshot{" +
+                "currencyCode='" + currencyCode + '\'' +
+                ", version=" + version +
+                ", baseVersion=" + baseVersion +
+                ", reconciled=" + reconciled +
+                ", createdAt=" + createdAt +
+                ", offers=" + offers.size() +
+                ", removedOfferIds=" + (removedOfferIds.size() + removedOfferIdHashes.size()) +
+                '}';
+    }
+}
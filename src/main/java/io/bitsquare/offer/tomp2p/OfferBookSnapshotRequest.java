@@ -0,0 +1,66 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.offer.tomp2p;
+
+import java.io.Serializable;
+
+import javax.annotation.Nullable;
+
+/**
+ * Asks a seed node for the offers of a currency. If the seed node still knows the version we already have, it
+ * answers with the changes since that version only. Otherwise, if we send a sketch of the offer ids we have, it
+ * answers with the offers we miss and the ids of those which are gone, as long as the sketch can be decoded.
+ */
+public class OfferBookSnapshotRequest implements Serializable {
+    private static final long serialVersionUID = 6183722071830152407L;
+
+    private final String currencyCode;
+    // 0 if we have no snapshot yet
+    private final long knownVersion;
+    @Nullable
+    private final OfferIdSketch sketch;
+
+    public OfferBookSnapshotRequest(String currencyCode, long knownVersion) {
+        this(currencyCode, knownVersion, null);
+    }
+
+    public OfferBookSnapshotRequest(String currencyCode, long knownVersion, @Nullable OfferIdSketch sketch) {
+        this.currencyCode = currencyCode;
+        this.knownVersion = knownVersion;
+        this.sketch = sketch;
+    }
+
+    public String getCurrencyCode() {
+        return currencyCode;
+    }
+
+    public long getKnownVersion() {
+        return knownVersion;
+    }
+
+    @Nullable
+    public OfferIdSketch getSketch() {
+        return sketch;
+    }
+
+    @Override
+    public String toString() {
+        return "OfferBookSnapshotRequest{currencyCode='" + currencyCode + "', knownVersion=" + knownVersion +
+                ", sketchCells=" + (sketch != null ? sketch.getCellCount() : 0) + '}';
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.offer.tomp2p;
+
+import io.bitsquare.locale.CurrencyUtil;
+import io.bitsquare.msg.tomp2p.PayloadCompression;
+import io.bitsquare.offer.Offer;
+import io.bitsquare.util.TokenBucket;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.IOException;
+
+import java.net.InetAddress;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import net.tomp2p.dht.FutureGet;
+import net.tomp2p.dht.PeerDHT;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
+import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.storage.Data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs on a seed node and answers {@link OfferBookSnapshotRequest}s with a signed snapshot of the offers of the
+ * requested currency, so a starting client gets the whole offer book with one direct message instead of reading
+ * it from the DHT.
+ * <p>
+ * A currency is tracked from its first request on and its offers are read from the DHT again every
+ * {@link #REFRESH_INTERVAL_MILLIS}. Currencies nobody asked for within {@link #TRACKING_PERIOD_MILLIS} are dropped.
+ * Only known currencies are tracked and at most {@link #MAX_OFFER_BOOKS} of them, requests for others are not
+ * answered and the clients read the offers from the DHT. The same applies to hosts sending more than
+ * {@link #REQUESTS_PER_SECOND} requests.
+ * The offer ids of the last {@link #MAX_VERSIONS} versions are kept, so clients which already have one of them
+ * only get the changes. Clients with an unknown version can send an {@link OfferIdSketch} of their offer ids
+ * instead and get the changes if the sketch can be decoded.
+ */
+public class OfferBookSnapshotService {
+    private static final Logger log = LoggerFactory.getLogger(OfferBookSnapshotService.class);
+
+    static final long REFRESH_INTERVAL_MILLIS = 15_000;
+    static final long TRACKING_PERIOD_MILLIS = 60 * 60 * 1000;
+    static final int MAX_VERSIONS = 20;
+    // Larger sketches are ignored, a full snapshot is cheaper then. Sketches for a difference of more than
+    // MAX_SKETCH_DIFFERENCE_FACTOR times the offer book are ignored as well.
+    static final int MAX_SKETCH_CELLS = 100_000;
+    static final int MAX_SKETCH_DIFFERENCE_FACTOR = 2;
+    static final int MAX_OFFER_BOOKS = 50;
+    static final double REQUESTS_PER_SECOND = 1;
+    static final int REQUEST_BURST = 5;
+    // Bounds the memory used for the buckets when we are contacted by very many hosts
+    static final int MAX_TRACKED_HOSTS = 100_000;
+
+    private static final Set<String> KNOWN_CURRENCY_CODES = CurrencyUtil.getAllCurrencies().stream()
+            .map(Currency::getCurrencyCode)
+            .collect(Collectors.toSet());
+
+    private static class CurrencyOfferBook {
+        private final String currencyCode;
+        private volatile long lastRequested;
+        private long version;
+        private long createdAt;
+        private Map<String, Offer> offers = new LinkedHashMap<>();
+        private Map<Long, Offer> offersByIdHash = new HashMap<>();
+        // Offer ids of the latest versions, oldest first
+        private final LinkedHashMap<Long, Set<String>> history = new LinkedHashMap<Long, Set<String>>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Set<String>> eldest) {
+                return size() > MAX_VERSIONS;
+            }
+        };
+        // Signed answers for the current version, keyed by the version the client knows (0 for the full snapshot)
+        private final Map<Long, SignedOfferBookSnapshot> signedSnapshots = new HashMap<>();
+
+        CurrencyOfferBook(String currencyCode) {
+            this.currencyCode = currencyCode;
+        }
+    }
+
+    private final PeerDHT peerDHT;
+    private final KeyPair keyPair;
+    private final PayloadCompression payloadCompression;
+    private final Map<String, CurrencyOfferBook> offerBooks = new ConcurrentHashMap<>();
+    private final LoadingCache<InetAddress, TokenBucket> buckets = CacheBuilder.newBuilder()
+            .expireAfterAccess(10, TimeUnit.MINUTES)
+            .maximumSize(MAX_TRACKED_HOSTS)
+            .build(new CacheLoader<InetAddress, TokenBucket>() {
+                @Override
+                public TokenBucket load(InetAddress host) {
+                    return new TokenBucket(REQUESTS_PER_SECOND, REQUEST_BURST);
+                }
+            });
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("OfferBookSnapshotService").setDaemon(true).build());
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public OfferBookSnapshotService(PeerDHT peerDHT, KeyPair keyPair, PayloadCompression payloadCompression) {
+        this.peerDHT = peerDHT;
+        this.keyPair = keyPair;
+        this.payloadCompression = payloadCompression;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Public methods
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public void start() {
+        executor.scheduleWithFixedDelay(this::refreshAll, REFRESH_INTERVAL_MILLIS, REFRESH_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    public void shutDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Answers a direct message. Returns null for other requests and for currencies we have not read yet; those are
+     * read right away, so the next request of the currency gets a snapshot.
+     */
+    public Object handle(PeerAddress sender, Object request) {
+        if (!(request instanceof OfferBookSnapshotRequest))
+            return null;
+
+        if (!buckets.getUnchecked(sender.inetAddress()).tryAcquire()) {
+            log.debug("Dropped offer book snapshot request from " + sender + " as it exceeds the request rate");
+            return null;
+        }
+
+        OfferBookSnapshotRequest snapshotRequest = (OfferBookSnapshotRequest) request;
+        String currencyCode = snapshotRequest.getCurrencyCode();
+        if (currencyCode == null || !KNOWN_CURRENCY_CODES.contains(currencyCode))
+            return null;
+
+        CurrencyOfferBook offerBook = offerBooks.computeIfAbsent(currencyCode, code -> {
+            if (offerBooks.size() >= MAX_OFFER_BOOKS) {
+                log.debug("Not tracking offer book of " + code + " as " + MAX_OFFER_BOOKS + " are tracked already");
+                return null;
+            }
+            CurrencyOfferBook newOfferBook = new CurrencyOfferBook(code);
+            executor.execute(() -> refresh(newOfferBook));
+            return newOfferBook;
+        });
+        if (offerBook == null)
+            return null;
+
+        offerBook.lastRequested = System.currentTimeMillis();
+
+        synchronized (offerBook) {
+            if (offerBook.version == 0)
+                return null;
+
+            long knownVersion = snapshotRequest.getKnownVersion();
+            long baseVersion = offerBook.history.containsKey(knownVersion) ? knownVersion : 0;
+            OfferIdSketch sketch = snapshotRequest.getSketch();
+            if (baseVersion == 0 && sketch != null && sketch.getCellCount() <= getMaxSketchCells(offerBook)) {
+                OfferBookSnapshot reconciledSnapshot = reconcile(offerBook, sketch);
+                if (reconciledSnapshot != null) {
+                    try {
+                        return SignedOfferBookSnapshot.sign(reconciledSnapshot, keyPair, payloadCompression);
+                    } catch (IOException | GeneralSecurityException e) {
+                        log.error("Could not create offer book snapshot for " + currencyCode + ": " +
+                                e.getMessage());
+                        return null;
+                    }
+                }
+            }
+
+            SignedOfferBookSnapshot signedSnapshot = offerBook.signedSnapshots.get(baseVersion);
+            if (signedSnapshot == null) {
+                try {
+                    signedSnapshot = SignedOfferBookSnapshot.sign(createSnapshot(offerBook, baseVersion), keyPair,
+                            payloadCompression);
+                } catch (IOException | GeneralSecurityException e) {
+                    log.error("Could not create offer book snapshot for " + currencyCode + ": " + e.getMessage());
+                    return null;
+                }
+                offerBook.signedSnapshots.put(baseVersion, signedSnapshot);
+            }
+            return signedSnapshot;
+        }
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private void refreshAll() {
+        long now = System.currentTimeMillis();
+        offerBooks.values().removeIf(offerBook -> now - offerBook.lastRequested > TRACKING_PERIOD_MILLIS);
+        offerBooks.values().forEach(this::refresh);
+    }
+
+    private void refresh(CurrencyOfferBook offerBook) {
+        Map<String, Offer> offers = new LinkedHashMap<>();
+        try {
+            FutureGet futureGet = peerDHT.get(Number160.createHash(offerBook.currencyCode)).all().start();
+            futureGet.awaitUninterruptibly();
+            Map<Number640, Data> dataMap = futureGet.dataMap();
+            if (!futureGet.isSuccess() && dataMap != null && !dataMap.isEmpty()) {
+                log.warn("Reading offers for " + offerBook.currencyCode + " failed: " + futureGet.failedReason());
+                return;
+            }
+            if (dataMap != null) {
+                for (Data data : dataMap.values()) {
+                    // Anybody can store data under the currency, so undecodable data does not spoil the others
+                    Object object;
+                    try {
+                        object = payloadCompression.getObject(data);
+                    } catch (IOException | ClassNotFoundException e) {
+                        log.debug("Skipped undecodable offer data: " + e.getMessage());
+                        continue;
+                    }
+                    if (object instanceof Offer)
+                        offers.put(((Offer) object).getId(), (Offer) object);
+                }
+            }
+        } catch (Throwable t) {
+            log.error("Reading offers for " + offerBook.currencyCode + " failed: " + t.getMessage());
+            return;
+        }
+
+        synchronized (offerBook) {
+            if (offerBook.version != 0 && offers.keySet().equals(offerBook.offers.keySet()))
+                return;
+
+            // Versions are timestamps, so they stay increasing over restarts of the seed node
+            offerBook.version = Math.max(offerBook.version + 1, System.currentTimeMillis());
+            offerBook.createdAt = System.currentTimeMillis();
+            offerBook.offers = offers;
+            offerBook.offersByIdHash = new HashMap<>();
+            offers.forEach((id, offer) -> offerBook.offersByIdHash.put(OfferIdSketch.hash(id), offer));
+            offerBook.history.put(offerBook.version, new HashSet<>(offers.keySet()));
+            offerBook.signedSnapshots.clear();
+            log.debug("Offer book of " + offerBook.currencyCode + " has now version " + offerBook.version + " with "
+                    + offers.size() + " offers");
+        }
+    }
+
+    private OfferBookSnapshot createSnapshot(CurrencyOfferBook offerBook, long baseVersion) {
+        if (baseVersion == 0)
+            return OfferBookSnapshot.full(offerBook.currencyCode, offerBook.version, offerBook.createdAt,
+                    offerBook.offers.values());
+
+        Set<String> baseOfferIds = offerBook.history.get(baseVersion);
+        List<Offer> addedOffers = new ArrayList<>();
+        offerBook.offers.forEach((id, offer) -> {
+            if (!baseOfferIds.contains(id))
+                addedOffers.add(offer);
+        });
+        List<String> removedOfferIds = new ArrayList<>();
+        baseOfferIds.forEach(id -> {
+            if (!offerBook.offers.containsKey(id))
+                removedOfferIds.add(id);
+        });
+        return OfferBookSnapshot.delta(offerBook.currencyCode, offerBook.version, baseVersion, offerBook.createdAt,
+                addedOffers, removedOfferIds);
+    }
+
+    private int getMaxSketchCells(CurrencyOfferBook offerBook) {
+        return Math.min(MAX_SKETCH_CELLS,
+                OfferIdSketch.getCellCount(MAX_SKETCH_DIFFERENCE_FACTOR * offerBook.offers.size()));
+    }
+
+    // Returns null if the sketch cannot be decoded
+    private OfferBookSnapshot reconcile(CurrencyOfferBook offerBook, OfferIdSketch clientSketch) {
+        OfferIdSketch sketch = OfferIdSketch.createLike(clientSketch);
+        offerBook.offersByIdHash.keySet().forEach(sketch::add);
+        OfferIdSketch.Difference difference = sketch.subtractAndDecode(clientSketch);
+        if (difference == null) {
+            log.trace("Could not decode offer id sketch with " + clientSketch.getCellCount() + " cells");
+            return null;
+        }
+
+        List<Offer> addedOffers = new ArrayList<>();
+        for (long offerIdHash : difference.getOnlyInThis()) {
+            Offer offer = offerBook.offersByIdHash.get(offerIdHash);
+            if (offer == null)
+                return null;
+            addedOffers.add(offer);
+        }
+        return OfferBookSnapshot.reconciled(offerBook.currencyCode, offerBook.version, offerBook.createdAt,
+                addedOffers, difference.getOnlyInOther());
+    }
+}
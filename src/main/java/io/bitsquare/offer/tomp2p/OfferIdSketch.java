@@ -0,0 +1,215 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.offer.tomp2p;
+
+import com.google.common.hash.Hashing;
+
+import java.io.Serializable;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * An invertible Bloom lookup table of offer id hashes. Subtracting the sketch of one set of offer ids from the
+ * sketch of another and decoding the result yields the ids which are only in one of the sets, as long as there are
+ * not many more of them than the sketch has cells. The size of a sketch therefore depends on the expected
+ * difference only, not on the number of offers.
+ * <p>
+ * Offer ids are represented by a 64 bit hash, see {@link #hash(String)}.
+ */
+public class OfferIdSketch implements Serializable {
+    private static final long serialVersionUID = 3508132452436718541L;
+
+    // Each id is added to one cell of each of HASH_COUNT equally sized sub tables
+    static final int HASH_COUNT = 3;
+    static final int MIN_CELLS = 30;
+    // Cells per expected difference; decoding succeeds almost always above ~1.3 for larger differences
+    private static final double CELLS_PER_DIFFERENCE = 2;
+
+    /**
+     * The ids which are only in one of the two sets of a subtraction, as hashes.
+     */
+    public static class Difference {
+        private final Set<Long> onlyInThis = new HashSet<>();
+        private final Set<Long> onlyInOther = new HashSet<>();
+
+        public Set<Long> getOnlyInThis() {
+            return onlyInThis;
+        }
+
+        public Set<Long> getOnlyInOther() {
+            return onlyInOther;
+        }
+
+        public int size() {
+            return onlyInThis.size() + onlyInOther.size();
+        }
+    }
+
+    private final int[] counts;
+    private final long[] keySums;
+    private final long[] checkSums;
+
+    private OfferIdSketch(int cells) {
+        counts = new int[cells];
+        keySums = new long[cells];
+        checkSums = new long[cells];
+    }
+
+    /**
+     * @param expectedDifference the number of ids expected to be in only one of the sets
+     */
+    public static OfferIdSketch create(Iterable<Long> offerIdHashes, int expectedDifference) {
+        OfferIdSketch sketch = new OfferIdSketch(getCellCount(expectedDifference));
+        for (long offerIdHash : offerIdHashes)
+            sketch.add(offerIdHash);
+        return sketch;
+    }
+
+    /**
+     * Creates an empty sketch of the same size as the given one, to add the own ids to before subtracting.
+     */
+    public static OfferIdSketch createLike(OfferIdSketch sketch) {
+        return new OfferIdSketch(sketch.getCellCount());
+    }
+
+    public static int getCellCount(int expectedDifference) {
+        int cells = Math.max(MIN_CELLS, (int) Math.ceil(expectedDifference * CELLS_PER_DIFFERENCE));
+        return (cells + HASH_COUNT - 1) / HASH_COUNT * HASH_COUNT;
+    }
+
+    public static long hash(String offerId) {
+        return Hashing.murmur3_128().hashString(offerId, StandardCharsets.UTF_8).asLong();
+    }
+
+    public void add(long offerIdHash) {
+        update(counts, keySums, checkSums, offerIdHash, 1);
+    }
+
+    /**
+     * Decodes the difference between the ids added to this sketch and those added to the other one.
+     *
+     * The other sketch may come from a peer, so it is not trusted: it must only contain added ids and decoding stops
+     * as soon as an id comes out twice or the peeling takes more steps than a valid sketch of this size can need.
+     *
+     * @return null if the sketches differ in size, are corrupt or the difference is too large to decode
+     */
+    public Difference subtractAndDecode(OfferIdSketch other) {
+        int cells = getCellCount();
+        if (other.counts == null || other.keySums == null || other.checkSums == null ||
+                other.counts.length != cells || other.keySums.length != cells || other.checkSums.length != cells ||
+                cells % HASH_COUNT != 0)
+            return null;
+
+        int[] counts = new int[cells];
+        long[] keySums = new long[cells];
+        long[] checkSums = new long[cells];
+        for (int i = 0; i < cells; i++) {
+            if (other.counts[i] < 0)
+                return null;
+            counts[i] = this.counts[i] - other.counts[i];
+            keySums[i] = this.keySums[i] ^ other.keySums[i];
+            checkSums[i] = this.checkSums[i] ^ other.checkSums[i];
+        }
+
+        Difference difference = new Difference();
+        Deque<Integer> pureCells = new ArrayDeque<>();
+        for (int i = 0; i < cells; i++) {
+            if (isPure(counts, keySums, checkSums, i))
+                pureCells.add(i);
+        }
+        // The queue starts with at most one entry per cell and every extracted id queues HASH_COUNT more; a valid
+        // sketch yields at most one id per cell, as each extraction empties the cell it came from
+        int maxSteps = cells * (HASH_COUNT + 1);
+        int steps = 0;
+        while (!pureCells.isEmpty()) {
+            if (++steps > maxSteps)
+                return null;
+
+            int cell = pureCells.poll();
+            if (!isPure(counts, keySums, checkSums, cell))
+                continue;
+
+            long offerIdHash = keySums[cell];
+            int sign = counts[cell];
+            // A valid sketch yields each id once
+            if (difference.onlyInThis.contains(offerIdHash) || difference.onlyInOther.contains(offerIdHash))
+                return null;
+            if (sign == 1)
+                difference.onlyInThis.add(offerIdHash);
+            else
+                difference.onlyInOther.add(offerIdHash);
+            update(counts, keySums, checkSums, offerIdHash, -sign);
+            for (int i = 0; i < HASH_COUNT; i++) {
+                int index = index(offerIdHash, i, cells);
+                if (isPure(counts, keySums, checkSums, index))
+                    pureCells.add(index);
+            }
+        }
+
+        for (int i = 0; i < cells; i++) {
+            if (counts[i] != 0 || keySums[i] != 0 || checkSums[i] != 0)
+                return null;
+        }
+        return difference;
+    }
+
+    public int getCellCount() {
+        return counts.length;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private static void update(int[] counts, long[] keySums, long[] checkSums, long offerIdHash, int count) {
+        long checkSum = checkSum(offerIdHash);
+        for (int i = 0; i < HASH_COUNT; i++) {
+            int index = index(offerIdHash, i, counts.length);
+            counts[index] += count;
+            keySums[index] ^= offerIdHash;
+            checkSums[index] ^= checkSum;
+        }
+    }
+
+    private static boolean isPure(int[] counts, long[] keySums, long[] checkSums, int index) {
+        return (counts[index] == 1 || counts[index] == -1) && checkSums[index] == checkSum(keySums[index]);
+    }
+
+    private static int index(long offerIdHash, int hashIndex, int cells) {
+        int subTableSize = cells / HASH_COUNT;
+        long mixed = mix(offerIdHash + hashIndex * 0x9e3779b97f4a7c15L);
+        return hashIndex * subTableSize + (int) ((mixed >>> 1) % subTableSize);
+    }
+
+    private static long checkSum(long offerIdHash) {
+        return mix(offerIdHash ^ 0x5851f42d4c957f2dL);
+    }
+
+    // Finalizer of SplitMix64
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.offer.tomp2p;
+
+import io.bitsquare.msg.tomp2p.PayloadCompression;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.spec.X509EncodedKeySpec;
+
+/**
+ * An {@link OfferBookSnapshot} in its compressed, serialized form, signed by the seed node which created it.
+ */
+public class SignedOfferBookSnapshot implements Serializable {
+    private static final long serialVersionUID = -5511397914567391254L;
+
+    static final String SIGNATURE_ALGORITHM = "SHA256withDSA";
+
+    private final byte[] payload;
+    private final byte[] signature;
+    private final byte[] publicKey;
+
+    private SignedOfferBookSnapshot(byte[] payload, byte[] signature, byte[] publicKey) {
+        this.payload = payload;
+        this.signature = signature;
+        this.publicKey = publicKey;
+    }
+
+    static SignedOfferBookSnapshot sign(OfferBookSnapshot snapshot, KeyPair keyPair, PayloadCompression compression)
+            throws IOException, GeneralSecurityException {
+        byte[] payload = compression.compress(PayloadCompression.serialize(snapshot));
+        Signature signer = Signature.getInstance(SIGNATURE_ALGORITHM);
+        signer.initSign(keyPair.getPrivate());
+        signer.update(payload);
+        return new SignedOfferBookSnapshot(payload, signer.sign(), keyPair.getPublic().getEncoded());
+    }
+
+    /**
+     * Checks the signature and returns the snapshot.
+     *
+     * @param maxLength the maximum size of the decompressed snapshot in bytes
+     */
+    OfferBookSnapshot open(PayloadCompression compression, int maxLength)
+            throws IOException, ClassNotFoundException, GeneralSecurityException {
+        Signature verifier = Signature.getInstance(SIGNATURE_ALGORITHM);
+        verifier.initVerify(getPublicKey());
+        verifier.update(payload);
+        if (!verifier.verify(signature))
+            throw new SignatureException("Invalid signature of offer book snapshot.");
+
+        Object snapshot = PayloadCompression.deserialize(compression.decompress(payload, maxLength));
+        if (!(snapshot instanceof OfferBookSnapshot))
+            throw new IOException("Unexpected content of offer book snapshot: " + snapshot.getClass());
+        return (OfferBookSnapshot) snapshot;
+    }
+
+    PublicKey getPublicKey() throws GeneralSecurityException {
+        return KeyFactory.getInstance("DSA").generatePublic(new X509EncodedKeySpec(publicKey));
+    }
+
+    byte[] getEncodedPublicKey() {
+        return publicKey;
+    }
+}
@@ -17,17 +17,28 @@
 
 package io.bitsquare.offer.tomp2p;
 
+import io.bitsquare.msg.tomp2p.PayloadCompression;
 import io.bitsquare.msg.tomp2p.TomP2PNode;
+import io.bitsquare.network.Node;
 import io.bitsquare.offer.Offer;
 import io.bitsquare.offer.OfferRepository;
+import io.bitsquare.persistence.Persistence;
 import io.bitsquare.util.task.FaultHandler;
 import io.bitsquare.util.task.ResultHandler;
 
 import java.io.IOException;
 
+import java.security.GeneralSecurityException;
+
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.inject.Inject;
 
@@ -38,6 +49,7 @@ import javafx.beans.property.SimpleLongProperty;
 import net.tomp2p.dht.FutureGet;
 import net.tomp2p.dht.FuturePut;
 import net.tomp2p.dht.FutureRemove;
+import net.tomp2p.futures.FutureDirect;
 import net.tomp2p.futures.BaseFuture;
 import net.tomp2p.futures.BaseFutureAdapter;
 import net.tomp2p.futures.BaseFutureListener;
@@ -52,14 +64,42 @@ class TomP2POfferRepository implements OfferRepository {
 
     private static final Logger log = LoggerFactory.getLogger(TomP2POfferRepository.class);
 
+    // Upper bound for the decompressed size of an offer book snapshot
+    private static final int MAX_SNAPSHOT_BYTES = 16 * 1024 * 1024;
+    private static final String SNAPSHOT_KEY_PREFIX = "snapshotKey.";
+    private static final int DEFAULT_EXPECTED_DIFFERENCE = 10;
+
     private final List<Listener> offerRepositoryListeners = new ArrayList<>();
     private final LongProperty invalidationTimestamp = new SimpleLongProperty(0);
 
+    // Offers of the latest snapshot per currency, only accessed on the FX thread
+    private final Map<String, SnapshotState> snapshotStates = new HashMap<>();
+
     private final TomP2PNode p2pNode;
+    private final PayloadCompression payloadCompression;
+    private final Persistence persistence;
+
+    private static class SnapshotState {
+        private long version;
+        private final Map<Long, Offer> offersByIdHash = new LinkedHashMap<>();
+        // Sizes the offer id sketch sent with the next request
+        private int expectedDifference = DEFAULT_EXPECTED_DIFFERENCE;
+
+        SnapshotState(long version, Collection<Offer> offers) {
+            this.version = version;
+            offers.stream().forEach(this::put);
+        }
+
+        void put(Offer offer) {
+            offersByIdHash.put(OfferIdSketch.hash(offer.getId()), offer);
+        }
+    }
 
     @Inject
-    public TomP2POfferRepository(TomP2PNode p2pNode) {
+    public TomP2POfferRepository(TomP2PNode p2pNode, PayloadCompression payloadCompression, Persistence persistence) {
         this.p2pNode = p2pNode;
+        this.payloadCompression = payloadCompression;
+        this.persistence = persistence;
     }
 
     @Override
@@ -160,7 +200,55 @@ class TomP2POfferRepository implements OfferRepository {
         }
     }
 
+    /**
+     * Asks the bootstrap node for a snapshot of the offers, or for the changes since the snapshot we already have.
+     * A sketch of the offer ids we have is sent along, so we get the changes only even if the bootstrap node does
+     * not know our version anymore. If it cannot answer or the answer is outdated, the offers are read from the DHT.
+     */
     public void getOffers(String currencyCode) {
+        SnapshotState snapshotState = snapshotStates.get(currencyCode);
+        long knownVersion = 0;
+        OfferIdSketch sketch = null;
+        if (snapshotState != null) {
+            knownVersion = snapshotState.version;
+            if (!snapshotState.offersByIdHash.isEmpty())
+                sketch = OfferIdSketch.create(snapshotState.offersByIdHash.keySet(),
+                        snapshotState.expectedDifference);
+        }
+        Node bootstrapNode = p2pNode.getBootstrapNodeAddress();
+        FutureDirect futureDirect = p2pNode.sendDataToBootstrapNode(
+                new OfferBookSnapshotRequest(currencyCode, knownVersion, sketch));
+        if (futureDirect == null) {
+            getOffersFromDHT(currencyCode);
+            return;
+        }
+
+        futureDirect.addListener(new BaseFutureAdapter<BaseFuture>() {
+            @Override
+            public void operationComplete(BaseFuture future) throws Exception {
+                OfferBookSnapshot snapshot = null;
+                if (future.isSuccess()) {
+                    try {
+                        Object reply = payloadCompression.decode(futureDirect.object(), MAX_SNAPSHOT_BYTES);
+                        if (reply instanceof SignedOfferBookSnapshot)
+                            snapshot = open((SignedOfferBookSnapshot) reply, bootstrapNode);
+                    } catch (ClassNotFoundException | IOException | GeneralSecurityException e) {
+                        log.warn("Invalid offer book snapshot from " + bootstrapNode + ": " + e.getMessage());
+                    }
+                }
+
+                OfferBookSnapshot result = snapshot;
+                Platform.runLater(() -> {
+                    if (result == null || !applySnapshot(currencyCode, result)) {
+                        snapshotStates.remove(currencyCode);
+                        getOffersFromDHT(currencyCode);
+                    }
+                });
+            }
+        });
+    }
+
+    private void getOffersFromDHT(String currencyCode) {
         Number160 locationKey = Number160.createHash(currencyCode);
         log.trace("Get offers from DHT requested for locationKey: " + locationKey);
         FutureGet futureGet = p2pNode.getDataMap(locationKey);
@@ -173,7 +261,7 @@ class TomP2POfferRepository implements OfferRepository {
                     if (dataMap != null) {
                         for (Data offerData : dataMap.values()) {
                             try {
-                                Object offerDataObject = offerData.object();
+                                Object offerDataObject = p2pNode.getObject(offerData);
                                 if (offerDataObject instanceof Offer) {
                                     offers.add((Offer) offerDataObject);
                                 }
@@ -182,8 +270,11 @@ class TomP2POfferRepository implements OfferRepository {
                             }
                         }
 
-                        Platform.runLater(() -> offerRepositoryListeners.stream().forEach(listener ->
-                                listener.onOffersReceived(offers)));
+                        Platform.runLater(() -> {
+                            // Version 0 is never known by the bootstrap node, but the offers can be reconciled
+                            snapshotStates.put(currencyCode, new SnapshotState(0, offers));
+                            offerRepositoryListeners.stream().forEach(listener -> listener.onOffersReceived(offers));
+                        });
                     }
 
                     log.trace("Get offers from DHT was successful. Stored data: [key: " + locationKey
@@ -204,6 +295,74 @@ class TomP2POfferRepository implements OfferRepository {
         });
     }
 
+    // Checks the signature and that the snapshot was signed by the same key as the first one we got from that node
+    private OfferBookSnapshot open(SignedOfferBookSnapshot signedSnapshot, Node bootstrapNode)
+            throws IOException, ClassNotFoundException, GeneralSecurityException {
+        String persistenceKey = SNAPSHOT_KEY_PREFIX + bootstrapNode.getName();
+        byte[] publicKey = signedSnapshot.getEncodedPublicKey();
+        Object pinnedPublicKey = persistence.read(this, persistenceKey);
+        if (pinnedPublicKey == null)
+            persistence.write(this, persistenceKey, publicKey);
+        else if (!(pinnedPublicKey instanceof byte[]) || !Arrays.equals((byte[]) pinnedPublicKey, publicKey))
+            throw new GeneralSecurityException("Offer book snapshot is signed by an unknown key.");
+
+        return signedSnapshot.open(payloadCompression, MAX_SNAPSHOT_BYTES);
+    }
+
+    // Returns false if the snapshot cannot be used
+    private boolean applySnapshot(String currencyCode, OfferBookSnapshot snapshot) {
+        if (!currencyCode.equals(snapshot.getCurrencyCode()))
+            return false;
+
+        // An offer has been added or removed after the bootstrap node read the offers
+        if (snapshot.getCreatedAt() < invalidationTimestamp.get()) {
+            log.trace("Offer book snapshot for " + currencyCode + " is outdated.");
+            return false;
+        }
+
+        SnapshotState snapshotState = snapshotStates.get(currencyCode);
+        if (snapshot.isDelta() || snapshot.isReconciled()) {
+            if (snapshotState == null || (snapshot.isDelta() && snapshotState.version != snapshot.getBaseVersion()))
+                return false;
+
+            List<Long> removedOfferIdHashes = new ArrayList<>(snapshot.getRemovedOfferIdHashes());
+            snapshot.getRemovedOfferIds().stream().forEach(id -> removedOfferIdHashes.add(OfferIdSketch.hash(id)));
+            List<Offer> removedOffers = new ArrayList<>();
+            removedOfferIdHashes.stream().forEach(offerIdHash -> {
+                Offer removed = snapshotState.offersByIdHash.remove(offerIdHash);
+                if (removed != null)
+                    removedOffers.add(removed);
+            });
+            snapshot.getOffers().stream().forEach(snapshotState::put);
+            snapshotState.version = snapshot.getVersion();
+            if (snapshot.isReconciled())
+                snapshotState.expectedDifference = Math.max(DEFAULT_EXPECTED_DIFFERENCE,
+                        2 * (removedOfferIdHashes.size() + snapshot.getOffers().size()));
+
+            offerRepositoryListeners.stream().forEach(listener -> {
+                removedOffers.stream().forEach(listener::onOfferRemoved);
+                snapshot.getOffers().stream().forEach(listener::onOfferAdded);
+            });
+        }
+        else {
+            SnapshotState newSnapshotState = new SnapshotState(snapshot.getVersion(), snapshot.getOffers());
+            // Our sketch could not be decoded, so size the next one by the difference we see now
+            if (snapshotState != null && !snapshotState.offersByIdHash.isEmpty()) {
+                Set<Long> difference = new HashSet<>(snapshotState.offersByIdHash.keySet());
+                difference.addAll(newSnapshotState.offersByIdHash.keySet());
+                difference.removeIf(offerIdHash -> snapshotState.offersByIdHash.containsKey(offerIdHash) &&
+                        newSnapshotState.offersByIdHash.containsKey(offerIdHash));
+                newSnapshotState.expectedDifference = Math.max(DEFAULT_EXPECTED_DIFFERENCE, 2 * difference.size());
+            }
+            snapshotStates.put(currencyCode, newSnapshotState);
+
+            List<Offer> offers = new ArrayList<>(newSnapshotState.offersByIdHash.values());
+            offerRepositoryListeners.stream().forEach(listener -> listener.onOffersReceived(offers));
+        }
+        log.trace("Applied offer book snapshot " + snapshot);
+        return true;
+    }
+
     @Override
     public void addListener(Listener listener) {
         offerRepositoryListeners.add(listener);
@@ -260,8 +419,8 @@ class TomP2POfferRepository implements OfferRepository {
             public void operationComplete(BaseFuture future) throws Exception {
                 if (future.isSuccess()) {
                     Data data = futureGet.data();
-                    if (data != null && data.object() instanceof Long) {
-                        final Object object = data.object();
+                    final Object object = data != null ? p2pNode.getObject(data) : null;
+                    if (object instanceof Long) {
                         Platform.runLater(() -> {
                             Long timeStamp = (Long) object;
                             //log.trace("Get invalidationTimestamp from DHT was successful. TimeStamp=" + timeStamp);
@@ -52,6 +52,9 @@ public class CreateDepositTx {
             log.error("Create deposit tx faultHandler.onFault due InsufficientMoneyException " + e);
             exceptionHandler.handleException(
                     new Exception("Create deposit tx faultHandler.onFault due InsufficientMoneyException " + e));
+        } catch (IllegalStateException e) {
+            log.error("Create deposit tx faultHandler.onFault due IllegalStateException " + e);
+            exceptionHandler.handleException(e);
         }
     }
 
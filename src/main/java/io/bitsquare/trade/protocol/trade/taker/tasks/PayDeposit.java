@@ -59,6 +59,9 @@ public class PayDeposit {
             log.error("Pay deposit faultHandler.onFault due InsufficientMoneyException " + e);
             exceptionHandler.handleException(
                     new Exception("Pay deposit faultHandler.onFault due InsufficientMoneyException " + e));
+        } catch (IllegalStateException e) {
+            log.error("Pay deposit faultHandler.onFault due IllegalStateException " + e);
+            exceptionHandler.handleException(e);
         }
     }
 
@@ -19,10 +19,20 @@ package io.bitsquare.util;
 
 import org.bitcoinj.core.Utils;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
+import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
 
 import org.slf4j.Logger;
@@ -46,4 +56,37 @@ public class DSAKeyUtil {
         }
         return null;
     }
+
+    /**
+     * Reads the key pair stored in the given file, or generates a new one and stores it there.
+     */
+    public static KeyPair loadOrCreateKeyPair(File file) throws IOException {
+        try {
+            KeyFactory keyFactory = KeyFactory.getInstance("DSA");
+            if (file.exists()) {
+                try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+                    byte[] publicKey = new byte[in.readInt()];
+                    in.readFully(publicKey);
+                    byte[] privateKey = new byte[in.readInt()];
+                    in.readFully(privateKey);
+                    return new KeyPair(keyFactory.generatePublic(new X509EncodedKeySpec(publicKey)),
+                            keyFactory.generatePrivate(new PKCS8EncodedKeySpec(privateKey)));
+                }
+            }
+
+            KeyPair keyPair = generateKeyPair();
+            try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+                byte[] publicKey = keyPair.getPublic().getEncoded();
+                out.writeInt(publicKey.length);
+                out.write(publicKey);
+                byte[] privateKey = keyPair.getPrivate().getEncoded();
+                out.writeInt(privateKey.length);
+                out.write(privateKey);
+            }
+            log.info("Created new key pair in " + file);
+            return keyPair;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Could not read key pair from " + file, e);
+        }
+    }
 }
@@ -0,0 +1,67 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.bitsquare.app.cli;
+
+import io.bitsquare.app.BitsquareEnvironment;
+import io.bitsquare.network.Node;
+import io.bitsquare.network.tomp2p.PersistentStorage;
+
+import java.io.File;
+import java.io.IOException;
+
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
+import net.tomp2p.storage.Data;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.springframework.mock.env.MockEnvironment;
+
+import static org.junit.Assert.*;
+
+public class BootstrapNodeTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testStorageIsWrittenAtShutDown() throws IOException {
+        File storageDir = folder.newFolder("dht");
+        MockEnvironment env = new MockEnvironment()
+                .withProperty(Node.NAME_KEY, "BootstrapNodeTest")
+                .withProperty(Node.PORT_KEY, "7377")
+                .withProperty(PersistentStorage.DIR_KEY, storageDir.getAbsolutePath())
+                .withProperty(BitsquareEnvironment.APP_DATA_DIR_KEY, folder.getRoot().getAbsolutePath())
+                .withProperty(BootstrapNodeMetrics.PORT_KEY, "0");
+        BootstrapNode bootstrapNode = new BootstrapNode(env);
+        bootstrapNode.start();
+
+        Number640 key = new Number640(Number160.createHash("location"), Number160.ZERO,
+                Number160.createHash("content"), Number160.ZERO);
+        byte[] bytes = {1, 2, 3};
+        assertNotNull(bootstrapNode.getStorage());
+        bootstrapNode.getStorage().put(key, new Data(bytes));
+        // Without waiting for the periodic flush of the journal
+        bootstrapNode.shutDown();
+
+        PersistentStorage restarted = new PersistentStorage(storageDir);
+        assertArrayEquals(bytes, restarted.get(key).toBytes());
+        restarted.close();
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.arbitrator;
+
+import io.bitsquare.persistence.Persistence;
+
+import org.bitcoinj.core.Coin;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+public class ArbitratorDirectoryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Arbitrator alice = createArbitrator("alice", Arrays.asList(Locale.ENGLISH, Locale.GERMAN),
+            Arbitrator.METHOD.TLS_NOTARY);
+    private final Arbitrator bob = createArbitrator("bob", Collections.singletonList(Locale.FRENCH),
+            Arbitrator.METHOD.SKYPE_SCREEN_SHARING);
+
+    private Persistence persistence;
+
+    @Before
+    public void setUp() {
+        persistence = new Persistence(folder.getRoot(), "test");
+        persistence.init();
+    }
+
+    @Test
+    public void testIndexes() {
+        ArbitratorDirectory directory = new ArbitratorDirectory(persistence);
+        directory.add("hashA", alice);
+        directory.add("hashB", bob);
+
+        assertEquals(Arrays.asList(alice, bob), directory.getArbitrators());
+        assertEquals(Arrays.asList(alice, bob), directory.getArbitrators((Locale) null));
+        assertEquals(Collections.singletonList(alice), directory.getArbitrators(Locale.GERMANY));
+        assertEquals(Collections.singletonList(bob), directory.getArbitrators(Locale.FRENCH));
+        assertTrue(directory.getArbitrators(Locale.JAPANESE).isEmpty());
+        assertEquals(Collections.singletonList(bob), directory.getArbitrators(Arbitrator.METHOD.SKYPE_SCREEN_SHARING));
+        assertSame(bob, directory.getArbitrator("bob"));
+        assertNull(directory.getArbitrator("carol"));
+    }
+
+    @Test
+    public void testUpdate() {
+        ArbitratorDirectory directory = new ArbitratorDirectory(persistence);
+        directory.add("hashA", alice);
+
+        Map<String, Arbitrator> added = new HashMap<>();
+        added.put("hashB", bob);
+        assertTrue(directory.update(Collections.singletonList("hashB"), added));
+        assertEquals(Collections.singletonList(bob), directory.getArbitrators());
+        assertTrue(directory.getArbitrators(Locale.ENGLISH).isEmpty());
+
+        assertFalse(directory.update(Collections.singletonList("hashB"), new HashMap<>()));
+    }
+
+    @Test
+    public void testUpdatedProfileReplacesTheOldOne() {
+        ArbitratorDirectory directory = new ArbitratorDirectory(persistence);
+        directory.add("hashA", alice);
+        Arbitrator updatedAlice = createArbitrator("alice", Collections.singletonList(Locale.ITALIAN),
+                Arbitrator.METHOD.TLS_NOTARY);
+        directory.add("hashA2", updatedAlice);
+
+        List<Arbitrator> arbitrators = directory.getArbitrators();
+        assertEquals(1, arbitrators.size());
+        assertSame(updatedAlice, arbitrators.get(0));
+        assertTrue(directory.getArbitrators(Locale.ENGLISH).isEmpty());
+        assertEquals(Collections.singletonList(updatedAlice), directory.getArbitrators(Arbitrator.METHOD.TLS_NOTARY));
+    }
+
+    @Test
+    public void testDirectoryIsPersisted() {
+        ArbitratorDirectory directory = new ArbitratorDirectory(persistence);
+        directory.add("hashA", alice);
+        directory.add("hashB", bob);
+        directory.remove("hashA");
+
+        ArbitratorDirectory restored = new ArbitratorDirectory(new Persistence(folder.getRoot(), "test"));
+        assertEquals(Collections.singleton("hashB"), restored.getContentHashes());
+        assertEquals(Collections.singletonList(bob), restored.getArbitrators(Locale.FRENCH));
+    }
+
+    private static Arbitrator createArbitrator(String name, List<Locale> languages, Arbitrator.METHOD method) {
+        return new Arbitrator("pubKey", "messagePubKey", name, Arbitrator.ID_TYPE.REAL_LIFE_ID, languages,
+                new Reputation(), Coin.parseCoin("0.1"), Collections.singletonList(method),
+                Collections.singletonList(Arbitrator.ID_VERIFICATION.PASSPORT), "https://bitsquare.io", "description");
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.btc;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionConfidence;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.core.Wallet;
+import org.bitcoinj.params.RegTestParams;
+import org.bitcoinj.testing.FakeTxBuilder;
+import org.bitcoinj.wallet.WalletTransaction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the cost of a wallet event for the balance listeners: before the index every listener summed up the
+ * outputs of its address from all spend candidates of the wallet, with the index the event updates the outputs of
+ * its transaction and the listeners of the changed addresses look up their balance.
+ * <p>
+ * The wallet holds the given number of outputs spread over 500 addresses, there is one listener per address up to
+ * the given number of listeners. Each event is an incoming transaction to a random address.
+ * <p>
+ * Run with: java -cp ... io.bitsquare.btc.AddressBalanceIndexBenchmark [events]
+ * (best with the log level of org.bitcoinj raised to WARN, the wallet logs every received transaction)
+ */
+public class AddressBalanceIndexBenchmark {
+
+    private static final int ADDRESSES = 500;
+    private static final int[] OUTPUTS = {1_000, 2_000, 5_000};
+    private static final int[] LISTENERS = {10, 100, 300};
+
+    private static final NetworkParameters params = RegTestParams.get();
+
+    public static void main(String[] args) throws Exception {
+        int events = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+
+        System.out.println(String.format("%8s %9s %14s %14s %9s",
+                "outputs", "listeners", "scan ms/event", "index ms/event", "speedup"));
+        for (int outputs : OUTPUTS) {
+            for (int listeners : LISTENERS)
+                run(outputs, listeners, events);
+        }
+    }
+
+    private static void run(int outputCount, int listenerCount, int events) throws Exception {
+        Random random = new Random(42);
+        Wallet wallet = new Wallet(params);
+        List<Address> addresses = new ArrayList<>();
+        for (int i = 0; i < ADDRESSES; i++)
+            addresses.add(wallet.freshReceiveKey().toAddress(params));
+        // Receiving one by one gets slow with a big pending pool, so we add the initial outputs directly
+        for (int i = 0; i < outputCount; i++) {
+            Transaction tx = createTx(addresses.get(random.nextInt(ADDRESSES)), random);
+            tx.getConfidence().setConfidenceType(TransactionConfidence.ConfidenceType.PENDING);
+            wallet.addWalletTransaction(new WalletTransaction(WalletTransaction.Pool.PENDING, tx));
+        }
+
+        AddressBalanceIndex index = new AddressBalanceIndex(params);
+        index.rebuild(wallet);
+        List<Address> listenerAddresses = addresses.subList(0, Math.min(listenerCount, ADDRESSES));
+
+        long scanNanos = 0;
+        long indexNanos = 0;
+        long checksum = 0;
+        for (int event = 0; event < events; event++) {
+            Transaction tx = receive(wallet, addresses.get(random.nextInt(ADDRESSES)), random);
+
+            long start = System.nanoTime();
+            for (Address address : listenerAddresses)
+                checksum += scanBalance(wallet, address).value;
+            scanNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (Address address : index.update(wallet, tx)) {
+                if (listenerAddresses.contains(address))
+                    checksum -= index.getBalance(address).value;
+            }
+            indexNanos += System.nanoTime() - start;
+        }
+
+        System.out.println(String.format("%8d %9d %14.3f %14.3f %8.0fx",
+                outputCount, listenerAddresses.size(), scanNanos / 1e6 / events, indexNanos / 1e6 / events,
+                (double) scanNanos / Math.max(1, indexNanos)));
+        if (checksum == Long.MIN_VALUE)
+            System.out.println("unlikely");
+    }
+
+    // What WalletService.getBalanceForAddress did before the index
+    private static Coin scanBalance(Wallet wallet, Address address) {
+        Coin balance = Coin.ZERO;
+        for (TransactionOutput output : wallet.calculateAllSpendCandidates(true)) {
+            if (output.getScriptPubKey().isSentToAddress() || output.getScriptPubKey().isSentToP2SH()) {
+                if (output.getScriptPubKey().getToAddress(params).equals(address))
+                    balance = balance.add(output.getValue());
+            }
+        }
+        return balance;
+    }
+
+    private static Transaction receive(Wallet wallet, Address address, Random random) throws Exception {
+        Transaction tx = createTx(address, random);
+        wallet.receivePending(tx, null);
+        return tx;
+    }
+
+    private static Transaction createTx(Address address, Random random) {
+        return FakeTxBuilder.createFakeTx(params, Coin.valueOf(10_000 + random.nextInt(100_000)), address);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.btc;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.Wallet;
+import org.bitcoinj.params.RegTestParams;
+import org.bitcoinj.testing.FakeTxBuilder;
+
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AddressBalanceIndexTest {
+
+    private final NetworkParameters params = RegTestParams.get();
+
+    private Wallet wallet;
+    private AddressBalanceIndex index;
+    private Address addressA;
+    private Address addressB;
+
+    @Before
+    public void setUp() {
+        wallet = new Wallet(params);
+        wallet.allowSpendingUnconfirmedTransactions();
+        addressA = wallet.freshReceiveKey().toAddress(params);
+        addressB = wallet.freshReceiveKey().toAddress(params);
+        index = new AddressBalanceIndex(params);
+    }
+
+    @Test
+    public void testReceive() throws Exception {
+        Transaction tx = receive(Coin.COIN, addressA);
+
+        assertEquals(Collections.singleton(addressA), index.update(wallet, tx));
+        assertEquals(Coin.COIN, index.getBalance(addressA));
+        assertEquals(Coin.ZERO, index.getBalance(addressB));
+        assertEquals(1, index.getOutputs(addressA).size());
+
+        // Updating with the same transaction again changes nothing
+        assertTrue(index.update(wallet, tx).isEmpty());
+    }
+
+    @Test
+    public void testSpend() throws Exception {
+        index.update(wallet, receive(Coin.COIN, addressA));
+
+        Wallet.SendRequest sendRequest = Wallet.SendRequest.to(addressB, Coin.COIN.divide(4));
+        sendRequest.changeAddress = addressA;
+        sendRequest.fee = Coin.ZERO;
+        sendRequest.feePerKb = Coin.ZERO;
+        wallet.completeTx(sendRequest);
+        wallet.commitTx(sendRequest.tx);
+        index.update(wallet, sendRequest.tx);
+
+        assertEquals(Coin.COIN.divide(4), index.getBalance(addressB));
+        assertEquals(Coin.COIN.subtract(Coin.COIN.divide(4)), index.getBalance(addressA));
+        assertEquals(1, index.getOutputs(addressA).size());
+    }
+
+    @Test
+    public void testRebuildMatchesIncrementalUpdates() throws Exception {
+        for (int i = 0; i < 10; i++)
+            index.update(wallet, receive(Coin.valueOf(1000 + i), i % 2 == 0 ? addressA : addressB));
+        index.update(wallet, receive(Coin.COIN, new ECKey().toAddress(params)));
+
+        AddressBalanceIndex rebuilt = new AddressBalanceIndex(params);
+        rebuilt.rebuild(wallet);
+        assertEquals(rebuilt.getBalance(addressA), index.getBalance(addressA));
+        assertEquals(rebuilt.getBalance(addressB), index.getBalance(addressB));
+        assertEquals(Coin.valueOf(5 * 1000 + 2 + 4 + 6 + 8), index.getBalance(addressA));
+    }
+
+    private Transaction receive(Coin value, Address address) throws Exception {
+        Transaction tx = FakeTxBuilder.createFakeTx(params, value, address);
+        if (wallet.isPendingTransactionRelevant(tx))
+            wallet.receivePending(tx, null);
+        return tx;
+    }
+}
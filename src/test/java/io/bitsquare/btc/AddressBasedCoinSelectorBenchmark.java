@@ -0,0 +1,174 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.btc;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionConfidence;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.core.Wallet;
+import org.bitcoinj.params.RegTestParams;
+
+import java.math.BigInteger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the coin selection of one address out of large candidate sets: the previous selector sorted all candidates
+ * with BigInteger arithmetic and converted each output to an address before filtering, the current one filters by the
+ * script first and sorts the remaining candidates with primitive arithmetic.
+ * <p>
+ * The baseline is a copy of the previous implementation without its log output (it logged a warning for every
+ * output of another address), the strings it built for the log are still built.
+ * <p>
+ * Run with: java -cp ... io.bitsquare.btc.AddressBasedCoinSelectorBenchmark [rounds]
+ */
+public class AddressBasedCoinSelectorBenchmark {
+
+    private static final int[] CANDIDATES = {1_000, 10_000, 100_000};
+    // Share of the candidates which belong to the selected address
+    private static final double[] MATCHING = {0.01, 0.1, 1};
+
+    private static final NetworkParameters params = RegTestParams.get();
+
+    public static void main(String[] args) {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+
+        System.out.println(String.format("%10s %8s %12s %12s %12s %12s",
+                "candidates", "matching", "previous ms", "oldest ms", "exact ms", "minimal ms"));
+        for (int candidates : CANDIDATES) {
+            for (double matching : MATCHING)
+                run(candidates, matching, rounds);
+        }
+    }
+
+    private static void run(int candidateCount, double matching, int rounds) {
+        Random random = new Random(42);
+        AddressEntry addressEntry = new AddressEntry(new Wallet(params).freshReceiveKey(), params,
+                AddressEntry.AddressContext.TRADE);
+        Address otherAddress = new ECKey().toAddress(params);
+
+        List<TransactionOutput> candidates = new ArrayList<>();
+        long matchingValue = 0;
+        for (int i = 0; i < candidateCount; i++) {
+            boolean match = random.nextDouble() < matching;
+            Coin value = Coin.valueOf(10_000 + random.nextInt(10_000_000));
+            Transaction tx = new Transaction(params);
+            tx.addOutput(value, match ? addressEntry.getAddress() : otherAddress);
+            if (random.nextInt(10) == 0) {
+                tx.getConfidence().setConfidenceType(TransactionConfidence.ConfidenceType.PENDING);
+            }
+            else {
+                tx.getConfidence().setAppearedAtChainHeight(1);
+                tx.getConfidence().setDepthInBlocks(1 + random.nextInt(1000));
+            }
+            candidates.add(tx.getOutput(0));
+            if (match)
+                matchingValue += value.value;
+        }
+        // A third of what the address holds, so every selection has to pick and sort
+        Coin target = Coin.valueOf(matchingValue / 3);
+
+        AddressBasedCoinSelector oldest = new AddressBasedCoinSelector(params, addressEntry, true);
+        AddressBasedCoinSelector exact = new AddressBasedCoinSelector(params, addressEntry, true,
+                CoinSelectionStrategy.EXACT_MATCH);
+        AddressBasedCoinSelector minimal = new AddressBasedCoinSelector(params, addressEntry, true,
+                CoinSelectionStrategy.MINIMAL_INPUTS);
+
+        double previousMillis = measure(rounds, () -> selectPrevious(addressEntry, target, candidates));
+        double oldestMillis = measure(rounds, () -> oldest.select(target, candidates).valueGathered.value);
+        double exactMillis = measure(rounds, () -> exact.select(target, candidates).valueGathered.value);
+        double minimalMillis = measure(rounds, () -> minimal.select(target, candidates).valueGathered.value);
+
+        System.out.println(String.format("%10d %7.0f%% %12.3f %12.3f %12.3f %12.3f",
+                candidateCount, matching * 100, previousMillis, oldestMillis, exactMillis, minimalMillis));
+    }
+
+    private interface Selection {
+        long select();
+    }
+
+    // Warms up with the same number of rounds and returns the average of the measured rounds
+    private static double measure(int rounds, Selection selection) {
+        long blackhole = 0;
+        for (int i = 0; i < rounds; i++)
+            blackhole += selection.select();
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++)
+            blackhole += selection.select();
+        double millis = (System.nanoTime() - start) / 1e6 / rounds;
+        if (blackhole == 42)
+            System.out.println("unlikely");
+        return millis;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Previous implementation
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private static long selectPrevious(AddressEntry addressEntry, Coin target, List<TransactionOutput> candidates) {
+        ArrayList<TransactionOutput> sortedOutputs = new ArrayList<>(candidates);
+        Collections.sort(sortedOutputs, (a, b) -> {
+            int depth1 = 0;
+            int depth2 = 0;
+            TransactionConfidence conf1 = a.getParentTransaction().getConfidence();
+            TransactionConfidence conf2 = b.getParentTransaction().getConfidence();
+            if (conf1.getConfidenceType() == TransactionConfidence.ConfidenceType.BUILDING)
+                depth1 = conf1.getDepthInBlocks();
+            if (conf2.getConfidenceType() == TransactionConfidence.ConfidenceType.BUILDING)
+                depth2 = conf2.getDepthInBlocks();
+            BigInteger aCoinDepth = BigInteger.valueOf(a.getValue().value).multiply(BigInteger.valueOf(depth1));
+            BigInteger bCoinDepth = BigInteger.valueOf(b.getValue().value).multiply(BigInteger.valueOf(depth2));
+            int c1 = bCoinDepth.compareTo(aCoinDepth);
+            if (c1 != 0) return c1;
+            int c2 = b.getValue().compareTo(a.getValue());
+            if (c2 != 0) return c2;
+            BigInteger aHash = a.getParentTransaction().getHash().toBigInteger();
+            BigInteger bHash = b.getParentTransaction().getHash().toBigInteger();
+            return aHash.compareTo(bHash);
+        });
+
+        long total = 0;
+        int logged = 0;
+        for (TransactionOutput output : sortedOutputs) {
+            if (total >= target.value)
+                break;
+            TransactionConfidence.ConfidenceType type = output.getParentTransaction().getConfidence()
+                    .getConfidenceType();
+            if (type != TransactionConfidence.ConfidenceType.BUILDING &&
+                    type != TransactionConfidence.ConfidenceType.PENDING)
+                continue;
+
+            Address addressOutput = output.getScriptPubKey().getToAddress(params);
+            logged += addressOutput.toString().length() + addressEntry.getAddress().toString().length();
+            if (addressOutput.equals(addressEntry.getAddress()))
+                total += output.getValue().value;
+            else
+                logged += ("No match found at matchesRequiredAddress addressOutput/addressEntry " +
+                        addressOutput.toString() + "/" + addressEntry.getAddress().toString()).length();
+        }
+        return total + logged;
+    }
+}
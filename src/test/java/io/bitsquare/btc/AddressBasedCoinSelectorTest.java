@@ -0,0 +1,119 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.btc;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionConfidence;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.core.Wallet;
+import org.bitcoinj.params.RegTestParams;
+import org.bitcoinj.testing.FakeTxBuilder;
+import org.bitcoinj.wallet.CoinSelection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AddressBasedCoinSelectorTest {
+
+    private final NetworkParameters params = RegTestParams.get();
+
+    private AddressEntry addressEntry;
+
+    @Before
+    public void setUp() {
+        Wallet wallet = new Wallet(params);
+        addressEntry = new AddressEntry(wallet.freshReceiveKey(), params, AddressEntry.AddressContext.TRADE);
+    }
+
+    @Test
+    public void testOnlyOutputsOfTheAddressAreSelected() {
+        List<TransactionOutput> candidates = new ArrayList<>();
+        candidates.add(output(Coin.COIN, new ECKey().toAddress(params), 10));
+        TransactionOutput own = output(Coin.CENT, addressEntry.getAddress(), 1);
+        candidates.add(own);
+
+        CoinSelection selection = new AddressBasedCoinSelector(params, addressEntry, true)
+                .select(Coin.COIN, candidates);
+        assertEquals(Coin.CENT, selection.valueGathered);
+        assertEquals(new HashSet<>(Arrays.asList(own)), new HashSet<>(selection.gathered));
+    }
+
+    @Test
+    public void testOldestFirstSpendsMostCoinDepthFirst() {
+        TransactionOutput deep = output(Coin.CENT, addressEntry.getAddress(), 100);
+        TransactionOutput large = output(Coin.COIN, addressEntry.getAddress(), 0);
+        TransactionOutput shallow = output(Coin.CENT, addressEntry.getAddress(), 1);
+
+        CoinSelection selection = new AddressBasedCoinSelector(params, addressEntry, true)
+                .select(Coin.CENT, Arrays.asList(shallow, large, deep));
+        assertEquals(Arrays.asList(deep), new ArrayList<>(selection.gathered));
+    }
+
+    @Test
+    public void testExactMatchAvoidsChange() {
+        List<TransactionOutput> candidates = new ArrayList<>();
+        for (long value : new long[]{500_000, 300_000, 200_000, 70_000, 30_000})
+            candidates.add(output(Coin.valueOf(value), addressEntry.getAddress(), 1));
+
+        CoinSelection exact = new AddressBasedCoinSelector(params, addressEntry, true,
+                CoinSelectionStrategy.EXACT_MATCH).select(Coin.valueOf(330_000), candidates);
+        assertEquals(Coin.valueOf(330_000), exact.valueGathered);
+
+        CoinSelection minimal = new AddressBasedCoinSelector(params, addressEntry, true,
+                CoinSelectionStrategy.MINIMAL_INPUTS).select(Coin.valueOf(330_000), candidates);
+        assertEquals(1, minimal.gathered.size());
+        assertEquals(Coin.valueOf(500_000), minimal.valueGathered);
+    }
+
+    @Test
+    public void testSelectsFromSeveralAddresses() {
+        AddressEntry otherEntry = new AddressEntry(new Wallet(params).freshReceiveKey(), params,
+                AddressEntry.AddressContext.TRADE);
+        List<TransactionOutput> candidates = Arrays.asList(
+                output(Coin.CENT, addressEntry.getAddress(), 1),
+                output(Coin.CENT, otherEntry.getAddress(), 1),
+                output(Coin.COIN, new ECKey().toAddress(params), 1));
+
+        CoinSelection selection = new AddressBasedCoinSelector(params, Arrays.asList(addressEntry, otherEntry), true,
+                CoinSelectionStrategy.OLDEST_FIRST).select(NetworkParameters.MAX_MONEY, candidates);
+        assertEquals(Coin.CENT.multiply(2), selection.valueGathered);
+    }
+
+    private TransactionOutput output(Coin value, Address address, int depth) {
+        Transaction tx = FakeTxBuilder.createFakeTx(params, value, address);
+        if (depth > 0) {
+            tx.getConfidence().setAppearedAtChainHeight(1);
+            tx.getConfidence().setDepthInBlocks(depth);
+        }
+        else {
+            tx.getConfidence().setConfidenceType(TransactionConfidence.ConfidenceType.PENDING);
+        }
+        return tx.getOutput(0);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.btc;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionConfidence;
+import org.bitcoinj.core.Wallet;
+import org.bitcoinj.params.RegTestParams;
+import org.bitcoinj.testing.FakeTxBuilder;
+
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AddressConfidenceIndexTest {
+
+    private final NetworkParameters params = RegTestParams.get();
+
+    private Wallet wallet;
+    private AddressConfidenceIndex index;
+    private Address addressA;
+    private Address addressB;
+
+    @Before
+    public void setUp() {
+        wallet = new Wallet(params);
+        wallet.allowSpendingUnconfirmedTransactions();
+        addressA = wallet.freshReceiveKey().toAddress(params);
+        addressB = wallet.freshReceiveKey().toAddress(params);
+        index = new AddressConfidenceIndex(params);
+    }
+
+    @Test
+    public void testUpdateReturnsTouchedAddresses() throws Exception {
+        Transaction received = receive(Coin.COIN, addressA);
+        // The fake transaction pays change to a foreign address as well
+        assertTrue(index.update(received).contains(addressA));
+        assertNull(index.getConfidence(addressB));
+
+        // The spending transaction touches the address of the output it spends as well
+        Wallet.SendRequest sendRequest = Wallet.SendRequest.to(addressB, Coin.COIN.divide(4));
+        sendRequest.changeAddress = wallet.freshReceiveKey().toAddress(params);
+        wallet.completeTx(sendRequest);
+        wallet.commitTx(sendRequest.tx);
+        assertTrue(index.update(sendRequest.tx).containsAll(
+                ImmutableSet.of(addressA, addressB, sendRequest.changeAddress)));
+        assertSame(sendRequest.tx.getConfidence(), index.getConfidence(addressA));
+    }
+
+    @Test
+    public void testMostRecentConfidenceIsMemoizedUntilUpdate() throws Exception {
+        Transaction building = receive(Coin.COIN, addressA);
+        building.getConfidence().setAppearedAtChainHeight(10);
+        building.getConfidence().setDepthInBlocks(3);
+        index.update(building);
+        assertSame(building.getConfidence(), index.getConfidence(addressA));
+
+        Transaction pending = receive(Coin.CENT, addressA);
+        assertSame(TransactionConfidence.ConfidenceType.PENDING, pending.getConfidence().getConfidenceType());
+        index.update(pending);
+        assertSame(pending.getConfidence(), index.getConfidence(addressA));
+
+        AddressConfidenceIndex rebuilt = new AddressConfidenceIndex(params);
+        rebuilt.rebuild(wallet);
+        assertSame(index.getConfidence(addressA), rebuilt.getConfidence(addressA));
+    }
+
+    private Transaction receive(Coin value, Address address) throws Exception {
+        Transaction tx = FakeTxBuilder.createFakeTx(params, value, address);
+        if (wallet.isPendingTransactionRelevant(tx))
+            wallet.receivePending(tx, null);
+        return tx;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.btc;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.crypto.DeterministicKey;
+import org.bitcoinj.crypto.HDKeyDerivation;
+import org.bitcoinj.params.RegTestParams;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AddressEntryRegistryTest {
+
+    private final NetworkParameters params = RegTestParams.get();
+    private final DeterministicKey masterKey = HDKeyDerivation.createMasterPrivateKey(new byte[32]);
+
+    @Test
+    public void testLookups() {
+        AddressEntryRegistry registry = new AddressEntryRegistry();
+        AddressEntry registration = createEntry(0, AddressEntry.AddressContext.REGISTRATION_FEE, null);
+        AddressEntry trade = createEntry(1, AddressEntry.AddressContext.TRADE, "offer1");
+        registry.add(registration);
+        registry.add(trade);
+
+        assertSame(trade, registry.getByOfferId("offer1"));
+        assertNull(registry.getByOfferId("offer2"));
+        assertSame(trade, registry.getByAddressString(trade.getAddressString()));
+        assertSame(registration, registry.getByAddress(new Address(params, registration.getPubKeyHash())));
+        assertSame(trade, registry.getByPubKeyHash(trade.getPubKeyHash().clone()));
+        assertEquals(Collections.singletonList(trade), registry.getByContext(AddressEntry.AddressContext.TRADE));
+        assertTrue(registry.getByContext(AddressEntry.AddressContext.ARBITRATOR_DEPOSIT).isEmpty());
+    }
+
+    @Test
+    public void testSnapshotsAreNotAffectedByLaterEntries() {
+        AddressEntryRegistry registry = new AddressEntryRegistry();
+        AddressEntry first = createEntry(0, AddressEntry.AddressContext.TRADE, "offer1");
+        registry.add(first);
+        List<AddressEntry> snapshot = registry.getAll();
+        List<AddressEntry> tradeSnapshot = registry.getByContext(AddressEntry.AddressContext.TRADE);
+
+        AddressEntry second = createEntry(1, AddressEntry.AddressContext.TRADE, "offer2");
+        registry.add(second);
+
+        assertEquals(Collections.singletonList(first), snapshot);
+        assertEquals(Collections.singletonList(first), tradeSnapshot);
+        assertEquals(Arrays.asList(first, second), registry.getAll());
+        assertEquals(2, registry.size());
+    }
+
+    @Test
+    public void testSetAllReplacesTheIndexes() {
+        AddressEntryRegistry registry = new AddressEntryRegistry();
+        registry.add(createEntry(0, AddressEntry.AddressContext.TRADE, "offer1"));
+
+        AddressEntry restored = createEntry(1, AddressEntry.AddressContext.TRADE, "offer2");
+        registry.setAll(Collections.singletonList(restored));
+
+        assertNull(registry.getByOfferId("offer1"));
+        assertSame(restored, registry.getByOfferId("offer2"));
+        assertEquals(Collections.singletonList(restored), registry.getAll());
+    }
+
+    private AddressEntry createEntry(int index, AddressEntry.AddressContext addressContext, String offerId) {
+        DeterministicKey key = HDKeyDerivation.deriveChildKey(masterKey, index);
+        return new AddressEntry(key, params, addressContext, offerId);
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.btc;
+
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Wallet;
+import org.bitcoinj.core.WalletExtension;
+import org.bitcoinj.crypto.DeterministicKey;
+import org.bitcoinj.params.RegTestParams;
+import org.bitcoinj.store.WalletProtobufSerializer;
+import org.bitcoinj.wallet.KeyChain;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AddressEntryWalletExtensionTest {
+
+    private final NetworkParameters params = RegTestParams.get();
+
+    @Test
+    public void testEntriesAreSavedWithTheWallet() throws Exception {
+        Wallet wallet = new Wallet(params);
+        AddressEntryRegistry registry = new AddressEntryRegistry();
+        TradeKeyPool pool = new TradeKeyPool();
+        DeterministicKey tradeKey = wallet.freshReceiveKey();
+        registry.add(new AddressEntry(wallet.freshReceiveKey(), params, AddressEntry.AddressContext.REGISTRATION_FEE));
+        registry.add(new AddressEntry(tradeKey, params, AddressEntry.AddressContext.TRADE, "offerId"));
+        pool.addKeys(wallet.freshKeys(KeyChain.KeyPurpose.RECEIVE_FUNDS, 2));
+        wallet.addExtension(new AddressEntryWalletExtension(registry, pool));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new WalletProtobufSerializer().writeWallet(wallet, out);
+
+        AddressEntryRegistry loadedRegistry = new AddressEntryRegistry();
+        TradeKeyPool loadedPool = new TradeKeyPool();
+        AddressEntryWalletExtension extension = new AddressEntryWalletExtension(loadedRegistry, loadedPool);
+        Wallet loadedWallet = new WalletProtobufSerializer().readWallet(params, new WalletExtension[]{extension},
+                WalletProtobufSerializer.parseToProto(new ByteArrayInputStream(out.toByteArray())));
+
+        assertTrue(extension.isLoaded());
+        assertEquals(2, loadedRegistry.size());
+        assertEquals(2, loadedPool.size());
+        AddressEntry tradeEntry = loadedRegistry.getByOfferId("offerId");
+        assertEquals(AddressEntry.AddressContext.TRADE, tradeEntry.getAddressContext());
+        assertEquals(tradeKey.toAddress(params), tradeEntry.getAddress());
+        // The key is looked up in the loaded wallet on first use
+        assertEquals(loadedWallet.findKeyFromPubHash(tradeKey.getPubKeyHash()), tradeEntry.getKey());
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.btc;
+
+import io.bitsquare.btc.listeners.TxConfidenceListener;
+
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.TransactionConfidence;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class KeyedListenersTest {
+
+    private static final String TX_ID_1 = "0000000000000000000000000000000000000000000000000000000000000001";
+    private static final String TX_ID_2 = "0000000000000000000000000000000000000000000000000000000000000002";
+
+    private final KeyedListeners<Sha256Hash, TxConfidenceListener> listeners =
+            new KeyedListeners<>(TxConfidenceListener::getTxHash);
+    private final List<String> notified = new ArrayList<>();
+
+    @Test
+    public void testDispatchToMatchingHashOnly() {
+        listeners.add(new RecordingListener(TX_ID_1, "a"));
+        listeners.add(new RecordingListener(TX_ID_2, "b"));
+
+        dispatch(new Sha256Hash(TX_ID_1));
+        assertEquals(Arrays.asList("a"), notified);
+
+        notified.clear();
+        dispatch(new Sha256Hash(TX_ID_2));
+        assertEquals(Arrays.asList("b"), notified);
+
+        notified.clear();
+        dispatch(new Sha256Hash("00000000000000000000000000000000000000000000000000000000000000ff"));
+        assertTrue(notified.isEmpty());
+    }
+
+    @Test
+    public void testAddAndRemoveOnSharedHash() {
+        // Each listener parses the id itself, the hashes are equal but not the same instance
+        TxConfidenceListener first = new RecordingListener(TX_ID_1, "a");
+        TxConfidenceListener second = new RecordingListener(TX_ID_1, "b");
+        listeners.add(first);
+        listeners.add(second);
+        assertEquals(1, listeners.keys().size());
+
+        dispatch(new Sha256Hash(TX_ID_1));
+        assertEquals(Arrays.asList("a", "b"), notified);
+
+        listeners.remove(first);
+        notified.clear();
+        dispatch(new Sha256Hash(TX_ID_1));
+        assertEquals(Arrays.asList("b"), notified);
+
+        listeners.remove(second);
+        assertTrue(listeners.get(new Sha256Hash(TX_ID_1)).isEmpty());
+        assertTrue(listeners.keys().isEmpty());
+
+        // Removing a listener which is not registered (anymore) is a no-op
+        listeners.remove(second);
+        assertTrue(listeners.keys().isEmpty());
+    }
+
+    @Test
+    public void testMalformedTxIdIsNeverNotified() {
+        TxConfidenceListener malformed = new RecordingListener("", "a");
+        listeners.add(malformed);
+        listeners.add(new RecordingListener("not a tx id", "b"));
+        assertTrue(listeners.keys().isEmpty());
+
+        dispatch(new Sha256Hash(TX_ID_1));
+        assertTrue(notified.isEmpty());
+
+        listeners.remove(malformed);
+        assertTrue(listeners.keys().isEmpty());
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    // Same dispatch as WalletService does on a confidence change
+    private void dispatch(Sha256Hash txHash) {
+        for (TxConfidenceListener listener : listeners.get(txHash))
+            listener.onTransactionConfidenceChanged(null);
+    }
+
+    private class RecordingListener extends TxConfidenceListener {
+        private final String name;
+
+        RecordingListener(String txID, String name) {
+            super(txID);
+            this.name = name;
+        }
+
+        @Override
+        public void onTransactionConfidenceChanged(TransactionConfidence confidence) {
+            notified.add(name);
+        }
+    }
+}
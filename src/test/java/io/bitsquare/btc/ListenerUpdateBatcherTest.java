@@ -0,0 +1,82 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.btc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ListenerUpdateBatcherTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final List<Runnable> userThreadQueue = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void testUpdatesAreCoalescedByKey() {
+        ListenerUpdateBatcher batcher = new ListenerUpdateBatcher(userThreadQueue::add, scheduler);
+        List<String> delivered = new ArrayList<>();
+        Object listenerA = new Object();
+        Object listenerB = new Object();
+
+        batcher.update(listenerA, () -> delivered.add("a1"));
+        batcher.update(listenerB, () -> delivered.add("b1"));
+        batcher.update(listenerA, () -> delivered.add("a2"));
+
+        // One batch for all three updates, with the latest update per listener
+        assertEquals(1, userThreadQueue.size());
+        userThreadQueue.remove(0).run();
+        assertEquals(2, delivered.size());
+        assertTrue(delivered.contains("a2"));
+        assertTrue(delivered.contains("b1"));
+    }
+
+    @Test
+    public void testAtMostOneBatchPerFrame() throws Exception {
+        List<Runnable> queue = new ArrayList<>();
+        ListenerUpdateBatcher batcher = new ListenerUpdateBatcher(runnable -> {
+            synchronized (queue) {
+                queue.add(runnable);
+            }
+        }, scheduler);
+        batcher.update(this, () -> {
+        });
+        queue.remove(0).run();
+
+        // Right after a batch the next one waits for the end of the frame
+        batcher.update(this, () -> {
+        });
+        synchronized (queue) {
+            assertTrue(queue.isEmpty());
+        }
+        Thread.sleep(ListenerUpdateBatcher.FRAME_MILLIS * 2 + 50);
+        synchronized (queue) {
+            assertEquals(1, queue.size());
+        }
+    }
+}
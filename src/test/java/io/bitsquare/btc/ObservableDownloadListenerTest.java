@@ -0,0 +1,51 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.btc;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ObservableDownloadListenerTest {
+
+    @Test
+    public void testPhaseFollowsFastCatchupTime() {
+        ObservableDownloadListener listener = new ObservableDownloadListener();
+        long fastCatchupTimeSecs = 1_400_000_000;
+        listener.setFastCatchupTimeSecs(fastCatchupTimeSecs);
+        List<DownloadProgress> progress = new ArrayList<>();
+        boolean[] completed = new boolean[1];
+        listener.getObservable().subscribe(progress::add, error -> fail(error.toString()), () -> completed[0] = true);
+
+        listener.progress(10, 900, new Date((fastCatchupTimeSecs - 3600) * 1000));
+        listener.progress(60, 400, new Date(fastCatchupTimeSecs * 1000));
+        listener.doneDownload();
+
+        // The initial value and the two updates
+        assertEquals(3, progress.size());
+        assertEquals(DownloadProgress.Phase.HEADERS, progress.get(1).getPhase());
+        assertEquals(900, progress.get(1).getBlocksLeft());
+        assertEquals(DownloadProgress.Phase.FILTERED_BLOCKS, progress.get(2).getPhase());
+        assertEquals(60, progress.get(2).getPercentage(), 0);
+        assertTrue(completed[0]);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.btc;
+
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Wallet;
+import org.bitcoinj.crypto.DeterministicKey;
+import org.bitcoinj.params.RegTestParams;
+import org.bitcoinj.wallet.KeyChain;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TradeKeyPoolTest {
+
+    private final NetworkParameters params = RegTestParams.get();
+
+    @Test
+    public void testReservedKeysStayUnassigned() {
+        Wallet wallet = new Wallet(params);
+        TradeKeyPool pool = new TradeKeyPool();
+        pool.addKeys(wallet.freshKeys(KeyChain.KeyPurpose.RECEIVE_FUNDS, 3));
+
+        DeterministicKey key = pool.poll();
+        AddressEntry reservation = new AddressEntry(key, params, AddressEntry.AddressContext.TRADE, "offerId");
+        pool.reserve(reservation);
+        assertEquals(2, pool.size());
+        assertSame(reservation, pool.getReservation("offerId"));
+        assertSame(reservation, pool.getReservationByPubKeyHash(key.getPubKeyHash()));
+
+        // A reserved key is written with the pool, so it is not lost if the offer is never placed
+        List<byte[]> pubKeyHashes = pool.getPubKeyHashes();
+        assertEquals(3, pubKeyHashes.size());
+        assertTrue(pubKeyHashes.stream().anyMatch(hash -> Arrays.equals(hash, key.getPubKeyHash())));
+
+        assertSame(reservation, pool.removeReservation("offerId"));
+        assertNull(pool.getReservationByPubKeyHash(key.getPubKeyHash()));
+        assertEquals(2, pool.getPubKeyHashes().size());
+    }
+
+    @Test
+    public void testReleasedKeyIsUsedNext() {
+        Wallet wallet = new Wallet(params);
+        TradeKeyPool pool = new TradeKeyPool();
+        pool.addKeys(wallet.freshKeys(KeyChain.KeyPurpose.RECEIVE_FUNDS, 3));
+
+        DeterministicKey key = pool.poll();
+        pool.reserve(new AddressEntry(key, params, AddressEntry.AddressContext.TRADE, "offerId"));
+        assertTrue(pool.release("offerId"));
+        assertNull(pool.getReservation("offerId"));
+        assertEquals(3, pool.size());
+        assertEquals(3, pool.getPubKeyHashes().size());
+        assertSame(key, pool.poll());
+
+        assertFalse(pool.release("offerId"));
+    }
+
+    @Test
+    public void testRemoveFundedPooledKey() {
+        Wallet wallet = new Wallet(params);
+        TradeKeyPool pool = new TradeKeyPool();
+        pool.addKeys(wallet.freshKeys(KeyChain.KeyPurpose.RECEIVE_FUNDS, 3));
+
+        // A released key keeps the offer id of its reservation
+        DeterministicKey releasedKey = pool.poll();
+        AddressEntry reservation = new AddressEntry(releasedKey, params, AddressEntry.AddressContext.TRADE,
+                "offerId");
+        pool.reserve(reservation);
+        pool.release("offerId");
+        assertSame(reservation, pool.remove(releasedKey.getPubKeyHash(), params));
+        assertEquals(2, pool.size());
+
+        // Any other pooled key gets an offer id of its own
+        DeterministicKey key = pool.poll();
+        pool.addKeys(Arrays.asList(key));
+        AddressEntry addressEntry = pool.remove(key.getPubKeyHash(), params);
+        assertNotNull(addressEntry);
+        assertSame(key, addressEntry.getKey());
+        assertEquals(AddressEntry.AddressContext.TRADE, addressEntry.getAddressContext());
+        assertNotNull(addressEntry.getOfferId());
+        assertEquals(1, pool.size());
+
+        assertNull(pool.remove(key.getPubKeyHash(), params));
+    }
+}
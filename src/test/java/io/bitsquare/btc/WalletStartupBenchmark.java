@@ -0,0 +1,115 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.btc;
+
+import io.bitsquare.crypto.SignatureService;
+import io.bitsquare.persistence.Persistence;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionConfidence;
+import org.bitcoinj.core.Wallet;
+import org.bitcoinj.testing.FakeTxBuilder;
+import org.bitcoinj.wallet.WalletTransaction;
+
+import com.google.common.io.Files;
+
+import java.io.File;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time from WalletService.initialize until the wallet can be used read-only and until the blockchain
+ * download is complete, for wallet files with the given numbers of transactions. Before the wallet became usable
+ * with the loaded wallet, the initialize observable completed only after the download.
+ * <p>
+ * Uses the regtest network, which connects to a bitcoind on localhost. Without it the download never completes and
+ * is reported as "-" after the timeout.
+ * <p>
+ * Run with: java -cp ... io.bitsquare.btc.WalletStartupBenchmark [download timeout in seconds]
+ * (best with the log level of org.bitcoinj raised to WARN)
+ */
+public class WalletStartupBenchmark {
+
+    private static final int ADDRESSES = 100;
+    private static final int[] TRANSACTIONS = {0, 1_000, 5_000};
+
+    private static final BitcoinNetwork bitcoinNetwork = BitcoinNetwork.REGTEST;
+    private static final NetworkParameters params = bitcoinNetwork.getParameters();
+
+    public static void main(String[] args) throws Exception {
+        int downloadTimeoutSecs = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+
+        System.out.println(String.format("%12s %9s %12s", "transactions", "ready ms", "synced ms"));
+        for (int transactions : TRANSACTIONS)
+            run(transactions, downloadTimeoutSecs);
+        System.exit(0);
+    }
+
+    private static void run(int transactionCount, int downloadTimeoutSecs) throws Exception {
+        File dir = Files.createTempDir();
+        createWalletFile(new File(dir, "bench.wallet"), transactionCount);
+        Persistence persistence = new Persistence(dir, "bench");
+        persistence.init();
+        WalletService walletService = new WalletService(bitcoinNetwork, new FeePolicy(bitcoinNetwork),
+                new SignatureService(), persistence, new UserAgent("Bitsquare", "benchmark"), dir, "bench");
+
+        CountDownLatch ready = new CountDownLatch(1);
+        CountDownLatch synced = new CountDownLatch(1);
+        long[] readyNanos = new long[1];
+        long[] syncedNanos = new long[1];
+        long start = System.nanoTime();
+        walletService.initialize(Runnable::run).subscribe(next -> {
+        }, error -> ready.countDown(), () -> {
+            readyNanos[0] = System.nanoTime() - start;
+            ready.countDown();
+        });
+        walletService.getDownloadProgress().subscribe(progress -> {
+        }, error -> synced.countDown(), () -> {
+            syncedNanos[0] = System.nanoTime() - start;
+            synced.countDown();
+        });
+
+        ready.await();
+        boolean isSynced = synced.await(downloadTimeoutSecs, TimeUnit.SECONDS);
+        System.out.println(String.format("%12d %9.0f %12s", transactionCount, readyNanos[0] / 1e6,
+                isSynced ? String.format("%.0f", syncedNanos[0] / 1e6) : "-"));
+        walletService.shutDown();
+    }
+
+    private static void createWalletFile(File file, int transactionCount) throws Exception {
+        Random random = new Random(42);
+        Wallet wallet = new Wallet(params);
+        List<Address> addresses = new ArrayList<>();
+        for (int i = 0; i < ADDRESSES; i++)
+            addresses.add(wallet.freshReceiveKey().toAddress(params));
+        for (int i = 0; i < transactionCount; i++) {
+            Transaction tx = FakeTxBuilder.createFakeTx(params, Coin.valueOf(10_000 + random.nextInt(100_000)),
+                    addresses.get(random.nextInt(ADDRESSES)));
+            tx.getConfidence().setConfidenceType(TransactionConfidence.ConfidenceType.PENDING);
+            wallet.addWalletTransaction(new WalletTransaction(WalletTransaction.Pool.PENDING, tx));
+        }
+        wallet.saveToFile(file);
+    }
+}
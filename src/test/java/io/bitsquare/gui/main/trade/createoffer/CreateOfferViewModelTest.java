@@ -17,6 +17,8 @@
 
 package io.bitsquare.gui.main.trade.createoffer;
 
+import io.bitsquare.arbitrator.Arbitrator;
+import io.bitsquare.arbitrator.ArbitratorDirectory;
 import io.bitsquare.bank.BankAccountType;
 import io.bitsquare.gui.util.BSFormatter;
 import io.bitsquare.gui.util.validation.BtcValidator;
@@ -44,7 +46,14 @@ public class CreateOfferViewModelTest {
         BSFormatter formatter = new BSFormatter(new User());
         formatter.setLocale(Locale.US);
         formatter.setFiatCurrencyCode("USD");
-        model = new CreateOfferDataModel(null, null, null, null, null, null, formatter);
+        // Knows no published arbitrators
+        ArbitratorDirectory arbitratorDirectory = new ArbitratorDirectory(null) {
+            @Override
+            public synchronized Arbitrator getArbitrator(String id) {
+                return null;
+            }
+        };
+        model = new CreateOfferDataModel(null, null, null, null, null, null, arbitratorDirectory, formatter);
 
         presenter = new CreateOfferViewModel(model, new FiatValidator(null), new BtcValidator(), formatter);
     }
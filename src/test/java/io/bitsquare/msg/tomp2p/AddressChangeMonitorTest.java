@@ -0,0 +1,102 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.msg.tomp2p;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.tomp2p.peers.PeerMap;
+import net.tomp2p.peers.PeerMapChangeListener;
+
+import org.junit.After;
+import org.junit.Test;
+
+import org.mockito.ArgumentCaptor;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class AddressChangeMonitorTest {
+
+    private static final long DEBOUNCE_MILLIS = 100;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void testBurstLeadsToOneCheck() throws Exception {
+        AtomicInteger checks = new AtomicInteger();
+        AddressChangeMonitor monitor = new AddressChangeMonitor(scheduler, DEBOUNCE_MILLIS);
+        monitor.start(checks::incrementAndGet);
+
+        for (int i = 0; i < 10; i++)
+            monitor.onPossibleChange("peer inserted");
+        Thread.sleep(DEBOUNCE_MILLIS * 3);
+
+        assertEquals(1, checks.get());
+        monitor.stop();
+    }
+
+    @Test
+    public void testSteadyChangesDoNotStarveTheCheck() throws Exception {
+        AtomicInteger checks = new AtomicInteger();
+        AddressChangeMonitor monitor = new AddressChangeMonitor(scheduler, DEBOUNCE_MILLIS);
+        monitor.start(checks::incrementAndGet);
+
+        // A change every fifth of the debounce interval, a postponed check would never run
+        long end = System.currentTimeMillis() + DEBOUNCE_MILLIS * 6;
+        while (System.currentTimeMillis() < end) {
+            monitor.onPossibleChange("peer inserted");
+            Thread.sleep(DEBOUNCE_MILLIS / 5);
+        }
+
+        assertTrue("checks: " + checks.get(), checks.get() >= 3);
+        monitor.stop();
+    }
+
+    @Test
+    public void testNoCheckAfterStop() throws Exception {
+        AtomicInteger checks = new AtomicInteger();
+        AddressChangeMonitor monitor = new AddressChangeMonitor(scheduler, DEBOUNCE_MILLIS);
+        monitor.start(checks::incrementAndGet);
+
+        monitor.onPossibleChange("peer removed");
+        monitor.stop();
+        Thread.sleep(DEBOUNCE_MILLIS * 2);
+
+        assertEquals(0, checks.get());
+    }
+
+    @Test
+    public void testStopRemovesPeerMapListener() {
+        PeerMap peerMap = mock(PeerMap.class);
+        AddressChangeMonitor monitor = new AddressChangeMonitor(scheduler, DEBOUNCE_MILLIS);
+        monitor.start(peerMap, () -> {
+        });
+        ArgumentCaptor<PeerMapChangeListener> listener = ArgumentCaptor.forClass(PeerMapChangeListener.class);
+        verify(peerMap).addPeerMapChangeListener(listener.capture());
+
+        monitor.stop();
+        verify(peerMap).removePeerMapChangeListener(listener.getValue());
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.msg.tomp2p;
+
+import io.bitsquare.network.Node;
+import io.bitsquare.persistence.Persistence;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+
+public class BootstrapNodeRankingTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Node nodeA = Node.at("a", "10.0.0.1");
+    private final Node nodeB = Node.at("b", "10.0.0.2");
+    private final Node nodeC = Node.at("c", "10.0.0.3");
+
+    private Persistence persistence;
+
+    @Before
+    public void setUp() {
+        persistence = new Persistence(folder.getRoot(), "test");
+        persistence.init();
+    }
+
+    @Test
+    public void testUnknownNodesKeepTheirOrder() {
+        BootstrapNodeRanking ranking = new BootstrapNodeRanking(persistence);
+        assertEquals(Arrays.asList(nodeA, nodeB, nodeC), ranking.rank(Arrays.asList(nodeA, nodeB, nodeC)));
+    }
+
+    @Test
+    public void testFastAndReliableNodesComeFirst() {
+        BootstrapNodeRanking ranking = new BootstrapNodeRanking(persistence);
+        ranking.recordSuccess(nodeA, 800);
+        ranking.recordSuccess(nodeB, 100);
+        ranking.recordFailure(nodeC);
+
+        assertEquals(Arrays.asList(nodeB, nodeA, nodeC), ranking.rank(Arrays.asList(nodeA, nodeB, nodeC)));
+    }
+
+    @Test
+    public void testStatisticsArePersisted() {
+        BootstrapNodeRanking ranking = new BootstrapNodeRanking(persistence);
+        ranking.recordFailure(nodeA);
+        ranking.recordSuccess(nodeB, 100);
+        ranking.save();
+
+        BootstrapNodeRanking restored = new BootstrapNodeRanking(new Persistence(folder.getRoot(), "test"));
+        assertEquals(Arrays.asList(nodeB, nodeA), restored.rank(Arrays.asList(nodeA, nodeB)));
+    }
+}
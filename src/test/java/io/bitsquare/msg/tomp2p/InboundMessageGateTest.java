@@ -0,0 +1,178 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.bitsquare.msg.tomp2p;
+
+import com.google.common.base.Ticker;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.PeerAddress;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class InboundMessageGateTest {
+
+    private static final int PEER_RATE = 1;
+    private static final int GLOBAL_RATE = 3;
+
+    // The buckets are not refilled unless a test advances the time
+    private long nanos = 0;
+
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return nanos;
+        }
+    };
+
+    private InboundMessageGate gate;
+
+    @After
+    public void tearDown() {
+        if (gate != null)
+            gate.shutDown();
+    }
+
+    @Test
+    public void testPeerRate() throws Exception {
+        gate = createGate(100, InboundMessageGate.OverflowPolicy.REJECT_NEW);
+        int burst = PEER_RATE * InboundMessageGate.BURST_SECONDS;
+
+        for (int i = 0; i < burst; i++)
+            assertTrue(gate.submit(createSender(1, "peer" + i), () -> {
+            }));
+        // A new peer id from the same host gets no new burst
+        assertFalse(gate.submit(createSender(1, "new peer id"), () -> {
+        }));
+        assertEquals(1, gate.getDroppedPeerRate());
+
+        assertTrue(gate.submit(createSender(2, "other host"), () -> {
+        }));
+
+        nanos += TimeUnit.SECONDS.toNanos(1);
+        assertTrue(gate.submit(createSender(1, "peer0"), () -> {
+        }));
+    }
+
+    @Test
+    public void testGlobalRate() throws Exception {
+        gate = createGate(100, InboundMessageGate.OverflowPolicy.REJECT_NEW);
+        int burst = GLOBAL_RATE * InboundMessageGate.BURST_SECONDS;
+
+        for (int i = 0; i < burst; i++)
+            assertTrue(gate.submit(createSender(i, "peer"), () -> {
+            }));
+        assertFalse(gate.submit(createSender(burst, "peer"), () -> {
+        }));
+        assertEquals(1, gate.getDroppedGlobalRate());
+        assertEquals(0, gate.getDroppedPeerRate());
+    }
+
+    @Test
+    public void testPeerOverRateDoesNotUseUpGlobalRate() throws Exception {
+        gate = createGate(100, InboundMessageGate.OverflowPolicy.REJECT_NEW);
+        int burst = GLOBAL_RATE * InboundMessageGate.BURST_SECONDS;
+
+        for (int i = 0; i < burst * 2; i++)
+            gate.submit(createSender(1, "flooding peer"), () -> {
+            });
+
+        for (int i = 2; i < burst; i++)
+            assertTrue(gate.submit(createSender(i, "peer"), () -> {
+            }));
+    }
+
+    @Test
+    public void testRejectNewWhenQueueIsFull() throws Exception {
+        List<String> handled = runWithFullQueue(InboundMessageGate.OverflowPolicy.REJECT_NEW);
+
+        assertEquals(1, gate.getDroppedQueueFull());
+        assertEquals(2, handled.size());
+        assertEquals("blocking", handled.get(0));
+        assertEquals("queued", handled.get(1));
+    }
+
+    @Test
+    public void testDropOldestWhenQueueIsFull() throws Exception {
+        List<String> handled = runWithFullQueue(InboundMessageGate.OverflowPolicy.DROP_OLDEST);
+
+        assertEquals(1, gate.getDroppedQueueFull());
+        assertEquals(2, handled.size());
+        assertEquals("blocking", handled.get(0));
+        assertEquals("new", handled.get(1));
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private InboundMessageGate createGate(int queueCapacity, InboundMessageGate.OverflowPolicy overflowPolicy) {
+        return new InboundMessageGate(InboundMessageGate.DEFAULT_MAX_MESSAGE_SIZE, PEER_RATE, GLOBAL_RATE,
+                queueCapacity, overflowPolicy, ticker);
+    }
+
+    // Blocks the dispatcher, fills the queue with one message and submits one more
+    private List<String> runWithFullQueue(InboundMessageGate.OverflowPolicy overflowPolicy) throws Exception {
+        gate = createGate(1, overflowPolicy);
+        List<String> handled = new CopyOnWriteArrayList<>();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(2);
+
+        gate.submit(createSender(1, "peer"), () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            handled.add("blocking");
+            done.countDown();
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        gate.submit(createSender(2, "peer"), () -> {
+            handled.add("queued");
+            done.countDown();
+        });
+        gate.submit(createSender(3, "peer"), () -> {
+            handled.add("new");
+            done.countDown();
+        });
+
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        // Nothing else may arrive after the two handled messages
+        Thread.sleep(100);
+        return handled;
+    }
+
+    private static PeerAddress createSender(int host, String peerId) throws UnknownHostException {
+        return new PeerAddress(Number160.createHash(peerId),
+                InetAddress.getByAddress(new byte[]{10, 0, (byte) (host >> 8), (byte) host}), 7366, 7366);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.msg.tomp2p;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.tomp2p.storage.Data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PayloadCompressionTest {
+
+    @Test
+    public void testSmallPayloadIsNotCompressed() throws Exception {
+        PayloadCompression compression = new PayloadCompression(true, 1024);
+        String payload = "small";
+
+        assertSame(payload, compression.encode(payload));
+        assertEquals(0, compression.getCompressedPayloads());
+    }
+
+    @Test
+    public void testLargePayloadRoundTrip() throws Exception {
+        PayloadCompression compression = new PayloadCompression(true, 1024);
+        List<String> payload = new ArrayList<>();
+        for (int i = 0; i < 200; i++)
+            payload.add("{\n  \"Offer\": \"" + i + "\",\n  \"Currency\": \"EUR\"\n}");
+
+        Object encoded = compression.encode(payload);
+        assertTrue(encoded instanceof byte[]);
+        assertTrue(PayloadCompression.isCompressed((byte[]) encoded));
+        assertEquals(payload, compression.decode(encoded, PayloadCompression.MAX_DHT_DATA_SIZE));
+        assertEquals(1, compression.getCompressedPayloads());
+        assertTrue(compression.getBytesSaved() > 0);
+    }
+
+    @Test
+    public void testUncompressedSerializedDataIsPassedThrough() throws Exception {
+        PayloadCompression compression = new PayloadCompression(true, 1024);
+        byte[] serialized = PayloadCompression.serialize("old client data");
+
+        assertFalse(PayloadCompression.isCompressed(serialized));
+        assertSame(serialized, compression.decompress(serialized, 10));
+    }
+
+    @Test
+    public void testDhtDataRoundTrip() throws Exception {
+        PayloadCompression compression = new PayloadCompression(true, 1024);
+        List<String> payload = new ArrayList<>();
+        for (int i = 0; i < 200; i++)
+            payload.add("Offer " + i);
+
+        byte[] compressed = compression.compress(PayloadCompression.serialize(payload));
+        assertTrue(PayloadCompression.isCompressed(compressed));
+        assertEquals(payload, compression.getObject(new Data(compressed)));
+        assertEquals("old client data", compression.getObject(new Data("old client data")));
+    }
+
+    @Test(expected = IOException.class)
+    public void testDhtDataAboveLimitIsRejected() throws Exception {
+        PayloadCompression compression = new PayloadCompression(true, 1024);
+        byte[] bomb = compression.compress(new byte[PayloadCompression.MAX_DHT_DATA_SIZE + 1]);
+        assertTrue(bomb.length * 100 < PayloadCompression.MAX_DHT_DATA_SIZE);
+
+        compression.getObject(new Data(bomb));
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        PayloadCompression compression = new PayloadCompression(false, 0);
+        byte[] serialized = new byte[10000];
+
+        assertSame(serialized, compression.compress(serialized));
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.network.simulation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SimulatedNetworkTest {
+
+    @Test
+    public void testMessageIsDeliveredWithinLatency() {
+        SimulatedNetwork network = new SimulatedNetwork(1);
+        network.setLatency(10, 50);
+        SimulatedNode alice = network.createNode("alice");
+        SimulatedNode bob = network.createNode("bob");
+        List<Object> received = new ArrayList<>();
+        List<Long> receivedAt = new ArrayList<>();
+        bob.setMessageBroker((message, sender) -> {
+            received.add(message);
+            receivedAt.add(network.now());
+            assertEquals(alice.getPeer(), sender);
+        });
+
+        AtomicReference<Boolean> result = new AtomicReference<>();
+        List<String> payload = new ArrayList<>(Collections.singletonList("hello"));
+        alice.sendData(bob.getPeer(), payload, result::set);
+        network.runUntilIdle();
+
+        assertEquals(Boolean.TRUE, result.get());
+        assertEquals(Collections.singletonList(payload), received);
+        assertNotSame(payload, received.get(0));
+        assertTrue(receivedAt.get(0) >= 10 && receivedAt.get(0) <= 50);
+        assertTrue(network.now() >= 20 && network.now() <= 100);
+    }
+
+    @Test
+    public void testLostMessageTimesOut() {
+        SimulatedNetwork network = new SimulatedNetwork(1);
+        network.setLossRate(1);
+        network.setTimeout(3000);
+        SimulatedNode alice = network.createNode("alice");
+        SimulatedNode bob = network.createNode("bob");
+        bob.setMessageBroker((message, sender) -> fail("Lost message was delivered"));
+
+        AtomicReference<Boolean> result = new AtomicReference<>();
+        alice.sendData(bob.getPeer(), "hello", result::set);
+        network.runUntilIdle();
+
+        assertEquals(Boolean.FALSE, result.get());
+        assertEquals(3000, network.now());
+        assertEquals(1, network.getLostTransmissions());
+    }
+
+    @Test
+    public void testPartition() {
+        SimulatedNetwork network = new SimulatedNetwork(1);
+        SimulatedNode alice = network.createNode("alice");
+        SimulatedNode bob = network.createNode("bob");
+        bob.setMessageBroker((message, sender) -> {
+        });
+        alice.addData("key", "value", success -> assertTrue(success));
+        network.runUntilIdle();
+
+        network.partition(Collections.singletonList(alice));
+        List<Object> results = new ArrayList<>();
+        alice.sendData(bob.getPeer(), "hello", results::add);
+        alice.getDataMap("key", results::add);
+        bob.getDataMap("key", results::add);
+        network.runUntilIdle();
+        assertTrue(results.containsAll(Arrays.asList(false, null, Collections.singletonList("value"))));
+
+        network.heal();
+        results.clear();
+        alice.sendData(bob.getPeer(), "hello", results::add);
+        alice.getDataMap("key", results::add);
+        network.runUntilIdle();
+        assertTrue(results.containsAll(Arrays.asList(true, Collections.singletonList("value"))));
+    }
+
+    @Test
+    public void testDataMap() {
+        SimulatedNetwork network = new SimulatedNetwork(1);
+        SimulatedNode node = network.createNode("node");
+        node.addData("EUR", "offer 1", success -> {
+        });
+        node.addData("EUR", "offer 2", success -> {
+        });
+        // Requests race each other like in a real network, so remove after the adds arrived
+        network.runUntilIdle();
+        node.removeData("EUR", "offer 1", success -> {
+        });
+        network.runUntilIdle();
+
+        AtomicReference<List<Object>> values = new AtomicReference<>();
+        node.getDataMap("EUR", values::set);
+        network.runUntilIdle();
+        assertEquals(Collections.singletonList("offer 2"), values.get());
+    }
+
+    @Test
+    public void testSameSeedGivesSameRun() {
+        assertEquals(run(7), run(7));
+        assertNotEquals(run(7), run(8));
+    }
+
+    private static List<Long> run(long seed) {
+        SimulatedNetwork network = new SimulatedNetwork(seed);
+        network.setLossRate(0.2);
+        SimulatedNode alice = network.createNode("alice");
+        SimulatedNode bob = network.createNode("bob");
+        List<Long> events = new ArrayList<>();
+        bob.setMessageBroker((message, sender) -> events.add(network.now()));
+        for (int i = 0; i < 20; i++)
+            alice.sendData(bob.getPeer(), i, success -> events.add(success ? network.now() : -network.now()));
+        network.runUntilIdle();
+        return events;
+    }
+}
@@ -0,0 +1,322 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.network.simulation;
+
+import io.bitsquare.bank.BankAccountType;
+import io.bitsquare.locale.Country;
+import io.bitsquare.locale.Region;
+import io.bitsquare.msg.Message;
+import io.bitsquare.msg.listeners.GetPeerAddressListener;
+import io.bitsquare.msg.listeners.OutgoingMessageListener;
+import io.bitsquare.msg.simulation.SimulatedMessageService;
+import io.bitsquare.network.Peer;
+import io.bitsquare.offer.Direction;
+import io.bitsquare.offer.Offer;
+import io.bitsquare.offer.OfferRepository;
+import io.bitsquare.offer.simulation.SimulatedOfferRepository;
+import io.bitsquare.trade.protocol.trade.TradeMessage;
+import io.bitsquare.trade.protocol.trade.offerer.messages.BankTransferInitedMessage;
+import io.bitsquare.trade.protocol.trade.offerer.messages.DepositTxPublishedMessage;
+import io.bitsquare.trade.protocol.trade.offerer.messages.RequestTakerDepositPaymentMessage;
+import io.bitsquare.trade.protocol.trade.offerer.messages.RespondToIsOfferAvailableMessage;
+import io.bitsquare.trade.protocol.trade.offerer.messages.RespondToTakeOfferRequestMessage;
+import io.bitsquare.trade.protocol.trade.taker.messages.PayoutTxPublishedMessage;
+import io.bitsquare.trade.protocol.trade.taker.messages.RequestIsOfferAvailableMessage;
+import io.bitsquare.trade.protocol.trade.taker.messages.RequestOffererPublishDepositTxMessage;
+import io.bitsquare.trade.protocol.trade.taker.messages.RequestTakeOfferMessage;
+import io.bitsquare.trade.protocol.trade.taker.messages.TakeOfferFeePayedMessage;
+import io.bitsquare.user.User;
+
+import org.bitcoinj.core.Coin;
+
+import com.google.common.base.Strings;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * Runs offer publishing and the message exchange of complete trades between simulated peers in one JVM, for
+ * several loss rates and with a partition. Half of the peers publish an offer, the other half read the offer book,
+ * look up the address of an offerer and take its offer.
+ * <p>
+ * The trade messages are the real ones with transactions and signatures of typical size. The wallet and block chain
+ * work between the messages is replaced by a fixed processing time, so the figures show what the network adds to
+ * a trade. Times are simulated milliseconds; the wall clock time shows how fast the simulation itself runs.
+ * <p>
+ * Run with: java -cp ... io.bitsquare.network.simulation.SimulatedTradeBenchmark [peers] [seed]
+ */
+public class SimulatedTradeBenchmark {
+
+    // Simulated wallet work (signing, publishing) before a trade message is answered
+    private static final long PROCESSING_MILLIS = 50;
+    private static final String CURRENCY_CODE = "EUR";
+
+    // A signed transaction as hex
+    private static final String TX_HEX = Strings.repeat("ab", 400);
+    private static final String SIGNATURE_HEX = Strings.repeat("cd", 36);
+
+    private static class Step {
+        private final boolean sentByTaker;
+        private final Function<String, TradeMessage> message;
+
+        Step(boolean sentByTaker, Function<String, TradeMessage> message) {
+            this.sentByTaker = sentByTaker;
+            this.message = message;
+        }
+    }
+
+    private static final List<Step> TRADE_STEPS = new ArrayList<>();
+
+    static {
+        TRADE_STEPS.add(new Step(true, RequestIsOfferAvailableMessage::new));
+        TRADE_STEPS.add(new Step(false, id -> new RespondToIsOfferAvailableMessage(id, true)));
+        TRADE_STEPS.add(new Step(true, RequestTakeOfferMessage::new));
+        TRADE_STEPS.add(new Step(false, id -> new RespondToTakeOfferRequestMessage(id, true)));
+        TRADE_STEPS.add(new Step(true, id -> new TakeOfferFeePayedMessage(id, SIGNATURE_HEX, Coin.COIN,
+                SIGNATURE_HEX)));
+        TRADE_STEPS.add(new Step(false, id -> new RequestTakerDepositPaymentMessage(id, null, "account",
+                SIGNATURE_HEX, TX_HEX, 0)));
+        TRADE_STEPS.add(new Step(true, id -> new RequestOffererPublishDepositTxMessage(id, null, "account", null,
+                TX_HEX, SIGNATURE_HEX, TX_HEX, Strings.repeat("{}", 500), SIGNATURE_HEX, SIGNATURE_HEX, 0, 1)));
+        TRADE_STEPS.add(new Step(false, id -> new DepositTxPublishedMessage(id, TX_HEX)));
+        TRADE_STEPS.add(new Step(false, id -> new BankTransferInitedMessage(id, TX_HEX, SIGNATURE_HEX,
+                SIGNATURE_HEX, Coin.COIN, Coin.COIN, SIGNATURE_HEX)));
+        TRADE_STEPS.add(new Step(true, id -> new PayoutTxPublishedMessage(id, TX_HEX)));
+    }
+
+    private static class SimulatedPeerApp {
+        private final SimulatedNode node;
+        private final User user;
+        private final SimulatedMessageService messageService;
+        private final SimulatedOfferRepository offerRepository;
+
+        SimulatedPeerApp(SimulatedNode node, User user) {
+            this.node = node;
+            this.user = user;
+            this.messageService = new SimulatedMessageService(user, node);
+            this.offerRepository = new SimulatedOfferRepository(node);
+        }
+    }
+
+    private static class Trade {
+        private final String id;
+        private final SimulatedPeerApp taker;
+        private final SimulatedPeerApp offerer;
+        private final Peer offererPeer;
+        private final long startedAt;
+        private int step;
+        private boolean failed;
+        private long completedAt = -1;
+
+        Trade(String id, SimulatedPeerApp taker, SimulatedPeerApp offerer, Peer offererPeer, long startedAt) {
+            this.id = id;
+            this.taker = taker;
+            this.offerer = offerer;
+            this.offererPeer = offererPeer;
+            this.startedAt = startedAt;
+        }
+    }
+
+    public static void main(String[] args) {
+        int peers = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 42;
+
+        // Key generation is the slowest part of the setup, so the users are shared by all runs
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < peers; i++) {
+            User user = new User();
+            user.applyPersistedUser(null);
+            users.add(user);
+        }
+
+        System.out.println(String.format("%-22s %7s %7s %9s %9s %9s %10s %10s %9s",
+                "scenario", "trades", "failed", "p50 ms", "p90 ms", "max ms", "MB sent", "events", "wall ms"));
+        run("no loss", users, seed, 0, false);
+        run("1% loss", users, seed, 0.01, false);
+        run("5% loss", users, seed, 0.05, false);
+        run("10% partitioned", users, seed, 0, true);
+    }
+
+    private static void run(String scenario, List<User> users, long seed, double lossRate, boolean partition) {
+        long wallStart = System.nanoTime();
+        SimulatedNetwork network = new SimulatedNetwork(seed);
+        network.setLossRate(lossRate);
+        Random random = new Random(seed);
+
+        List<SimulatedPeerApp> apps = new ArrayList<>();
+        for (int i = 0; i < users.size(); i++)
+            apps.add(new SimulatedPeerApp(network.createNode("peer" + i), users.get(i)));
+        apps.forEach(app -> app.messageService.init().subscribe(state -> {
+        }, error -> {
+        }));
+        network.runUntilIdle();
+
+        Map<String, Trade> trades = new HashMap<>();
+        apps.forEach(app -> app.messageService.addIncomingMessageListener((message, sender) ->
+                onMessage(network, trades, message)));
+
+        // Offerers publish
+        List<SimulatedPeerApp> offerers = apps.subList(0, apps.size() / 2);
+        List<SimulatedPeerApp> takers = apps.subList(apps.size() / 2, apps.size());
+        Map<String, SimulatedPeerApp> offererByOfferId = new HashMap<>();
+        for (SimulatedPeerApp offerer : offerers) {
+            Offer offer = createOffer(offerer.user);
+            offererByOfferId.put(offer.getId(), offerer);
+            offerer.offerRepository.addOffer(offer, () -> {
+            }, (message, throwable) -> {
+            });
+        }
+        network.runUntilIdle();
+
+        if (partition) {
+            List<SimulatedNode> partitioned = new ArrayList<>();
+            for (int i = 0; i < apps.size() / 10; i++)
+                partitioned.add(apps.get(random.nextInt(apps.size())).node);
+            network.partition(partitioned);
+        }
+
+        // Takers read the offer book and each takes a different offer
+        List<Offer> offerBook = new ArrayList<>();
+        for (int i = 0; i < takers.size(); i++) {
+            SimulatedPeerApp taker = takers.get(i);
+            int index = i;
+            taker.offerRepository.addListener(new OfferRepository.Listener() {
+                @Override
+                public void onOfferAdded(Offer offer) {
+                }
+
+                @Override
+                public void onOffersReceived(List<Offer> offers) {
+                    if (offers.size() <= index)
+                        return;
+                    List<Offer> sorted = new ArrayList<>(offers);
+                    sorted.sort((a, b) -> a.getId().compareTo(b.getId()));
+                    Offer offer = sorted.get(index);
+                    if (offerBook.size() < offers.size())
+                        offerBook.add(offer);
+                    takeOffer(network, trades, taker, offererByOfferId.get(offer.getId()), offer);
+                }
+
+                @Override
+                public void onOfferRemoved(Offer offer) {
+                }
+            });
+            // Spread the takers over a minute
+            network.schedule(random.nextInt(60_000), () -> taker.offerRepository.getOffers(CURRENCY_CODE));
+        }
+        long events = network.runUntilIdle();
+
+        List<Long> durations = new ArrayList<>();
+        int failed = 0;
+        for (Trade trade : trades.values()) {
+            if (trade.completedAt >= 0)
+                durations.add(trade.completedAt - trade.startedAt);
+            else
+                failed++;
+        }
+        // Takers which could not even start a trade
+        failed += takers.size() - trades.size();
+        Collections.sort(durations);
+
+        System.out.println(String.format("%-22s %7d %7d %9d %9d %9d %10.1f %10d %9d",
+                scenario, durations.size(), failed, percentile(durations, 0.5), percentile(durations, 0.9),
+                percentile(durations, 1), network.getBytesSent() / 1e6, events,
+                (System.nanoTime() - wallStart) / 1_000_000));
+    }
+
+    private static void takeOffer(SimulatedNetwork network, Map<String, Trade> trades, SimulatedPeerApp taker,
+                                  SimulatedPeerApp offerer, Offer offer) {
+        taker.messageService.getPeerAddress(offer.getMessagePublicKey(), new GetPeerAddressListener() {
+            @Override
+            public void onResult(Peer peer) {
+                Trade trade = new Trade(offer.getId(), taker, offerer, peer, network.now());
+                trades.put(trade.id, trade);
+                sendStep(network, trade);
+            }
+
+            @Override
+            public void onFailed() {
+            }
+        });
+    }
+
+    // Called when a trade message arrived, the receiver or the other side sends the next one
+    private static void onMessage(SimulatedNetwork network, Map<String, Trade> trades, Message message) {
+        if (!(message instanceof TradeMessage))
+            return;
+
+        Trade trade = trades.get(((TradeMessage) message).getTradeId());
+        if (trade == null || trade.failed)
+            return;
+
+        trade.step++;
+        if (trade.step == TRADE_STEPS.size())
+            trade.completedAt = network.now();
+        else
+            network.schedule(PROCESSING_MILLIS, () -> sendStep(network, trade));
+    }
+
+    private static void sendStep(SimulatedNetwork network, Trade trade) {
+        Step step = TRADE_STEPS.get(trade.step);
+        SimulatedPeerApp sender = step.sentByTaker ? trade.taker : trade.offerer;
+        Peer receiver = step.sentByTaker ? trade.offererPeer : trade.taker.node.getPeer();
+        sender.messageService.sendMessage(receiver, step.message.apply(trade.id), new OutgoingMessageListener() {
+            @Override
+            public void onFailed() {
+                // The trade protocol does not retry
+                trade.failed = true;
+            }
+
+            @Override
+            public void onResult() {
+            }
+        });
+    }
+
+    private static Offer createOffer(User user) {
+        Country country = new Country("DE", "Germany", new Region("EU", "Europe"));
+        return new Offer(UUID.randomUUID().toString(),
+                user.getMessagePublicKey(),
+                Direction.BUY,
+                50_000_000,
+                Coin.COIN,
+                Coin.COIN.divide(10),
+                BankAccountType.SEPA,
+                java.util.Currency.getInstance(CURRENCY_CODE),
+                country,
+                "bankAccountUID",
+                new ArrayList<>(),
+                Coin.COIN.divide(10),
+                Collections.singletonList(country),
+                Collections.singletonList(Locale.ENGLISH));
+    }
+
+    private static long percentile(List<Long> sortedValues, double percentile) {
+        if (sortedValues.isEmpty())
+            return 0;
+        int index = (int) Math.ceil(percentile * sortedValues.size()) - 1;
+        return sortedValues.get(Math.max(0, index));
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.network.tomp2p;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.EventExecutorGroup;
+
+/**
+ * Compares the former fixed 250 thread executor with the core based sizing of {@link NetworkEventExecutorGroup}.
+ * For each configuration it reports the number of threads started, the stack memory they reserve and the
+ * throughput of a handler-like workload (a few microseconds of CPU plus an occasional short blocking call).
+ * <p>
+ * Run with: java -cp ... io.bitsquare.network.tomp2p.NetworkEventExecutorGroupBenchmark [tasks]
+ */
+public class NetworkEventExecutorGroupBenchmark {
+
+    // HotSpot default thread stack size on 64 bit platforms
+    private static final long STACK_SIZE_BYTES = 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        int tasks = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.println("Available cores: " + cores + ", tasks per run: " + tasks);
+
+        run("fixed 250 threads", new DefaultEventExecutorGroup(250), tasks);
+
+        NetworkEventExecutorGroup client = new NetworkEventExecutorGroup(NetworkEventExecutorGroup.Role.CLIENT);
+        run("client (" + client.executorCount() + " threads)", client, tasks);
+        System.out.println("    " + client.getStatistics());
+
+        NetworkEventExecutorGroup bootstrapNode =
+                new NetworkEventExecutorGroup(NetworkEventExecutorGroup.Role.BOOTSTRAP_NODE);
+        run("bootstrap node (" + bootstrapNode.executorCount() + " threads)", bootstrapNode, tasks);
+        System.out.println("    " + bootstrapNode.getStatistics());
+    }
+
+    private static void run(String name, EventExecutorGroup group, int tasks) throws Exception {
+        Set<Thread> threadsBefore = new HashSet<>(Thread.getAllStackTraces().keySet());
+        System.gc();
+        long heapBefore = usedHeap();
+
+        // Netty starts the thread of an executor with its first task, so touch all of them as channels would
+        for (EventExecutor executor : group)
+            executor.submit(() -> {
+            }).await();
+
+        // warm up
+        execute(group, tasks / 10);
+
+        long start = System.nanoTime();
+        execute(group, tasks);
+        long elapsedNanos = System.nanoTime() - start;
+
+        Set<Thread> started = new HashSet<>(Thread.getAllStackTraces().keySet());
+        started.removeAll(threadsBefore);
+        int threads = started.size();
+        long heap = usedHeap() - heapBefore;
+        System.out.println(String.format("%-35s threads=%4d  stack=%5d MB  heap=%+6d KB  throughput=%,10.0f tasks/s",
+                name, threads, threads * STACK_SIZE_BYTES / (1024 * 1024), heap / 1024,
+                tasks / (elapsedNanos / 1e9)));
+
+        group.shutdownGracefully(0, 1, TimeUnit.SECONDS).await();
+    }
+
+    private static void execute(EventExecutorGroup group, int tasks) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(tasks);
+        for (int i = 0; i < tasks; i++) {
+            boolean blocking = i % 100 == 0;
+            group.next().execute(() -> {
+                simulateHandler(blocking);
+                latch.countDown();
+            });
+        }
+        latch.await();
+    }
+
+    private static void simulateHandler(boolean blocking) {
+        // Decoding a message: a few microseconds of CPU
+        long until = System.nanoTime() + 5_000;
+        while (System.nanoTime() < until) {
+            // spin
+        }
+        // Every hundredth message touches the storage or the disk
+        if (blocking)
+            LockSupport.parkNanos(200_000);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.network.tomp2p;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.util.Arrays;
+
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
+import net.tomp2p.storage.Data;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+public class PersistentStorageTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReplayAfterRestart() throws IOException {
+        File dir = folder.getRoot();
+        PersistentStorage storage = new PersistentStorage(dir);
+        storage.put(key(1, 1), data(1));
+        storage.put(key(1, 2), data(2));
+        storage.remove(key(1, 1), false);
+        // No close, the journal is all there is after a crash
+        storage.flushJournal();
+
+        PersistentStorage restarted = new PersistentStorage(dir);
+        assertNull(restarted.get(key(1, 1)));
+        assertArrayEquals(bytes(2), restarted.get(key(1, 2)).toBytes());
+        assertEquals(1, restarted.map().size());
+        restarted.close();
+        storage.close();
+    }
+
+    @Test
+    public void testTruncatedRecordIsIgnored() throws IOException {
+        File dir = folder.getRoot();
+        try (DataOutputStream out = journal(dir)) {
+            PersistentStorage.writeRecord(out, key(1, 1), PersistentStorage.PUT);
+            out.writeInt(3);
+            out.write(bytes(1));
+            PersistentStorage.writeRecord(out, key(1, 2), PersistentStorage.PUT);
+            out.writeInt(3);
+            out.write(1);
+        }
+
+        PersistentStorage storage = new PersistentStorage(dir);
+        assertArrayEquals(bytes(1), storage.get(key(1, 1)).toBytes());
+        assertNull(storage.get(key(1, 2)));
+        storage.close();
+    }
+
+    @Test
+    public void testCorruptLengthIsIgnored() throws IOException {
+        File dir = folder.getRoot();
+        try (DataOutputStream out = journal(dir)) {
+            PersistentStorage.writeRecord(out, key(1, 1), PersistentStorage.PUT);
+            out.writeInt(3);
+            out.write(bytes(1));
+            PersistentStorage.writeRecord(out, key(1, 2), PersistentStorage.PUT);
+            out.writeInt(Integer.MAX_VALUE);
+            out.write(bytes(2));
+            PersistentStorage.writeRecord(out, key(1, 3), PersistentStorage.PUT);
+            out.writeInt(-1);
+        }
+
+        PersistentStorage storage = new PersistentStorage(dir);
+        assertArrayEquals(bytes(1), storage.get(key(1, 1)).toBytes());
+        assertNull(storage.get(key(1, 2)));
+        assertEquals(1, storage.map().size());
+        storage.close();
+    }
+
+    @Test
+    public void testExpiredEntriesAreNotLoaded() throws IOException {
+        File dir = folder.getRoot();
+        PersistentStorage storage = new PersistentStorage(dir);
+        storage.put(key(1, 1), data(1));
+        storage.addTimeout(key(1, 1), System.currentTimeMillis() - 1);
+        storage.put(key(1, 2), data(2));
+        storage.addTimeout(key(1, 2), System.currentTimeMillis() + 60_000);
+        storage.close();
+
+        PersistentStorage restarted = new PersistentStorage(dir);
+        assertNull(restarted.get(key(1, 1)));
+        assertArrayEquals(bytes(2), restarted.get(key(1, 2)).toBytes());
+        restarted.close();
+    }
+
+    @Test
+    public void testCompaction() throws IOException {
+        File dir = folder.getRoot();
+        PersistentStorage storage = new PersistentStorage(dir);
+        for (int i = 0; i < 10; i++)
+            storage.put(key(1, i), data(i));
+        storage.remove(key(1, 0), false);
+        assertEquals(11, storage.getJournalRecords());
+
+        storage.compact();
+        assertEquals(0, storage.getJournalRecords());
+        assertEquals(0, new File(dir, PersistentStorage.JOURNAL_FILE).length());
+        assertFalse(new File(dir, PersistentStorage.OLD_JOURNAL_FILE).exists());
+
+        storage.put(key(1, 10), data(10));
+        storage.flushJournal();
+
+        PersistentStorage restarted = new PersistentStorage(dir);
+        assertEquals(10, restarted.map().size());
+        assertNull(restarted.get(key(1, 0)));
+        assertArrayEquals(bytes(10), restarted.get(key(1, 10)).toBytes());
+        restarted.close();
+        storage.close();
+    }
+
+    @Test
+    public void testLeftOverOldJournalIsReplayed() throws IOException {
+        File dir = folder.getRoot();
+        try (DataOutputStream out = new DataOutputStream(
+                new FileOutputStream(new File(dir, PersistentStorage.OLD_JOURNAL_FILE)))) {
+            PersistentStorage.writeRecord(out, key(1, 1), PersistentStorage.PUT);
+            out.writeInt(3);
+            out.write(bytes(1));
+        }
+        try (DataOutputStream out = journal(dir)) {
+            PersistentStorage.writeRecord(out, key(1, 2), PersistentStorage.PUT);
+            out.writeInt(3);
+            out.write(bytes(2));
+        }
+
+        PersistentStorage storage = new PersistentStorage(dir);
+        assertEquals(2, storage.map().size());
+        assertFalse(new File(dir, PersistentStorage.OLD_JOURNAL_FILE).exists());
+        storage.close();
+    }
+
+    @Test
+    public void testEntriesPerLocationKeyLimit() throws IOException {
+        PersistentStorage storage = new PersistentStorage(folder.getRoot(), 2, Long.MAX_VALUE, Long.MAX_VALUE);
+        long now = System.currentTimeMillis();
+        putWithTimeout(storage, key(1, 1), now + 30_000);
+        putWithTimeout(storage, key(1, 2), now + 10_000);
+        putWithTimeout(storage, key(2, 1), now + 5_000);
+        putWithTimeout(storage, key(1, 3), now + 20_000);
+
+        // The entry closest to its expiration at location key 1 is evicted, the other location key is not touched
+        assertNull(storage.get(key(1, 2)));
+        assertFalse(storage.subMapTimeout(Long.MAX_VALUE).contains(key(1, 2)));
+        assertNotNull(storage.get(key(1, 1)));
+        assertNotNull(storage.get(key(1, 3)));
+        assertNotNull(storage.get(key(2, 1)));
+        assertEquals(1, storage.getEvictions());
+        storage.close();
+    }
+
+    @Test
+    public void testBytesPerLocationKeyLimit() throws IOException {
+        PersistentStorage storage = new PersistentStorage(folder.getRoot(), Integer.MAX_VALUE, 7, Long.MAX_VALUE);
+        long now = System.currentTimeMillis();
+        putWithTimeout(storage, key(1, 1), now + 10_000);
+        putWithTimeout(storage, key(1, 2), now + 20_000);
+        putWithTimeout(storage, key(1, 3), now + 30_000);
+
+        assertNull(storage.get(key(1, 1)));
+        assertEquals(6, storage.getLocationKeyStatistics().get(new Number160(1)).getBytes());
+
+        assertNull(storage.put(key(1, 4), new Data(new byte[8])));
+        assertEquals(1, storage.getRejectedPuts());
+        storage.close();
+    }
+
+    @Test
+    public void testTotalBytesLimit() throws IOException {
+        PersistentStorage storage = new PersistentStorage(folder.getRoot(), Integer.MAX_VALUE, Long.MAX_VALUE, 9);
+        long now = System.currentTimeMillis();
+        putWithTimeout(storage, key(1, 1), now + 30_000);
+        putWithTimeout(storage, key(2, 1), now + 10_000);
+        putWithTimeout(storage, key(3, 1), now + 20_000);
+        putWithTimeout(storage, key(4, 1), now + 40_000);
+
+        assertNull(storage.get(key(2, 1)));
+        assertFalse(storage.subMapTimeout(Long.MAX_VALUE).contains(key(2, 1)));
+        assertEquals(9, storage.getTotalBytes());
+        storage.close();
+    }
+
+    @Test
+    public void testEntriesWithoutTimeoutAreEvictedFirst() throws IOException {
+        PersistentStorage storage = new PersistentStorage(folder.getRoot(), 3, Long.MAX_VALUE, Long.MAX_VALUE);
+        long now = System.currentTimeMillis();
+        putWithTimeout(storage, key(1, 1), now + 10_000);
+        storage.put(key(1, 2), data(2));
+        storage.put(key(1, 3), data(3));
+        putWithTimeout(storage, key(1, 4), now + 20_000);
+
+        // The oldest entry without a timeout goes first, even though the other ones expire sooner
+        assertNull(storage.get(key(1, 2)));
+        assertNotNull(storage.get(key(1, 3)));
+
+        putWithTimeout(storage, key(1, 5), now + 30_000);
+        assertNull(storage.get(key(1, 3)));
+
+        // Then the entry closest to its expiration
+        putWithTimeout(storage, key(1, 6), now + 40_000);
+        assertNull(storage.get(key(1, 1)));
+        assertNotNull(storage.get(key(1, 4)));
+        assertEquals(3, storage.getEvictions());
+        storage.close();
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private static Number640 key(int locationKey, int contentKey) {
+        return new Number640(new Number160(locationKey), Number160.ZERO, new Number160(contentKey), Number160.ZERO);
+    }
+
+    private static byte[] bytes(int value) {
+        byte[] bytes = new byte[3];
+        Arrays.fill(bytes, (byte) value);
+        return bytes;
+    }
+
+    private static Data data(int value) {
+        return new Data(bytes(value));
+    }
+
+    private static void putWithTimeout(PersistentStorage storage, Number640 key, long expiration) {
+        storage.put(key, data(1));
+        storage.addTimeout(key, expiration);
+    }
+
+    private static DataOutputStream journal(File dir) throws IOException {
+        return new DataOutputStream(new FileOutputStream(new File(dir, PersistentStorage.JOURNAL_FILE)));
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.offer.tomp2p;
+
+import io.bitsquare.bank.BankAccountType;
+import io.bitsquare.locale.Country;
+import io.bitsquare.locale.CurrencyUtil;
+import io.bitsquare.locale.Region;
+import io.bitsquare.msg.tomp2p.PayloadCompression;
+import io.bitsquare.offer.Direction;
+import io.bitsquare.offer.Offer;
+import io.bitsquare.util.DSAKeyUtil;
+
+import org.bitcoinj.core.Coin;
+
+import java.io.IOException;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import java.security.KeyPair;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import net.tomp2p.dht.FutureGet;
+import net.tomp2p.dht.GetBuilder;
+import net.tomp2p.dht.PeerDHT;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
+import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.storage.Data;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class OfferBookSnapshotServiceTest {
+
+    private final KeyPair keyPair = DSAKeyUtil.generateKeyPair();
+    private final PayloadCompression compression = new PayloadCompression(true, PayloadCompression.DEFAULT_THRESHOLD);
+    private final Map<Number640, Data> dataMap = new HashMap<>();
+    private final Set<String> offerIds = new HashSet<>();
+    private PeerDHT peerDHT;
+    private OfferBookSnapshotService service;
+    // Requests come from different hosts unless a test is about the rate limit
+    private int nextHost = 1;
+
+    @Before
+    public void setUp() throws IOException {
+        for (int i = 0; i < 3; i++) {
+            Offer offer = createOffer();
+            offerIds.add(offer.getId());
+            dataMap.put(new Number640(Number160.createHash("EUR"), Number160.ZERO, Number160.createHash(offer.getId()),
+                    Number160.ZERO), new Data(offer));
+        }
+
+        FutureGet futureGet = mock(FutureGet.class);
+        when(futureGet.isSuccess()).thenReturn(true);
+        when(futureGet.dataMap()).thenReturn(dataMap);
+        GetBuilder getBuilder = mock(GetBuilder.class);
+        when(getBuilder.all()).thenReturn(getBuilder);
+        when(getBuilder.start()).thenReturn(futureGet);
+        peerDHT = mock(PeerDHT.class);
+        when(peerDHT.get(any(Number160.class))).thenReturn(getBuilder);
+
+        service = new OfferBookSnapshotService(peerDHT, keyPair, compression);
+    }
+
+    @After
+    public void tearDown() {
+        service.shutDown();
+    }
+
+    @Test
+    public void testFullSnapshot() throws Exception {
+        OfferBookSnapshotRequest request = new OfferBookSnapshotRequest("EUR", 0);
+        // The offers are read with the first request
+        assertNull(handle(request));
+        SignedOfferBookSnapshot signedSnapshot = awaitSnapshot(request);
+
+        assertArrayEquals(keyPair.getPublic().getEncoded(), signedSnapshot.getEncodedPublicKey());
+        OfferBookSnapshot snapshot = signedSnapshot.open(compression, Integer.MAX_VALUE);
+        assertFalse(snapshot.isDelta());
+        assertEquals("EUR", snapshot.getCurrencyCode());
+        Set<String> snapshotOfferIds = new HashSet<>();
+        snapshot.getOffers().forEach(offer -> snapshotOfferIds.add(offer.getId()));
+        assertEquals(offerIds, snapshotOfferIds);
+    }
+
+    @Test
+    public void testCompressionBombIsSkipped() throws Exception {
+        byte[] bomb = compression.compress(new byte[PayloadCompression.MAX_DHT_DATA_SIZE + 1]);
+        dataMap.put(new Number640(Number160.createHash("EUR"), Number160.ZERO, Number160.createHash("bomb"),
+                Number160.ZERO), new Data(bomb));
+
+        OfferBookSnapshot snapshot = awaitSnapshot(new OfferBookSnapshotRequest("EUR", 0))
+                .open(compression, Integer.MAX_VALUE);
+        Set<String> snapshotOfferIds = new HashSet<>();
+        snapshot.getOffers().forEach(offer -> snapshotOfferIds.add(offer.getId()));
+        assertEquals(offerIds, snapshotOfferIds);
+    }
+
+    @Test
+    public void testDeltaForKnownVersion() throws Exception {
+        OfferBookSnapshot fullSnapshot = awaitSnapshot(new OfferBookSnapshotRequest("EUR", 0))
+                .open(compression, Integer.MAX_VALUE);
+
+        OfferBookSnapshot delta = ((SignedOfferBookSnapshot) handle(
+                new OfferBookSnapshotRequest("EUR", fullSnapshot.getVersion()))).open(compression, Integer.MAX_VALUE);
+        assertTrue(delta.isDelta());
+        assertEquals(fullSnapshot.getVersion(), delta.getBaseVersion());
+        assertTrue(delta.getOffers().isEmpty());
+        assertTrue(delta.getRemovedOfferIds().isEmpty());
+    }
+
+    @Test
+    public void testReconciliation() throws Exception {
+        awaitSnapshot(new OfferBookSnapshotRequest("EUR", 0));
+        List<Long> offerIdHashes = new ArrayList<>();
+        offerIds.forEach(id -> offerIdHashes.add(OfferIdSketch.hash(id)));
+        String removedOfferId = UUID.randomUUID().toString();
+        offerIdHashes.add(OfferIdSketch.hash(removedOfferId));
+
+        OfferIdSketch sketch = OfferIdSketch.create(offerIdHashes, 0);
+        OfferBookSnapshot snapshot = ((SignedOfferBookSnapshot) handle(new OfferBookSnapshotRequest("EUR", 0, sketch)))
+                .open(compression, Integer.MAX_VALUE);
+        assertTrue(snapshot.isReconciled());
+        assertTrue(snapshot.getOffers().isEmpty());
+        assertEquals(Collections.singletonList(OfferIdSketch.hash(removedOfferId)), snapshot.getRemovedOfferIdHashes());
+    }
+
+    @Test
+    public void testSketchLargerThanOfferBookIsIgnored() throws Exception {
+        awaitSnapshot(new OfferBookSnapshotRequest("EUR", 0));
+        OfferIdSketch sketch = OfferIdSketch.create(Collections.emptyList(), 100);
+        assertTrue(sketch.getCellCount() > OfferIdSketch.getCellCount(
+                OfferBookSnapshotService.MAX_SKETCH_DIFFERENCE_FACTOR * offerIds.size()));
+
+        OfferBookSnapshot snapshot = ((SignedOfferBookSnapshot) handle(new OfferBookSnapshotRequest("EUR", 0, sketch)))
+                .open(compression, Integer.MAX_VALUE);
+        assertFalse(snapshot.isReconciled());
+        assertEquals(offerIds.size(), snapshot.getOffers().size());
+    }
+
+    @Test
+    public void testRequestRateIsLimitedPerHost() throws Exception {
+        OfferBookSnapshotRequest request = new OfferBookSnapshotRequest("EUR", 0);
+        awaitSnapshot(request);
+
+        PeerAddress sender = createSender(200);
+        for (int i = 0; i < OfferBookSnapshotService.REQUEST_BURST; i++)
+            assertNotNull(service.handle(sender, request));
+        assertNull(service.handle(sender, request));
+        assertNotNull(handle(request));
+    }
+
+    @Test
+    public void testOtherRequestsAreIgnored() {
+        assertNull(handle("EUR"));
+        assertNull(handle(new OfferBookSnapshotRequest(null, 0)));
+        assertNull(handle(new OfferBookSnapshotRequest("NO_CURRENCY", 0)));
+        verify(peerDHT, never()).get(any(Number160.class));
+    }
+
+    @Test
+    public void testNumberOfOfferBooksIsLimited() {
+        List<String> currencyCodes = new ArrayList<>(new LinkedHashSet<>(CurrencyUtil.getAllCurrencies().stream()
+                .map(Currency::getCurrencyCode)
+                .collect(Collectors.toList())));
+        for (int i = 0; i <= OfferBookSnapshotService.MAX_OFFER_BOOKS; i++)
+            handle(new OfferBookSnapshotRequest(currencyCodes.get(i), 0));
+        verify(peerDHT, timeout(5000).times(OfferBookSnapshotService.MAX_OFFER_BOOKS)).get(any(Number160.class));
+
+        String untrackedCurrencyCode = currencyCodes.get(OfferBookSnapshotService.MAX_OFFER_BOOKS);
+        assertNull(handle(new OfferBookSnapshotRequest(untrackedCurrencyCode, 0)));
+        verify(peerDHT, times(OfferBookSnapshotService.MAX_OFFER_BOOKS)).get(any(Number160.class));
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private Object handle(Object request) {
+        try {
+            return service.handle(createSender(nextHost++), request);
+        } catch (UnknownHostException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static PeerAddress createSender(int host) throws UnknownHostException {
+        return new PeerAddress(Number160.createHash("peer" + host),
+                InetAddress.getByAddress(new byte[]{10, 0, (byte) (host >> 8), (byte) host}), 7366, 7366);
+    }
+
+    private SignedOfferBookSnapshot awaitSnapshot(OfferBookSnapshotRequest request) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            Object reply = handle(request);
+            if (reply != null)
+                return (SignedOfferBookSnapshot) reply;
+            Thread.sleep(50);
+        }
+        throw new AssertionError("No snapshot for " + request);
+    }
+
+    private Offer createOffer() {
+        Country country = new Country("DE", "Germany", new Region("EU", "Europe"));
+        return new Offer(UUID.randomUUID().toString(),
+                keyPair.getPublic(),
+                Direction.BUY,
+                50_000_000,
+                Coin.COIN,
+                Coin.COIN.divide(10),
+                BankAccountType.SEPA,
+                Currency.getInstance("EUR"),
+                country,
+                "bankAccountUID",
+                new ArrayList<>(),
+                Coin.COIN.divide(10),
+                Collections.singletonList(country),
+                Collections.singletonList(Locale.ENGLISH));
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.offer.tomp2p;
+
+import io.bitsquare.msg.tomp2p.PayloadCompression;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Simulates a client which holds an outdated offer book and asks for the current one. Compares the bytes of the
+ * full list of offer ids with the bytes of the offer id sketch plus the decoded difference, for books of 1k, 10k and
+ * 100k offers and a growing number of changes. As in the client, the sketch is sized by the difference of the
+ * previous run; if it cannot be decoded the full book is sent and the next sketch is sized by the difference the
+ * client sees in it.
+ * <p>
+ * Offers themselves are represented by their ids, so the byte counts are those of the ids only. The offers which
+ * are sent in both cases are the added ones, the reconciled answer does not contain any other offer.
+ * <p>
+ * Run with: java -cp ... io.bitsquare.offer.tomp2p.OfferIdSketchBenchmark [runs]
+ */
+public class OfferIdSketchBenchmark {
+
+    private static final int[] BOOK_SIZES = {1_000, 10_000, 100_000};
+    private static final double[] CHANGE_RATES = {0.001, 0.01, 0.1};
+
+    public static void main(String[] args) throws Exception {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        Random random = new Random(42);
+
+        System.out.println(String.format("%8s %7s %12s %12s %9s %12s %9s %10s %10s",
+                "offers", "changes", "full bytes", "sketch bytes", "ratio", "after first", "fallbacks", "build ms",
+                "decode ms"));
+        for (int bookSize : BOOK_SIZES) {
+            for (double changeRate : CHANGE_RATES)
+                run(bookSize, Math.max(1, (int) (bookSize * changeRate)), runs, random);
+        }
+    }
+
+    private static void run(int bookSize, int changes, int runs, Random random) throws IOException {
+        long fullBytes = 0;
+        long sketchBytes = 0;
+        long firstSketchBytes = 0;
+        long buildNanos = 0;
+        long decodeNanos = 0;
+        int fallbacks = 0;
+        // The client starts with its default and learns the size of the difference from the answers
+        int expectedDifference = 10;
+
+        for (int run = 0; run < runs; run++) {
+            // The client misses the offers added since it read the book and still has the removed ones
+            Map<Long, String> server = new HashMap<>();
+            for (int i = 0; i < bookSize; i++)
+                put(server, UUID.randomUUID().toString());
+            Map<Long, String> client = new HashMap<>(server);
+            List<Long> serverHashes = new ArrayList<>(server.keySet());
+            for (int i = 0; i < changes; i++) {
+                if (random.nextBoolean())
+                    server.remove(serverHashes.get(random.nextInt(serverHashes.size())));
+                else
+                    put(server, UUID.randomUUID().toString());
+            }
+
+            fullBytes += PayloadCompression.serialize(new ArrayList<>(server.values())).length;
+
+            long start = System.nanoTime();
+            OfferIdSketch clientSketch = OfferIdSketch.create(client.keySet(), expectedDifference);
+            buildNanos += System.nanoTime() - start;
+            sketchBytes += PayloadCompression.serialize(clientSketch).length;
+
+            start = System.nanoTime();
+            OfferIdSketch serverSketch = OfferIdSketch.createLike(clientSketch);
+            server.keySet().forEach(serverSketch::add);
+            OfferIdSketch.Difference difference = serverSketch.subtractAndDecode(clientSketch);
+            decodeNanos += System.nanoTime() - start;
+
+            if (difference != null) {
+                List<String> addedIds = new ArrayList<>();
+                difference.getOnlyInThis().forEach(hash -> addedIds.add(server.get(hash)));
+                sketchBytes += PayloadCompression.serialize(new ArrayList<>(addedIds)).length;
+                sketchBytes += PayloadCompression.serialize(new ArrayList<>(difference.getOnlyInOther())).length;
+                expectedDifference = Math.max(10, 2 * difference.size());
+            }
+            else {
+                // The seed node answers with the full book
+                fallbacks++;
+                sketchBytes += PayloadCompression.serialize(new ArrayList<>(server.values())).length;
+                Set<Long> fullDifference = new HashSet<>(client.keySet());
+                fullDifference.addAll(server.keySet());
+                fullDifference.removeIf(hash -> client.containsKey(hash) && server.containsKey(hash));
+                expectedDifference = Math.max(10, 2 * fullDifference.size());
+            }
+            if (run == 0)
+                firstSketchBytes = sketchBytes;
+        }
+
+        System.out.println(String.format("%8d %7d %12d %12d %8.1f%% %12d %9d %10.2f %10.2f",
+                bookSize, changes, fullBytes / runs, sketchBytes / runs, 100.0 * sketchBytes / fullBytes,
+                runs > 1 ? (sketchBytes - firstSketchBytes) / (runs - 1) : 0, fallbacks,
+                buildNanos / 1e6 / runs, decodeNanos / 1e6 / runs));
+    }
+
+    private static void put(Map<Long, String> offerIds, String offerId) {
+        offerIds.put(OfferIdSketch.hash(offerId), offerId);
+    }
+}
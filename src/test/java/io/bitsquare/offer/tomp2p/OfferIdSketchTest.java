@@ -0,0 +1,115 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.offer.tomp2p;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class OfferIdSketchTest {
+
+    @Test
+    public void testDecodeDifference() {
+        List<Long> common = hashes(1000);
+        List<Long> onlyServer = hashes(7);
+        List<Long> onlyClient = hashes(5);
+
+        List<Long> server = new ArrayList<>(common);
+        server.addAll(onlyServer);
+        List<Long> client = new ArrayList<>(common);
+        client.addAll(onlyClient);
+
+        OfferIdSketch clientSketch = OfferIdSketch.create(client, 12);
+        OfferIdSketch serverSketch = OfferIdSketch.createLike(clientSketch);
+        server.forEach(serverSketch::add);
+
+        OfferIdSketch.Difference difference = serverSketch.subtractAndDecode(clientSketch);
+        assertNotNull(difference);
+        assertEquals(new HashSet<>(onlyServer), difference.getOnlyInThis());
+        assertEquals(new HashSet<>(onlyClient), difference.getOnlyInOther());
+    }
+
+    @Test
+    public void testEqualSets() {
+        List<Long> offerIdHashes = hashes(100);
+        OfferIdSketch.Difference difference = OfferIdSketch.create(offerIdHashes, 0)
+                .subtractAndDecode(OfferIdSketch.create(offerIdHashes, 0));
+        assertNotNull(difference);
+        assertEquals(0, difference.size());
+    }
+
+    @Test
+    public void testDifferenceTooLarge() {
+        OfferIdSketch clientSketch = OfferIdSketch.create(hashes(100), 0);
+        OfferIdSketch serverSketch = OfferIdSketch.create(hashes(100), 0);
+        assertNull(serverSketch.subtractAndDecode(clientSketch));
+    }
+
+    @Test
+    public void testDifferentSizes() {
+        assertNull(OfferIdSketch.create(hashes(10), 10).subtractAndDecode(OfferIdSketch.create(hashes(10), 100)));
+    }
+
+    @Test(timeout = 1000)
+    public void testCraftedSketchIsRejected() throws Exception {
+        // A single cell holding an id whose other cells are empty peels the same id over and over
+        long offerIdHash = OfferIdSketch.hash(UUID.randomUUID().toString());
+        OfferIdSketch craftedSketch = OfferIdSketch.create(Collections.singletonList(offerIdHash), 0);
+        int subTableSize = craftedSketch.getCellCount() / OfferIdSketch.HASH_COUNT;
+        for (String name : new String[]{"counts", "keySums", "checkSums"}) {
+            Object cells = getField(craftedSketch, name);
+            for (int i = subTableSize; i < craftedSketch.getCellCount(); i++)
+                Array.set(cells, i, Array.get(cells, i) instanceof Integer ? (Object) 0 : (Object) 0L);
+        }
+
+        assertNull(OfferIdSketch.createLike(craftedSketch).subtractAndDecode(craftedSketch));
+    }
+
+    @Test
+    public void testNegativeCountIsRejected() throws Exception {
+        List<Long> offerIdHashes = hashes(10);
+        OfferIdSketch craftedSketch = OfferIdSketch.create(offerIdHashes, 0);
+        int[] counts = (int[]) getField(craftedSketch, "counts");
+        counts[0] = -counts[0] - 1;
+
+        assertNull(OfferIdSketch.create(offerIdHashes, 0).subtractAndDecode(craftedSketch));
+    }
+
+    private static Object getField(OfferIdSketch sketch, String name) throws Exception {
+        Field field = OfferIdSketch.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(sketch);
+    }
+
+    private static List<Long> hashes(int count) {
+        Set<Long> offerIdHashes = new HashSet<>();
+        while (offerIdHashes.size() < count)
+            offerIdHashes.add(OfferIdSketch.hash(UUID.randomUUID().toString()));
+        return new ArrayList<>(offerIdHashes);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.offer.tomp2p;
+
+import io.bitsquare.msg.tomp2p.PayloadCompression;
+import io.bitsquare.util.DSAKeyUtil;
+
+import java.lang.reflect.Field;
+
+import java.security.KeyPair;
+import java.security.SignatureException;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SignedOfferBookSnapshotTest {
+
+    private final KeyPair keyPair = DSAKeyUtil.generateKeyPair();
+    private final PayloadCompression compression = new PayloadCompression(true, PayloadCompression.DEFAULT_THRESHOLD);
+
+    @Test
+    public void testOpenSignedSnapshot() throws Exception {
+        SignedOfferBookSnapshot signedSnapshot = SignedOfferBookSnapshot.sign(createSnapshot(), keyPair, compression);
+
+        OfferBookSnapshot snapshot = signedSnapshot.open(compression, Integer.MAX_VALUE);
+        assertEquals("EUR", snapshot.getCurrencyCode());
+        assertEquals(42, snapshot.getVersion());
+        assertArrayEquals(keyPair.getPublic().getEncoded(), signedSnapshot.getEncodedPublicKey());
+        assertEquals(keyPair.getPublic(), signedSnapshot.getPublicKey());
+    }
+
+    @Test(expected = SignatureException.class)
+    public void testTamperedPayloadIsRejected() throws Exception {
+        SignedOfferBookSnapshot signedSnapshot = SignedOfferBookSnapshot.sign(createSnapshot(), keyPair, compression);
+        byte[] payload = (byte[]) getField(signedSnapshot, "payload");
+        payload[payload.length - 1] ^= 1;
+
+        signedSnapshot.open(compression, Integer.MAX_VALUE);
+    }
+
+    @Test(expected = SignatureException.class)
+    public void testSignatureOfOtherKeyIsRejected() throws Exception {
+        SignedOfferBookSnapshot signedSnapshot = SignedOfferBookSnapshot.sign(createSnapshot(), keyPair, compression);
+        SignedOfferBookSnapshot otherSnapshot = SignedOfferBookSnapshot.sign(createSnapshot(),
+                DSAKeyUtil.generateKeyPair(), compression);
+        setField(signedSnapshot, "signature", getField(otherSnapshot, "signature"));
+
+        signedSnapshot.open(compression, Integer.MAX_VALUE);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private static OfferBookSnapshot createSnapshot() {
+        return OfferBookSnapshot.full("EUR", 42, System.currentTimeMillis(), Collections.emptyList());
+    }
+
+    private static Object getField(SignedOfferBookSnapshot signedSnapshot, String name) throws Exception {
+        Field field = SignedOfferBookSnapshot.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(signedSnapshot);
+    }
+
+    private static void setField(SignedOfferBookSnapshot signedSnapshot, String name, Object value)
+            throws Exception {
+        Field field = SignedOfferBookSnapshot.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(signedSnapshot, value);
+    }
+}